@@ -0,0 +1,227 @@
+import java.util.*;
+
+// Planning in steps that each stop by a deadline, so a path can be asked for every control cycle without overrunning it
+// The grid is searched backwards from the end with Lazy Theta*, and that search is kept between calls while the end,
+// buffer and shapes stay the same, so the start can move freely from one call to the next. Once the grid has a path the
+// time left goes on ClearPath, worked one shape at a time for as long as the start stays put. A shape whose detours are
+// still being worked out at the deadline is started again on the next call. Building the grid and grouping the shapes
+// for a new end, buffer or map version isn't split into steps, so the first call after one of those can overrun
+public class AnytimePlanner
+{
+
+    // Thrown from inside ClearPath once the deadline passes
+    static class OutOfTime extends RuntimeException
+    {
+        private static final long serialVersionUID = 1L;
+
+        OutOfTime()
+        {
+            // Thrown whenever a call runs out of time, so the stack trace isn't worth filling in
+            super("Out of time", null, false, false);
+        }
+    }
+
+    // The best path so far and how far planning has got
+    public static class Result
+    {
+        public List<double[]> Path = new ArrayList<>(); // Empty if nothing has been found yet or there is no path
+        public boolean Valid = false; // Whether the whole path is clear, if not only the part after the first leg has been searched
+        public boolean Exact = false; // Whether the path came from ClearPath rather than the grid
+        public boolean Done = false; // Whether there's nothing left to work out for this start and end
+    }
+
+    public Map FieldMap;
+    public double CellSize;
+
+    // The end, buffer and map version the grid search is for, and the end's cell, -1 if the end is blocked
+    double[] EndPoint;
+    double Buffer;
+    int Version;
+    OccupancyGrid Grid;
+    ThetaStar Search;
+    int EndCell = -1;
+
+    // The shapes grouped for the buffer and their index, null if the map doesn't use one
+    List<Map.MapObject> Shapes;
+    SpatialIndex Index;
+
+    // ClearPath worked shape by shape for one start, how far through the shapes it has got and the path so far
+    double[] StartPoint;
+    int[] Order;
+    int Next;
+    boolean[] NearPath;
+    PathBuffer Current = new PathBuffer();
+    PathBuffer NewPath = new PathBuffer();
+    boolean ClearFinished;
+    List<double[]> ExactPath; // The path once ClearPath has finished, null if it hasn't or it found none
+
+    public AnytimePlanner(Map map, double cellSize)
+    {
+        FieldMap = map;
+        CellSize = cellSize;
+    }
+
+    // Plan until the deadline, a System.nanoTime value, carrying on from where the last call for the same end stopped
+    public Result Plan(double[] startPoint, double[] endPoint, double buffer, long deadline)
+    {
+        if (EndPoint == null || EndPoint[0] != endPoint[0] || EndPoint[1] != endPoint[1] || Buffer != buffer || Version != FieldMap.Version)
+        {
+            StartSearch(endPoint, buffer);
+        }
+        Result result = new Result();
+
+        // Grid first, it's never stuck for long on any one step
+        int startCell = Grid.CellAt(startPoint[0], startPoint[1]);
+        boolean gridFinished = EndCell < 0 || startCell < 0 || OccupancyGrid.GetBit(Search.Bits, startCell);
+        List<double[]> gridPath = null;
+        if (!gridFinished)
+        {
+            Search.Retarget(startCell);
+            if (Search.Search(deadline))
+            {
+                gridPath = Search.PathThrough(Search.Chain(startCell), startPoint, endPoint, buffer);
+            }
+            gridFinished = gridPath != null || Search.HeapSize == 0;
+        }
+
+        // Then ClearPath with whatever time is left
+        if (gridFinished)
+        {
+            Refine(startPoint, endPoint, deadline);
+        }
+
+        if (ExactPath != null && (gridPath == null || Length(ExactPath) <= Length(gridPath)))
+        {
+            result.Path = ExactPath;
+            result.Exact = true;
+            result.Valid = true;
+        }else if (gridPath != null)
+        {
+            result.Path = gridPath;
+            result.Valid = true;
+        }else if (!gridFinished)
+        {
+            Partial(startCell, startPoint, endPoint, result);
+        }
+        result.Done = gridFinished && ClearFinished;
+        return result;
+    }
+
+    // Throw away the search and start again from the end
+    void StartSearch(double[] endPoint, double buffer)
+    {
+        EndPoint = endPoint.clone();
+        Buffer = buffer;
+        Version = FieldMap.Version;
+        StartPoint = null;
+        Grid = FieldMap.GridFor(CellSize, buffer);
+        Shapes = FieldMap.GroupShapes(buffer);
+        Index = FieldMap.UseSpatialIndex ? new SpatialIndex(Shapes) : null;
+        if (Search == null || Search.Grid != Grid)
+        {
+            Search = new ThetaStar(Grid);
+        }
+        long[] bits = Grid.InflatedBits(buffer);
+        EndCell = Grid.CellAt(endPoint[0], endPoint[1]);
+        if (EndCell >= 0 && OccupancyGrid.GetBit(bits, EndCell))
+        {
+            EndCell = -1;
+        }
+        Search.Bits = bits;
+        if (EndCell >= 0)
+        {
+            Search.Begin(bits, EndCell, EndCell);
+        }
+    }
+
+    // Carry on ClearPath for this start, going around one shape at a time in the order ClearPath would
+    void Refine(double[] startPoint, double[] endPoint, long deadline)
+    {
+        if (StartPoint == null || StartPoint[0] != startPoint[0] || StartPoint[1] != startPoint[1])
+        {
+            StartPoint = startPoint.clone();
+            Order = FieldMap.ShapeOrder(Shapes, Index, startPoint, endPoint);
+            Next = 0;
+            NearPath = new boolean[Shapes.size()];
+            Current.Clear();
+            Current.Add(startPoint[0], startPoint[1]);
+            Current.Add(endPoint[0], endPoint[1]);
+            if (Index != null)
+            {
+                FieldMap.MarkNearPath(Index, Current, NearPath);
+            }
+            ClearFinished = false;
+            ExactPath = null;
+        }
+        while (!ClearFinished)
+        {
+            if (Next == Order.length)
+            {
+                ClearFinished = true;
+                ExactPath = Current.ToList();
+                break;
+            }
+            if (System.nanoTime() - deadline > 0)
+            {
+                return;
+            }
+            int i = Order[Next];
+            if (Index != null && !NearPath[i])
+            {
+                Next++;
+                continue;
+            }
+            try
+            {
+                FieldMap.FindValidPath(Shapes.get(i), Current, Buffer, NewPath, new DetourLimits(deadline));
+            } catch (OutOfTime e)
+            {
+                // Go around this shape again from the start next call
+                return;
+            } catch (VirtualMachineError e)
+            {
+                throw e;
+            } catch (RuntimeException | Error e)
+            {
+                // ClearPath would have thrown this, so it has no path to give
+                ClearFinished = true;
+                return;
+            }
+            if (Index == null || !NewPath.SameAs(Current))
+            {
+                if (Index != null)
+                {
+                    FieldMap.MarkNearPath(Index, Current, NewPath, NearPath);
+                }
+                Current.CopyFrom(NewPath);
+            }
+            Next++;
+        }
+    }
+
+    // While the grid search hasn't reached the start, go from the start to the nearest cell it has reached and on along
+    // the search to the end. That first leg is only clear if the grid says so. The search keeps track of that cell as it
+    // closes cells, so this costs the chain and not a pass over the grid
+    void Partial(int startCell, double[] startPoint, double[] endPoint, Result result)
+    {
+        int nearest = Search.Nearest;
+        if (nearest < 0)
+        {
+            return;
+        }
+        List<Integer> cells = Search.Chain(nearest);
+        cells.add(0, startCell);
+        result.Path = Search.PathThrough(cells, startPoint, endPoint, Buffer);
+        result.Valid = Search.LineOfSight(startCell, nearest);
+    }
+
+    static double Length(List<double[]> path)
+    {
+        double length = 0;
+        for (int i = 0; i < path.size() - 1; i++)
+        {
+            length += Map.LINE_FUNCTIONS.GET_LENGTH(path.get(i), path.get(i + 1));
+        }
+        return length;
+    }
+}
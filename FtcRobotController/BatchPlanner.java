@@ -0,0 +1,161 @@
+import java.util.*;
+import java.util.concurrent.*;
+
+// Plans many legs on one map in a single call, for the paths an autonomous routine asks for at init
+// The shapes are grouped and indexed once for the whole batch, legs that were planned before or are asked for more than
+// once are only planned once, and the rest run side by side on the map's planning pool
+public class BatchPlanner
+{
+
+    // One leg of a batch, with its path and how long it took
+    public static class Leg
+    {
+        public double[] StartPoint;
+        public double[] EndPoint;
+        public List<double[]> Path = new ArrayList<>(); // Empty if no path was found
+        public long PlanNanos = 0; // Time spent planning this leg, 0 if its path was shared
+        public boolean Shared = false; // Whether the path came from the path cache or from the same leg earlier in the batch
+        public Throwable Failure; // Why there is no path, the same error ClearPath would have thrown
+
+        Leg(double[] startPoint, double[] endPoint)
+        {
+            StartPoint = startPoint;
+            EndPoint = endPoint;
+        }
+    }
+
+    // Fully clear paths for every start and end pair with the one buffer, in the order they were given
+    public static List<Leg> ClearPaths(Map map, List<double[]> startPoints, List<double[]> endPoints, double buffer)
+    {
+        if (startPoints.size() != endPoints.size())
+        {
+            throw new RuntimeException("Batch has " + startPoints.size() + " start points but " + endPoints.size() + " end points");
+        }
+
+        // Everything the legs share is made up front on this thread, so the legs only ever read it
+        List<Map.MapObject> shapes = map.GroupShapes(buffer);
+        SpatialIndex index = map.UseSpatialIndex ? new SpatialIndex(shapes) : null;
+        map.CachedWorldRect();
+        for (Map.MapObject shape : shapes)
+        {
+            if (shape instanceof Map.HybridObject && ((Map.HybridObject) shape).CompObjects.size() > ShapeTree.LEAF_SIZE)
+            {
+                ((Map.HybridObject) shape).GetTree();
+            }
+        }
+
+        // Legs already in the cache or the same as an earlier leg don't need planning
+        List<Leg> legs = new ArrayList<>();
+        HashMap<List<Double>, LegTask> planned = new HashMap<>();
+        List<LegTask> tasks = new ArrayList<>();
+        LegTask[] taskOf = new LegTask[startPoints.size()];
+        PathBuffer path = new PathBuffer();
+        for (int i = 0; i < startPoints.size(); i++)
+        {
+            double[] startPoint = startPoints.get(i);
+            double[] endPoint = endPoints.get(i);
+            Leg leg = new Leg(startPoint, endPoint);
+            legs.add(leg);
+            if (map.Cache != null && map.Cache.Get(startPoint[0], startPoint[1], endPoint[0], endPoint[1], buffer, path))
+            {
+                leg.Path = path.ToList();
+                leg.Shared = true;
+                continue;
+            }
+            List<Double> key = Arrays.asList(startPoint[0], startPoint[1], endPoint[0], endPoint[1]);
+            taskOf[i] = planned.get(key);
+            if (taskOf[i] == null)
+            {
+                taskOf[i] = new LegTask(map, shapes, index, buffer, leg);
+                planned.put(key, taskOf[i]);
+                tasks.add(taskOf[i]);
+            }else
+            {
+                leg.Shared = true;
+            }
+        }
+
+        // Plan the rest side by side
+        RecursiveAction all = new RecursiveAction() {
+            protected void compute()
+            {
+                invokeAll(tasks);
+            }
+        };
+        if (tasks.size() == 1)
+        {
+            tasks.get(0).compute();
+        }else if (tasks.size() > 1 && ForkJoinTask.inForkJoinPool())
+        {
+            all.invoke();
+        }else if (tasks.size() > 1)
+        {
+            map.PlanningPool.invoke(all);
+        }
+
+        // Hand the paths out to the legs that shared them and keep the new ones in the cache
+        for (int i = 0; i < legs.size(); i++)
+        {
+            LegTask task = taskOf[i];
+            if (task == null)
+            {
+                continue;
+            }
+            Leg leg = legs.get(i);
+            if (task.Leg == leg)
+            {
+                leg.Path = task.Path.ToList();
+                if (leg.Failure == null && map.Cache != null)
+                {
+                    map.Cache.Put(leg.StartPoint[0], leg.StartPoint[1], leg.EndPoint[0], leg.EndPoint[1], buffer, task.Path);
+                }
+            }else
+            {
+                leg.Path = task.Leg.Path;
+                leg.Failure = task.Leg.Failure;
+            }
+        }
+        return legs;
+    }
+
+    // Plan one leg on the shared shapes, timing it and keeping what went wrong planning it for the leg
+    // Each leg queries the shared index through its own copy of the query scratch space. The JVM running out of stack
+    // or memory isn't the leg's doing, so that goes on up to the caller of the batch
+    static class LegTask extends RecursiveAction
+    {
+        private static final long serialVersionUID = 1L;
+
+        Map FieldMap;
+        List<Map.MapObject> Shapes;
+        SpatialIndex Index;
+        double Buffer;
+        Leg Leg;
+        PathBuffer Path = new PathBuffer();
+
+        LegTask(Map map, List<Map.MapObject> shapes, SpatialIndex index, double buffer, Leg leg)
+        {
+            FieldMap = map;
+            Shapes = shapes;
+            Index = index;
+            Buffer = buffer;
+            Leg = leg;
+        }
+
+        protected void compute()
+        {
+            long start = System.nanoTime();
+            try
+            {
+                FieldMap.PlanClearPath(Shapes, Index == null ? null : Index.Share(), Leg.StartPoint[0], Leg.StartPoint[1], Leg.EndPoint[0], Leg.EndPoint[1], Buffer, Path);
+            } catch (VirtualMachineError e)
+            {
+                throw e;
+            } catch (RuntimeException | Error e)
+            {
+                Leg.Failure = e;
+                Path.Clear();
+            }
+            Leg.PlanNanos = System.nanoTime() - start;
+        }
+    }
+}
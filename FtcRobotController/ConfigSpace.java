@@ -0,0 +1,259 @@
+import java.util.*;
+
+// The map as seen by the middle of a robot with a footprint, every shape grown by the footprint so the robot can be
+// planned for as a point. The grown shapes sit on a map of their own, so every planner works on them as they are with
+// only MARGIN for a buffer, and its grids, graphs and groups are kept like any other map's
+// A round footprint grows shapes just as a buffer of its radius does. A rectangular one grows rects and polygons into
+// exactly the places the robot can't reach, and circles into rounded rects whose rounded corners are made of
+// ARC_SEGMENTS straight sides that stay just outside the true corners
+public class ConfigSpace
+{
+
+    // Buffer to plan on the grown shapes with, just enough to keep detours off their edges
+    public static final double MARGIN = 1e-6;
+
+    // Straight sides standing in for each rounded corner of a circle grown by a rectangle
+    public static final int ARC_SEGMENTS = 4;
+
+    // Points closer than this are taken as the same corner when shapes are grown
+    static final double CORNER_TOLERANCE = 1e-9;
+
+    public final Map FieldMap;
+    public final Footprint Shape;
+
+    // The grown shapes, on a map the same size as the field
+    public final Map Space;
+
+    // Map version the grown shapes were last brought up to
+    int Version = -1;
+
+    // The grown copy of each shape on the field, and where the shape was when it was grown
+    IdentityHashMap<Map.MapObject, Map.MapObject> Grown = new IdentityHashMap<>();
+    IdentityHashMap<Map.MapObject, double[]> Placed = new IdentityHashMap<>();
+
+    public ConfigSpace(Map map, Footprint footprint)
+    {
+        FieldMap = map;
+        Shape = footprint;
+        Space = new Map(map.Length, map.Breadth);
+    }
+
+    // Bring the grown shapes up to date with the map, only growing again the shapes that were added or changed
+    public Map Update()
+    {
+        Space.UseSpatialIndex = FieldMap.UseSpatialIndex;
+        Space.UseParallel = FieldMap.UseParallel;
+        Space.ParallelCutoffDepth = FieldMap.ParallelCutoffDepth;
+        Space.PlanningPool = FieldMap.PlanningPool;
+        Space.Metrics = FieldMap.Metrics;
+        if (Version == FieldMap.Version && Space.Length == FieldMap.Length && Space.Breadth == FieldMap.Breadth)
+        {
+            return Space;
+        }
+        Version = FieldMap.Version;
+        Space.Length = FieldMap.Length;
+        Space.Breadth = FieldMap.Breadth;
+
+        IdentityHashMap<Map.MapObject, Map.MapObject> grown = new IdentityHashMap<>();
+        IdentityHashMap<Map.MapObject, double[]> placed = new IdentityHashMap<>();
+        List<Map.MapObject> shapes = new ArrayList<>(FieldMap.MapObjects.size());
+        for (Map.MapObject object : FieldMap.MapObjects)
+        {
+            double[] snapshot = Snapshot(object);
+            Map.MapObject copy = Grown.get(object);
+            if (copy == null || !Arrays.equals(Placed.get(object), snapshot))
+            {
+                copy = Grow(object);
+            }
+            grown.put(object, copy);
+            placed.put(object, snapshot);
+            shapes.add(copy);
+        }
+        Grown = grown;
+        Placed = placed;
+        Space.MapObjects = shapes;
+        Space.Version++;
+        return Space;
+    }
+
+    // Where a shape is and whether it can be driven over, if this changes the shape is grown again
+    static double[] Snapshot(Map.MapObject object)
+    {
+        double[] bounds = ShapeGroups.Snapshot(object);
+        double[] snapshot = Arrays.copyOf(bounds, bounds.length + 1);
+        snapshot[bounds.length] = object.IsDrivable ? 1 : 0;
+        return snapshot;
+    }
+
+    // The shape grown by the footprint, on the grown map
+    Map.MapObject Grow(Map.MapObject object)
+    {
+        Map.MapObject copy;
+        if (object instanceof Map.HybridObject)
+        {
+            List<Map.MapObject> compObjects = new ArrayList<>();
+            for (Map.MapObject compObject : ((Map.HybridObject) object).CompObjects)
+            {
+                compObjects.add(Grow(compObject));
+            }
+            copy = Space.new HybridObject(compObjects);
+            copy.XPos = object.XPos;
+            copy.YPos = object.YPos;
+        }else if (object instanceof Map.Circle)
+        {
+            copy = GrowCircle((Map.Circle) object);
+        }else if (object instanceof Map.Rect)
+        {
+            Map.Rect rect = (Map.Rect) object;
+            copy = Space.new Rect(rect.XPos, rect.YPos, rect.Length + 2 * (Shape.HalfLength + Shape.Radius), rect.Breadth + 2 * (Shape.HalfBreadth + Shape.Radius), rect.IsDrivable, rect.Name);
+        }else if (object instanceof Map.Polygon)
+        {
+            copy = GrowPolygon((Map.Polygon) object);
+        }else
+        {
+            throw new RuntimeException("Can't grow " + object.Name + ", a " + object.getClass().getSimpleName());
+        }
+        copy.IsDrivable = object.IsDrivable;
+        copy.Name = object.Name;
+        return copy;
+    }
+
+    // A circle grown by the radius, with the rectangle swept round it as a rounded rect
+    Map.MapObject GrowCircle(Map.Circle circle)
+    {
+        double radius = circle.Radius + Shape.Radius;
+        if (Shape.IsRound())
+        {
+            return Space.new Circle(circle.XPos, circle.YPos, radius, circle.IsDrivable, circle.Name);
+        }
+        // Each corner is cut by sides touching the circle at even steps round it, so they never cut inside it
+        double step = Math.PI / 2 / ARC_SEGMENTS;
+        double reach = radius / Math.cos(step / 2);
+        double[] vertexX = new double[4 * ARC_SEGMENTS];
+        double[] vertexY = new double[4 * ARC_SEGMENTS];
+        for (int corner = 0; corner < 4; corner++)
+        {
+            double cornerX = corner == 0 || corner == 3 ? Shape.HalfBreadth : -Shape.HalfBreadth;
+            double cornerY = corner < 2 ? Shape.HalfLength : -Shape.HalfLength;
+            for (int i = 0; i < ARC_SEGMENTS; i++)
+            {
+                double angle = corner * Math.PI / 2 + (i + 0.5) * step;
+                vertexX[corner * ARC_SEGMENTS + i] = cornerX + reach * Math.cos(angle);
+                vertexY[corner * ARC_SEGMENTS + i] = cornerY + reach * Math.sin(angle);
+            }
+        }
+        return Space.new Polygon(circle.XPos, circle.YPos, vertexX, vertexY, circle.IsDrivable, circle.Name);
+    }
+
+    // A polygon grown the way a buffer grows it, then swept round by the rectangle
+    Map.MapObject GrowPolygon(Map.Polygon polygon)
+    {
+        // The buffered polygon is the box grown by the radius cut down by every side pushed out by the radius
+        double[] bounds = polygon.GetBounds(Shape.Radius);
+        List<double[]> corners = new ArrayList<>();
+        corners.add(new double[] {bounds[0] - polygon.XPos, bounds[1] - polygon.YPos});
+        corners.add(new double[] {bounds[2] - polygon.XPos, bounds[1] - polygon.YPos});
+        corners.add(new double[] {bounds[2] - polygon.XPos, bounds[3] - polygon.YPos});
+        corners.add(new double[] {bounds[0] - polygon.XPos, bounds[3] - polygon.YPos});
+        for (int i = 0; i < polygon.VertexX.length; i++)
+        {
+            corners = Cut(corners, polygon.NormalX[i], polygon.NormalY[i], polygon.EdgeOffset[i] + Shape.Radius);
+        }
+
+        // Sweeping a convex shape round a rectangle puts every corner of the rectangle at every corner of the shape,
+        // and the grown shape is the hull around them all
+        if (!Shape.IsRound())
+        {
+            List<double[]> swept = new ArrayList<>();
+            for (double[] corner : corners)
+            {
+                swept.add(new double[] {corner[0] - Shape.HalfBreadth, corner[1] - Shape.HalfLength});
+                swept.add(new double[] {corner[0] + Shape.HalfBreadth, corner[1] - Shape.HalfLength});
+                swept.add(new double[] {corner[0] + Shape.HalfBreadth, corner[1] + Shape.HalfLength});
+                swept.add(new double[] {corner[0] - Shape.HalfBreadth, corner[1] + Shape.HalfLength});
+            }
+            corners = Hull(swept);
+        }
+        double[] vertexX = new double[corners.size()];
+        double[] vertexY = new double[corners.size()];
+        for (int i = 0; i < corners.size(); i++)
+        {
+            vertexX[i] = corners.get(i)[0];
+            vertexY[i] = corners.get(i)[1];
+        }
+        return Space.new Polygon(polygon.XPos, polygon.YPos, vertexX, vertexY, polygon.IsDrivable, polygon.Name);
+    }
+
+    // The part of the convex shape on the inside of the line, where normal . point <= offset
+    static List<double[]> Cut(List<double[]> corners, double normalX, double normalY, double offset)
+    {
+        List<double[]> kept = new ArrayList<>();
+        for (int i = 0; i < corners.size(); i++)
+        {
+            double[] from = corners.get(i);
+            double[] to = corners.get((i + 1) % corners.size());
+            double fromOut = normalX * from[0] + normalY * from[1] - offset;
+            double toOut = normalX * to[0] + normalY * to[1] - offset;
+            if (fromOut <= 0)
+            {
+                AddCorner(kept, from[0], from[1]);
+            }
+            if ((fromOut < 0 && toOut > 0) || (fromOut > 0 && toOut < 0))
+            {
+                double t = fromOut / (fromOut - toOut);
+                AddCorner(kept, from[0] + (to[0] - from[0]) * t, from[1] + (to[1] - from[1]) * t);
+            }
+        }
+        if (kept.size() > 1 && Same(kept.get(0), kept.get(kept.size() - 1)))
+        {
+            kept.remove(kept.size() - 1);
+        }
+        return kept;
+    }
+
+    // Convex hull going anticlockwise with no corners on the straight between two others
+    static List<double[]> Hull(List<double[]> points)
+    {
+        List<double[]> sorted = new ArrayList<>(points);
+        sorted.sort((double[] first, double[] second) -> first[0] != second[0] ? Double.compare(first[0], second[0]) : Double.compare(first[1], second[1]));
+        double[][] hull = new double[2 * sorted.size()][];
+        int count = 0;
+        // Lower side left to right then upper side right to left
+        for (int pass = 0; pass < 2; pass++)
+        {
+            int start = count;
+            for (int k = 0; k < sorted.size(); k++)
+            {
+                double[] point = sorted.get(pass == 0 ? k : sorted.size() - 1 - k);
+                while (count >= start + 2 && Turn(hull[count - 2], hull[count - 1], point) <= CORNER_TOLERANCE)
+                {
+                    count--;
+                }
+                hull[count++] = point;
+            }
+            // The last point is the first of the other side
+            count--;
+        }
+        return new ArrayList<>(Arrays.asList(hull).subList(0, count));
+    }
+
+    // Twice the area of the triangle, positive when the corners go anticlockwise
+    static double Turn(double[] first, double[] second, double[] third)
+    {
+        return (second[0] - first[0]) * (third[1] - first[1]) - (second[1] - first[1]) * (third[0] - first[0]);
+    }
+
+    static void AddCorner(List<double[]> corners, double x, double y)
+    {
+        double[] corner = new double[] {x, y};
+        if (corners.isEmpty() || !Same(corners.get(corners.size() - 1), corner))
+        {
+            corners.add(corner);
+        }
+    }
+
+    static boolean Same(double[] first, double[] second)
+    {
+        return Math.abs(first[0] - second[0]) <= CORNER_TOLERANCE && Math.abs(first[1] - second[1]) <= CORNER_TOLERANCE;
+    }
+}
@@ -0,0 +1,39 @@
+import java.util.concurrent.atomic.AtomicInteger;
+
+// How far one ClearPath call may go working out detours, handed down to every detour it works out on whichever thread
+// works it out, so calls running at the same time on one map never see each other's limits
+public class DetourLimits
+{
+
+    // System.nanoTime past which the call gives up with OutOfTime, Long.MAX_VALUE for never
+    final long Deadline;
+
+    // Nested detours the call may still work out, shared by the tasks working them out in parallel
+    final AtomicInteger DetoursLeft = new AtomicInteger(Map.MAX_DETOURS);
+
+    DetourLimits(long deadline)
+    {
+        Deadline = deadline;
+    }
+
+    // No limit but the nesting depth and the detour budget, for a call that has all the time it needs
+    static DetourLimits None()
+    {
+        return new DetourLimits(Long.MAX_VALUE);
+    }
+
+    // Take one detour from the budget, false once it has run out
+    boolean TakeDetour()
+    {
+        return DetoursLeft.getAndDecrement() > 0;
+    }
+
+    // Throw OutOfTime once the deadline has passed
+    void CheckTime()
+    {
+        if (Deadline != Long.MAX_VALUE && System.nanoTime() - Deadline > 0)
+        {
+            throw new AnytimePlanner.OutOfTime();
+        }
+    }
+}
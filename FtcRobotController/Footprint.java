@@ -0,0 +1,55 @@
+// The shape of the robot seen from above, a rectangle with its corners rounded off by a radius
+// A round robot is just the radius, a square cornered one has no radius, and the radius can also stand for a
+// clearance kept on top of the robot's own size. ConfigSpace plans for it with its sides lined up with the field, and
+// OrientedFootprint turns it to any of a set of headings
+public class Footprint
+{
+
+    public final double HalfBreadth; // Half the robot's size across the field, along x
+    public final double HalfLength; // Half the robot's size along the field, along y
+    public final double Radius; // How far the robot, or the clearance around it, reaches past the rectangle
+
+    // A round robot, or a point robot kept the radius away from everything as a buffer does
+    public Footprint(double radius)
+    {
+        this(0, 0, radius);
+    }
+
+    // A rectangular robot breadth wide along x and length long along y, with the radius of clearance around it
+    public Footprint(double breadth, double length, double radius)
+    {
+        if (breadth < 0 || length < 0 || radius < 0)
+        {
+            throw new RuntimeException("Footprint " + breadth + " by " + length + " with radius " + radius + " has a negative size");
+        }
+        HalfBreadth = breadth / 2;
+        HalfLength = length / 2;
+        Radius = radius;
+    }
+
+    // Whether the footprint is a circle, in which case inflating by it is the same as a buffer of the radius
+    public boolean IsRound()
+    {
+        return HalfBreadth == 0 && HalfLength == 0;
+    }
+
+    public boolean equals(Object other)
+    {
+        if (!(other instanceof Footprint))
+        {
+            return false;
+        }
+        Footprint footprint = (Footprint) other;
+        return footprint.HalfBreadth == HalfBreadth && footprint.HalfLength == HalfLength && footprint.Radius == Radius;
+    }
+
+    public int hashCode()
+    {
+        return (Double.hashCode(HalfBreadth) * 31 + Double.hashCode(HalfLength)) * 31 + Double.hashCode(Radius);
+    }
+
+    public String toString()
+    {
+        return (2 * HalfBreadth) + " by " + (2 * HalfLength) + " with radius " + Radius;
+    }
+}
@@ -0,0 +1,169 @@
+import java.math.BigDecimal;
+import java.util.concurrent.atomic.AtomicLong;
+
+// The few signs the intersection and ordering code makes its decisions on, worked out exactly
+// Each one is worked out in doubles first along with a bound on how far rounding could have moved it, and only when
+// the answer is closer to zero than that bound is it worked out again exactly with BigDecimal, which is rare enough
+// that it costs nothing on a normal field but keeps nearly touching, nearly parallel and nearly equal cases consistent
+public class Geometry
+{
+
+    // Half the gap between 1 and the next double up, the most a single rounding can be off by relative to its result
+    static final double EPSILON = Math.ulp(1.0) / 2;
+
+    // How far rounding can move each kind of sum, relative to the sizes of the terms that went into it. The
+    // orientation bound is Shewchuk's, the others are worked out the same way with some to spare
+    static final double ORIENTATION_BOUND = (3 + 16 * EPSILON) * EPSILON;
+    static final double DISTANCE_BOUND = 8 * EPSILON;
+    static final double CROSSING_BOUND = 16 * EPSILON;
+
+    // How many signs had to be worked out exactly, to see how often the filter lets one through
+    public static final AtomicLong ExactCount = new AtomicLong();
+
+    // 1 if the third point is to the left of the line from the first to the second, -1 if it is to the right and 0 if
+    // the three are exactly on one line
+    public static int Orientation(double firstX, double firstY, double secondX, double secondY, double thirdX, double thirdY)
+    {
+        double left = (secondX - firstX) * (thirdY - firstY);
+        double right = (secondY - firstY) * (thirdX - firstX);
+        double determinant = left - right;
+        double bound = ORIENTATION_BOUND * (Math.abs(left) + Math.abs(right));
+        if (determinant > bound)
+        {
+            return 1;
+        }else if (-determinant > bound)
+        {
+            return -1;
+        }else if (left == 0 && right == 0)
+        {
+            return 0;
+        }
+        if (!Finite(firstX, firstY, secondX, secondY, thirdX, thirdY))
+        {
+            return 0;
+        }
+        ExactCount.incrementAndGet();
+        BigDecimal exactLeft = Exact(secondX).subtract(Exact(firstX)).multiply(Exact(thirdY).subtract(Exact(firstY)));
+        BigDecimal exactRight = Exact(secondY).subtract(Exact(firstY)).multiply(Exact(thirdX).subtract(Exact(firstX)));
+        return exactLeft.compareTo(exactRight);
+    }
+
+    // Below, equal to or above zero as the first point is closer to, as close to or further from the start than the
+    // second, which makes it a total order to sort points along a line by
+    public static int CompareDistance(double startX, double startY, double firstX, double firstY, double secondX, double secondY)
+    {
+        double firstOffX = firstX - startX;
+        double firstOffY = firstY - startY;
+        double secondOffX = secondX - startX;
+        double secondOffY = secondY - startY;
+        double first = firstOffX * firstOffX + firstOffY * firstOffY;
+        double second = secondOffX * secondOffX + secondOffY * secondOffY;
+        double difference = first - second;
+        double bound = DISTANCE_BOUND * (first + second);
+        if (difference > bound)
+        {
+            return 1;
+        }else if (-difference > bound)
+        {
+            return -1;
+        }else if (firstX == secondX && firstY == secondY)
+        {
+            return 0;
+        }
+        if (!Finite(startX, startY, firstX, firstY, secondX, secondY))
+        {
+            return Double.compare(first, second);
+        }
+        ExactCount.incrementAndGet();
+        return SquaredLength(startX, startY, firstX, firstY).compareTo(SquaredLength(startX, startY, secondX, secondY));
+    }
+
+    // 1 if the line through the segment goes through the inside of the circle, 0 if it only touches it and -1 if it
+    // misses, from the sign of the quarter of the determinant of the quadratic for where it crosses
+    public static int CrossesCircle(double startX, double startY, double endX, double endY, double middleX, double middleY, double radius)
+    {
+        double diffX = endX - startX;
+        double diffY = endY - startY;
+        double relativeX = startX - middleX;
+        double relativeY = startY - middleY;
+        double half = diffX * relativeX + diffY * relativeY;
+        double lengthSquared = diffX * diffX + diffY * diffY;
+        double distanceSquared = relativeX * relativeX + relativeY * relativeY;
+        double determinant = half * half - lengthSquared * (distanceSquared - radius * radius);
+        // The half can cancel down to nothing, so its bound goes by the size of its terms rather than the half itself
+        double halfSize = Math.abs(diffX * relativeX) + Math.abs(diffY * relativeY);
+        double bound = CROSSING_BOUND * (halfSize * halfSize + lengthSquared * (distanceSquared + radius * radius));
+        if (determinant > bound)
+        {
+            return 1;
+        }else if (-determinant > bound)
+        {
+            return -1;
+        }
+        if (!Finite(startX, startY, endX, endY, middleX, middleY, radius))
+        {
+            return -1;
+        }
+        ExactCount.incrementAndGet();
+        BigDecimal exactDiffX = Exact(endX).subtract(Exact(startX));
+        BigDecimal exactDiffY = Exact(endY).subtract(Exact(startY));
+        BigDecimal exactRelativeX = Exact(startX).subtract(Exact(middleX));
+        BigDecimal exactRelativeY = Exact(startY).subtract(Exact(middleY));
+        BigDecimal exactHalf = exactDiffX.multiply(exactRelativeX).add(exactDiffY.multiply(exactRelativeY));
+        BigDecimal exactLength = exactDiffX.multiply(exactDiffX).add(exactDiffY.multiply(exactDiffY));
+        BigDecimal exactDistance = exactRelativeX.multiply(exactRelativeX).add(exactRelativeY.multiply(exactRelativeY));
+        BigDecimal exactRadius = Exact(radius).multiply(Exact(radius));
+        return exactHalf.multiply(exactHalf).compareTo(exactLength.multiply(exactDistance.subtract(exactRadius)));
+    }
+
+    // 1 if the line through the segment goes through the inside of the box, 0 if it only runs along a side or touches a
+    // corner and -1 if it misses, from which sides of the line the corners are on
+    public static int CrossesBox(double startX, double startY, double endX, double endY, double minX, double minY, double maxX, double maxY)
+    {
+        int left = 0;
+        int right = 0;
+        for (int corner = 0; corner < 4; corner++)
+        {
+            int side = Orientation(startX, startY, endX, endY, corner == 0 || corner == 3 ? minX : maxX, corner < 2 ? minY : maxY);
+            if (side > 0)
+            {
+                left++;
+            }else if (side < 0)
+            {
+                right++;
+            }
+        }
+        if (left > 0 && right > 0)
+        {
+            return 1;
+        }
+        return left == 4 || right == 4 ? -1 : 0;
+    }
+
+    static BigDecimal SquaredLength(double startX, double startY, double endX, double endY)
+    {
+        BigDecimal diffX = Exact(endX).subtract(Exact(startX));
+        BigDecimal diffY = Exact(endY).subtract(Exact(startY));
+        return diffX.multiply(diffX).add(diffY.multiply(diffY));
+    }
+
+    // Whether all the values are finite, BigDecimal has no exact value for NaN or infinity. With one of those the double
+    // sums can't be trusted either, so the signs fall back to on the line, the order the doubles give and missing
+    static boolean Finite(double... values)
+    {
+        for (double value : values)
+        {
+            if (!Double.isFinite(value))
+            {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // The exact value of the double, which new BigDecimal gives without rounding
+    static BigDecimal Exact(double value)
+    {
+        return new BigDecimal(value);
+    }
+}
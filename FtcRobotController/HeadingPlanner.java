@@ -0,0 +1,392 @@
+import java.util.*;
+
+// Paths for a rectangular robot that can turn, searched over grid cells and headings together
+// A state is the robot standing in the middle of a cell facing one of the footprint's headings. From there it can drive
+// to any of the eight cells around it still facing the same way, or turn on the spot one heading either way, and A*
+// finds the cheapest way to the end facing whichever heading gets there. That lets the robot turn side on to get through
+// a gap narrower than it is long, where planning a point with a buffer for the whole robot finds no way through
+// The grid's distance transform settles most states without any geometry. A cell far enough from every shape that the
+// corners miss whatever the heading is clear, and a cell so close that even the narrowest side can't fit is blocked.
+// Only the cells in between are checked exactly against the shapes near them
+public class HeadingPlanner
+{
+
+    // Cells of slack on top of the robot's reach, since a step from a cell the grid calls clear all over goes up to a
+    // diagonal past it into the next cell
+    static final int SLACK_CELLS = 2;
+
+    static final double INF = Double.POSITIVE_INFINITY;
+    static final int[] STEP_COL = new int[] {1, 1, 0, -1, -1, -1, 0, 1};
+    static final int[] STEP_ROW = new int[] {0, 1, 1, 1, 0, -1, -1, -1};
+
+    public final Map FieldMap;
+    public final OccupancyGrid Grid;
+    public final OrientedFootprint Robot;
+    public final double Buffer;
+
+    // Turning one heading costs what driving as far as the corners move would
+    public final double TurnCost;
+
+    // States expanded and exact checks made by the last search
+    public int Expanded = 0;
+    public int ExactChecks = 0;
+
+    // The shapes that block driving with hybrid objects split into their parts, looked up again once the map changes
+    int Version = -1;
+    List<Map.MapObject> Obstacles;
+    SpatialIndex Index;
+
+    // Cells blocked whatever the heading, and cells close enough to a shape that they need checking exactly. The grid
+    // knows nothing of the walls, so cells within as many cells of the edge as the wall band need checking as well
+    long[] Blocked;
+    long[] Near;
+    int WallBand;
+
+    // Search state per cell and heading, the stamps mark which states the current search has reached and closed
+    double[] G;
+    int[] Parent;
+    int[] Visited;
+    int[] Closed;
+    int SearchStamp = 0;
+    int[] Heap = new int[64];
+    double[] HeapKey = new double[64];
+    int HeapSize = 0;
+
+    public HeadingPlanner(Map map, OccupancyGrid grid, OrientedFootprint robot, double buffer)
+    {
+        if (grid.MaxBuffer < NearDistance(grid.CellSize, robot, buffer))
+        {
+            throw new RuntimeException("Grid only covers buffers up to " + grid.MaxBuffer + ", the footprint needs " + NearDistance(grid.CellSize, robot, buffer));
+        }
+        FieldMap = map;
+        Grid = grid;
+        Robot = robot;
+        Buffer = buffer;
+        TurnCost = (robot.Circumscribed - robot.Shape.Radius) * robot.Step;
+        int states = grid.Columns * grid.Rows * robot.Headings;
+        G = new double[states];
+        Parent = new int[states];
+        Visited = new int[states];
+        Closed = new int[states];
+    }
+
+    // How far a grid with the cell size has to track distances for the footprint and buffer
+    public static double NearDistance(double cellSize, OrientedFootprint robot, double buffer)
+    {
+        return robot.Circumscribed + robot.TurnMargin + buffer + SLACK_CELLS * cellSize;
+    }
+
+    // Path from the start facing the start heading in radians to the end, as {x, y, heading} poses, or an empty list if
+    // there is none. The robot turns on the spot, the shorter way round, to the heading of the next pose and then drives
+    // straight to it. Headings are the footprint's, so the first is the nearest to the start heading
+    public List<double[]> FindPath(double[] startPoint, double startHeading, double[] endPoint)
+    {
+        Refresh();
+        Expanded = 0;
+        ExactChecks = 0;
+        int headings = Robot.Headings;
+        int heading = Robot.Nearest(startHeading);
+        int startCell = Grid.CellAt(startPoint[0], startPoint[1]);
+        int endCell = Grid.CellAt(endPoint[0], endPoint[1]);
+        if (startCell < 0 || endCell < 0)
+        {
+            return new ArrayList<>();
+        }
+        double[] first = Middle(startCell);
+        // Straightening up to the table's heading is a turn of at most half a step
+        if (!IsClear(startPoint[0], startPoint[1], startPoint[0], startPoint[1], heading, Robot.TurnMargin))
+        {
+            return new ArrayList<>();
+        }
+        if (IsClear(startPoint[0], startPoint[1], endPoint[0], endPoint[1], heading, 0))
+        {
+            return new ArrayList<>(Arrays.asList(Pose(startPoint, heading), Pose(endPoint, heading)));
+        }
+        if (!IsClear(startPoint[0], startPoint[1], first[0], first[1], heading, 0))
+        {
+            return new ArrayList<>();
+        }
+        // An end the robot can't stand on facing any way would only show up once every state had been searched
+        boolean fits = false;
+        for (int facing = 0; facing < headings && !fits; facing++)
+        {
+            fits = IsClear(endPoint[0], endPoint[1], endPoint[0], endPoint[1], facing, 0);
+        }
+        if (!fits)
+        {
+            return new ArrayList<>();
+        }
+
+        SearchStamp++;
+        HeapSize = 0;
+        int root = startCell * headings + heading;
+        Visited[root] = SearchStamp;
+        G[root] = 0;
+        Parent[root] = root;
+        Push(root, Estimate(startCell, endPoint));
+        int found = -1;
+        while (HeapSize > 0 && found < 0)
+        {
+            int state = Pop();
+            if (Closed[state] == SearchStamp)
+            {
+                continue;
+            }
+            Closed[state] = SearchStamp;
+            Expanded++;
+            int cell = state / headings;
+            int facing = state % headings;
+            double middleX = MiddleX(cell);
+            double middleY = MiddleY(cell);
+            if (cell == endCell && IsClear(middleX, middleY, endPoint[0], endPoint[1], facing, 0))
+            {
+                found = state;
+                break;
+            }
+            int col = cell % Grid.Columns;
+            int row = cell / Grid.Columns;
+            boolean near = OccupancyGrid.GetBit(Near, cell) || col < WallBand || row < WallBand || col >= Grid.Columns - WallBand || row >= Grid.Rows - WallBand;
+            for (int d = 0; d < 8; d++)
+            {
+                int nextCol = col + STEP_COL[d];
+                int nextRow = row + STEP_ROW[d];
+                if (nextCol < 0 || nextCol >= Grid.Columns || nextRow < 0 || nextRow >= Grid.Rows)
+                {
+                    continue;
+                }
+                int next = nextRow * Grid.Columns + nextCol;
+                if (OccupancyGrid.GetBit(Blocked, next))
+                {
+                    continue;
+                }
+                int moved = next * headings + facing;
+                double reached = G[state] + Grid.CellSize * (d % 2 == 0 ? 1 : Math.sqrt(2));
+                if (Improves(moved, reached) && (!near || IsClear(middleX, middleY, MiddleX(next), MiddleY(next), facing, 0)))
+                {
+                    Reach(state, moved, reached, endPoint);
+                }
+            }
+            for (int turn = -1; turn <= 1; turn += 2)
+            {
+                int turned = Robot.Turn(facing, turn);
+                int spun = cell * headings + turned;
+                double reached = G[state] + TurnCost;
+                // Every angle on the way is within half a step of one end or the other
+                if (Improves(spun, reached) && (!near || (IsClear(middleX, middleY, middleX, middleY, facing, Robot.TurnMargin) && IsClear(middleX, middleY, middleX, middleY, turned, Robot.TurnMargin))))
+                {
+                    Reach(state, spun, reached, endPoint);
+                }
+            }
+        }
+        if (found < 0)
+        {
+            return new ArrayList<>();
+        }
+
+        List<double[]> poses = new ArrayList<>();
+        for (int state = found; ; state = Parent[state])
+        {
+            poses.add(Pose(Middle(state / headings), state % headings));
+            if (state == root)
+            {
+                break;
+            }
+        }
+        poses.add(Pose(startPoint, heading));
+        Collections.reverse(poses);
+        poses.add(Pose(endPoint, found % headings));
+        return Simplify(poses);
+    }
+
+    // Whether reaching the next state at this cost is cheaper than the way it was last reached. The caller checks the
+    // move is clear only after this says it would be taken, and not at all if the grid already says it's clear
+    boolean Improves(int next, double reached)
+    {
+        if (Closed[next] == SearchStamp)
+        {
+            return false;
+        }
+        if (Visited[next] != SearchStamp)
+        {
+            Visited[next] = SearchStamp;
+            G[next] = INF;
+        }
+        return reached < G[next];
+    }
+
+    // Move the state on to the next one at this cost
+    void Reach(int state, int next, double reached, double[] endPoint)
+    {
+        G[next] = reached;
+        Parent[next] = state;
+        Push(next, reached + Estimate(next / Robot.Headings, endPoint));
+    }
+
+    // Drop the poses a straight drive facing the same heading can skip, and run turns on one spot into one pose
+    List<double[]> Simplify(List<double[]> poses)
+    {
+        List<double[]> kept = new ArrayList<>();
+        kept.add(poses.get(0));
+        int anchor = 0;
+        while (anchor < poses.size() - 1)
+        {
+            double[] from = poses.get(anchor);
+            // The furthest pose it can drive straight to, facing the heading of the one after the anchor all the way
+            int heading = Robot.Nearest(poses.get(anchor + 1)[2]);
+            int reach = anchor + 1;
+            for (int k = poses.size() - 1; k > anchor + 1; k--)
+            {
+                if (SameHeading(poses, anchor + 1, k) && IsClear(from[0], from[1], poses.get(k)[0], poses.get(k)[1], heading, 0))
+                {
+                    reach = k;
+                    break;
+                }
+            }
+            double[] to = poses.get(reach);
+            double[] last = kept.get(kept.size() - 1);
+            if (last[0] == to[0] && last[1] == to[1] && kept.size() > 1 && kept.get(kept.size() - 2)[0] == to[0] && kept.get(kept.size() - 2)[1] == to[1])
+            {
+                // Another turn on the same spot as the last one
+                kept.set(kept.size() - 1, to);
+            }else
+            {
+                kept.add(to);
+            }
+            anchor = reach;
+        }
+        return kept;
+    }
+
+    // Whether the poses from first to last all face the same way
+    static boolean SameHeading(List<double[]> poses, int first, int last)
+    {
+        for (int k = first + 1; k <= last; k++)
+        {
+            if (poses.get(k)[2] != poses.get(first)[2])
+            {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // Whether the footprint facing the heading drives from one point to the other clear of every shape by the buffer
+    // and the extra margin
+    public boolean IsClear(double fromX, double fromY, double toX, double toY, int heading, double extra)
+    {
+        ExactChecks++;
+        double[] bounds = Robot.SweptBounds(fromX, fromY, toX, toY, heading, Buffer + extra);
+        if (bounds[0] < -FieldMap.Breadth / 2 || bounds[2] > FieldMap.Breadth / 2 || bounds[1] < -FieldMap.Length / 2 || bounds[3] > FieldMap.Length / 2)
+        {
+            // The robot can't leave the field any more than it can drive through a shape
+            if (!InsideField(fromX, fromY, heading, extra) || !InsideField(toX, toY, heading, extra))
+            {
+                return false;
+            }
+        }
+        for (int i : Index.QueryBox(bounds[0], bounds[1], bounds[2], bounds[3], 0))
+        {
+            if (Robot.Collides(Obstacles.get(i), fromX, fromY, toX, toY, heading, Buffer + extra))
+            {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // Whether the footprint at the point facing the heading is inside the walls, which it needs no buffer from
+    boolean InsideField(double x, double y, int heading, double extra)
+    {
+        double reachX = Robot.ExtentX[heading] + Robot.Shape.Radius + extra;
+        double reachY = Robot.ExtentY[heading] + Robot.Shape.Radius + extra;
+        return x - reachX >= -FieldMap.Breadth / 2 && x + reachX <= FieldMap.Breadth / 2 && y - reachY >= -FieldMap.Length / 2 && y + reachY <= FieldMap.Length / 2;
+    }
+
+    // Look up the shapes and bring the grid up to date again if the map has changed since the last search
+    void Refresh()
+    {
+        if (Version != FieldMap.Version || Index == null)
+        {
+            Version = FieldMap.Version;
+            Obstacles = Roadmap.ObstaclesOf(FieldMap);
+            Index = new SpatialIndex(Obstacles);
+            Grid.Update();
+            // Blocked has to be sure the middle is too close, where the inflated bits only say it might be
+            Blocked = Grid.MiddleWithinBits(Robot.Inscribed + Buffer);
+            Near = Grid.InflatedBits(NearDistance(Grid.CellSize, Robot, Buffer));
+            WallBand = (int) Math.ceil(NearDistance(Grid.CellSize, Robot, Buffer) / Grid.CellSize);
+        }
+    }
+
+    double[] Pose(double[] point, int heading)
+    {
+        return new double[] {point[0], point[1], Robot.Angle(heading)};
+    }
+
+    double[] Middle(int cell)
+    {
+        return new double[] {MiddleX(cell), MiddleY(cell)};
+    }
+
+    double MiddleX(int cell)
+    {
+        return Grid.MinX + (cell % Grid.Columns + 0.5) * Grid.CellSize;
+    }
+
+    double MiddleY(int cell)
+    {
+        return Grid.MinY + (cell / Grid.Columns + 0.5) * Grid.CellSize;
+    }
+
+    // Straight line distance from the middle of the cell to the end, never more than driving there costs
+    double Estimate(int cell, double[] endPoint)
+    {
+        return Math.hypot(endPoint[0] - MiddleX(cell), endPoint[1] - MiddleY(cell));
+    }
+
+    // Binary heap of states keyed on their estimate, stale entries are skipped when popped
+    void Push(int state, double key)
+    {
+        if (HeapSize == Heap.length)
+        {
+            Heap = Arrays.copyOf(Heap, Heap.length * 2);
+            HeapKey = Arrays.copyOf(HeapKey, HeapKey.length * 2);
+        }
+        int i = HeapSize++;
+        while (i > 0 && HeapKey[(i - 1) / 2] > key)
+        {
+            Heap[i] = Heap[(i - 1) / 2];
+            HeapKey[i] = HeapKey[(i - 1) / 2];
+            i = (i - 1) / 2;
+        }
+        Heap[i] = state;
+        HeapKey[i] = key;
+    }
+
+    int Pop()
+    {
+        int top = Heap[0];
+        HeapSize--;
+        int state = Heap[HeapSize];
+        double key = HeapKey[HeapSize];
+        int i = 0;
+        while (2 * i + 1 < HeapSize)
+        {
+            int child = 2 * i + 1;
+            if (child + 1 < HeapSize && HeapKey[child + 1] < HeapKey[child])
+            {
+                child++;
+            }
+            if (HeapKey[child] >= key)
+            {
+                break;
+            }
+            Heap[i] = Heap[child];
+            HeapKey[i] = HeapKey[child];
+            i = child;
+        }
+        Heap[i] = state;
+        HeapKey[i] = key;
+        return top;
+    }
+}
@@ -0,0 +1,506 @@
+import java.util.*;
+
+// D* Lite on a grid over the map, the search is kept between plans so when shapes are added, removed, moved or
+// toggled only the part of the search they affect gets repaired
+// The search runs backwards from the end point, so moving the start is cheap but a new end point starts over
+public class IncrementalPlanner
+{
+
+    // Grid cell size in inches used when none is given
+    public static final double DEFAULT_CELL_SIZE = 1;
+    static final double INF = Double.POSITIVE_INFINITY;
+    static final double DIAGONAL = Math.sqrt(2);
+    static final int[] STEP_X = new int[] {1, 1, 0, -1, -1, -1, 0, 1};
+    static final int[] STEP_Y = new int[] {0, 1, 1, 1, 0, -1, -1, -1};
+
+    // The map being planned on and the buffer kept around shapes
+    public Map FieldMap;
+    public double Buffer;
+    public double CellSize;
+
+    // Grid placement, cell (col, row) has its centre at (MinX + (col + 0.5) * CellSize, MinY + (row + 0.5) * CellSize)
+    double MinX;
+    double MinY;
+    public int Columns;
+    public int Rows;
+
+    // How many shapes cover each cell, a cell is blocked while this is above zero
+    int[] Occupancy;
+    // The shapes last put on the grid, packed as {type, xPos, yPos, size1, size2, last sync}
+    IdentityHashMap<Map.MapObject, double[]> Placed = new IdentityHashMap<>();
+    int SyncRound = 0;
+    // Cells whose blocked state flipped during the last sync
+    int[] ChangedCells = new int[64];
+    int ChangedCount = 0;
+
+    // D* Lite state
+    double[] G;
+    double[] Rhs;
+    int StartCell = -1;
+    int GoalCell = -1;
+    int LastStartCell = -1;
+    double KeyModifier = 0;
+
+    // Priority queue of cells keyed on (Key1, Key2), HeapIndex holds each cell's place or -1 if it isn't queued
+    int[] Heap;
+    double[] Key1;
+    double[] Key2;
+    int[] HeapIndex;
+    int HeapSize = 0;
+
+    // Cells taken off the queue during the last plan, shows how much work a repair needed
+    public int ExpandedCells = 0;
+
+    public IncrementalPlanner(Map map, double buffer)
+    {
+        this(map, buffer, DEFAULT_CELL_SIZE);
+    }
+
+    public IncrementalPlanner(Map map, double buffer, double cellSize)
+    {
+        FieldMap = map;
+        Buffer = buffer;
+        CellSize = cellSize;
+        MinX = -map.Breadth / 2;
+        MinY = -map.Length / 2;
+        Columns = Math.max(1, (int) Math.ceil(map.Breadth / cellSize));
+        Rows = Math.max(1, (int) Math.ceil(map.Length / cellSize));
+        int cells = Columns * Rows;
+        Occupancy = new int[cells];
+        G = new double[cells];
+        Rhs = new double[cells];
+        Heap = new int[64];
+        Key1 = new double[64];
+        Key2 = new double[64];
+        HeapIndex = new int[cells];
+        Arrays.fill(HeapIndex, -1);
+    }
+
+    // Path from start to end through free cells, or an empty list if there is none
+    public List<double[]> Plan(double[] startPoint, double[] endPoint)
+    {
+        SyncObstacles();
+        int startCell = CellAt(startPoint[0], startPoint[1]);
+        int goalCell = CellAt(endPoint[0], endPoint[1]);
+        if (startCell < 0 || goalCell < 0)
+        {
+            return new ArrayList<>();
+        }
+
+        if (goalCell != GoalCell)
+        {
+            // The whole search hangs off the goal, so a new goal means starting again
+            StartCell = startCell;
+            LastStartCell = startCell;
+            ResetSearch(goalCell);
+        }else
+        {
+            // The key modifier keeps old queue keys valid after the start has moved
+            if (startCell != LastStartCell)
+            {
+                KeyModifier += Heuristic(LastStartCell, startCell);
+                LastStartCell = startCell;
+            }
+            StartCell = startCell;
+            // Repair around every cell that became blocked or free
+            for (int i = 0; i < ChangedCount; i++)
+            {
+                int cell = ChangedCells[i];
+                UpdateVertex(cell);
+                for (int k = 0; k < 8; k++)
+                {
+                    int neighbour = Neighbour(cell, k);
+                    if (neighbour >= 0)
+                    {
+                        UpdateVertex(neighbour);
+                    }
+                }
+            }
+        }
+        ChangedCount = 0;
+
+        ComputeShortestPath();
+        if (G[startCell] == INF)
+        {
+            return new ArrayList<>();
+        }
+
+        // Follow the cheapest neighbour down to the goal, keeping only the cells where the direction changes
+        List<double[]> path = new ArrayList<>();
+        path.add(startPoint);
+        int cell = startCell;
+        int lastStep = -1;
+        for (int steps = 0; cell != goalCell && steps < G.length; steps++)
+        {
+            int bestStep = -1;
+            double bestCost = INF;
+            for (int k = 0; k < 8; k++)
+            {
+                int neighbour = Neighbour(cell, k);
+                if (neighbour < 0)
+                {
+                    continue;
+                }
+                double cost = Cost(cell, k) + G[neighbour];
+                if (cost < bestCost)
+                {
+                    bestCost = cost;
+                    bestStep = k;
+                }
+            }
+            if (bestStep < 0)
+            {
+                return new ArrayList<>();
+            }
+            if (lastStep >= 0 && bestStep != lastStep)
+            {
+                path.add(CellCentre(cell));
+            }
+            lastStep = bestStep;
+            cell = Neighbour(cell, bestStep);
+        }
+        path.add(endPoint);
+        return path;
+    }
+
+    // Bring the grid up to date with the map, noting which cells changed between blocked and free
+    void SyncObstacles()
+    {
+        SyncRound++;
+        for (Map.MapObject object : FieldMap.MapObjects)
+        {
+            SyncObject(object);
+        }
+        Iterator<java.util.Map.Entry<Map.MapObject, double[]>> placed = Placed.entrySet().iterator();
+        while (placed.hasNext())
+        {
+            double[] shape = placed.next().getValue();
+            if (shape[5] != SyncRound)
+            {
+                // The shape has left the map
+                Stamp(shape, -1);
+                placed.remove();
+            }
+        }
+    }
+
+    void SyncObject(Map.MapObject object)
+    {
+        if (object instanceof Map.HybridObject)
+        {
+            for (Map.MapObject compObject : ((Map.HybridObject) object).CompObjects)
+            {
+                SyncObject(compObject);
+            }
+            return;
+        }
+        double[] shape = Describe(object);
+        double[] placed = Placed.get(object);
+        if (placed == null)
+        {
+            Stamp(shape, 1);
+            Placed.put(object, shape);
+        }else if (placed[0] != shape[0] || placed[1] != shape[1] || placed[2] != shape[2] || placed[3] != shape[3] || placed[4] != shape[4])
+        {
+            // The shape moved, changed size or was toggled
+            Stamp(placed, -1);
+            Stamp(shape, 1);
+            Placed.put(object, shape);
+        }else
+        {
+            shape = placed;
+        }
+        shape[5] = SyncRound;
+    }
+
+    // A copy of what the object covers, type 0 covers nothing, 1 is a circle, 2 is a rect and 3 is a polygon
+    double[] Describe(Map.MapObject object)
+    {
+        if (!object.IsDrivable && object instanceof Map.Circle)
+        {
+            Map.Circle circle = (Map.Circle) object;
+            return new double[] {1, circle.XPos, circle.YPos, circle.Radius, 0, 0};
+        }else if (!object.IsDrivable && object instanceof Map.Rect)
+        {
+            Map.Rect rect = (Map.Rect) object;
+            return new double[] {2, rect.XPos, rect.YPos, rect.Length, rect.Breadth, 0};
+        }else if (!object.IsDrivable && object instanceof Map.Polygon)
+        {
+            return OccupancyGrid.Describe(object);
+        }
+        return new double[] {0, 0, 0, 0, 0, 0};
+    }
+
+    // Add or take away a shape from every cell whose square overlaps the buffered shape
+    void Stamp(double[] shape, int delta)
+    {
+        if (shape[0] == 0)
+        {
+            return;
+        }
+        double halfX = shape[0] == 1 ? shape[3] + Buffer : shape[4] / 2 + Buffer;
+        double halfY = shape[0] == 1 ? shape[3] + Buffer : shape[3] / 2 + Buffer;
+        int col0 = Math.max(0, (int) Math.floor((shape[1] - halfX - MinX) / CellSize));
+        int col1 = Math.min(Columns - 1, (int) Math.floor((shape[1] + halfX - MinX) / CellSize));
+        int row0 = Math.max(0, (int) Math.floor((shape[2] - halfY - MinY) / CellSize));
+        int row1 = Math.min(Rows - 1, (int) Math.floor((shape[2] + halfY - MinY) / CellSize));
+        for (int row = row0; row <= row1; row++)
+        {
+            for (int col = col0; col <= col1; col++)
+            {
+                if (shape[0] == 1)
+                {
+                    // Closest point of the cell to the centre of the circle
+                    double cellMinX = MinX + col * CellSize;
+                    double cellMinY = MinY + row * CellSize;
+                    double offX = Math.max(cellMinX, Math.min(shape[1], cellMinX + CellSize)) - shape[1];
+                    double offY = Math.max(cellMinY, Math.min(shape[2], cellMinY + CellSize)) - shape[2];
+                    if (offX * offX + offY * offY >= halfX * halfX)
+                    {
+                        continue;
+                    }
+                }else if (shape[0] == 3 && !OccupancyGrid.PolygonMeetsCell(shape, MinX + col * CellSize, MinY + row * CellSize, CellSize, Buffer))
+                {
+                    continue;
+                }
+                int cell = row * Columns + col;
+                boolean wasBlocked = Occupancy[cell] > 0;
+                Occupancy[cell] += delta;
+                if (wasBlocked != Occupancy[cell] > 0)
+                {
+                    if (ChangedCount == ChangedCells.length)
+                    {
+                        ChangedCells = Arrays.copyOf(ChangedCells, ChangedCount * 2);
+                    }
+                    ChangedCells[ChangedCount++] = cell;
+                }
+            }
+        }
+    }
+
+    // Whether the cell is covered by a shape
+    public boolean IsBlocked(int cell)
+    {
+        return Occupancy[cell] > 0;
+    }
+
+    // The cell holding the point, or -1 if it is off the grid
+    public int CellAt(double x, double y)
+    {
+        int col = (int) Math.floor((x - MinX) / CellSize);
+        int row = (int) Math.floor((y - MinY) / CellSize);
+        if (col < 0 || col >= Columns || row < 0 || row >= Rows)
+        {
+            return -1;
+        }
+        return row * Columns + col;
+    }
+
+    double[] CellCentre(int cell)
+    {
+        return new double[] {MinX + (cell % Columns + 0.5) * CellSize, MinY + (cell / Columns + 0.5) * CellSize};
+    }
+
+    // The neighbour in direction k, or -1 off the edge of the grid
+    int Neighbour(int cell, int k)
+    {
+        int col = cell % Columns + STEP_X[k];
+        int row = cell / Columns + STEP_Y[k];
+        if (col < 0 || col >= Columns || row < 0 || row >= Rows)
+        {
+            return -1;
+        }
+        return row * Columns + col;
+    }
+
+    // Cost of stepping from the cell in direction k, blocked cells can't be entered or left
+    double Cost(int cell, int k)
+    {
+        int neighbour = Neighbour(cell, k);
+        if (neighbour < 0 || Occupancy[cell] > 0 || Occupancy[neighbour] > 0)
+        {
+            return INF;
+        }
+        return (k % 2 == 0 ? 1 : DIAGONAL) * CellSize;
+    }
+
+    // Octile distance between cells, never more than the real cost
+    double Heuristic(int from, int to)
+    {
+        int dx = Math.abs(from % Columns - to % Columns);
+        int dy = Math.abs(from / Columns - to / Columns);
+        return (Math.max(dx, dy) + (DIAGONAL - 1) * Math.min(dx, dy)) * CellSize;
+    }
+
+    void ResetSearch(int goalCell)
+    {
+        Arrays.fill(G, INF);
+        Arrays.fill(Rhs, INF);
+        for (int i = 0; i < HeapSize; i++)
+        {
+            HeapIndex[Heap[i]] = -1;
+        }
+        HeapSize = 0;
+        KeyModifier = 0;
+        GoalCell = goalCell;
+        Rhs[goalCell] = 0;
+        Push(goalCell);
+    }
+
+    // Work out the cell's best one step cost and queue it if it is inconsistent
+    void UpdateVertex(int cell)
+    {
+        if (cell != GoalCell)
+        {
+            double best = INF;
+            for (int k = 0; k < 8; k++)
+            {
+                int neighbour = Neighbour(cell, k);
+                if (neighbour >= 0)
+                {
+                    best = Math.min(best, Cost(cell, k) + G[neighbour]);
+                }
+            }
+            Rhs[cell] = best;
+        }
+        if (HeapIndex[cell] >= 0)
+        {
+            Remove(cell);
+        }
+        if (G[cell] != Rhs[cell])
+        {
+            Push(cell);
+        }
+    }
+
+    void ComputeShortestPath()
+    {
+        ExpandedCells = 0;
+        while (HeapSize > 0 && (KeyLess(Key1[0], Key2[0], FirstKey(StartCell), SecondKey(StartCell)) || Rhs[StartCell] != G[StartCell]))
+        {
+            int cell = Heap[0];
+            double oldKey1 = Key1[0];
+            double oldKey2 = Key2[0];
+            Remove(cell);
+            ExpandedCells++;
+            if (KeyLess(oldKey1, oldKey2, FirstKey(cell), SecondKey(cell)))
+            {
+                // The key went stale as the start moved
+                Push(cell);
+            }else if (G[cell] > Rhs[cell])
+            {
+                G[cell] = Rhs[cell];
+                for (int k = 0; k < 8; k++)
+                {
+                    int neighbour = Neighbour(cell, k);
+                    if (neighbour >= 0)
+                    {
+                        UpdateVertex(neighbour);
+                    }
+                }
+            }else
+            {
+                G[cell] = INF;
+                UpdateVertex(cell);
+                for (int k = 0; k < 8; k++)
+                {
+                    int neighbour = Neighbour(cell, k);
+                    if (neighbour >= 0)
+                    {
+                        UpdateVertex(neighbour);
+                    }
+                }
+            }
+        }
+    }
+
+    double FirstKey(int cell)
+    {
+        return Math.min(G[cell], Rhs[cell]) + Heuristic(StartCell, cell) + KeyModifier;
+    }
+
+    double SecondKey(int cell)
+    {
+        return Math.min(G[cell], Rhs[cell]);
+    }
+
+    static boolean KeyLess(double firstA, double secondA, double firstB, double secondB)
+    {
+        return firstA < firstB || (firstA == firstB && secondA < secondB);
+    }
+
+    // Queue the cell with its current key
+    void Push(int cell)
+    {
+        if (HeapSize == Heap.length)
+        {
+            Heap = Arrays.copyOf(Heap, HeapSize * 2);
+            Key1 = Arrays.copyOf(Key1, HeapSize * 2);
+            Key2 = Arrays.copyOf(Key2, HeapSize * 2);
+        }
+        int i = HeapSize++;
+        Place(i, cell, FirstKey(cell), SecondKey(cell));
+        SiftUp(i);
+    }
+
+    // Take the cell off the queue wherever it is
+    void Remove(int cell)
+    {
+        int i = HeapIndex[cell];
+        HeapIndex[cell] = -1;
+        HeapSize--;
+        if (i == HeapSize)
+        {
+            return;
+        }
+        // Fill the gap with the last cell and let it find its place
+        int moved = Heap[HeapSize];
+        Place(i, moved, Key1[HeapSize], Key2[HeapSize]);
+        SiftUp(i);
+        SiftDown(HeapIndex[moved]);
+    }
+
+    void Place(int i, int cell, double key1, double key2)
+    {
+        Heap[i] = cell;
+        Key1[i] = key1;
+        Key2[i] = key2;
+        HeapIndex[cell] = i;
+    }
+
+    void SiftUp(int i)
+    {
+        int cell = Heap[i];
+        double key1 = Key1[i];
+        double key2 = Key2[i];
+        while (i > 0 && KeyLess(key1, key2, Key1[(i - 1) / 2], Key2[(i - 1) / 2]))
+        {
+            int parent = (i - 1) / 2;
+            Place(i, Heap[parent], Key1[parent], Key2[parent]);
+            i = parent;
+        }
+        Place(i, cell, key1, key2);
+    }
+
+    void SiftDown(int i)
+    {
+        int cell = Heap[i];
+        double key1 = Key1[i];
+        double key2 = Key2[i];
+        while (2 * i + 1 < HeapSize)
+        {
+            int child = 2 * i + 1;
+            if (child + 1 < HeapSize && KeyLess(Key1[child + 1], Key2[child + 1], Key1[child], Key2[child]))
+            {
+                child++;
+            }
+            if (!KeyLess(Key1[child], Key2[child], key1, key2))
+            {
+                break;
+            }
+            Place(i, Heap[child], Key1[child], Key2[child]);
+            i = child;
+        }
+        Place(i, cell, key1, key2);
+    }
+}
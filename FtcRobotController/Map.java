@@ -1,5 +1,8 @@
 import java.sql.Array;
+import java.io.File;
+import java.io.IOException;
 import java.util.*;
+import java.util.concurrent.ForkJoinPool;
 
 // The Map Itself
 public class Map
@@ -10,6 +13,53 @@ public class Map
 
     public List<MapObject> MapObjects = new ArrayList<>(); // List of MapObjects
 
+    public int Version = 0; // Goes up whenever shapes are added, removed or changed so cached planning data knows to rebuild
+
+    public boolean UseSpatialIndex = true; // Whether planning looks shapes up in a grid instead of scanning all of them
+
+    public boolean UseParallel = false; // Whether FindValidPath works out the detours around a shape as fork/join tasks
+
+    public int ParallelCutoffDepth = ParallelDetours.DEFAULT_CUTOFF_DEPTH; // Detours nested deeper than this aren't split into tasks
+
+    public ForkJoinPool PlanningPool = ForkJoinPool.commonPool(); // Pool the parallel detours run on
+
+    public PlannerMetrics Metrics; // Counters and trace kept while planning, null to keep none
+
+    static final double INDEX_MARGIN = 1e-9; // Slack on index lookups so touching boxes are never missed
+
+    static final int MAX_DETOUR_DEPTH = 32; // Detours nested deeper than this are going round in circles, so that way round fails
+    static final int MAX_DETOURS = 4096; // Nested detours one ClearPath call may work out before every way round fails
+
+    VisibilityGraph Graph; // Visibility graph kept between ShortestPath calls
+
+    IncrementalPlanner Replanner; // Grid search kept between Replan calls
+
+    OccupancyGrid Raster; // Bitset grid kept between Rasterize calls
+
+    ThetaStar AnyAngle; // Any-angle grid search kept between AnyAnglePath calls
+
+    AnytimePlanner Anytime; // Search kept between AnytimePath calls
+
+    HeadingPlanner Turning; // Search over cells and headings kept between HeadingPath calls
+
+    RouteOptimizer Routes; // Legs between goals kept between BestRoute calls
+
+    Roadmap Roads; // Roadmap built offline and loaded at init, searched by RoadmapPath
+
+    HashMap<Double, ShapeGroups> Groups = new HashMap<>(); // Grouped shapes kept for every buffer GroupShapes is asked for
+
+    HashMap<Footprint, ConfigSpace> Spaces = new HashMap<>(); // Grown shapes kept for every footprint SpaceFor is asked for
+
+    public PathCache Cache = new PathCache(this, 64); // Paths ClearPath has already found, set to null to always plan
+
+    MapSnapshot LastSnapshot; // The last snapshot taken, unchanged shapes are shared with the next one
+
+    PathBuffer.Pool Scratch = new PathBuffer.Pool(); // Scratch paths reused by planning so it doesn't make garbage
+
+    Rect World; // The last world rect made for planning
+
+    volatile ShapeArrays Packed; // Shapes packed into arrays for CrossedShapes, packed again once they change
+
     // Constructor for map
     public Map(double length, double breadth)
     {
@@ -21,12 +71,84 @@ public class Map
     public void CreateCircleObject(double xPos, double yPos, double radius, boolean isDrivable, String name)
     {
         MapObjects.add(new Circle(xPos, yPos, radius, isDrivable, name));
+        Version++;
     }
 
     // Add a rect object to the map
     public void CreateRectObject(double xPos, double yPos, double length, double breadth, boolean isDrivable, String name)
     {
         MapObjects.add(new Rect(xPos, yPos, length, breadth, isDrivable, name));
+        Version++;
+    }
+
+    // Add a convex polygon object to the map, its corners are given on the field going either way around
+    public void CreatePolygonObject(double[] vertexX, double[] vertexY, boolean isDrivable, String name)
+    {
+        // The polygon sits at the average of its corners, and keeps them relative to that
+        double xPos = 0;
+        double yPos = 0;
+        for (int i = 0; i < vertexX.length; i++)
+        {
+            xPos += vertexX[i] / vertexX.length;
+            yPos += vertexY[i] / vertexX.length;
+        }
+        double[] relativeX = new double[vertexX.length];
+        double[] relativeY = new double[vertexX.length];
+        for (int i = 0; i < vertexX.length; i++)
+        {
+            relativeX[i] = vertexX[i] - xPos;
+            relativeY[i] = vertexY[i] - yPos;
+        }
+        MapObjects.add(new Polygon(xPos, yPos, relativeX, relativeY, isDrivable, name));
+        Version++;
+    }
+
+    // Take a shape off the map, including out of any hybrid object it was grouped into
+    public void RemoveObject(MapObject object)
+    {
+        if (!MapObjects.remove(object))
+        {
+            for (MapObject mapObject : MapObjects)
+            {
+                if (mapObject instanceof HybridObject && ((HybridObject) mapObject).CompObjects.remove(object))
+                {
+                    break;
+                }
+            }
+        }
+        Version++;
+    }
+
+    // Move a shape to a new position, a hybrid object takes all of its parts along with it
+    public void MoveObject(MapObject object, double xPos, double yPos)
+    {
+        if (object instanceof HybridObject)
+        {
+            for (MapObject compObject : ((HybridObject) object).CompObjects)
+            {
+                MoveObject(compObject, compObject.XPos + xPos - object.XPos, compObject.YPos + yPos - object.YPos);
+            }
+        }
+        object.XPos = xPos;
+        object.YPos = yPos;
+        Version++;
+    }
+
+    // Set whether a shape can be driven over
+    public void SetDrivable(MapObject object, boolean isDrivable)
+    {
+        object.IsDrivable = isDrivable;
+        Version++;
+    }
+
+    // An unchanging copy of the map that other threads can plan on while this one keeps being edited
+    public MapSnapshot Snapshot()
+    {
+        if (LastSnapshot == null || LastSnapshot.Version != Version || LastSnapshot.Length != Length || LastSnapshot.Breadth != Breadth)
+        {
+            LastSnapshot = MapSnapshot.Of(this, LastSnapshot);
+        }
+        return LastSnapshot;
     }
 
     // The rect object of the field itself
@@ -44,78 +166,199 @@ public class Map
         }
 
         public static double GET_LENGTH(double[] startPoint, double[] endPoint) {
-            return Math.sqrt((endPoint[0] - startPoint[0]) * (endPoint[0] - startPoint[0]) + (endPoint[1] - startPoint[1]) * (endPoint[1] - startPoint[1]));
+            return GET_LENGTH(startPoint[0], startPoint[1], endPoint[0], endPoint[1]);
+        }
+
+        public static double GET_LENGTH(double startX, double startY, double endX, double endY) {
+            return Math.sqrt((endX - startX) * (endX - startX) + (endY - startY) * (endY - startY));
         }
 
         public static boolean IS_VERTICAL(double[] startPoint, double[] endPoint) {
-            return startPoint[0] == endPoint[0] && startPoint[1] != endPoint[1];
+            return IS_VERTICAL(startPoint[0], startPoint[1], endPoint[0], endPoint[1]);
+        }
+
+        public static boolean IS_VERTICAL(double startX, double startY, double endX, double endY) {
+            return startX == endX && startY != endY;
         }
 
         public static boolean IS_HORIZONTAL(double[] startPoint, double[] endPoint) {
-            return startPoint[1] == endPoint[1] && startPoint[0] != endPoint[0];
+            return IS_HORIZONTAL(startPoint[0], startPoint[1], endPoint[0], endPoint[1]);
+        }
+
+        public static boolean IS_HORIZONTAL(double startX, double startY, double endX, double endY) {
+            return startY == endY && startX != endX;
         }
 
         public static double GET_GRADIENT(double[] startPoint, double[] endPoint) {
-            if (IS_HORIZONTAL(startPoint, endPoint)) {
+            return GET_GRADIENT(startPoint[0], startPoint[1], endPoint[0], endPoint[1]);
+        }
+
+        public static double GET_GRADIENT(double startX, double startY, double endX, double endY) {
+            if (IS_HORIZONTAL(startX, startY, endX, endY)) {
                 return 0;
-            } else if (IS_VERTICAL(startPoint, endPoint)) {
-                throw new RuntimeException("Line is vertical");
+            } else if (IS_VERTICAL(startX, startY, endX, endY)) {
+                // Infinite, up or down, so callers that check for vertical lines first never see it
+                return endY > startY ? Double.POSITIVE_INFINITY : Double.NEGATIVE_INFINITY;
             } else {
-                return (endPoint[1] - startPoint[1]) / (endPoint[0] - startPoint[0]);
+                return (endY - startY) / (endX - startX);
             }
         }
 
         public static double GET_YINTERCEPT(double gradient, double[] point) {
-            return point[1] - gradient * point[0];
+            return GET_YINTERCEPT(gradient, point[0], point[1]);
+        }
+
+        public static double GET_YINTERCEPT(double gradient, double x, double y) {
+            return y - gradient * x;
         }
 
         public static List<double[]> GET_WORLD_INTERSECTS(double gradient, double yIntercept, Rect worldRect) {
+            PathBuffer worldIntersects = new PathBuffer();
+            GET_WORLD_INTERSECTS(gradient, yIntercept, worldRect, worldIntersects);
+            return worldIntersects.ToList();
+        }
+
+        public static void GET_WORLD_INTERSECTS(double gradient, double yIntercept, Rect worldRect, PathBuffer out) {
             double leftSide = -worldRect.Breadth / 2;
             double rightSide = worldRect.Breadth / 2;
             double topSide = worldRect.Length / 2;
             double bottomSide = -worldRect.Length / 2;
-            List<double[]> worldIntersects =  worldRect.checkLinearIntersect(gradient, yIntercept, leftSide-1, bottomSide-1, rightSide+1, topSide+1, 0);
-            return worldIntersects;
+            worldRect.checkLinearIntersect(gradient, yIntercept, leftSide-1, bottomSide-1, rightSide+1, topSide+1, 0, out);
         }
 
         public static List<double[]> GET_WORLD_INTERSECTS(boolean isVertical, double posOnAxis, Rect worldRect) {
-            List<double[]> values = new ArrayList<>();
+            PathBuffer values = new PathBuffer();
+            GET_WORLD_INTERSECTS(isVertical, posOnAxis, worldRect, values);
+            return values.ToList();
+        }
+
+        public static void GET_WORLD_INTERSECTS(boolean isVertical, double posOnAxis, Rect worldRect, PathBuffer out) {
             if (isVertical) {
-                values.add(new double[]{posOnAxis, worldRect.Length / 2});
-                values.add(new double[]{posOnAxis, -worldRect.Length / 2});
+                out.Add(posOnAxis, worldRect.Length / 2);
+                out.Add(posOnAxis, -worldRect.Length / 2);
             } else {
-                values.add(new double[]{worldRect.Breadth / 2, posOnAxis});
-                values.add(new double[]{-worldRect.Breadth / 2, posOnAxis});
+                out.Add(worldRect.Breadth / 2, posOnAxis);
+                out.Add(-worldRect.Breadth / 2, posOnAxis);
             }
-            return values;
         }
 
         public static List<double[]> GET_PERPENDICULAR_BISECTOR(double[] startPoint, double[] endPoint, Rect worldRect) {
-            double[] midPoint = GET_MIDPOINT(startPoint, endPoint);
+            PathBuffer bisectLine = new PathBuffer();
+            GET_PERPENDICULAR_BISECTOR(startPoint[0], startPoint[1], endPoint[0], endPoint[1], worldRect, bisectLine);
+            return bisectLine.ToList();
+        }
 
-            if (IS_VERTICAL(startPoint, endPoint)) {
-                return GET_WORLD_INTERSECTS(false, midPoint[1], worldRect);
-            } else if (IS_HORIZONTAL(startPoint, endPoint)) {
-                return GET_WORLD_INTERSECTS(true, midPoint[0], worldRect);
-            } else {
-                double gradient = GET_GRADIENT(startPoint, endPoint);
-                List<double[]> bisectLine = GET_WORLD_INTERSECTS(-1/gradient, GET_YINTERCEPT(-1 / gradient, midPoint), worldRect);
-                if (bisectLine.size() != 0)
+        // Writes the ends of the bisector on the edge of the world into out, which is cleared first
+        // The bisector is middle + t * (-diffY, diffX), cut where it leaves the world, so a nearly vertical or nearly
+        // horizontal pair of points gives as exact a bisector as any other
+        public static void GET_PERPENDICULAR_BISECTOR(double startX, double startY, double endX, double endY, Rect worldRect, PathBuffer out) {
+            out.Clear();
+            double midX = (startX + endX) / 2;
+            double midY = (startY + endY) / 2;
+
+            if (IS_VERTICAL(startX, startY, endX, endY)) {
+                GET_WORLD_INTERSECTS(false, midY, worldRect, out);
+            } else if (IS_HORIZONTAL(startX, startY, endX, endY)) {
+                GET_WORLD_INTERSECTS(true, midX, worldRect, out);
+            } else if (startX != endX) {
+                double directionX = startY - endY;
+                double directionY = endX - startX;
+                // Where the bisector is between the left and right of the world and between the bottom and top
+                double firstX = (-worldRect.Breadth / 2 - midX) / directionX;
+                double secondX = (worldRect.Breadth / 2 - midX) / directionX;
+                double firstY = (-worldRect.Length / 2 - midY) / directionY;
+                double secondY = (worldRect.Length / 2 - midY) / directionY;
+                double back = Math.max(Math.min(firstX, secondX), Math.min(firstY, secondY));
+                double forward = Math.min(Math.max(firstX, secondX), Math.max(firstY, secondY));
+                if (!(back < forward))
                 {
-                    return bisectLine;
-                }else
-                {
-                    throw new RuntimeException("Invalid points " + startPoint[0] + " " + startPoint[1] + "|" + endPoint[0] + " " + endPoint[1]);
+                    throw new RuntimeException("Invalid points " + startX + " " + startY + "|" + endX + " " + endY);
                 }
+                out.Add(midX + back * directionX, midY + back * directionY);
+                out.Add(midX + forward * directionX, midY + forward * directionY);
             }
         }
 
         public static List<double[]> ORDER_INTERSECTS(List<double[]> intersects, double[] startPoint)
         {
-            intersects.sort((double[] intersect1, double[] intersect2) -> (int) (GET_LENGTH(startPoint, intersect1) - GET_LENGTH(startPoint, intersect2)));
+            intersects.sort((double[] intersect1, double[] intersect2) -> Geometry.CompareDistance(startPoint[0], startPoint[1], intersect1[0], intersect1[1], intersect2[0], intersect2[1]));
             return intersects;
         }
 
+        // Order the points from index from onwards by distance from the start, in place
+        // Short runs use the same run detection and binary insertion as List.sort, so both versions order points identically
+        public static void ORDER_INTERSECTS(PathBuffer intersects, int from, double startX, double startY)
+        {
+            int to = intersects.Count;
+            if (to - from < 2)
+            {
+                return;
+            }
+            if (to - from >= 32)
+            {
+                List<double[]> points = new ArrayList<>();
+                for (int i = from; i < to; i++)
+                {
+                    points.add(new double[] {intersects.X(i), intersects.Y(i)});
+                }
+                ORDER_INTERSECTS(points, new double[] {startX, startY});
+                intersects.Count = from;
+                for (double[] point : points)
+                {
+                    intersects.Add(point[0], point[1]);
+                }
+                return;
+            }
+
+            // Find the run at the start, turning it around if it is descending
+            int runEnd = from + 1;
+            if (COMPARE_DISTANCE(intersects, runEnd++, from, startX, startY) < 0)
+            {
+                while (runEnd < to && COMPARE_DISTANCE(intersects, runEnd, runEnd - 1, startX, startY) < 0)
+                {
+                    runEnd++;
+                }
+                for (int i = from, j = runEnd - 1; i < j; i++, j--)
+                {
+                    intersects.Swap(i, j);
+                }
+            }else
+            {
+                while (runEnd < to && COMPARE_DISTANCE(intersects, runEnd, runEnd - 1, startX, startY) >= 0)
+                {
+                    runEnd++;
+                }
+            }
+
+            // Insert the rest one at a time, searching for their place with a binary search
+            for (int next = runEnd; next < to; next++)
+            {
+                int left = from;
+                int right = next;
+                while (left < right)
+                {
+                    int mid = (left + right) >>> 1;
+                    if (COMPARE_DISTANCE(intersects, next, mid, startX, startY) < 0)
+                    {
+                        right = mid;
+                    }else
+                    {
+                        left = mid + 1;
+                    }
+                }
+                for (int i = next; i > left; i--)
+                {
+                    intersects.Swap(i, i - 1);
+                }
+            }
+        }
+
+        // Compares two points' distances from the start the same way the list version of ORDER_INTERSECTS does
+        static int COMPARE_DISTANCE(PathBuffer points, int first, int second, double startX, double startY)
+        {
+            return Geometry.CompareDistance(startX, startY, points.X(first), points.Y(first), points.X(second), points.Y(second));
+        }
+
         public static double GET_PATH_LENGTH (List<double[]> path)
         {
             double totalLength = 0;
@@ -126,187 +369,712 @@ public class Map
             return totalLength;
         }
 
+        public static double GET_PATH_LENGTH (PathBuffer path)
+        {
+            double totalLength = 0;
+            for (int i = 0; i < path.Count-2; i++)
+            {
+                totalLength += GET_LENGTH(path.X(i), path.Y(i), path.X(i+1), path.Y(i+1));
+            }
+            return totalLength;
+        }
+
     }
 
-    // Group shapes whose buffers intersect into hybrid shapes
-    public void GroupShapes(double buffer)
+    // Shapes whose buffers intersect grouped into hybrid shapes, leaving MapObjects as it is
+    // The groups for each buffer are kept and only worked out again around shapes that were added, removed or moved
+    public List<MapObject> GroupShapes(double buffer)
     {
-        List<MapObject> groupedMapObjects = new ArrayList<>();
-        ListIterator<MapObject> mapObjects = MapObjects.listIterator();
-        while(mapObjects.hasNext())
+        ShapeGroups groups = Groups.get(buffer);
+        if (groups == null)
         {
-            MapObject object = mapObjects.next();
-            List<MapObject> compObject = new ArrayList<>();
-            compObject.add(object);
-            mapObjects.remove();
-            HybridObject group = new HybridObject(compObject);
-            while (mapObjects.hasNext())
+            groups = new ShapeGroups(this, buffer);
+            Groups.put(buffer, groups);
+        }
+        return groups.Update();
+    }
+
+    // The map with every shape grown by the robot's footprint, so the middle of the robot can be planned for as a point
+    // Any planner can be run on it with ConfigSpace.MARGIN as the buffer. The grown shapes for each footprint are kept
+    // and only grown again for shapes that were added or moved
+    public Map SpaceFor(Footprint footprint)
+    {
+        ConfigSpace space = Spaces.get(footprint);
+        if (space == null)
+        {
+            space = new ConfigSpace(this, footprint);
+            Spaces.put(footprint, space);
+        }
+        return space.Update();
+    }
+
+    // Short shapes according to the reverse of their order of intersection with the line
+    public void OrderShapes(double[] startPoint, double[] endPoint)
+    {
+        OrderShapes(MapObjects, startPoint, endPoint);
+    }
+
+    // Short the given shapes according to the reverse of their order of intersection with the line
+    public void OrderShapes(List<MapObject> shapes, double[] startPoint, double[] endPoint)
+    {
+        int[] order = ShapeOrder(shapes, UseSpatialIndex ? new SpatialIndex(shapes) : null, startPoint, endPoint);
+        List<MapObject> ordered = new ArrayList<>(shapes.size());
+        for (int i : order)
+        {
+            ordered.add(shapes.get(i));
+        }
+        for (int i = 0; i < ordered.size(); i++)
+        {
+            shapes.set(i, ordered.get(i));
+        }
+    }
+
+    // The positions in the list of the shapes in the reverse of their order of intersection with the line, using the
+    // index over the list if there is one
+    int[] ShapeOrder(List<MapObject> shapes, SpatialIndex index, double[] startPoint, double[] endPoint)
+    {
+        return ShapeOrder(shapes, index == null ? null : index.QuerySegment(startPoint, endPoint, INDEX_MARGIN), startPoint, endPoint);
+    }
+
+    // Same as above given the shapes whose boxes the line reaches, null to look at every shape
+    int[] ShapeOrder(List<MapObject> shapes, int[] nearLine, double[] startPoint, double[] endPoint)
+    {
+        // Work out each position once rather than on every comparison
+        double[] positions = new double[shapes.size()];
+        if (nearLine != null)
+        {
+            // Shapes away from the line can't cross it, so they sit at the full length of the line
+            Arrays.fill(positions, LINE_FUNCTIONS.GET_LENGTH(startPoint, endPoint));
+            for (int i : nearLine)
             {
-                MapObject otherObject = mapObjects.next();
-                if (group.Overlaps(otherObject, buffer))
-                {
-                    group.AddObj(otherObject);
-                    mapObjects.remove();
-                }
+                positions[i] = shapes.get(i).PosOnLine(startPoint, endPoint);
             }
-            if (group.CompObjects.size() == 1)
-            {
-                groupedMapObjects.add(object);
-            }else
+        }else
+        {
+            for (int i = 0; i < shapes.size(); i++)
             {
-                groupedMapObjects.add(group);
+                positions[i] = shapes.get(i).PosOnLine(startPoint, endPoint);
             }
         }
-        MapObjects = groupedMapObjects;
+        Integer[] sorted = new Integer[shapes.size()];
+        for (int i = 0; i < sorted.length; i++)
+        {
+            sorted[i] = i;
+        }
+        Arrays.sort(sorted, (Integer i, Integer j) -> Double.compare(positions[i], positions[j]));
+        int[] order = new int[sorted.length];
+        for (int i = 0; i < sorted.length; i++)
+        {
+            order[i] = sorted[sorted.length - 1 - i];
+        }
+        return order;
     }
 
-    // Short shapes according to the reverse of their order of intersection with the line
-    public void OrderShapes(double[] startPoint, double[] endPoint)
+
+    // Fully clear path for a robot with the footprint, planned around the shapes grown by it
+    public List<double[]> ClearPath(double[] startPoint, double[] endPoint, Footprint footprint)
     {
-        MapObjects.sort((MapObject obj1, MapObject obj2) -> (int)(obj1.PosOnLine(startPoint, endPoint) - obj2.PosOnLine(startPoint, endPoint)));
-        Collections.reverse(MapObjects);
+        return SpaceFor(footprint).ClearPath(startPoint, endPoint, ConfigSpace.MARGIN);
     }
 
-
     // Fully clear path for all shapes
     public List<double[]> ClearPath(double[] startPoint, double[] endPoint, double buffer)
+    {
+        PathBuffer path = new PathBuffer();
+        ClearPath(startPoint[0], startPoint[1], endPoint[0], endPoint[1], buffer, path);
+        return path.ToList();
+    }
+
+    // Fully clear path for all shapes, writing the path into the given buffer
+    // Paths already found for the same points and buffer come straight from the cache while the shapes near them stay put
+    public void ClearPath(double startX, double startY, double endX, double endY, double buffer, PathBuffer path)
+    {
+        PlannerMetrics metrics = Metrics;
+        long start = metrics == null ? 0 : System.nanoTime();
+        long allocated = metrics == null ? -1 : PlannerMetrics.ThreadAllocatedBytes();
+        if (Cache != null && Cache.Get(startX, startY, endX, endY, buffer, path))
+        {
+            if (metrics != null)
+            {
+                metrics.Record(PlannerMetrics.CACHE_HIT, path.Count, startX, startY);
+                metrics.CountClearPath(System.nanoTime() - start, AllocatedSince(allocated));
+            }
+            return;
+        }
+        if (metrics != null)
+        {
+            metrics.Record(PlannerMetrics.CLEAR_PATH_START, MapObjects.size(), startX, startY);
+        }
+        try
+        {
+            PlanClearPath(startX, startY, endX, endY, buffer, path);
+            if (Cache != null)
+            {
+                Cache.Put(startX, startY, endX, endY, buffer, path);
+            }
+        } finally
+        {
+            // Calls that throw still count towards the time
+            if (metrics != null)
+            {
+                metrics.Record(PlannerMetrics.CLEAR_PATH_END, path.Count, endX, endY);
+                metrics.CountClearPath(System.nanoTime() - start, AllocatedSince(allocated));
+            }
+        }
+    }
+
+    // Bytes this thread has allocated since it had allocated the given number, -1 if either can't be measured
+    static long AllocatedSince(long allocated)
+    {
+        return allocated < 0 ? -1 : PlannerMetrics.ThreadAllocatedBytes() - allocated;
+    }
+
+    // Fully clear paths for many legs with one buffer, in the order given. The shapes are grouped once for all of them
+    // and the legs are planned side by side, each coming back with its path and how long it took
+    public List<BatchPlanner.Leg> ClearPaths(List<double[]> startPoints, List<double[]> endPoints, double buffer)
+    {
+        return BatchPlanner.ClearPaths(this, startPoints, endPoints, buffer);
+    }
+
+    // Clear the path around every shape in turn, without looking in the cache
+    void PlanClearPath(double startX, double startY, double endX, double endY, double buffer, PathBuffer path)
     {
         // Group shapes that are near one another into hybrid objects
-        GroupShapes(buffer);
+        List<MapObject> shapes = GroupShapes(buffer);
+        PlanClearPath(shapes, UseSpatialIndex ? new SpatialIndex(shapes) : null, startX, startY, endX, endY, buffer, path);
+    }
+
+    // Clear the path around the grouped shapes in turn, looking them up in the index over them if there is one
+    // Nothing here changes the map, so legs of a batch can share the shapes and index and run at the same time
+    void PlanClearPath(List<MapObject> shapes, SpatialIndex index, double startX, double startY, double endX, double endY, double buffer, PathBuffer path)
+    {
+        double[] startPoint = new double[] {startX, startY};
+        double[] endPoint = new double[] {endX, endY};
+
+        // The shapes whose boxes the straight line reaches, looked up once to both order the shapes and mark the ones
+        // near the path to begin with
+        int[] nearLine = index == null ? null : index.QuerySegment(startPoint, endPoint, INDEX_MARGIN);
 
         // Order shapes according to proximity to end point
-        OrderShapes(startPoint, endPoint);
+        int[] order = ShapeOrder(shapes, nearLine, startPoint, endPoint);
 
         // Initialize path for robot given start point and end point
-        List<double[]> path = new ArrayList<>(List.of(startPoint, endPoint));
+        path.Clear();
+        path.Add(startX, startY);
+        path.Add(endX, endY);
+        DetourLimits limits = DetourLimits.None();
+        PathBuffer newPath = Scratch.Borrow();
+        try
+        {
+            ClearShapesInOrder(shapes, index, order, nearLine, buffer, path, newPath, limits);
+        } finally
+        {
+            Scratch.Return(newPath);
+        }
+    }
+
+    // Clear the path around each shape in the order, only the ones near the path if there's an index
+    void ClearShapesInOrder(List<MapObject> shapes, SpatialIndex index, int[] order, int[] nearLine, double buffer, PathBuffer path, PathBuffer newPath, DetourLimits limits)
+    {
+        if (index == null)
+        {
+            // Clear path for each shape
+            for (int i : order)
+            {
+                FindValidPath(shapes.get(i), path, buffer, newPath, limits);
+                path.CopyFrom(newPath);
+            }
+            return;
+        }
+
+        // Only shapes near the path can change it, so mark those and skip the rest
+        boolean[] nearPath = new boolean[shapes.size()];
+        for (int i : nearLine)
+        {
+            nearPath[i] = true;
+        }
+
+        // Clear path for each shape near the path, marking new shapes along the detours whenever the path moves
+        for (int i : order)
+        {
+            if (!nearPath[i])
+            {
+                continue;
+            }
+            FindValidPath(shapes.get(i), path, buffer, newPath, limits);
+            if (!newPath.SameAs(path))
+            {
+                MarkNearPath(index, path, newPath, nearPath);
+                path.CopyFrom(newPath);
+            }
+        }
+    }
 
-        // Clear path for each shape
-        for (int i = 0; i < MapObjects.size(); i++)
+    // Add every shape on the map the segment passes through, with the buffer, to hits along with where along the
+    // segment it goes in and comes out, returning how many were added. All the circles and rects are tested in one
+    // pass over arrays of them, which are packed on the first call and again whenever the shapes change
+    public int CrossedShapes(double startX, double startY, double endX, double endY, double buffer, ShapeArrays.Hits hits)
+    {
+        ShapeArrays packed = Packed;
+        if (packed == null || !packed.IsCurrent(MapObjects, Version))
+        {
+            packed = new ShapeArrays(MapObjects, Version);
+            Packed = packed;
+        }
+        return packed.Cross(startX, startY, endX, endY, buffer, hits);
+    }
+
+    // Mark every indexed shape whose box touches a segment of the path
+    void MarkNearPath(SpatialIndex index, PathBuffer path, boolean[] nearPath)
+    {
+        for (int i = 0; i < path.Count - 1; i++)
+        {
+            MarkNearSegment(index, path, i, nearPath);
+        }
+    }
+
+    // Mark the shapes near the segments of the new path that aren't on the old one, whose shapes are marked already
+    // A detour keeps the old path's points in order and puts new ones between them, so walking along both finds the
+    // segments it kept. Anything the walk loses track of is looked up again, which only costs the lookup
+    void MarkNearPath(SpatialIndex index, PathBuffer oldPath, PathBuffer newPath, boolean[] nearPath)
+    {
+        // The point on the old path the walk has got up to
+        int kept = 0;
+        for (int i = 0; i < newPath.Count - 1; i++)
+        {
+            boolean keptNext = kept + 1 < oldPath.Count && newPath.X(i + 1) == oldPath.X(kept + 1) && newPath.Y(i + 1) == oldPath.Y(kept + 1);
+            if (!keptNext || newPath.X(i) != oldPath.X(kept) || newPath.Y(i) != oldPath.Y(kept))
+            {
+                MarkNearSegment(index, newPath, i, nearPath);
+            }
+            if (keptNext)
+            {
+                kept++;
+            }
+        }
+    }
+
+    void MarkNearSegment(SpatialIndex index, PathBuffer path, int i, boolean[] nearPath)
+    {
+        index.FindOnSegment(path.X(i), path.Y(i), path.X(i + 1), path.Y(i + 1), INDEX_MARGIN, j -> {
+            nearPath[j] = true;
+            return false;
+        });
+    }
+
+    // Shortest path around the shapes using a visibility graph and A*, an empty list if there is no path
+    // The graph is built on the first call and reused until the buffer or the shapes change
+    public List<double[]> ShortestPath(double[] startPoint, double[] endPoint, double buffer)
+    {
+        if (Graph == null || Graph.Buffer != buffer || Graph.Version != Version)
+        {
+            Graph = new VisibilityGraph(this, buffer);
+        }
+        return Graph.FindPath(startPoint, endPoint);
+    }
+
+    // Any-angle path over the bitset grid of the map, an empty list if there is no path. It bends anywhere rather than
+    // following the grid, and only ever looks at cells so its time is bounded by the grid size whatever the shapes are
+    public List<double[]> AnyAnglePath(double[] startPoint, double[] endPoint, double buffer, double cellSize)
+    {
+        OccupancyGrid grid = GridFor(cellSize, buffer);
+        if (AnyAngle == null || AnyAngle.Grid != grid)
+        {
+            AnyAngle = new ThetaStar(grid);
+        }
+        return AnyAngle.FindPath(startPoint, endPoint, buffer);
+    }
+
+    // Path for a rectangular robot that turns to fit, as {x, y, heading} poses from the start facing the start heading in
+    // radians, or an empty list if there is none. The robot turns on the spot and drives straight between poses, so it
+    // can go side on through gaps that a buffer big enough for the whole robot would close off
+    public List<double[]> HeadingPath(double[] startPoint, double startHeading, double[] endPoint, Footprint footprint, double buffer, double cellSize)
+    {
+        OrientedFootprint robot = Turning != null && Turning.Robot.Shape.equals(footprint) ? Turning.Robot : new OrientedFootprint(footprint, OrientedFootprint.DEFAULT_HEADINGS);
+        OccupancyGrid grid = GridFor(cellSize, HeadingPlanner.NearDistance(cellSize, robot, buffer));
+        if (Turning == null || Turning.Robot != robot || Turning.Buffer != buffer || Turning.Grid != grid)
+        {
+            Turning = new HeadingPlanner(this, grid, robot, buffer);
+        }
+        return Turning.FindPath(startPoint, startHeading, endPoint);
+    }
+
+    // Shortest route from the start through every goal in whichever order is cheapest, ending at the end point, or at
+    // the last goal if the end point is null. The legs are planned with ClearPath side by side and kept for the next call
+    public RouteOptimizer.Route BestRoute(double[] startPoint, List<double[]> goals, double[] endPoint, double buffer)
+    {
+        if (Routes == null)
+        {
+            Routes = new RouteOptimizer(this);
+        }
+        return Routes.BestRoute(startPoint, goals, endPoint, buffer);
+    }
+
+    // Plan for no longer than the deadline, a System.nanoTime value, carrying on from where the last call stopped
+    // The first calls search the grid for a path, later ones refine it with ClearPath for as long as the start stays
+    // the same. The result says whether the path is clear all the way yet and whether there's anything left to refine
+    public AnytimePlanner.Result AnytimePath(double[] startPoint, double[] endPoint, double buffer, long deadline)
+    {
+        if (Anytime == null)
+        {
+            Anytime = new AnytimePlanner(this, IncrementalPlanner.DEFAULT_CELL_SIZE);
+        }
+        return Anytime.Plan(startPoint, endPoint, buffer, deadline);
+    }
+
+    // Load a roadmap built offline for this field with Roadmap.Build, RoadmapPath searches it from then on
+    public void LoadRoadmap(File file) throws IOException
+    {
+        Roads = Roadmap.Read(file);
+    }
+
+    // Path through the roadmap loaded at init, which only has to join the start and end to it, an empty list if there
+    // is no path. Falls back on ShortestPath if no roadmap for the buffer is loaded or the shapes it was built around
+    // have changed
+    public List<double[]> RoadmapPath(double[] startPoint, double[] endPoint, double buffer)
+    {
+        if (Roads != null && Roads.Buffer == buffer && Roads.Fits(this))
+        {
+            return Roads.FindPath(startPoint, endPoint);
+        }
+        return ShortestPath(startPoint, endPoint, buffer);
+    }
+
+    // Path over a grid of the map that keeps its search between calls, so after shapes are added, removed, moved
+    // or toggled only the part of the search they touch is repaired. An empty list if there is no path
+    public List<double[]> Replan(double[] startPoint, double[] endPoint, double buffer)
+    {
+        if (Replanner == null || Replanner.Buffer != buffer || Replanner.MinX != -Breadth / 2 || Replanner.MinY != -Length / 2)
+        {
+            Replanner = new IncrementalPlanner(this, buffer);
+        }
+        return Replanner.Plan(startPoint, endPoint);
+    }
+
+    // ClearPath with the waypoints it doesn't need dropped, then timed under the limits into a table sampled every
+    // period seconds for the control loop to read from
+    public Trajectory PlanTrajectory(double[] startPoint, double[] endPoint, double buffer, double maxVelocity, double maxAcceleration, double maxJerk, double period)
+    {
+        List<double[]> path = Trajectory.Shortcut(this, ClearPath(startPoint, endPoint, buffer), buffer);
+        return Trajectory.Plan(path, maxVelocity, maxAcceleration, maxJerk, period);
+    }
+
+    // Bitset grid of the map for constant time collision checks with any buffer up to maxBuffer
+    // The grid is kept between calls and only burned again around shapes that changed since the last one
+    public OccupancyGrid Rasterize(double cellSize, double maxBuffer)
+    {
+        if (Raster == null || Raster.CellSize != cellSize || Raster.MaxBuffer != maxBuffer || Raster.MinX != -Breadth / 2 || Raster.MinY != -Length / 2)
+        {
+            Raster = new OccupancyGrid(this, cellSize, maxBuffer);
+        }else
         {
-            path = FindValidPath(i, path, buffer);
+            Raster.Update();
         }
+        return Raster;
+    }
 
-        // Return the final path
-        return path;
+    // The grid from Rasterize with the cell size, keeping the one there is if it already covers the buffer
+    OccupancyGrid GridFor(double cellSize, double buffer)
+    {
+        return Rasterize(cellSize, Raster != null && Raster.CellSize == cellSize ? Math.max(Raster.MaxBuffer, buffer) : buffer);
     }
 
     // Try both directions to find the better path
     public List<double[]> FindValidPath(int shapeIndex, List<double[]> currentPath, double buffer)
+    {
+        PathBuffer path = new PathBuffer();
+        PathBuffer validPath = new PathBuffer();
+        path.FromList(currentPath);
+        FindValidPath(shapeIndex, path, buffer, validPath);
+        return validPath.ToList();
+    }
+
+    // Try both directions to find the better path, writing it into validPath
+    public void FindValidPath(int shapeIndex, PathBuffer currentPath, double buffer, PathBuffer validPath)
+    {
+        FindValidPath(MapObjects.get(shapeIndex), currentPath, buffer, validPath);
+    }
+
+    // Try both directions around the given shape to find the better path, writing it into validPath
+    public void FindValidPath(MapObject shape, PathBuffer currentPath, double buffer, PathBuffer validPath)
+    {
+        FindValidPath(shape, currentPath, buffer, validPath, DetourLimits.None());
+    }
+
+    // Same as above within the limits of the ClearPath call it's part of
+    void FindValidPath(MapObject shape, PathBuffer currentPath, double buffer, PathBuffer validPath, DetourLimits limits)
     {
         // Find both directions around the shape
-        List<double[]> pathOne = ClearShapePath(shapeIndex, currentPath, buffer, false);
-        List<double[]> pathTwo = ClearShapePath(shapeIndex, currentPath, buffer, true);
+        PathBuffer pathOne = Scratch.Borrow();
+        PathBuffer pathTwo = Scratch.Borrow();
+        try
+        {
+            ChooseValidPath(shape, currentPath, buffer, validPath, limits, pathOne, pathTwo);
+        } finally
+        {
+            Scratch.Return(pathOne);
+            Scratch.Return(pathTwo);
+        }
+    }
+
+    void ChooseValidPath(MapObject shape, PathBuffer currentPath, double buffer, PathBuffer validPath, DetourLimits limits, PathBuffer pathOne, PathBuffer pathTwo)
+    {
+        boolean foundOne;
+        boolean foundTwo;
+        if (UseParallel)
+        {
+            boolean[] found = ParallelDetours.ClearBothWays(this, shape, currentPath, buffer, pathOne, pathTwo, limits);
+            foundOne = found[0];
+            foundTwo = found[1];
+        }else
+        {
+            foundOne = ClearShapePath(shape, currentPath, buffer, false, pathOne, 0, limits);
+            foundTwo = ClearShapePath(shape, currentPath, buffer, true, pathTwo, 0, limits);
+        }
 
         // Return the shorter path if it isn't null, otherwise return the other path. If they are both null, throw an exception
-        if (pathOne.size() == 0)
+        PathBuffer chosen = null;
+        if (!foundOne)
         {
-            if (pathTwo.size() > 0)
+            if (foundTwo)
             {
-                System.out.println("pathTwo");
-                return pathTwo;
+                chosen = pathTwo;
             }
-        }else if(pathTwo.size() == 0){
-            System.out.println("pathOne");
-            return pathOne;
+        }else if(!foundTwo){
+            chosen = pathOne;
         }else{
-            System.out.println("oneOrTwo");
             double pathOneLength = LINE_FUNCTIONS.GET_PATH_LENGTH(pathOne);
             double pathTwoLength = LINE_FUNCTIONS.GET_PATH_LENGTH(pathTwo);
             if (pathOneLength > pathTwoLength)
             {
-                return pathTwo;
+                chosen = pathTwo;
             }else{
-                return pathOne;
+                chosen = pathOne;
             }
         }
-        throw new Error("No valid path");
+        if (chosen != null)
+        {
+            validPath.CopyFrom(chosen);
+        }
+        PlannerMetrics metrics = Metrics;
+        if (metrics != null)
+        {
+            metrics.Record(chosen == null ? PlannerMetrics.NO_VALID_PATH : PlannerMetrics.SHAPE_CLEARED, (foundOne ? 1 : 0) + (foundTwo ? 2 : 0), shape.XPos, shape.YPos);
+        }
+        if (chosen == null)
+        {
+            throw new Error("No valid path");
+        }
     }
 
     public List<double[]> ClearShapePath(int shapeIndex, List<double[]> currentPath, double buffer, boolean longerPath)
     {
+        PathBuffer path = new PathBuffer();
+        PathBuffer newPath = new PathBuffer();
+        path.FromList(currentPath);
+        if (ClearShapePath(shapeIndex, path, buffer, longerPath, newPath))
+        {
+            return newPath.ToList();
+        }
+        return new ArrayList<>();
+    }
+
+    // Clear the path around one shape, writing it into newPath. Returns false if the path would leave the map
+    public boolean ClearShapePath(int shapeIndex, PathBuffer currentPath, double buffer, boolean longerPath, PathBuffer newPath)
+    {
+        return ClearShapePath(MapObjects.get(shapeIndex), currentPath, buffer, longerPath, newPath);
+    }
+
+    // Clear the path around the given shape, writing it into newPath. Returns false if the path would leave the map
+    public boolean ClearShapePath(MapObject shape, PathBuffer currentPath, double buffer, boolean longerPath, PathBuffer newPath)
+    {
+        return ClearShapePath(shape, currentPath, buffer, longerPath, newPath, 0, DetourLimits.None());
+    }
 
+    // Clear the path around the given shape, the depth being how many detours this one is nested inside
+    boolean ClearShapePath(MapObject shape, PathBuffer currentPath, double buffer, boolean longerPath, PathBuffer newPath, int depth, DetourLimits limits)
+    {
         // Initialize the new path in terms of a sequence of points
-        List<double[]> newPath = new ArrayList<>();
+        newPath.Clear();
+        if (!StartDetourLevel(currentPath, depth, limits))
+        {
+            return false;
+        }
+        PathBuffer intersectPoints = Scratch.Borrow();
+        PathBuffer bisectedSegment = Scratch.Borrow();
+        PathBuffer newSegment = Scratch.Borrow();
+        try
+        {
+            return ClearShapeSegments(shape, currentPath, buffer, longerPath, newPath, depth, limits, intersectPoints, bisectedSegment, newSegment);
+        } finally
+        {
+            Scratch.Return(intersectPoints);
+            Scratch.Return(bisectedSegment);
+            Scratch.Return(newSegment);
+        }
+    }
 
+    boolean ClearShapeSegments(MapObject shape, PathBuffer currentPath, double buffer, boolean longerPath, PathBuffer newPath, int depth, DetourLimits limits, PathBuffer intersectPoints, PathBuffer bisectedSegment, PathBuffer newSegment)
+    {
+        PlannerMetrics metrics = Metrics;
+        boolean cleared = true;
 
         // For each line segment on the path
-        for (int i = 0; i < currentPath.size()-1; i++)
+        for (int i = 0; i < currentPath.Count-1 && cleared; i++)
         {
-            // Initialize a variable to store found intersects on the path
-            List<double[]> intersectPoints = new ArrayList<>();
-            // Find its intersects with the shape
-            intersectPoints.addAll(MapObjects.get(shapeIndex).checkIntersect(currentPath.get(i), currentPath.get(i+1), 0));
+            // If it crosses the shape, execute the recursive loop, bisecting the line and then clearing that path
+            if (CrossesShape(shape, currentPath, i, intersectPoints)) {
 
-            // If it intersects twice, execute the recursive loop, bisecting the line and then clearing that path
-            if (intersectPoints.size() == 2 && intersectPoints.get(0) != intersectPoints.get(1)) {
-
-                List<double[]> bisectedSegment = BisectAndExtendOut(shapeIndex,  intersectPoints, currentPath.get(i), currentPath.get(i+1), buffer, longerPath);
-                // Conditions to return null value upwards if error occurs in bisecting (due to path going outside map)
-                if (bisectedSegment.size() != 0)
+                // Stop and report upwards if bisecting fails (due to path going outside map)
+                if (BisectAndExtendOut(shape, intersectPoints, currentPath.X(i), currentPath.Y(i), currentPath.X(i+1), currentPath.Y(i+1), buffer, longerPath, bisectedSegment)
+                        && ClearShapePath(shape, bisectedSegment, buffer, false, newSegment, depth + 1, limits))
                 {
-                    List<double[]> newSegment = ClearShapePath(shapeIndex, bisectedSegment, buffer, false);
-                    if (newSegment.size() != 0)
-                    {
-                        newPath.addAll(newSegment.subList(0, newSegment.size() - 1));
-                    }else
+                    if (metrics != null)
                     {
-                        return new ArrayList<>();
+                        metrics.Record(PlannerMetrics.DETOUR, depth, bisectedSegment.X(1), bisectedSegment.Y(1));
                     }
-                }else{
-                    return new ArrayList<>();
+                    newPath.Append(newSegment, 0, newSegment.Count - 1);
+                }else
+                {
+                    cleared = false;
                 }
             } else // If it doesn't intersect then just add the line segment as it was to the new path
             {
-                newPath.add(currentPath.get(i));
+                newPath.Add(currentPath.X(i), currentPath.Y(i));
             }
 
         }
-        newPath.add(currentPath.get(currentPath.size()-1));
-
-        return newPath; // Return the new path when finished
+        if (cleared)
+        {
+            newPath.Add(currentPath.X(currentPath.Count-1), currentPath.Y(currentPath.Count-1));
+        }else
+        {
+            newPath.Clear();
+        }
+        return cleared;
     }
 
     public List<double[]> BisectAndExtendOut(int shapeIndex, List<double[]> intersectPoints, double[] startPoint, double[] endPoint, double buffer, boolean longerPath)
     {
+        PathBuffer intersects = new PathBuffer();
+        PathBuffer path = new PathBuffer();
+        intersects.FromList(intersectPoints);
+        if (BisectAndExtendOut(shapeIndex, intersects, startPoint[0], startPoint[1], endPoint[0], endPoint[1], buffer, longerPath, path))
+        {
+            return path.ToList();
+        }
+        return new ArrayList<>();
+    }
+
+    // Detour the segment around the shape through a point on the buffered shape, writing it into path
+    // Returns false if the detour point is outside the map
+    public boolean BisectAndExtendOut(int shapeIndex, PathBuffer intersectPoints, double startX, double startY, double endX, double endY, double buffer, boolean longerPath, PathBuffer path)
+    {
+        return BisectAndExtendOut(MapObjects.get(shapeIndex), intersectPoints, startX, startY, endX, endY, buffer, longerPath, path);
+    }
+
+    // Detour the segment around the given shape through a point on the buffered shape, writing it into path
+    // Returns false if the detour point is outside the map
+    public boolean BisectAndExtendOut(MapObject shape, PathBuffer intersectPoints, double startX, double startY, double endX, double endY, double buffer, boolean longerPath, PathBuffer path)
+    {
+        path.Clear();
+        Rect worldRect = CachedWorldRect();
         // Find the perpendicular bisector of the intersects
-        List<double[]> perpendicular = LINE_FUNCTIONS.GET_PERPENDICULAR_BISECTOR(intersectPoints.get(0), intersectPoints.get(1), WorldRect());
+        PathBuffer perpendicular = Scratch.Borrow();
+        LINE_FUNCTIONS.GET_PERPENDICULAR_BISECTOR(intersectPoints.X(0), intersectPoints.Y(0), intersectPoints.X(1), intersectPoints.Y(1), worldRect, perpendicular);
+        if (perpendicular.Count < 2)
+        {
+            CountBisectFailure(Double.NaN, Double.NaN);
+            int count = perpendicular.Count;
+            Scratch.Return(perpendicular);
+            throw new IndexOutOfBoundsException("Bisector only meets the world " + count + " times");
+        }
         // Find new points by finding the bisectors intersects with the cushioned shape
-        List<double[]> newPoints = (MapObjects.get(shapeIndex).checkIntersect(perpendicular.get(0), perpendicular.get(1), buffer));
+        PathBuffer newPoints = Scratch.Borrow();
+        shape.checkIntersect(perpendicular.X(0), perpendicular.Y(0), perpendicular.X(1), perpendicular.Y(1), buffer, newPoints);
+        Scratch.Return(perpendicular);
+        // A hybrid object reports a single intersect once, but it stands for both extremes
+        if (newPoints.Count == 1)
+        {
+            newPoints.Add(newPoints.X(0), newPoints.Y(0));
+        }
+        if (newPoints.Count < 2)
+        {
+            CountBisectFailure(Double.NaN, Double.NaN);
+            int count = newPoints.Count;
+            Scratch.Return(newPoints);
+            throw new IndexOutOfBoundsException("Bisector only meets the shape " + count + " times");
+        }
 
-        // Find the first possible path
-        List<double[]> pathOne = new ArrayList<>();
-        pathOne.add(startPoint);
-        pathOne.add(newPoints.get(0));
-        pathOne.add(endPoint);
+        // Take the requested point whether longer or shorter, only the first leg counts towards the length
+        int chosen = (Geometry.CompareDistance(startX, startY, newPoints.X(0), newPoints.Y(0), newPoints.X(1), newPoints.Y(1)) >= 0) == longerPath ? 0 : 1;
+        double newX = newPoints.X(chosen);
+        double newY = newPoints.Y(chosen);
+        Scratch.Return(newPoints);
 
-        // Find the second possible path
-        List<double[]> pathTwo = new ArrayList<>();
-        pathTwo.add(startPoint);
-        pathTwo.add(newPoints.get(1));
-        pathTwo.add(endPoint);
+        // Make sure the new point is in the map, else start returning null upwards
+        if (!worldRect.IsInside(newX, newY))
+        {
+            CountBisectFailure(newX, newY);
+            return false;
+        }
+        path.Add(startX, startY);
+        path.Add(newX, newY);
+        path.Add(endX, endY);
+        return true;
+    }
 
-        // Return the requested path whether longer or shorter
-        if ((LINE_FUNCTIONS.GET_PATH_LENGTH(pathOne) >= LINE_FUNCTIONS.GET_PATH_LENGTH(pathTwo)) == longerPath)
+    // Start one level of detours around a shape, the same way whether they're worked out sequentially or as tasks
+    // Gives up past the deadline, and returns false when the detours are nested too deep to go on that way round or
+    // the call has already worked out as many as it may
+    boolean StartDetourLevel(PathBuffer currentPath, int depth, DetourLimits limits)
+    {
+        PlannerMetrics metrics = Metrics;
+        if (metrics != null)
         {
-            // Make sure the new point is in the map, else start returning null upwards
-            if (WorldRect().IsInside(pathOne.get(1)))
-            {
-                return pathOne;
-            }else{
-                return new ArrayList<>();
-            }
-        }else
+            metrics.CountDepth(depth);
+        }
+        limits.CheckTime();
+        // A shape that isn't convex can send every detour back through itself without getting any closer to clearing
+        // it, which on its own would go on until the stack runs out. Each level can branch in two, so the depth alone
+        // still leaves the work exponential, and the budget over the whole call bounds that
+        if (depth > MAX_DETOUR_DEPTH || (depth > 0 && !limits.TakeDetour()))
         {
-            // Make sure the new point is in the map, else start returning null upwards
-            if (WorldRect().IsInside(pathTwo.get(1)))
-            {
-                return pathTwo;
-            }else{
-                return new ArrayList<>();
-            }
+            CountBisectFailure(currentPath.X(0), currentPath.Y(0));
+            return false;
+        }
+        return true;
+    }
+
+    // Whether the path's segment from point i crosses the shape at two different places, which are left in intersects
+    // Two crossings at the same place are only touching
+    static boolean CrossesShape(MapObject shape, PathBuffer path, int i, PathBuffer intersects)
+    {
+        intersects.Clear();
+        shape.checkIntersect(path.X(i), path.Y(i), path.X(i+1), path.Y(i+1), 0, intersects);
+        return intersects.Count == 2 && (intersects.X(0) != intersects.X(1) || intersects.Y(0) != intersects.Y(1));
+    }
+
+    void CountBisectFailure(double x, double y)
+    {
+        PlannerMetrics metrics = Metrics;
+        if (metrics != null)
+        {
+            metrics.BisectFailures.incrementAndGet();
+            metrics.Record(PlannerMetrics.BISECT_FAILED, 0, x, y);
         }
     }
 
+    // The world rect, only made again when the size of the field changes
+    Rect CachedWorldRect()
+    {
+        if (World == null || World.Length != Length || World.Breadth != Breadth)
+        {
+            World = WorldRect();
+        }
+        return World;
+    }
+
     // An entity on the map
     public class MapObject
     {
@@ -328,6 +1096,34 @@ public class Map
         public boolean IsInside(double[] position){return false;}
         public boolean Overlaps(MapObject object, double buffer){return false;}
         public double PosOnLine(double[] startPoint, double[] endPoint){return 0;}
+        public double[] GetBounds(double buffer){return null;}
+
+        // Count an intersection test against this kind of shape if the map is keeping metrics
+        void CountTest(int kind)
+        {
+            PlannerMetrics metrics = Metrics;
+            if (metrics != null)
+            {
+                metrics.IntersectTests.incrementAndGet(kind);
+            }
+        }
+
+        // Packed versions that add to a caller's buffer, shapes override these to avoid making lists
+        public int checkIntersect(double startX, double startY, double endX, double endY, double buffer, PathBuffer out)
+        {
+            CountTest(PlannerMetrics.OTHER);
+            List<double[]> intersects = checkIntersect(new double[] {startX, startY}, new double[] {endX, endY}, buffer);
+            if (intersects == null)
+            {
+                return 0;
+            }
+            for (double[] intersect : intersects)
+            {
+                out.Add(intersect[0], intersect[1]);
+            }
+            return intersects.size();
+        }
+        public boolean IsInside(double x, double y){return IsInside(new double[] {x, y});}
     }
 
     // Abstract object on map
@@ -360,10 +1156,18 @@ public class Map
 
         // Check whether slanted line intersects with shape
         public List<double[]> checkLinearIntersect(double gradient, double yIntercept, double minX, double minY, double maxX, double maxY, double buffer)
+        {
+            PathBuffer ans = new PathBuffer();
+            checkLinearIntersect(gradient, yIntercept, minX, minY, maxX, maxY, buffer, ans);
+            return ans.ToList();
+        }
+
+        // Same as above but adds the intersects to out and returns how many it found
+        public int checkLinearIntersect(double gradient, double yIntercept, double minX, double minY, double maxX, double maxY, double buffer, PathBuffer out)
         {
 
-            // Initialize list to store roots
-            List<double[]> ans = new ArrayList<>();
+            // Where this shape's roots start in the buffer
+            int before = out.Count;
             // The radius with cushioning taken into account
             double bufferRad = Radius + buffer;
             // The co-efficient of x squared
@@ -382,7 +1186,7 @@ public class Map
                 double rootY = gradient * rootX + yIntercept;
                 if (rootX > minX && rootX < maxX && rootY > minY && rootY < maxY)
                 {
-                    ans.add(new double[]{rootX, rootY});
+                    out.Add(rootX, rootY);
                 }
                 // If there are two roots
             }else if (determinant > 0)
@@ -396,7 +1200,7 @@ public class Map
                 // Check if root is within range
                 if (root1X > minX && root1X < maxX && root1Y > minY && root1Y < maxY)
                 {
-                    ans.add(new double[]{root1X, root1Y});
+                    out.Add(root1X, root1Y);
                 }
 
                 // Quadratic formula with determinant for second root
@@ -407,21 +1211,29 @@ public class Map
                 // Check if root is within range
                 if (root2X > minX && root2X < maxX && root2Y > minY && root2Y < maxY)
                 {
-                    ans.add(new double[]{root2X, root2Y});
+                    out.Add(root2X, root2Y);
                 }
             }
 
 
-            return ans;
+            return out.Count - before;
         }
 
         // Check whether vertical line intersects with shape
         public List<double[]> checkVerticalIntersect(double xPos, double minY, double maxY, double buffer)
+        {
+            PathBuffer ans = new PathBuffer();
+            checkVerticalIntersect(xPos, minY, maxY, buffer, ans);
+            return ans.ToList();
+        }
+
+        // Same as above but adds the intersects to out and returns how many it found
+        public int checkVerticalIntersect(double xPos, double minY, double maxY, double buffer, PathBuffer out)
         {
             // The radius with cushioning taken into account
             double bufferRad = buffer + Radius;
-            // Initialize list to store roots
-            List<double[]> ans = new ArrayList<>();
+            // Where this shape's roots start in the buffer
+            int before = out.Count;
 
             // Check whether the line crosses the circle
             if ((maxY > super.YPos + bufferRad && minY < super.YPos + bufferRad) || (maxY > super.YPos - bufferRad && minY < super.YPos - bufferRad) || (xPos > super.XPos - bufferRad || xPos < super.XPos + bufferRad))
@@ -445,7 +1257,7 @@ public class Map
                     // Check if root is within range
                     if (rootY > minY && rootY < maxY)
                     {
-                        ans.add(new double[]{xPos, rootY});
+                        out.Add(xPos, rootY);
                     }
                     // If there are two roots
                 }else if (determinant > 0)
@@ -456,7 +1268,7 @@ public class Map
                     // Check if root is within range
                     if (root1Y > minY && root1Y < maxY)
                     {
-                        ans.add(new double[]{xPos, root1Y});
+                        out.Add(xPos, root1Y);
                     }
                     // Quadratic formula with determinant for second root
                     double root2Y = (-b - Math.sqrt(determinant))/(2*a);
@@ -464,20 +1276,28 @@ public class Map
                     // Check if root is within range
                     if (root2Y > minY && root2Y < maxY)
                     {
-                        ans.add(new double[]{xPos, root2Y});
+                        out.Add(xPos, root2Y);
                     }
 
                 }
             }
-            return ans;
+            return out.Count - before;
         }
 
         public List<double[]> checkHorizontalIntersect(double yPos, double minX, double maxX, double buffer)
+        {
+            PathBuffer ans = new PathBuffer();
+            checkHorizontalIntersect(yPos, minX, maxX, buffer, ans);
+            return ans.ToList();
+        }
+
+        // Same as above but adds the intersects to out and returns how many it found
+        public int checkHorizontalIntersect(double yPos, double minX, double maxX, double buffer, PathBuffer out)
         {
             // The radius with cushioning taken into account
             double bufferRad = buffer + Radius;
-            // Initialize list to store roots
-            List<double[]> ans = new ArrayList<>();
+            // Where this shape's roots start in the buffer
+            int before = out.Count;
             // Check whether the line crosses the circle
             if ((maxX > super.XPos + bufferRad && minX < super.XPos + bufferRad) || (maxX > super.XPos - bufferRad && minX < super.XPos - bufferRad) || (yPos > super.YPos - bufferRad || yPos < super.YPos + bufferRad))
             {
@@ -498,7 +1318,7 @@ public class Map
                     // Check if root is within range
                     if (rootX > minX && rootX < maxX)
                     {
-                        ans.add(new double[]{rootX, yPos});
+                        out.Add(rootX, yPos);
                     }
                     // If there are two roots
                 }else if (determinant > 0)
@@ -509,7 +1329,7 @@ public class Map
                     // Check if root is within range
                     if (root1X > minX && root1X < maxX)
                     {
-                        ans.add(new double[]{root1X, yPos});
+                        out.Add(root1X, yPos);
                     }
 
                     double root2X = (-b - Math.sqrt(determinant))/(2*a);
@@ -517,68 +1337,100 @@ public class Map
                     // Check if root is within range
                     if (root2X > minX && root2X < maxX)
                     {
-                        ans.add(new double[]{root2X, yPos});
+                        out.Add(root2X, yPos);
                     }
 
                 }
             }
-            return ans;
+            return out.Count - before;
         }
 
         public List<double[]> checkIntersect(double[] startPoint, double[] endPoint, double buffer)
         {
+            PathBuffer intersects = new PathBuffer();
+            checkIntersect(startPoint[0], startPoint[1], endPoint[0], endPoint[1], buffer, intersects);
+            return intersects.ToList();
+        }
 
-            if (LINE_FUNCTIONS.IS_VERTICAL(startPoint, endPoint)) // If there is no change in x do vertical intersect
+        // Same as above but adds the intersects to out and returns how many it found
+        public int checkIntersect(double startX, double startY, double endX, double endY, double buffer, PathBuffer out)
+        {
+            CountTest(PlannerMetrics.CIRCLE);
+            int before = out.Count;
+            if (LINE_FUNCTIONS.IS_VERTICAL(startX, startY, endX, endY)) // If there is no change in x do vertical intersect
             {
                 // Change in y position
-                double yDiff =  endPoint[1] - startPoint[1];
+                double yDiff =  endY - startY;
                 // Account for negative change in y or positive change in y
                 if (yDiff < 0)
                 {
-                    return checkVerticalIntersect(startPoint[0], endPoint[1], startPoint[1], buffer);
+                    checkVerticalIntersect(startX, endY, startY, buffer, out);
                 }else if (yDiff > 0)
                 {
-                    return LINE_FUNCTIONS.ORDER_INTERSECTS(checkVerticalIntersect(startPoint[0], startPoint[1], endPoint[1], buffer), startPoint);
+                    checkVerticalIntersect(startX, startY, endY, buffer, out);
+                    LINE_FUNCTIONS.ORDER_INTERSECTS(out, before, startX, startY);
                 }
-                // If there is no motion return null
-                return new ArrayList<>();
-            }else if (LINE_FUNCTIONS.IS_HORIZONTAL(startPoint, endPoint)) // If there is no change in y do vertical intersect
+            }else if (LINE_FUNCTIONS.IS_HORIZONTAL(startX, startY, endX, endY)) // If there is no change in y do vertical intersect
+            {
+                // Change in x position
+                double xDiff =  endX - startX;
+                // Account for negative change in x or positive change in x
+                if (xDiff < 0)
+                {
+                    checkHorizontalIntersect(startY, endX, startX, buffer, out);
+                }else if (xDiff > 0)
+                {
+                    checkHorizontalIntersect(startY, startX, endX, buffer, out);
+                    LINE_FUNCTIONS.ORDER_INTERSECTS(out, before, startX, startY);
+                }
+            }else if (startX != endX) // Otherwise, do slanted intersect unless there is no motion
+            {
+                checkSegmentIntersect(startX, startY, endX, endY, buffer, out);
+            }
+            return out.Count - before;
+        }
+
+        // Where a slanted segment crosses the buffered circle, worked out along the segment as start + t * (end - start)
+        // so a steep segment is as exact as a shallow one. Adds the points in the order the segment meets them, and
+        // only the one point if the line just touches
+        public int checkSegmentIntersect(double startX, double startY, double endX, double endY, double buffer, PathBuffer out)
+        {
+            int before = out.Count;
+            // The radius with cushioning taken into account
+            double bufferRad = Radius + buffer;
+            int crosses = Geometry.CrossesCircle(startX, startY, endX, endY, super.XPos, super.YPos, bufferRad);
+            if (crosses < 0)
+            {
+                return 0;
+            }
+            double diffX = endX - startX;
+            double diffY = endY - startY;
+            double relativeX = startX - super.XPos;
+            double relativeY = startY - super.YPos;
+            double half = diffX * relativeX + diffY * relativeY;
+            double lengthSquared = diffX * diffX + diffY * diffY;
+            // Rounding can leave a line that only just crosses with nothing to take the root of, its two points are
+            // then the same and it counts as touching
+            double root = crosses > 0 ? Math.sqrt(Math.max(half * half - lengthSquared * (relativeX * relativeX + relativeY * relativeY - bufferRad * bufferRad), 0)) : 0;
+            double enter = (-half - root) / lengthSquared;
+            double exit = (-half + root) / lengthSquared;
+            if (enter > 0 && enter < 1)
             {
-                // Change in x position
-                double xDiff =  endPoint[0] - startPoint[0];
-                // Account for negative change in x or positive change in x
-                if (xDiff < 0)
-                {
-                    return checkHorizontalIntersect(startPoint[1], endPoint[0], startPoint[0], buffer);
-                }else if (xDiff > 0)
-                {
-                    return LINE_FUNCTIONS.ORDER_INTERSECTS(checkHorizontalIntersect(startPoint[1], startPoint[0], endPoint[0], buffer), startPoint);
-                }
-                // If there is no motion return null
-                return new ArrayList<>();
-            }else // Otherwise, do linear intersect
+                out.Add(startX + enter * diffX, startY + enter * diffY);
+            }
+            if (crosses > 0 && exit > 0 && exit < 1)
             {
-
-                // Set minimum x
-                double minX = Math.min(startPoint[0], endPoint[0]);
-                // Set maximum x
-                double maxX = Math.max(startPoint[0], endPoint[0]);
-                // Set minimum y
-                double minY = Math.min(startPoint[1], endPoint[1]);
-                // Set maximum y
-                double maxY = Math.max(startPoint[1], endPoint[1]);
-                // Set the gradient of the given line
-                double gradient = LINE_FUNCTIONS.GET_GRADIENT(startPoint, endPoint);
-                // Set the y-Intercept of the given line
-                double yIntercept = LINE_FUNCTIONS.GET_YINTERCEPT(gradient, startPoint);
-                return LINE_FUNCTIONS.ORDER_INTERSECTS(checkLinearIntersect(gradient, yIntercept, minX, minY, maxX, maxY, buffer), startPoint);
+                out.Add(startX + exit * diffX, startY + exit * diffY);
             }
+            return out.Count - before;
         }
 
         // Whether the point is within the shape
         public boolean IsInside(double[] position)
         {
-            return (position[0]*position[0] + position[1]*position[1] < Radius*Radius);
+            double offX = position[0] - super.XPos;
+            double offY = position[1] - super.YPos;
+            return (offX*offX + offY*offY < Radius*Radius);
         }
 
         // Whether the shape overlaps with another map object
@@ -604,7 +1456,7 @@ public class Map
                     return true;
                 }
 
-            }else if (object.getClass() == HybridObject.class)
+            }else if (object.getClass() == HybridObject.class || object.getClass() == Polygon.class)
             {
                 return object.Overlaps(this, buffer);
             }
@@ -614,13 +1466,23 @@ public class Map
         // The length along a line at which it first crosses the circle
         public double PosOnLine(double[] startPoint, double[] endPoint)
         {
-            List<double[]> intersects = checkIntersect(startPoint, endPoint, 0);
-            if (intersects.size() > 0)
+            PathBuffer intersects = Scratch.Borrow();
+            double position;
+            if (checkIntersect(startPoint[0], startPoint[1], endPoint[0], endPoint[1], 0, intersects) > 0)
             {
-                return LINE_FUNCTIONS.GET_LENGTH(intersects.get(0), startPoint);
+                position = LINE_FUNCTIONS.GET_LENGTH(intersects.X(0), intersects.Y(0), startPoint[0], startPoint[1]);
             }else{
-                return LINE_FUNCTIONS.GET_LENGTH(startPoint, endPoint);
+                position = LINE_FUNCTIONS.GET_LENGTH(startPoint, endPoint);
             }
+            Scratch.Return(intersects);
+            return position;
+        }
+
+        // The axis aligned box around the circle as {minX, minY, maxX, maxY}
+        public double[] GetBounds(double buffer)
+        {
+            double bufferRad = Radius + buffer;
+            return new double[] {super.XPos - bufferRad, super.YPos - bufferRad, super.XPos + bufferRad, super.YPos + bufferRad};
         }
     }
 
@@ -649,8 +1511,16 @@ public class Map
 
         public List<double[]> checkLinearIntersect(double gradient, double yIntercept, double minX, double minY, double maxX, double maxY, double buffer)
         {
-            // Initialize variable to store results
-            List<double[]> ans = new ArrayList<>();
+            PathBuffer ans = new PathBuffer();
+            checkLinearIntersect(gradient, yIntercept, minX, minY, maxX, maxY, buffer, ans);
+            return ans.ToList();
+        }
+
+        // Same as above but adds the intersects to out and returns how many it found
+        public int checkLinearIntersect(double gradient, double yIntercept, double minX, double minY, double maxX, double maxY, double buffer, PathBuffer out)
+        {
+            // Where this shape's results start in the buffer
+            int before = out.Count;
             // Set the x coordinates for the left side of the rect
             double leftSide = super.XPos - (Breadth/2 + buffer);
             // Set the x coordinates for the right side of the rect
@@ -665,7 +1535,7 @@ public class Map
             if(y1 > minY && y1 < maxY && y1 >= bottomSide && y1 <= topSide)
             {
                 // Add the answer
-                ans.add(new double[]{leftSide, y1});
+                out.Add(leftSide, y1);
             }
             // Set the x coordinates for the right side of the rect
             // Find where the line intersects
@@ -674,7 +1544,7 @@ public class Map
             if (y2 > minY && y2 < maxY && y2 >= bottomSide && y2 <= topSide)
             {
                 // Add the answer
-                ans.add(new double[]{rightSide, y2});
+                out.Add(rightSide, y2);
             }
             // Check that this y isn't already recorded as a corner intersect
             if (y1 != bottomSide && y2 != bottomSide)
@@ -686,7 +1556,7 @@ public class Map
                 if (x1 > minX && x1 < maxX && x1 >= leftSide && x1 <= rightSide)
                 {
                     // Add the answer
-                    ans.add(new double[]{x1, bottomSide});
+                    out.Add(x1, bottomSide);
                 }
             }
             // Check that this y isn't already recorded as a corner intersect
@@ -698,16 +1568,24 @@ public class Map
                 if (x2 > minX && x2 < maxX && x2 >= leftSide && x2 <= rightSide)
                 {
                     // Add the answer
-                    ans.add(new double[]{x2, topSide});
+                    out.Add(x2, topSide);
                 }
             }
-            return ans;
+            return out.Count - before;
         }
 
         public List<double[]> checkVerticalIntersect(double xPos, double minY, double maxY, double buffer)
         {
-            // Initialize variable to store results
-            List<double[]> ans = new ArrayList<>();
+            PathBuffer ans = new PathBuffer();
+            checkVerticalIntersect(xPos, minY, maxY, buffer, ans);
+            return ans.ToList();
+        }
+
+        // Same as above but adds the intersects to out and returns how many it found
+        public int checkVerticalIntersect(double xPos, double minY, double maxY, double buffer, PathBuffer out)
+        {
+            // Where this shape's results start in the buffer
+            int before = out.Count;
             // Top Side
             double topSide = super.YPos + (Length/2 + buffer);
             // Bottom side
@@ -723,21 +1601,29 @@ public class Map
                 if (crossesTop)
                 {
                     // Add the answer
-                    ans.add(new double[]{xPos, topSide});
+                    out.Add(xPos, topSide);
                 }
                 if (crossesBottom)
                 {
                     // Add the answer
-                    ans.add(new double[]{xPos, bottomSide});
+                    out.Add(xPos, bottomSide);
                 }
             }
-            return ans;
+            return out.Count - before;
         }
 
         public List<double[]> checkHorizontalIntersect(double yPos, double minX, double maxX, double buffer)
         {
-            // Initialize variable to store results
-            List<double[]> ans = new ArrayList<>();
+            PathBuffer ans = new PathBuffer();
+            checkHorizontalIntersect(yPos, minX, maxX, buffer, ans);
+            return ans.ToList();
+        }
+
+        // Same as above but adds the intersects to out and returns how many it found
+        public int checkHorizontalIntersect(double yPos, double minX, double maxX, double buffer, PathBuffer out)
+        {
+            // Where this shape's results start in the buffer
+            int before = out.Count;
             // Top Side
             double rightSide = super.XPos + (Breadth/2 + buffer);
             // Bottom side
@@ -753,71 +1639,124 @@ public class Map
                 if (crossesRight)
                 {
                     // Add the answer
-                    ans.add(new double[]{rightSide, yPos});
+                    out.Add(rightSide, yPos);
                 }
                 if (crossesLeft)
                 {
                     // Add the answer
-                    ans.add(new double[]{leftSide, yPos});
+                    out.Add(leftSide, yPos);
                 }
             }
-            return ans;
+            return out.Count - before;
         }
 
         public List<double[]> checkIntersect(double[] startPoint, double[] endPoint, double buffer)
         {
+            PathBuffer intersects = new PathBuffer();
+            checkIntersect(startPoint[0], startPoint[1], endPoint[0], endPoint[1], buffer, intersects);
+            return intersects.ToList();
+        }
 
-            if (LINE_FUNCTIONS.IS_VERTICAL(startPoint, endPoint)) // If there is no change in x do vertical intersect
+        // Same as above but adds the intersects to out and returns how many it found
+        public int checkIntersect(double startX, double startY, double endX, double endY, double buffer, PathBuffer out)
+        {
+            CountTest(PlannerMetrics.RECT);
+            int before = out.Count;
+            if (LINE_FUNCTIONS.IS_VERTICAL(startX, startY, endX, endY)) // If there is no change in x do vertical intersect
             {
                 // Change in y position
-                double yDiff =  endPoint[1] - startPoint[1]; // Change in y position
+                double yDiff =  endY - startY;
                 // Account for negative change in y or positive change in y
                 if (yDiff < 0)
                 {
-                    return checkVerticalIntersect(startPoint[0], endPoint[1], startPoint[1], buffer);
+                    checkVerticalIntersect(startX, endY, startY, buffer, out);
                 }else if (yDiff > 0)
                 {
-                    return LINE_FUNCTIONS.ORDER_INTERSECTS(checkVerticalIntersect(startPoint[0], startPoint[1], endPoint[1], buffer), startPoint);
+                    checkVerticalIntersect(startX, startY, endY, buffer, out);
+                    LINE_FUNCTIONS.ORDER_INTERSECTS(out, before, startX, startY);
                 }
-                // If there is no motion return null
-                return new ArrayList<>();
-            }else if (LINE_FUNCTIONS.IS_HORIZONTAL(startPoint, endPoint)) // If there is no change in y do vertical intersect
+            }else if (LINE_FUNCTIONS.IS_HORIZONTAL(startX, startY, endX, endY)) // If there is no change in y do vertical intersect
             {
                 // Change in x position
-                double xDiff =  endPoint[0] - startPoint[0];
-
+                double xDiff =  endX - startX;
                 // Account for negative change in x or positive change in x
                 if (xDiff < 0)
                 {
-                    return checkHorizontalIntersect(startPoint[1], endPoint[0], startPoint[0], buffer);
+                    checkHorizontalIntersect(startY, endX, startX, buffer, out);
                 }else if (xDiff > 0)
                 {
-                    return LINE_FUNCTIONS.ORDER_INTERSECTS(checkHorizontalIntersect(startPoint[1], startPoint[0], endPoint[0], buffer), startPoint);
+                    checkHorizontalIntersect(startY, startX, endX, buffer, out);
+                    LINE_FUNCTIONS.ORDER_INTERSECTS(out, before, startX, startY);
                 }
-                // If there is no motion return null
-                return new ArrayList<>();
-            }else // Otherwise, do linear intersect
+            }else if (startX != endX) // Otherwise, do slanted intersect unless there is no motion
             {
-
-                // Set minimum x
-                double minX = Math.min(startPoint[0], endPoint[0]);
-                // Set maximum x
-                double maxX = Math.max(startPoint[0], endPoint[0]);
-                // Set minimum y
-                double minY = Math.min(startPoint[1], endPoint[1]);
-                // Set maximum y
-                double maxY = Math.max(startPoint[1], endPoint[1]);
-                // Set the gradient of the given line
-                double gradient = LINE_FUNCTIONS.GET_GRADIENT(startPoint, endPoint);
-                // Set the y-Intercept of the given line
-                double yIntercept = LINE_FUNCTIONS.GET_YINTERCEPT(gradient, startPoint);
-                return LINE_FUNCTIONS.ORDER_INTERSECTS(checkLinearIntersect(gradient, yIntercept, minX, minY, maxX, maxY, buffer), startPoint);
+                checkSegmentIntersect(startX, startY, endX, endY, buffer, out);
             }
+            return out.Count - before;
+        }
 
-
+        // Where a slanted segment crosses the buffered rect, worked out along the segment as start + t * (end - start)
+        // so a steep segment is as exact as a shallow one. Adds the points in the order the segment meets them, each
+        // one exactly on the side it crosses. Touching a corner isn't crossing
+        public int checkSegmentIntersect(double startX, double startY, double endX, double endY, double buffer, PathBuffer out)
+        {
+            int before = out.Count;
+            // Set the x coordinates for the left side of the rect
+            double leftSide = super.XPos - (Breadth/2 + buffer);
+            // Set the x coordinates for the right side of the rect
+            double rightSide = super.XPos + (Breadth/2 + buffer);
+            // Set the y coordinates for the bottom side of the rect
+            double bottomSide = super.YPos - (Length/2 + buffer);
+            // Set the y coordinates for the top side of the rect
+            double topSide = super.YPos + (Length/2 + buffer);
+            if (Geometry.CrossesBox(startX, startY, endX, endY, leftSide, bottomSide, rightSide, topSide) <= 0)
+            {
+                return 0;
+            }
+            double diffX = endX - startX;
+            double diffY = endY - startY;
+            // The sides the line goes in and comes out through on each axis
+            double enterX = diffX >= 0 ? leftSide : rightSide;
+            double exitX = diffX >= 0 ? rightSide : leftSide;
+            double enterY = diffY >= 0 ? bottomSide : topSide;
+            double exitY = diffY >= 0 ? topSide : bottomSide;
+            // The line is inside once it is past both sides it goes in through and until it reaches either it comes
+            // out through
+            double enterAlongX = (enterX - startX) / diffX;
+            double enterAlongY = (enterY - startY) / diffY;
+            double exitAlongX = (exitX - startX) / diffX;
+            double exitAlongY = (exitY - startY) / diffY;
+            double enter = Math.max(enterAlongX, enterAlongY);
+            double exit = Math.min(exitAlongX, exitAlongY);
+            if (enter > 0 && enter < 1)
+            {
+                if (enterAlongX >= enterAlongY)
+                {
+                    out.Add(enterX, startY + enter * diffY);
+                }else
+                {
+                    out.Add(startX + enter * diffX, enterY);
+                }
+            }
+            if (exit > 0 && exit < 1)
+            {
+                if (exitAlongX <= exitAlongY)
+                {
+                    out.Add(exitX, startY + exit * diffY);
+                }else
+                {
+                    out.Add(startX + exit * diffX, exitY);
+                }
+            }
+            return out.Count - before;
         }
 
         public boolean IsInside(double[] position)
+        {
+            return IsInside(position[0], position[1]);
+        }
+
+        public boolean IsInside(double x, double y)
         {
             // Set the x coordinates for the left side of the rect
             double leftSide = super.XPos - Breadth/2;
@@ -828,7 +1767,7 @@ public class Map
             // Set the y coordinates for the top side of the rect
             double topSide = super.YPos + Length/2;
 
-            return (position[0] > leftSide &&  position[0] < rightSide && position[1] > bottomSide && position[1] < topSide);
+            return (x > leftSide &&  x < rightSide && y > bottomSide && y < topSide);
         }
 
         // Returns all the vertices of the rect
@@ -868,7 +1807,7 @@ public class Map
                     return true;
                 }
 
-            }else if (object.getClass() == HybridObject.class)
+            }else if (object.getClass() == HybridObject.class || object.getClass() == Polygon.class)
             {
                 return object.Overlaps(this, buffer);
             }
@@ -878,13 +1817,382 @@ public class Map
         // The length across a line at which it first crosses the shape
         public double PosOnLine(double[] startPoint, double[] endPoint)
         {
-            List<double[]> intersects = checkIntersect(startPoint, endPoint, 0);
-            if (intersects.size() > 0)
+            PathBuffer intersects = Scratch.Borrow();
+            double position;
+            if (checkIntersect(startPoint[0], startPoint[1], endPoint[0], endPoint[1], 0, intersects) > 0)
+            {
+                position = LINE_FUNCTIONS.GET_LENGTH(intersects.X(0), intersects.Y(0), startPoint[0], startPoint[1]);
+            }else{
+                position = LINE_FUNCTIONS.GET_LENGTH(startPoint, endPoint);
+            }
+            Scratch.Return(intersects);
+            return position;
+        }
+
+        // The box around the rect as {minX, minY, maxX, maxY}
+        public double[] GetBounds(double buffer)
+        {
+            return new double[] {super.XPos - (Breadth/2 + buffer), super.YPos - (Length/2 + buffer), super.XPos + (Breadth/2 + buffer), super.YPos + (Length/2 + buffer)};
+        }
+    }
+
+    // Convex polygon object. The buffer pushes every side out by the buffer, so the buffered corners stay sharp like
+    // the corners of a buffered rect, but are cut off where they would reach past the box grown by the buffer
+    public class Polygon extends MapObject
+    {
+        // Corners going anticlockwise relative to the position, they aren't changed once the polygon is made
+        public double[] VertexX;
+        public double[] VertexY;
+
+        // Outward unit normal of the side from each corner to the next, and how far out that side is from the position
+        double[] NormalX;
+        double[] NormalY;
+        double[] EdgeOffset;
+        // Box around the corners relative to the position as {minX, minY, maxX, maxY}
+        double[] Box;
+
+        // Polygon constructor, the corners are relative to the position and can go either way around
+        public Polygon(double xPos, double yPos, double[] vertexX, double[] vertexY, boolean isDrivable, String name)
+        {
+            super.XPos = xPos;
+            super.YPos = yPos;
+            super.IsDrivable = isDrivable;
+            super.Name = name;
+
+            int count = vertexX.length;
+            if (count < 3 || vertexY.length != count)
+            {
+                throw new RuntimeException("Polygon " + name + " needs at least three corners");
+            }
+            // Twice the area, negative if the corners go clockwise
+            double area = 0;
+            for (int i = 0; i < count; i++)
+            {
+                int next = (i + 1) % count;
+                area += vertexX[i] * vertexY[next] - vertexX[next] * vertexY[i];
+            }
+            VertexX = new double[count];
+            VertexY = new double[count];
+            for (int i = 0; i < count; i++)
+            {
+                int from = area < 0 ? count - 1 - i : i;
+                VertexX[i] = vertexX[from];
+                VertexY[i] = vertexY[from];
+            }
+
+            NormalX = new double[count];
+            NormalY = new double[count];
+            EdgeOffset = new double[count];
+            Box = new double[] {Double.POSITIVE_INFINITY, Double.POSITIVE_INFINITY, Double.NEGATIVE_INFINITY, Double.NEGATIVE_INFINITY};
+            for (int i = 0; i < count; i++)
+            {
+                Box[0] = Math.min(Box[0], VertexX[i]);
+                Box[1] = Math.min(Box[1], VertexY[i]);
+                Box[2] = Math.max(Box[2], VertexX[i]);
+                Box[3] = Math.max(Box[3], VertexY[i]);
+                int next = (i + 1) % count;
+                double edgeX = VertexX[next] - VertexX[i];
+                double edgeY = VertexY[next] - VertexY[i];
+                double edgeLength = Math.sqrt(edgeX * edgeX + edgeY * edgeY);
+                if (edgeLength == 0)
+                {
+                    throw new RuntimeException("Polygon " + name + " has two corners in the same place");
+                }
+                // Going anticlockwise the outside is on the right of each side
+                NormalX[i] = edgeY / edgeLength;
+                NormalY[i] = -edgeX / edgeLength;
+                EdgeOffset[i] = NormalX[i] * VertexX[i] + NormalY[i] * VertexY[i];
+            }
+
+            // Every corner has to be on the inside of every side, otherwise the polygon bends in or winds round twice
+            if (area == 0)
+            {
+                throw new RuntimeException("Polygon " + name + " has no area");
+            }
+            for (int i = 0; i < count; i++)
+            {
+                for (int k = 0; k < count; k++)
+                {
+                    if (NormalX[i] * VertexX[k] + NormalY[i] * VertexY[k] > EdgeOffset[i] + 1e-9)
+                    {
+                        throw new RuntimeException("Polygon " + name + " isn't convex");
+                    }
+                }
+            }
+        }
+
+        public List<double[]> checkIntersect(double[] startPoint, double[] endPoint, double buffer)
+        {
+            PathBuffer intersects = new PathBuffer();
+            checkIntersect(startPoint[0], startPoint[1], endPoint[0], endPoint[1], buffer, intersects);
+            return intersects.ToList();
+        }
+
+        // Adds where the line crosses the buffered polygon to out and returns how many it found
+        public int checkIntersect(double startX, double startY, double endX, double endY, double buffer, PathBuffer out)
+        {
+            CountTest(PlannerMetrics.POLYGON);
+            if (startX == endX && startY == endY)
+            {
+                return 0;
+            }
+            // Clipped the same way as Clip, with the range kept in two locals rather than an array since this runs for
+            // every segment tested
+            double diffX = endX - startX;
+            double diffY = endY - startY;
+            double relativeX = startX - super.XPos;
+            double relativeY = startY - super.YPos;
+            double enter = Double.NEGATIVE_INFINITY;
+            double exit = Double.POSITIVE_INFINITY;
+            for (int i = 0; i < EdgeOffset.length; i++)
+            {
+                double facing = NormalX[i] * diffX + NormalY[i] * diffY;
+                double room = EdgeOffset[i] + buffer - (NormalX[i] * relativeX + NormalY[i] * relativeY);
+                if (facing == 0)
+                {
+                    if (room <= 0)
+                    {
+                        return 0;
+                    }
+                }else if (facing < 0)
+                {
+                    enter = Math.max(enter, room / facing);
+                }else
+                {
+                    exit = Math.min(exit, room / facing);
+                }
+                if (enter >= exit)
+                {
+                    return 0;
+                }
+            }
+            // Then against the sides of the grown box, x first then y
+            for (int axis = 0; axis < 2; axis++)
+            {
+                double start = axis == 0 ? relativeX : relativeY;
+                double diff = axis == 0 ? diffX : diffY;
+                double min = Box[axis] - buffer;
+                double max = Box[axis + 2] + buffer;
+                if (diff == 0)
+                {
+                    if (start <= min || start >= max)
+                    {
+                        return 0;
+                    }
+                    continue;
+                }
+                double first = (min - start) / diff;
+                double second = (max - start) / diff;
+                enter = Math.max(enter, Math.min(first, second));
+                exit = Math.min(exit, Math.max(first, second));
+                if (enter >= exit)
+                {
+                    return 0;
+                }
+            }
+            // Only the crossings strictly between the ends count, in order from the start
+            int before = out.Count;
+            if (enter > 0 && enter < 1)
+            {
+                out.Add(startX + diffX * enter, startY + diffY * enter);
+            }
+            if (exit > 0 && exit < 1)
+            {
+                out.Add(startX + diffX * exit, startY + diffY * exit);
+            }
+            return out.Count - before;
+        }
+
+        // Narrow the range along the line from the start to where it is strictly inside the buffered polygon, false
+        // if none of it is. Clips against every side in one go, the line enters through the last side it meets going
+        // in and leaves through the first side it meets going out
+        public boolean Clip(double startX, double startY, double diffX, double diffY, double buffer, double[] range)
+        {
+            double relativeX = startX - super.XPos;
+            double relativeY = startY - super.YPos;
+            for (int i = 0; i < EdgeOffset.length; i++)
+            {
+                // How fast the line heads out through the side, and how far the start is inside it
+                double facing = NormalX[i] * diffX + NormalY[i] * diffY;
+                double room = EdgeOffset[i] + buffer - (NormalX[i] * relativeX + NormalY[i] * relativeY);
+                if (facing == 0)
+                {
+                    if (room <= 0)
+                    {
+                        // Runs alongside the side without ever getting inside it
+                        return false;
+                    }
+                }else if (facing < 0)
+                {
+                    range[0] = Math.max(range[0], room / facing);
+                }else
+                {
+                    range[1] = Math.min(range[1], room / facing);
+                }
+                if (range[0] >= range[1])
+                {
+                    return false;
+                }
+            }
+            // Then against the sides of the grown box
+            return ClipAxis(relativeX, diffX, Box[0] - buffer, Box[2] + buffer, range) && ClipAxis(relativeY, diffY, Box[1] - buffer, Box[3] + buffer, range);
+        }
+
+        // Narrow the range to where the line is strictly between min and max on one axis
+        boolean ClipAxis(double start, double diff, double min, double max, double[] range)
+        {
+            if (diff == 0)
+            {
+                return start > min && start < max;
+            }
+            double first = (min - start) / diff;
+            double second = (max - start) / diff;
+            range[0] = Math.max(range[0], Math.min(first, second));
+            range[1] = Math.min(range[1], Math.max(first, second));
+            return range[0] < range[1];
+        }
+
+        public boolean IsInside(double[] position)
+        {
+            return IsInside(position[0], position[1]);
+        }
+
+        public boolean IsInside(double x, double y)
+        {
+            double relativeX = x - super.XPos;
+            double relativeY = y - super.YPos;
+            for (int i = 0; i < EdgeOffset.length; i++)
+            {
+                if (NormalX[i] * relativeX + NormalY[i] * relativeY >= EdgeOffset[i])
+                {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        // Returns all the vertices of the polygon going anticlockwise
+        public List<double[]> GetVertices()
+        {
+            List<double[]> vertices = new ArrayList<>();
+            for (int i = 0; i < VertexX.length; i++)
+            {
+                vertices.add(new double[] {VertexX[i] + super.XPos, VertexY[i] + super.YPos});
+            }
+            return vertices;
+        }
+
+        // The corner of the polygon with every side pushed out by offset, where the two sides that meet there cross,
+        // pulled back onto the box grown by offset if it reaches past it
+        public double[] GetOffsetVertex(int vertex, double offset)
+        {
+            int previous = (vertex + VertexX.length - 1) % VertexX.length;
+            double scale = offset / (1 + NormalX[previous] * NormalX[vertex] + NormalY[previous] * NormalY[vertex]);
+            double x = Math.max(Box[0] - offset, Math.min(Box[2] + offset, VertexX[vertex] + (NormalX[previous] + NormalX[vertex]) * scale));
+            double y = Math.max(Box[1] - offset, Math.min(Box[3] + offset, VertexY[vertex] + (NormalY[previous] + NormalY[vertex]) * scale));
+            return new double[] {super.XPos + x, super.YPos + y};
+        }
+
+        // Whether the buffered polygon overlaps with another shape, the shapes only overlap if no side of either one
+        // has them on opposite sides of it
+        public boolean Overlaps(MapObject object, double buffer)
+        {
+            if (object.getClass() == HybridObject.class)
+            {
+                return object.Overlaps(this, buffer);
+            }else if (object.getClass() != Polygon.class && object.getClass() != Rect.class && object.getClass() != Circle.class)
+            {
+                return false;
+            }
+            if (Separates(object, 1, 0, buffer) || Separates(object, 0, 1, buffer))
+            {
+                return false;
+            }
+            for (int i = 0; i < EdgeOffset.length; i++)
+            {
+                if (Separates(object, NormalX[i], NormalY[i], buffer))
+                {
+                    return false;
+                }
+            }
+            if (object.getClass() == Polygon.class)
+            {
+                Polygon polygon = (Polygon)object;
+                for (int i = 0; i < polygon.EdgeOffset.length; i++)
+                {
+                    if (Separates(object, polygon.NormalX[i], polygon.NormalY[i], buffer))
+                    {
+                        return false;
+                    }
+                }
+            }else if (object.getClass() == Circle.class)
+            {
+                // A circle can also be split off past the corner closest to its centre
+                int closest = 0;
+                double closestDistance = Double.POSITIVE_INFINITY;
+                for (int i = 0; i < VertexX.length; i++)
+                {
+                    double distance = LINE_FUNCTIONS.GET_LENGTH(VertexX[i] + super.XPos, VertexY[i] + super.YPos, object.XPos, object.YPos);
+                    if (distance < closestDistance)
+                    {
+                        closest = i;
+                        closestDistance = distance;
+                    }
+                }
+                if (closestDistance > 0 && Separates(object, (object.XPos - VertexX[closest] - super.XPos) / closestDistance, (object.YPos - VertexY[closest] - super.YPos) / closestDistance, buffer))
+                {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        // Whether the buffered polygon and the shape are on opposite sides of a line across the unit axis
+        boolean Separates(MapObject object, double axisX, double axisY, double buffer)
+        {
+            return Reach(this, axisX, axisY) + buffer <= -Reach(object, -axisX, -axisY) || Reach(object, axisX, axisY) <= -Reach(this, -axisX, -axisY) - buffer;
+        }
+
+        // How far along the unit axis the shape reaches
+        double Reach(MapObject object, double axisX, double axisY)
+        {
+            double reach = object.XPos * axisX + object.YPos * axisY;
+            if (object.getClass() == Polygon.class)
+            {
+                Polygon polygon = (Polygon)object;
+                double furthest = Double.NEGATIVE_INFINITY;
+                for (int i = 0; i < polygon.VertexX.length; i++)
+                {
+                    furthest = Math.max(furthest, polygon.VertexX[i] * axisX + polygon.VertexY[i] * axisY);
+                }
+                return reach + furthest;
+            }else if (object.getClass() == Rect.class)
+            {
+                Rect rect = (Rect)object;
+                return reach + rect.Breadth/2 * Math.abs(axisX) + rect.Length/2 * Math.abs(axisY);
+            }
+            return reach + ((Circle)object).Radius;
+        }
+
+        // The length across a line at which it first crosses the shape
+        public double PosOnLine(double[] startPoint, double[] endPoint)
+        {
+            PathBuffer intersects = Scratch.Borrow();
+            double position;
+            if (checkIntersect(startPoint[0], startPoint[1], endPoint[0], endPoint[1], 0, intersects) > 0)
             {
-                return LINE_FUNCTIONS.GET_LENGTH(intersects.get(0), startPoint);
+                position = LINE_FUNCTIONS.GET_LENGTH(intersects.X(0), intersects.Y(0), startPoint[0], startPoint[1]);
             }else{
-                return LINE_FUNCTIONS.GET_LENGTH(startPoint, endPoint);
+                position = LINE_FUNCTIONS.GET_LENGTH(startPoint, endPoint);
             }
+            Scratch.Return(intersects);
+            return position;
+        }
+
+        // The box around the buffered polygon as {minX, minY, maxX, maxY}
+        public double[] GetBounds(double buffer)
+        {
+            return new double[] {super.XPos + Box[0] - buffer, super.YPos + Box[1] - buffer, super.XPos + Box[2] + buffer, super.YPos + Box[3] + buffer};
         }
     }
 
@@ -894,6 +2202,11 @@ public class Map
         // List of the composite shapes that make up the hybrid shape
         public List<MapObject> CompObjects;
 
+        // Boxes around the composite shapes and the shapes packed into arrays, made when first needed and again once
+        // the map or the shapes change
+        volatile ShapeTree Tree;
+        volatile ShapeArrays Packed;
+
         // Constructor for the hybrid object
         public HybridObject(List<MapObject> compObjects)
         {
@@ -905,74 +2218,122 @@ public class Map
         {
             super.Name += obj.Name;
             CompObjects.add(obj);
+            Tree = null;
+            Packed = null;
         }
 
-        // Check if line crosses the hybrid object
-        public List<double[]> checkIntersect(double[] startPoint, double[] endPoint, double buffer)
+        // The tree over the composite shapes as they are now
+        ShapeTree GetTree()
         {
-            List<double[]> intersects = new ArrayList<>();
-            // For each of the composite shapes
-            for (MapObject compObject : CompObjects) {
+            ShapeTree tree = Tree;
+            if (tree == null || !tree.IsCurrent(CompObjects, Map.this.Version))
+            {
+                tree = new ShapeTree(CompObjects, Map.this.Version);
+                Tree = tree;
+            }
+            return tree;
+        }
 
-                // Check where the line intersects them
-                List<double[]> compositeIntersect = compObject.checkIntersect(startPoint, endPoint, buffer);
-                // For each of the intersects found
-                for (double[] intersect : compositeIntersect) {
-                    // Ensure that it is not inside the hybrid object
-                    intersects.add(intersect);
-                }
+        // The composite shapes packed into arrays as they are now
+        ShapeArrays GetPacked()
+        {
+            ShapeArrays packed = Packed;
+            if (packed == null || !packed.IsCurrent(CompObjects, Map.this.Version))
+            {
+                packed = new ShapeArrays(CompObjects, Map.this.Version);
+                Packed = packed;
+            }
+            return packed;
+        }
 
+        // Check if line crosses the hybrid object
+        public List<double[]> checkIntersect(double[] startPoint, double[] endPoint, double buffer)
+        {
+            PathBuffer extremes = new PathBuffer();
+            checkIntersect(startPoint[0], startPoint[1], endPoint[0], endPoint[1], buffer, extremes);
+            List<double[]> extremeIntersects = extremes.ToList();
+            // A single intersect is both extremes at once
+            if (extremeIntersects.size() == 1)
+            {
+                extremeIntersects.add(extremeIntersects.get(0));
             }
-            // Sort the intersects according to their position along the line
-            LINE_FUNCTIONS.ORDER_INTERSECTS(intersects, startPoint);
+            return extremeIntersects;
+        }
 
-            // Consider only the extremes
-            if (intersects.size() > 0)
+        // Adds the first and last places the line crosses the hybrid object to out, only once if they are the same intersect
+        // Past a few composite shapes only the ones whose boxes the line reaches are checked, and only until the
+        // extremes can't change
+        public int checkIntersect(double startX, double startY, double endX, double endY, double buffer, PathBuffer out)
+        {
+            CountTest(PlannerMetrics.HYBRID);
+            PathBuffer intersects = Scratch.Borrow();
+            int found;
+            if (CompObjects.size() <= ShapeTree.LEAF_SIZE)
             {
-                List<double[]> extremeIntersects = new ArrayList<>();
-                extremeIntersects.add(intersects.get(0));
-                extremeIntersects.add(intersects.get(intersects.size() - 1));
-                return extremeIntersects;
+                // Too few to be worth the tree, so one packed pass picks out the ones the line might reach and only
+                // those are checked, in order, so the extremes come out as if every one of them had been
+                for (long reach = GetPacked().Reach(startX, startY, endX, endY, buffer); reach != 0; reach &= reach - 1)
+                {
+                    CompObjects.get(Long.numberOfTrailingZeros(reach)).checkIntersect(startX, startY, endX, endY, buffer, intersects);
+                }
+                found = ShapeTree.AddExtremes(intersects, startX, startY, endX, endY, out);
             }else
             {
-                return new ArrayList<>();
+                found = GetTree().Extremes(startX, startY, endX, endY, buffer, intersects, out);
             }
-            // Return the found intersects
-
+            Scratch.Return(intersects);
+            return found;
         }
 
         // Check if a point is inside the hybrid object
         public boolean IsInside(double[] point)
         {
-            for (MapObject compObject : CompObjects) {
-                if (compObject.IsInside(point)) {
-                    return true;
-                }
-            }
-            return false;
+            return GetTree().Contains(point[0], point[1]);
         }
 
         // Check if the object overlaps with any other object
         public boolean Overlaps(MapObject object, double buffer)
         {
-            for (MapObject compObject : CompObjects) {
-                if (compObject.Overlaps(object, buffer)) {
-                    return true;
-                }
-            }
-            return false;
+            return GetTree().Overlaps(object, buffer);
         }
 
         // The length across a line at which it first crosses the shape
         public double PosOnLine(double[] startPoint, double[] endPoint)
         {
-            List<double[]> intersects = checkIntersect(startPoint, endPoint, 0);
-            if (intersects.size() > 0)
+            PathBuffer intersects = Scratch.Borrow();
+            double position;
+            if (checkIntersect(startPoint[0], startPoint[1], endPoint[0], endPoint[1], 0, intersects) > 0)
             {
-                return LINE_FUNCTIONS.GET_LENGTH(intersects.get(0), startPoint);
+                position = LINE_FUNCTIONS.GET_LENGTH(intersects.X(0), intersects.Y(0), startPoint[0], startPoint[1]);
             }else{
-                return LINE_FUNCTIONS.GET_LENGTH(startPoint, endPoint);
+                position = LINE_FUNCTIONS.GET_LENGTH(startPoint, endPoint);
+            }
+            Scratch.Return(intersects);
+            return position;
+        }
+
+        // The box around all of the composite shapes as {minX, minY, maxX, maxY}
+        public double[] GetBounds(double buffer)
+        {
+            double[] bounds = null;
+            for (MapObject compObject : CompObjects) {
+                double[] compBounds = compObject.GetBounds(buffer);
+                if (compBounds == null)
+                {
+                    return null;
+                }
+                if (bounds == null)
+                {
+                    bounds = compBounds;
+                }else
+                {
+                    bounds[0] = Math.min(bounds[0], compBounds[0]);
+                    bounds[1] = Math.min(bounds[1], compBounds[1]);
+                    bounds[2] = Math.max(bounds[2], compBounds[2]);
+                    bounds[3] = Math.max(bounds[3], compBounds[3]);
+                }
             }
+            return bounds;
         }
     }
 
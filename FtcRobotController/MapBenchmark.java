@@ -0,0 +1,221 @@
+import java.io.PrintStream;
+import java.util.*;
+
+// Times planning on seeded random fields, run with: java MapBenchmark
+public class MapBenchmark
+{
+
+    // Average area of field given to each obstacle, keeps the clutter the same as the obstacle count grows
+    static final double AREA_PER_OBSTACLE = 400;
+
+    // Build a square field with the given number of random circles and rects, the same seed always gives the same field
+    public static Map RandomField(long seed, int obstacleCount)
+    {
+        return RandomField(seed, obstacleCount, AREA_PER_OBSTACLE);
+    }
+
+    // Same as above with the clutter set by how much field area each obstacle gets, less area is more cluttered
+    public static Map RandomField(long seed, int obstacleCount, double areaPerObstacle)
+    {
+        Random random = new Random(seed);
+        double side = Math.sqrt(areaPerObstacle * obstacleCount);
+        Map map = new Map(side, side);
+        for (int i = 0; i < obstacleCount; i++)
+        {
+            // Keep obstacles away from the edges so the start and end points stay clear
+            double xPos = (random.nextDouble() - 0.5) * (side - 10);
+            double yPos = (random.nextDouble() - 0.5) * (side - 10);
+            if (random.nextBoolean())
+            {
+                map.CreateCircleObject(xPos, yPos, 0.5 + random.nextDouble() * 2, false, "Circle" + i);
+            }else
+            {
+                map.CreateRectObject(xPos, yPos, 1 + random.nextDouble() * 4, 1 + random.nextDouble() * 4, false, "Rect" + i);
+            }
+        }
+        return map;
+    }
+
+    // Time one full ClearPath across the middle of a fresh field, in microseconds, or -1 if no path was found
+    static double TimeClearPath(long seed, int obstacleCount, boolean useSpatialIndex)
+    {
+        Map map = RandomField(seed, obstacleCount);
+        map.UseSpatialIndex = useSpatialIndex;
+        double half = map.Breadth / 2;
+        long start = System.nanoTime();
+        try
+        {
+            map.ClearPath(new double[] {-half + 1, 0.5}, new double[] {half - 1, -0.5}, 0.5);
+        } catch (Error e)
+        {
+            if (!RouteOptimizer.IsNoPath(e))
+            {
+                throw e;
+            }
+            return -1;
+        }
+        return (System.nanoTime() - start) / 1000.0;
+    }
+
+    // Time one ShortestPath query once the visibility graph is built, in microseconds, or -1 if no path was found
+    static double TimeShortestPath(long seed, int obstacleCount)
+    {
+        Map map = RandomField(seed, obstacleCount);
+        double half = map.Breadth / 2;
+        double[] startPoint = new double[] {-half + 1, 0.5};
+        double[] endPoint = new double[] {half - 1, -0.5};
+        map.ShortestPath(startPoint, endPoint, 0.5);
+        long start = System.nanoTime();
+        List<double[]> path = map.ShortestPath(startPoint, endPoint, 0.5);
+        double time = (System.nanoTime() - start) / 1000.0;
+        return path.size() == 0 ? -1 : time;
+    }
+
+    // Average time to repair the incremental plan after one shape is toggled, moved, removed or added, against
+    // planning from scratch on the same map, both in microseconds
+    static double[] TimeReplan(long seed, int obstacleCount, int changes)
+    {
+        Random random = new Random(seed);
+        Map map = RandomField(seed, obstacleCount);
+        double half = map.Breadth / 2;
+        double[] startPoint = new double[] {-half + 1, 0.5};
+        double[] endPoint = new double[] {half - 1, -0.5};
+        IncrementalPlanner planner = new IncrementalPlanner(map, 0.5);
+        planner.Plan(startPoint, endPoint);
+        long repairTime = 0;
+        long fullTime = 0;
+        for (int i = 0; i < changes; i++)
+        {
+            Map.MapObject object = map.MapObjects.get(random.nextInt(map.MapObjects.size()));
+            switch (i % 4)
+            {
+                case 0:
+                    map.SetDrivable(object, !object.IsDrivable);
+                    break;
+                case 1:
+                    map.MoveObject(object, object.XPos + random.nextDouble() * 4 - 2, object.YPos + random.nextDouble() * 4 - 2);
+                    break;
+                case 2:
+                    map.RemoveObject(object);
+                    break;
+                default:
+                    map.CreateCircleObject((random.nextDouble() - 0.5) * (map.Breadth - 10), (random.nextDouble() - 0.5) * (map.Length - 10), 0.5 + random.nextDouble() * 2, false, "Added" + i);
+            }
+            long start = System.nanoTime();
+            planner.Plan(startPoint, endPoint);
+            repairTime += System.nanoTime() - start;
+            start = System.nanoTime();
+            new IncrementalPlanner(map, 0.5).Plan(startPoint, endPoint);
+            fullTime += System.nanoTime() - start;
+        }
+        return new double[] {repairTime / 1000.0 / changes, fullTime / 1000.0 / changes};
+    }
+
+    // Best time over a few runs of ClearPath on one cluttered field, with detours worked out sequentially or as
+    // fork/join tasks, in microseconds
+    static double TimeParallel(long seed, int obstacleCount, boolean parallel, int runs)
+    {
+        double best = Double.POSITIVE_INFINITY;
+        for (int run = 0; run < runs; run++)
+        {
+            Map map = RandomField(seed, obstacleCount);
+            map.UseParallel = parallel;
+            map.Cache = null;
+            double half = map.Breadth / 2;
+            long start = System.nanoTime();
+            try
+            {
+                map.ClearPath(new double[] {-half + 1, 0.5}, new double[] {half - 1, -0.5}, 1.5);
+            } catch (Error e)
+            {
+                if (!RouteOptimizer.IsNoPath(e))
+                {
+                    throw e;
+                }
+                return -1;
+            }
+            best = Math.min(best, (System.nanoTime() - start) / 1000.0);
+        }
+        return best;
+    }
+
+    // Best of a few runs so one slow run doesn't skew the result
+    static double BestTime(int obstacleCount, boolean useSpatialIndex, int runs)
+    {
+        double best = Double.POSITIVE_INFINITY;
+        for (int run = 0; run < runs; run++)
+        {
+            double time = TimeClearPath(42, obstacleCount, useSpatialIndex);
+            if (time < 0)
+            {
+                return -1;
+            }
+            best = Math.min(best, time);
+        }
+        return best;
+    }
+
+    static String Format(double micros)
+    {
+        return micros < 0 ? "no path" : String.format("%.1f us", micros);
+    }
+
+    public static void main(String[] args)
+    {
+        PrintStream out = System.out;
+
+        int[] obstacleCounts = new int[] {10, 100, 1000, 10000};
+
+        // Warm up the JIT on a mid sized field
+        for (int i = 0; i < 20; i++)
+        {
+            TimeClearPath(i, 500, true);
+            TimeClearPath(i, 500, false);
+        }
+
+        out.println("ClearPath, best of 5 runs");
+        out.println(String.format("%10s %16s %16s", "obstacles", "scan", "grid index"));
+        for (int obstacleCount : obstacleCounts)
+        {
+            double scan = BestTime(obstacleCount, false, 5);
+            double indexed = BestTime(obstacleCount, true, 5);
+            out.println(String.format("%10d %16s %16s", obstacleCount, Format(scan), Format(indexed)));
+        }
+
+        out.println();
+        out.println("ShortestPath query on a built visibility graph");
+        for (int obstacleCount : new int[] {10, 100, 1000})
+        {
+            for (int i = 0; i < 5; i++)
+            {
+                TimeShortestPath(i, obstacleCount);
+            }
+            out.println(String.format("%10d %16s", obstacleCount, Format(TimeShortestPath(42, obstacleCount))));
+        }
+
+        out.println();
+        out.println("Replan after one shape changes, average of 40 changes");
+        out.println(String.format("%10s %16s %16s", "obstacles", "repair", "from scratch"));
+        for (int obstacleCount : new int[] {25, 100, 400})
+        {
+            TimeReplan(1, obstacleCount, 40);
+            double[] times = TimeReplan(42, obstacleCount, 40);
+            out.println(String.format("%10d %16s %16s", obstacleCount, Format(times[0]), Format(times[1])));
+        }
+
+        out.println();
+        out.println("ClearPath with a 1.5 inch buffer, detours sequential or fork/join on " + Runtime.getRuntime().availableProcessors() + " cores, best of 5 runs");
+        out.println(String.format("%10s %16s %16s", "obstacles", "sequential", "fork/join"));
+        for (int i = 0; i < 10; i++)
+        {
+            TimeParallel(i, 200, false, 1);
+            TimeParallel(i, 200, true, 1);
+        }
+        for (int obstacleCount : new int[] {100, 400, 1600})
+        {
+            double sequential = TimeParallel(42, obstacleCount, false, 5);
+            double parallel = TimeParallel(42, obstacleCount, true, 5);
+            out.println(String.format("%10d %16s %16s", obstacleCount, Format(sequential), Format(parallel)));
+        }
+    }
+}
@@ -0,0 +1,504 @@
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+// Binary file holding a whole field, so a map can be loaded at init instead of being built up shape by shape
+// Besides the shapes it keeps their boxes and their groups for any buffers asked for, so planning doesn't have to
+// group them again. The reader maps the file into memory and only turns a shape into an object once it is used
+//
+// Everything is little endian. The file starts with a header:
+//   int magic, int format version, double length, double breadth, int map version, int shape count,
+//   int record count, int group set count, int record table offset, int group section offset
+// Then a fixed size record for every shape, the map's shapes first and the parts of hybrid objects after them:
+//   int type, int flags, double minX, minY, maxX, maxY (NaN if the shape has no box), int data offset, int name offset
+// The data of every shape starts with double x, double y, then
+//   circle: double radius
+//   rect: double length, double breadth
+//   polygon: int corner count, then double x, double y for every corner relative to the position
+//   hybrid: int part count, then the record index of every part
+//   abstract object: int vertex count (-1 if it has none), then double x, double y for every vertex
+// Names are stored as an int byte count followed by UTF-8
+// The group section has for every buffer:
+//   double buffer, int group count, then for every group int member count and the index of every member
+public class MapFile
+{
+
+    public static final int MAGIC = 0x50414D46; // "FMAP" read as little endian
+    public static final int FORMAT_VERSION = 1;
+
+    static final int HEADER_SIZE = 48;
+    static final int RECORD_SIZE = 48;
+
+    // Shape types as stored in a record
+    static final int TYPE_OBJECT = 0;
+    static final int TYPE_CIRCLE = 1;
+    static final int TYPE_RECT = 2;
+    static final int TYPE_POLYGON = 3;
+    static final int TYPE_HYBRID = 4;
+    static final int TYPE_RAND = 5;
+
+    static final int FLAG_DRIVABLE = 1;
+
+    // Write the map to a file, along with its groups for each of the buffers
+    public static void Write(Map map, File file, double... groupBuffers) throws IOException
+    {
+        ByteBuffer buffer = Encode(map, groupBuffers);
+        try (FileOutputStream output = new FileOutputStream(file); FileChannel channel = output.getChannel())
+        {
+            while (buffer.hasRemaining())
+            {
+                channel.write(buffer);
+            }
+        }
+    }
+
+    // Read a map from a file, the file is mapped into memory and the shapes are made as they are first used
+    public static Map Read(File file) throws IOException
+    {
+        ByteBuffer buffer;
+        try (RandomAccessFile input = new RandomAccessFile(file, "r"); FileChannel channel = input.getChannel())
+        {
+            // The mapping stays valid once the channel is closed
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+        return Decode(buffer);
+    }
+
+    // The map packed into a buffer ready for writing
+    public static ByteBuffer Encode(Map map, double... groupBuffers)
+    {
+        // Every shape gets a record, the parts of hybrid objects go after the map's own shapes
+        List<Map.MapObject> records = new ArrayList<>(map.MapObjects);
+        IdentityHashMap<Map.MapObject, Integer> recordOf = new IdentityHashMap<>();
+        for (int i = 0; i < records.size(); i++)
+        {
+            recordOf.putIfAbsent(records.get(i), i);
+            if (records.get(i) instanceof Map.HybridObject)
+            {
+                for (Map.MapObject compObject : ((Map.HybridObject) records.get(i)).CompObjects)
+                {
+                    if (!recordOf.containsKey(compObject))
+                    {
+                        recordOf.put(compObject, records.size());
+                        records.add(compObject);
+                    }
+                }
+            }
+        }
+
+        // The groups are listed by the map's position of each member
+        List<List<List<Map.MapObject>>> groupSets = new ArrayList<>();
+        int groupSize = 0;
+        for (double groupBuffer : groupBuffers)
+        {
+            map.GroupShapes(groupBuffer);
+            List<List<Map.MapObject>> groups = map.Groups.get(groupBuffer).Members();
+            groupSets.add(groups);
+            groupSize += 12;
+            for (List<Map.MapObject> members : groups)
+            {
+                groupSize += 4 + members.size() * 4;
+            }
+        }
+
+        // Work out how big everything is so the buffer can be made in one go
+        byte[][] names = new byte[records.size()][];
+        int dataSize = 0;
+        for (int i = 0; i < records.size(); i++)
+        {
+            names[i] = records.get(i).Name.getBytes(StandardCharsets.UTF_8);
+            dataSize += DataSize(records.get(i)) + 4 + names[i].length;
+        }
+        int recordTable = HEADER_SIZE;
+        int dataStart = recordTable + records.size() * RECORD_SIZE;
+        int groupSection = dataStart + dataSize;
+        ByteBuffer buffer = ByteBuffer.allocate(groupSection + groupSize).order(ByteOrder.LITTLE_ENDIAN);
+
+        buffer.putInt(MAGIC);
+        buffer.putInt(FORMAT_VERSION);
+        buffer.putDouble(map.Length);
+        buffer.putDouble(map.Breadth);
+        buffer.putInt(map.Version);
+        buffer.putInt(map.MapObjects.size());
+        buffer.putInt(records.size());
+        buffer.putInt(groupBuffers.length);
+        buffer.putInt(recordTable);
+        buffer.putInt(groupSection);
+
+        int data = dataStart;
+        for (int i = 0; i < records.size(); i++)
+        {
+            Map.MapObject object = records.get(i);
+            double[] bounds = object.GetBounds(0);
+            buffer.position(recordTable + i * RECORD_SIZE);
+            buffer.putInt(TypeOf(object));
+            buffer.putInt(object.IsDrivable ? FLAG_DRIVABLE : 0);
+            for (int k = 0; k < 4; k++)
+            {
+                buffer.putDouble(bounds == null ? Double.NaN : bounds[k]);
+            }
+            buffer.putInt(data);
+            buffer.putInt(data + DataSize(object));
+
+            buffer.position(data);
+            PutData(buffer, object, recordOf);
+            buffer.putInt(names[i].length);
+            buffer.put(names[i]);
+            data = buffer.position();
+        }
+
+        buffer.position(groupSection);
+        for (int set = 0; set < groupBuffers.length; set++)
+        {
+            buffer.putDouble(groupBuffers[set]);
+            buffer.putInt(groupSets.get(set).size());
+            for (List<Map.MapObject> members : groupSets.get(set))
+            {
+                int[] indices = new int[members.size()];
+                for (int m = 0; m < indices.length; m++)
+                {
+                    indices[m] = recordOf.get(members.get(m));
+                }
+                Arrays.sort(indices);
+                buffer.putInt(indices.length);
+                for (int index : indices)
+                {
+                    buffer.putInt(index);
+                }
+            }
+        }
+        buffer.flip();
+        return buffer;
+    }
+
+    static int TypeOf(Map.MapObject object)
+    {
+        if (object instanceof Map.Circle)
+        {
+            return TYPE_CIRCLE;
+        }else if (object instanceof Map.Rect)
+        {
+            return TYPE_RECT;
+        }else if (object instanceof Map.Polygon)
+        {
+            return TYPE_POLYGON;
+        }else if (object instanceof Map.HybridObject)
+        {
+            return TYPE_HYBRID;
+        }else if (object instanceof Map.RandObj)
+        {
+            return TYPE_RAND;
+        }
+        return TYPE_OBJECT;
+    }
+
+    // Bytes the shape's data takes, not counting its name
+    static int DataSize(Map.MapObject object)
+    {
+        switch (TypeOf(object))
+        {
+            case TYPE_CIRCLE:
+                return 24;
+            case TYPE_RECT:
+                return 32;
+            case TYPE_POLYGON:
+                return 20 + ((Map.Polygon) object).VertexX.length * 16;
+            case TYPE_HYBRID:
+                return 20 + ((Map.HybridObject) object).CompObjects.size() * 4;
+            case TYPE_RAND:
+                List<double[]> vertices = ((Map.RandObj) object).Vertices;
+                return 20 + (vertices == null ? 0 : vertices.size() * 16);
+            default:
+                return 16;
+        }
+    }
+
+    static void PutData(ByteBuffer buffer, Map.MapObject object, IdentityHashMap<Map.MapObject, Integer> recordOf)
+    {
+        buffer.putDouble(object.XPos);
+        buffer.putDouble(object.YPos);
+        switch (TypeOf(object))
+        {
+            case TYPE_CIRCLE:
+                buffer.putDouble(((Map.Circle) object).Radius);
+                break;
+            case TYPE_RECT:
+                buffer.putDouble(((Map.Rect) object).Length);
+                buffer.putDouble(((Map.Rect) object).Breadth);
+                break;
+            case TYPE_POLYGON:
+                Map.Polygon polygon = (Map.Polygon) object;
+                buffer.putInt(polygon.VertexX.length);
+                for (int i = 0; i < polygon.VertexX.length; i++)
+                {
+                    buffer.putDouble(polygon.VertexX[i]);
+                    buffer.putDouble(polygon.VertexY[i]);
+                }
+                break;
+            case TYPE_HYBRID:
+                List<Map.MapObject> compObjects = ((Map.HybridObject) object).CompObjects;
+                buffer.putInt(compObjects.size());
+                for (Map.MapObject compObject : compObjects)
+                {
+                    buffer.putInt(recordOf.get(compObject));
+                }
+                break;
+            case TYPE_RAND:
+                List<double[]> vertices = ((Map.RandObj) object).Vertices;
+                buffer.putInt(vertices == null ? -1 : vertices.size());
+                if (vertices != null)
+                {
+                    for (double[] vertex : vertices)
+                    {
+                        buffer.putDouble(vertex[0]);
+                        buffer.putDouble(vertex[1]);
+                    }
+                }
+                break;
+        }
+    }
+
+    // A map over the shapes packed in the buffer, the shapes are made as they are first used
+    public static Map Decode(ByteBuffer buffer) throws IOException
+    {
+        buffer = buffer.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+        if (buffer.limit() < HEADER_SIZE || buffer.getInt(0) != MAGIC)
+        {
+            throw new IOException("Not a map file");
+        }
+        if (buffer.getInt(4) != FORMAT_VERSION)
+        {
+            throw new IOException("Map file is format " + buffer.getInt(4) + " but only format " + FORMAT_VERSION + " can be read");
+        }
+        Map map = new Map(buffer.getDouble(8), buffer.getDouble(16));
+        int version = buffer.getInt(24);
+        int count = buffer.getInt(28);
+        int recordCount = buffer.getInt(32);
+        int groupSets = buffer.getInt(36);
+        int recordTable = buffer.getInt(40);
+        int groupSection = buffer.getInt(44);
+        if (count < 0 || recordCount < count || recordTable + (long) recordCount * RECORD_SIZE > buffer.limit() || groupSection > buffer.limit())
+        {
+            throw new IOException("Map file is cut short");
+        }
+        MappedObjects objects = new MappedObjects(map, buffer, recordTable, count, recordCount);
+        map.MapObjects = objects;
+        map.Version = version;
+
+        // The groups are handed over as they are stored, they are only made into hybrid objects when first asked for
+        double[][] placed = groupSets > 0 ? objects.Placed() : null;
+        int position = groupSection;
+        for (int set = 0; set < groupSets; set++)
+        {
+            double groupBuffer = buffer.getDouble(position);
+            int[][] groups = new int[buffer.getInt(position + 8)][];
+            position += 12;
+            for (int g = 0; g < groups.length; g++)
+            {
+                groups[g] = new int[buffer.getInt(position)];
+                position += 4;
+                for (int m = 0; m < groups[g].length; m++)
+                {
+                    groups[g][m] = buffer.getInt(position);
+                    position += 4;
+                }
+            }
+            ShapeGroups shapeGroups = new ShapeGroups(map, groupBuffer);
+            shapeGroups.Stored = groups;
+            shapeGroups.StoredPlaced = placed;
+            shapeGroups.StoredVersion = version;
+            map.Groups.put(groupBuffer, shapeGroups);
+        }
+        return map;
+    }
+
+    // The map's list of shapes, read out of the buffer one at a time as they are asked for
+    // Any change to the list first reads every shape into an ordinary list, which is used from then on
+    static class MappedObjects extends AbstractList<Map.MapObject>
+    {
+        Map Owner;
+        ByteBuffer Buffer;
+        int RecordTable;
+        int Count;
+        // Shapes read so far for every record, the map's shapes and then the parts of hybrid objects
+        Map.MapObject[] Made;
+        List<Map.MapObject> Edited;
+
+        MappedObjects(Map owner, ByteBuffer buffer, int recordTable, int count, int recordCount)
+        {
+            Owner = owner;
+            Buffer = buffer;
+            RecordTable = recordTable;
+            Count = count;
+            Made = new Map.MapObject[recordCount];
+        }
+
+        public Map.MapObject get(int index)
+        {
+            if (Edited != null)
+            {
+                return Edited.get(index);
+            }
+            if (index < 0 || index >= Count)
+            {
+                throw new IndexOutOfBoundsException("Index " + index + " out of " + Count + " shapes");
+            }
+            return Make(index);
+        }
+
+        public int size()
+        {
+            return Edited != null ? Edited.size() : Count;
+        }
+
+        public Map.MapObject set(int index, Map.MapObject object)
+        {
+            return Editable().set(index, object);
+        }
+
+        public void add(int index, Map.MapObject object)
+        {
+            Editable().add(index, object);
+            modCount++;
+        }
+
+        public Map.MapObject remove(int index)
+        {
+            Map.MapObject removed = Editable().remove(index);
+            modCount++;
+            return removed;
+        }
+
+        List<Map.MapObject> Editable()
+        {
+            if (Edited == null)
+            {
+                List<Map.MapObject> edited = new ArrayList<>(Count);
+                for (int i = 0; i < Count; i++)
+                {
+                    edited.add(Make(i));
+                }
+                Edited = edited;
+            }
+            return Edited;
+        }
+
+        // The shape for a record, read from the buffer the first time
+        Map.MapObject Make(int record)
+        {
+            Map.MapObject object = Made[record];
+            if (object != null)
+            {
+                return object;
+            }
+            int at = RecordTable + record * RECORD_SIZE;
+            int type = Buffer.getInt(at);
+            boolean isDrivable = (Buffer.getInt(at + 4) & FLAG_DRIVABLE) != 0;
+            int data = Buffer.getInt(at + 40);
+            String name = GetName(Buffer.getInt(at + 44));
+            double xPos = Buffer.getDouble(data);
+            double yPos = Buffer.getDouble(data + 8);
+            switch (type)
+            {
+                case TYPE_CIRCLE:
+                    object = Owner.new Circle(xPos, yPos, Buffer.getDouble(data + 16), isDrivable, name);
+                    break;
+                case TYPE_RECT:
+                    object = Owner.new Rect(xPos, yPos, Buffer.getDouble(data + 16), Buffer.getDouble(data + 24), isDrivable, name);
+                    break;
+                case TYPE_POLYGON:
+                    double[] vertexX = new double[Buffer.getInt(data + 16)];
+                    double[] vertexY = new double[vertexX.length];
+                    for (int i = 0; i < vertexX.length; i++)
+                    {
+                        vertexX[i] = Buffer.getDouble(data + 20 + i * 16);
+                        vertexY[i] = Buffer.getDouble(data + 28 + i * 16);
+                    }
+                    object = Owner.new Polygon(xPos, yPos, vertexX, vertexY, isDrivable, name);
+                    break;
+                case TYPE_HYBRID:
+                    List<Map.MapObject> compObjects = new ArrayList<>();
+                    for (int i = 0; i < Buffer.getInt(data + 16); i++)
+                    {
+                        compObjects.add(Make(Buffer.getInt(data + 20 + i * 4)));
+                    }
+                    object = Owner.new HybridObject(compObjects);
+                    break;
+                case TYPE_RAND:
+                    Map.RandObj randObj = Owner.new RandObj();
+                    int vertexCount = Buffer.getInt(data + 16);
+                    if (vertexCount >= 0)
+                    {
+                        randObj.Vertices = new ArrayList<>();
+                        for (int i = 0; i < vertexCount; i++)
+                        {
+                            randObj.Vertices.add(new double[] {Buffer.getDouble(data + 20 + i * 16), Buffer.getDouble(data + 28 + i * 16)});
+                        }
+                    }
+                    object = randObj;
+                    break;
+                default:
+                    object = Owner.new MapObject();
+                    break;
+            }
+            object.XPos = xPos;
+            object.YPos = yPos;
+            object.IsDrivable = isDrivable;
+            object.Name = name;
+            Made[record] = object;
+            return object;
+        }
+
+        String GetName(int at)
+        {
+            byte[] name = new byte[Buffer.getInt(at)];
+            ByteBuffer bytes = Buffer.duplicate();
+            bytes.position(at + 4);
+            bytes.get(name);
+            return new String(name, StandardCharsets.UTF_8);
+        }
+
+        // What grouping would have recorded for each of the map's shapes, taken from the stored boxes so no shape
+        // has to be read to work it out
+        double[][] Placed()
+        {
+            double[][] placed = new double[Count][];
+            for (int i = 0; i < Count; i++)
+            {
+                int at = RecordTable + i * RECORD_SIZE;
+                if (Buffer.getInt(at) == TYPE_HYBRID)
+                {
+                    // A hybrid is placed by the boxes of all of its parts, a part without one leaves zeros
+                    int data = Buffer.getInt(at + 40);
+                    placed[i] = new double[Buffer.getInt(data + 16) * 4];
+                    for (int k = 0; k < placed[i].length / 4; k++)
+                    {
+                        double[] bounds = Bounds(Buffer.getInt(data + 20 + k * 4));
+                        if (bounds != null)
+                        {
+                            System.arraycopy(bounds, 0, placed[i], k * 4, 4);
+                        }
+                    }
+                }else
+                {
+                    double[] bounds = Bounds(i);
+                    placed[i] = bounds == null ? new double[0] : bounds;
+                }
+            }
+            return placed;
+        }
+
+        // The stored box of a record, or null if the shape has none
+        double[] Bounds(int record)
+        {
+            int at = RecordTable + record * RECORD_SIZE;
+            if (Double.isNaN(Buffer.getDouble(at + 8)))
+            {
+                return null;
+            }
+            return new double[] {Buffer.getDouble(at + 8), Buffer.getDouble(at + 16), Buffer.getDouble(at + 24), Buffer.getDouble(at + 32)};
+        }
+    }
+}
@@ -0,0 +1,288 @@
+import java.util.*;
+
+// A copy of the map that never changes, so any number of threads can plan on it at once without locking
+// Edits go through a Builder and make a new snapshot, which shares every shape the edit didn't touch with the old one
+public final class MapSnapshot
+{
+
+    public final double Length; // Length of the field in inches
+    public final double Breadth; // Breadth of the field in inches
+    public final List<Map.MapObject> MapObjects; // The shapes, the list can't be changed and nothing changes the shapes
+    public final int Version; // The map version the snapshot was taken at, or how many edits it has been built with
+
+    // Map the snapshot shapes were made on, it's never planned on or edited so the shapes stay as they are
+    final Map Owner;
+    // The snapshot shape made for each shape of the live map, so the next snapshot can reuse the ones that haven't changed
+    final IdentityHashMap<Map.MapObject, Map.MapObject> CopiedFrom;
+
+    MapSnapshot(double length, double breadth, List<Map.MapObject> mapObjects, int version, Map owner, IdentityHashMap<Map.MapObject, Map.MapObject> copiedFrom)
+    {
+        Length = length;
+        Breadth = breadth;
+        MapObjects = Collections.unmodifiableList(mapObjects);
+        Version = version;
+        Owner = owner;
+        CopiedFrom = copiedFrom;
+    }
+
+    // Snapshot of a live map, reusing the shapes of the previous snapshot for anything that hasn't changed since
+    public static MapSnapshot Of(Map map, MapSnapshot previous)
+    {
+        Map owner = previous == null ? NewOwner() : previous.Owner;
+        IdentityHashMap<Map.MapObject, Map.MapObject> copiedFrom = new IdentityHashMap<>();
+        List<Map.MapObject> mapObjects = new ArrayList<>(map.MapObjects.size());
+        for (Map.MapObject object : map.MapObjects)
+        {
+            Map.MapObject copy = previous == null ? null : previous.CopiedFrom.get(object);
+            if (copy == null || !Same(object, copy))
+            {
+                copy = Copy(owner, object, 0, 0, object.IsDrivable);
+            }
+            copiedFrom.put(object, copy);
+            mapObjects.add(copy);
+        }
+        return new MapSnapshot(map.Length, map.Breadth, mapObjects, map.Version, owner, copiedFrom);
+    }
+
+    static Map NewOwner()
+    {
+        Map owner = new Map(0, 0);
+        owner.Cache = null;
+        return owner;
+    }
+
+    // A private map over the snapshot's shapes for one thread to plan with, it keeps its planning caches between calls
+    // The list is its own copy, so reordering it with OrderShapes leaves the snapshot alone. Edit the snapshot through a
+    // builder rather than the planner's list
+    public Map Planner()
+    {
+        Map planner = new Map(Length, Breadth);
+        planner.MapObjects = new ArrayList<>(MapObjects);
+        planner.Version = Version;
+        return planner;
+    }
+
+    // Fully clear path for all shapes, safe to call from any thread
+    public List<double[]> ClearPath(double[] startPoint, double[] endPoint, double buffer)
+    {
+        return Planner().ClearPath(startPoint, endPoint, buffer);
+    }
+
+    // Shortest path around the shapes, safe to call from any thread. An empty list if there is no path
+    public List<double[]> ShortestPath(double[] startPoint, double[] endPoint, double buffer)
+    {
+        return Planner().ShortestPath(startPoint, endPoint, buffer);
+    }
+
+    // A live map with its own copy of every shape, for going back to editing in place
+    public Map ToMap()
+    {
+        Map map = new Map(Length, Breadth);
+        for (Map.MapObject object : MapObjects)
+        {
+            map.MapObjects.add(Copy(map, object, 0, 0, object.IsDrivable));
+        }
+        map.Version = Version;
+        return map;
+    }
+
+    // Start an edit of the snapshot
+    public Builder ToBuilder()
+    {
+        return new Builder(this);
+    }
+
+    // An empty snapshot of a field, to build up from nothing
+    public static Builder NewBuilder(double length, double breadth)
+    {
+        return new Builder(new MapSnapshot(length, breadth, new ArrayList<>(), 0, NewOwner(), new IdentityHashMap<>()));
+    }
+
+    // Edits to a snapshot, Build makes the new snapshot and leaves the one it started from as it was
+    public static class Builder
+    {
+        double Length;
+        double Breadth;
+        List<Map.MapObject> MapObjects;
+        int Version;
+        Map Owner;
+
+        Builder(MapSnapshot snapshot)
+        {
+            Length = snapshot.Length;
+            Breadth = snapshot.Breadth;
+            MapObjects = new ArrayList<>(snapshot.MapObjects);
+            Version = snapshot.Version;
+            Owner = snapshot.Owner;
+        }
+
+        public Builder SetSize(double length, double breadth)
+        {
+            Length = length;
+            Breadth = breadth;
+            Version++;
+            return this;
+        }
+
+        public Builder AddCircle(double xPos, double yPos, double radius, boolean isDrivable, String name)
+        {
+            MapObjects.add(Owner.new Circle(xPos, yPos, radius, isDrivable, name));
+            Version++;
+            return this;
+        }
+
+        public Builder AddRect(double xPos, double yPos, double length, double breadth, boolean isDrivable, String name)
+        {
+            MapObjects.add(Owner.new Rect(xPos, yPos, length, breadth, isDrivable, name));
+            Version++;
+            return this;
+        }
+
+        // The corners are given on the field, going either way around
+        public Builder AddPolygon(double[] vertexX, double[] vertexY, boolean isDrivable, String name)
+        {
+            Map scratch = new Map(Length, Breadth);
+            scratch.CreatePolygonObject(vertexX, vertexY, isDrivable, name);
+            MapObjects.add(Copy(Owner, scratch.MapObjects.get(0), 0, 0, isDrivable));
+            Version++;
+            return this;
+        }
+
+        public Builder Remove(Map.MapObject object)
+        {
+            MapObjects.remove(IndexOf(object));
+            Version++;
+            return this;
+        }
+
+        // Move a shape, a hybrid object takes all of its parts along with it
+        public Builder Move(Map.MapObject object, double xPos, double yPos)
+        {
+            MapObjects.set(IndexOf(object), Copy(Owner, object, xPos - object.XPos, yPos - object.YPos, object.IsDrivable));
+            Version++;
+            return this;
+        }
+
+        public Builder SetDrivable(Map.MapObject object, boolean isDrivable)
+        {
+            MapObjects.set(IndexOf(object), Copy(Owner, object, 0, 0, isDrivable));
+            Version++;
+            return this;
+        }
+
+        // The first shape with the given name, or null if there isn't one
+        public Map.MapObject Find(String name)
+        {
+            for (Map.MapObject object : MapObjects)
+            {
+                if (object.Name.equals(name))
+                {
+                    return object;
+                }
+            }
+            return null;
+        }
+
+        public MapSnapshot Build()
+        {
+            return new MapSnapshot(Length, Breadth, new ArrayList<>(MapObjects), Version, Owner, new IdentityHashMap<>());
+        }
+
+        int IndexOf(Map.MapObject object)
+        {
+            for (int i = 0; i < MapObjects.size(); i++)
+            {
+                if (MapObjects.get(i) == object)
+                {
+                    return i;
+                }
+            }
+            throw new RuntimeException("Shape " + object.Name + " isn't in the snapshot");
+        }
+    }
+
+    // A copy of the shape made on the owner map, shifted by dx and dy
+    static Map.MapObject Copy(Map owner, Map.MapObject object, double dx, double dy, boolean isDrivable)
+    {
+        Map.MapObject copy;
+        if (object instanceof Map.Circle)
+        {
+            Map.Circle circle = (Map.Circle) object;
+            copy = owner.new Circle(circle.XPos + dx, circle.YPos + dy, circle.Radius, isDrivable, circle.Name);
+        }else if (object instanceof Map.Rect)
+        {
+            Map.Rect rect = (Map.Rect) object;
+            copy = owner.new Rect(rect.XPos + dx, rect.YPos + dy, rect.Length, rect.Breadth, isDrivable, rect.Name);
+        }else if (object instanceof Map.Polygon)
+        {
+            // The corners never change once made so the copy can share them
+            Map.Polygon polygon = (Map.Polygon) object;
+            copy = owner.new Polygon(polygon.XPos + dx, polygon.YPos + dy, polygon.VertexX, polygon.VertexY, isDrivable, polygon.Name);
+        }else if (object instanceof Map.HybridObject)
+        {
+            List<Map.MapObject> compObjects = new ArrayList<>();
+            for (Map.MapObject compObject : ((Map.HybridObject) object).CompObjects)
+            {
+                compObjects.add(Copy(owner, compObject, dx, dy, compObject.IsDrivable));
+            }
+            copy = owner.new HybridObject(Collections.unmodifiableList(compObjects));
+        }else if (object instanceof Map.RandObj)
+        {
+            Map.RandObj randObj = owner.new RandObj();
+            if (((Map.RandObj) object).Vertices != null)
+            {
+                randObj.Vertices = new ArrayList<>();
+                for (double[] vertex : ((Map.RandObj) object).Vertices)
+                {
+                    randObj.Vertices.add(new double[] {vertex[0] + dx, vertex[1] + dy});
+                }
+            }
+            copy = randObj;
+        }else
+        {
+            copy = owner.new MapObject();
+        }
+        copy.XPos = object.XPos + dx;
+        copy.YPos = object.YPos + dy;
+        copy.IsDrivable = isDrivable;
+        copy.Name = object.Name;
+        return copy;
+    }
+
+    // Whether a snapshot shape still matches the live shape it was copied from
+    static boolean Same(Map.MapObject object, Map.MapObject copy)
+    {
+        if (object.getClass() != copy.getClass() || object.XPos != copy.XPos || object.YPos != copy.YPos || object.IsDrivable != copy.IsDrivable || !object.Name.equals(copy.Name))
+        {
+            return false;
+        }
+        if (object instanceof Map.Circle)
+        {
+            return ((Map.Circle) object).Radius == ((Map.Circle) copy).Radius;
+        }else if (object instanceof Map.Rect)
+        {
+            return ((Map.Rect) object).Length == ((Map.Rect) copy).Length && ((Map.Rect) object).Breadth == ((Map.Rect) copy).Breadth;
+        }else if (object instanceof Map.Polygon)
+        {
+            return Arrays.equals(((Map.Polygon) object).VertexX, ((Map.Polygon) copy).VertexX) && Arrays.equals(((Map.Polygon) object).VertexY, ((Map.Polygon) copy).VertexY);
+        }else if (object instanceof Map.HybridObject)
+        {
+            List<Map.MapObject> compObjects = ((Map.HybridObject) object).CompObjects;
+            List<Map.MapObject> compCopies = ((Map.HybridObject) copy).CompObjects;
+            if (compObjects.size() != compCopies.size())
+            {
+                return false;
+            }
+            for (int i = 0; i < compObjects.size(); i++)
+            {
+                if (!Same(compObjects.get(i), compCopies.get(i)))
+                {
+                    return false;
+                }
+            }
+            return true;
+        }
+        // Other shapes aren't compared in detail, so they're always copied again
+        return false;
+    }
+}
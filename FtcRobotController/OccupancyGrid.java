@@ -0,0 +1,479 @@
+import java.util.*;
+
+// The map burned into a bitset grid for constant time collision checks
+// Buffers come from a distance transform of the grid that is worked out once, then each buffer asked for gets its own
+// cached inflated bitset. When a shape changes only the grid around it is burned and transformed again
+public class OccupancyGrid
+{
+
+    // The map the grid was burned from
+    public Map FieldMap;
+    // Size of each cell in inches
+    public double CellSize;
+    // Largest buffer the distance transform covers, distances further than this aren't tracked
+    public double MaxBuffer;
+    // How much nearer a point in one cell can be to a shape in a covered cell than the two cells' middles are, the
+    // shape can be anywhere in its cell and the point anywhere in its own, so it's half a diagonal for each
+    public double Slack;
+
+    // Grid placement over the world rect, cell (col, row) spans MinX + col * CellSize to MinX + (col + 1) * CellSize
+    double MinX;
+    double MinY;
+    public int Columns;
+    public int Rows;
+
+    // One bit per cell, set where a shape covers the cell
+    long[] Occupied;
+    // Distance in inches from each cell's centre to the nearest covered cell's centre, capped just past MaxBuffer
+    float[] Distance;
+    // Inflated bitsets for every buffer asked for so far
+    HashMap<Double, long[]> Inflated = new HashMap<>();
+
+    // The shapes last burned into the grid, packed as {type, xPos, yPos, size1, size2, last sync}
+    IdentityHashMap<Map.MapObject, double[]> Burned = new IdentityHashMap<>();
+    int SyncRound = 0;
+
+    public OccupancyGrid(Map map, double cellSize, double maxBuffer)
+    {
+        FieldMap = map;
+        CellSize = cellSize;
+        MaxBuffer = maxBuffer;
+        Slack = cellSize * Math.sqrt(2);
+        MinX = -map.Breadth / 2;
+        MinY = -map.Length / 2;
+        Columns = Math.max(1, (int) Math.ceil(map.Breadth / cellSize));
+        Rows = Math.max(1, (int) Math.ceil(map.Length / cellSize));
+        Occupied = new long[(Columns * Rows + 63) / 64];
+        Distance = new float[Columns * Rows];
+        Update();
+    }
+
+    // Bring the grid up to date with the map, only burning again around shapes that were added, removed or changed
+    public void Update()
+    {
+        SyncRound++;
+        List<double[]> changed = new ArrayList<>();
+        for (Map.MapObject object : FieldMap.MapObjects)
+        {
+            SyncObject(object, changed);
+        }
+        Iterator<java.util.Map.Entry<Map.MapObject, double[]>> burned = Burned.entrySet().iterator();
+        while (burned.hasNext())
+        {
+            double[] shape = burned.next().getValue();
+            if (shape[5] != SyncRound)
+            {
+                // The shape has left the map
+                changed.add(shape);
+                burned.remove();
+            }
+        }
+
+        if (SyncRound == 1 || changed.size() > Burned.size() / 2)
+        {
+            // The first update has no distances to build on, even with no shapes to burn, and otherwise most of the
+            // map changed, so either way just do the whole grid
+            Rebuild(0, 0, Columns - 1, Rows - 1);
+            return;
+        }
+        for (double[] shape : changed)
+        {
+            int[] cells = CellRange(shape, 0);
+            if (cells != null)
+            {
+                Rebuild(cells[0], cells[1], cells[2], cells[3]);
+            }
+        }
+    }
+
+    void SyncObject(Map.MapObject object, List<double[]> changed)
+    {
+        if (object instanceof Map.HybridObject)
+        {
+            for (Map.MapObject compObject : ((Map.HybridObject) object).CompObjects)
+            {
+                SyncObject(compObject, changed);
+            }
+            return;
+        }
+        double[] shape = Describe(object);
+        double[] burned = Burned.get(object);
+        if (burned == null)
+        {
+            changed.add(shape);
+            Burned.put(object, shape);
+        }else if (burned[0] != shape[0] || burned[1] != shape[1] || burned[2] != shape[2] || burned[3] != shape[3] || burned[4] != shape[4])
+        {
+            // Both where it was and where it is now need burning again
+            changed.add(burned);
+            changed.add(shape);
+            Burned.put(object, shape);
+        }else
+        {
+            shape = burned;
+        }
+        shape[5] = SyncRound;
+    }
+
+    // A copy of what the object covers, type 0 covers nothing, 1 is a circle, 2 is a rect and 3 is a polygon
+    // A polygon is described by its box like a rect, with its corners relative to the middle of the box from index 6 on
+    static double[] Describe(Map.MapObject object)
+    {
+        if (!object.IsDrivable && object instanceof Map.Circle)
+        {
+            Map.Circle circle = (Map.Circle) object;
+            return new double[] {1, circle.XPos, circle.YPos, circle.Radius, 0, 0};
+        }else if (!object.IsDrivable && object instanceof Map.Rect)
+        {
+            Map.Rect rect = (Map.Rect) object;
+            return new double[] {2, rect.XPos, rect.YPos, rect.Length, rect.Breadth, 0};
+        }else if (!object.IsDrivable && object instanceof Map.Polygon)
+        {
+            Map.Polygon polygon = (Map.Polygon) object;
+            double[] box = polygon.GetBounds(0);
+            double[] shape = new double[6 + polygon.VertexX.length * 2];
+            shape[0] = 3;
+            shape[1] = (box[0] + box[2]) / 2;
+            shape[2] = (box[1] + box[3]) / 2;
+            shape[3] = box[3] - box[1];
+            shape[4] = box[2] - box[0];
+            for (int i = 0; i < polygon.VertexX.length; i++)
+            {
+                shape[6 + i * 2] = polygon.VertexX[i] + polygon.XPos - shape[1];
+                shape[7 + i * 2] = polygon.VertexY[i] + polygon.YPos - shape[2];
+            }
+            return shape;
+        }
+        return new double[] {0, 0, 0, 0, 0, 0};
+    }
+
+    // Whether the square cell comes within buffer of every side of the described polygon, the cell range has already
+    // kept it within the box
+    static boolean PolygonMeetsCell(double[] shape, double cellMinX, double cellMinY, double cellSize, double buffer)
+    {
+        int count = (shape.length - 6) / 2;
+        double centreX = cellMinX + cellSize / 2 - shape[1];
+        double centreY = cellMinY + cellSize / 2 - shape[2];
+        for (int i = 0; i < count; i++)
+        {
+            int next = (i + 1) % count;
+            // Outward normal of the side, the corners go anticlockwise
+            double normalX = shape[7 + next * 2] - shape[7 + i * 2];
+            double normalY = shape[6 + i * 2] - shape[6 + next * 2];
+            double length = Math.sqrt(normalX * normalX + normalY * normalY);
+            double side = (normalX * shape[6 + i * 2] + normalY * shape[7 + i * 2]) / length;
+            double cellNear = (normalX * centreX + normalY * centreY - cellSize / 2 * (Math.abs(normalX) + Math.abs(normalY))) / length;
+            if (cellNear > side + buffer)
+            {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // The cells {col0, row0, col1, row1} under the shape's box grown by margin, or null if it covers nothing
+    int[] CellRange(double[] shape, double margin)
+    {
+        if (shape[0] == 0)
+        {
+            return null;
+        }
+        double halfX = (shape[0] == 1 ? shape[3] : shape[4] / 2) + margin;
+        double halfY = (shape[0] == 1 ? shape[3] : shape[3] / 2) + margin;
+        int col0 = Math.max(0, (int) Math.floor((shape[1] - halfX - MinX) / CellSize));
+        int col1 = Math.min(Columns - 1, (int) Math.floor((shape[1] + halfX - MinX) / CellSize));
+        int row0 = Math.max(0, (int) Math.floor((shape[2] - halfY - MinY) / CellSize));
+        int row1 = Math.min(Rows - 1, (int) Math.floor((shape[2] + halfY - MinY) / CellSize));
+        if (col0 > col1 || row0 > row1)
+        {
+            return null;
+        }
+        return new int[] {col0, row0, col1, row1};
+    }
+
+    // Burn the cells in the range again, then redo the distances and inflated bits that could have changed with them
+    void Rebuild(int col0, int row0, int col1, int row1)
+    {
+        for (int row = row0; row <= row1; row++)
+        {
+            for (int col = col0; col <= col1; col++)
+            {
+                ClearBit(Occupied, row * Columns + col);
+            }
+        }
+        for (double[] shape : Burned.values())
+        {
+            Burn(shape, col0, row0, col1, row1);
+        }
+
+        // Distances can only change within the cap of a changed cell, and only cells within the cap again of those
+        // can be their nearest covered cell. The cap is two cells past the max buffer, which covers the slack too
+        int reach = (int) Math.ceil(MaxBuffer / CellSize) + 2;
+        int outCol0 = Math.max(0, col0 - reach);
+        int outRow0 = Math.max(0, row0 - reach);
+        int outCol1 = Math.min(Columns - 1, col1 + reach);
+        int outRow1 = Math.min(Rows - 1, row1 + reach);
+        Transform(Math.max(0, outCol0 - reach), Math.max(0, outRow0 - reach), Math.min(Columns - 1, outCol1 + reach), Math.min(Rows - 1, outRow1 + reach), outCol0, outRow0, outCol1, outRow1);
+        for (java.util.Map.Entry<Double, long[]> inflated : Inflated.entrySet())
+        {
+            Inflate(inflated.getKey(), inflated.getValue(), outCol0, outRow0, outCol1, outRow1);
+        }
+    }
+
+    // Set the bits of every cell in the range whose square overlaps the shape
+    void Burn(double[] shape, int col0, int row0, int col1, int row1)
+    {
+        int[] cells = CellRange(shape, 0);
+        if (cells == null)
+        {
+            return;
+        }
+        for (int row = Math.max(row0, cells[1]); row <= Math.min(row1, cells[3]); row++)
+        {
+            for (int col = Math.max(col0, cells[0]); col <= Math.min(col1, cells[2]); col++)
+            {
+                if (shape[0] == 1)
+                {
+                    // Closest point of the cell to the centre of the circle
+                    double cellMinX = MinX + col * CellSize;
+                    double cellMinY = MinY + row * CellSize;
+                    double offX = Math.max(cellMinX, Math.min(shape[1], cellMinX + CellSize)) - shape[1];
+                    double offY = Math.max(cellMinY, Math.min(shape[2], cellMinY + CellSize)) - shape[2];
+                    if (offX * offX + offY * offY >= shape[3] * shape[3])
+                    {
+                        continue;
+                    }
+                }else if (shape[0] == 3 && !PolygonMeetsCell(shape, MinX + col * CellSize, MinY + row * CellSize, CellSize, 0))
+                {
+                    continue;
+                }
+                SetBit(Occupied, row * Columns + col);
+            }
+        }
+    }
+
+    // Exact euclidean distance transform over the window, written out only for the cells in the output range
+    // Each axis is done with the lower envelope of parabolas from Felzenszwalb and Huttenlocher
+    void Transform(int col0, int row0, int col1, int row1, int outCol0, int outRow0, int outCol1, int outRow1)
+    {
+        int width = col1 - col0 + 1;
+        int height = row1 - row0 + 1;
+        int size = Math.max(width, height);
+        double cap = (MaxBuffer / CellSize + 2) * (MaxBuffer / CellSize + 2);
+        double[] squared = new double[width * height];
+        double[] line = new double[size];
+        double[] result = new double[size];
+        int[] hull = new int[size];
+        double[] bounds = new double[size + 1];
+
+        // Down each column, in cells squared
+        for (int col = 0; col < width; col++)
+        {
+            for (int row = 0; row < height; row++)
+            {
+                line[row] = GetBit(Occupied, (row0 + row) * Columns + col0 + col) ? 0 : cap;
+            }
+            Envelope(line, height, result, hull, bounds);
+            for (int row = 0; row < height; row++)
+            {
+                squared[row * width + col] = result[row];
+            }
+        }
+        // Then along each row
+        for (int row = 0; row < height; row++)
+        {
+            System.arraycopy(squared, row * width, line, 0, width);
+            Envelope(line, width, result, hull, bounds);
+            if (row0 + row < outRow0 || row0 + row > outRow1)
+            {
+                continue;
+            }
+            for (int col = outCol0; col <= outCol1; col++)
+            {
+                Distance[(row0 + row) * Columns + col] = (float) (Math.sqrt(Math.min(result[col - col0], cap)) * CellSize);
+            }
+        }
+    }
+
+    // One dimensional squared distance transform of f into result
+    static void Envelope(double[] f, int count, double[] result, int[] hull, double[] bounds)
+    {
+        int k = 0;
+        hull[0] = 0;
+        bounds[0] = Double.NEGATIVE_INFINITY;
+        bounds[1] = Double.POSITIVE_INFINITY;
+        for (int q = 1; q < count; q++)
+        {
+            double s = ((f[q] + q * q) - (f[hull[k]] + hull[k] * hull[k])) / (2.0 * q - 2.0 * hull[k]);
+            while (s <= bounds[k])
+            {
+                k--;
+                s = ((f[q] + q * q) - (f[hull[k]] + hull[k] * hull[k])) / (2.0 * q - 2.0 * hull[k]);
+            }
+            k++;
+            hull[k] = q;
+            bounds[k] = s;
+            bounds[k + 1] = Double.POSITIVE_INFINITY;
+        }
+        k = 0;
+        for (int q = 0; q < count; q++)
+        {
+            while (bounds[k + 1] < q)
+            {
+                k++;
+            }
+            result[q] = (q - hull[k]) * (q - hull[k]) + f[hull[k]];
+        }
+    }
+
+    // Set the bits in the range for cells any point of which could be within the buffer of a shape, so a cell left clear
+    // is clear all over
+    void Inflate(double buffer, long[] bits, int col0, int row0, int col1, int row1)
+    {
+        for (int row = row0; row <= row1; row++)
+        {
+            for (int col = col0; col <= col1; col++)
+            {
+                int cell = row * Columns + col;
+                if (Distance[cell] <= buffer + Slack)
+                {
+                    SetBit(bits, cell);
+                }else
+                {
+                    ClearBit(bits, cell);
+                }
+            }
+        }
+    }
+
+    // The inflated bitset for the buffer, made from the distance transform the first time it is asked for
+    public long[] InflatedBits(double buffer)
+    {
+        if (buffer > MaxBuffer)
+        {
+            throw new RuntimeException("Buffer " + buffer + " is bigger than the grid's max buffer " + MaxBuffer);
+        }
+        long[] bits = Inflated.get(buffer);
+        if (bits == null)
+        {
+            bits = new long[Occupied.length];
+            Inflate(buffer, bits, 0, 0, Columns - 1, Rows - 1);
+            Inflated.put(buffer, bits);
+        }
+        return bits;
+    }
+
+    // Bits set for the cells whose middle is sure to be within the buffer of a shape, the other way round to the inflated
+    // bits, for ruling cells out rather than in. Made fresh every call
+    public long[] MiddleWithinBits(double buffer)
+    {
+        long[] bits = new long[Occupied.length];
+        for (int cell = 0; cell < Columns * Rows; cell++)
+        {
+            if (Distance[cell] + Slack / 2 <= buffer)
+            {
+                SetBit(bits, cell);
+            }
+        }
+        return bits;
+    }
+
+    // The cell holding the point, or -1 if it is off the grid
+    public int CellAt(double x, double y)
+    {
+        int col = (int) Math.floor((x - MinX) / CellSize);
+        int row = (int) Math.floor((y - MinY) / CellSize);
+        if (col < 0 || col >= Columns || row < 0 || row >= Rows)
+        {
+            return -1;
+        }
+        return row * Columns + col;
+    }
+
+    // Whether a shape covers the point, points off the grid count as covered
+    public boolean IsOccupied(double x, double y)
+    {
+        int cell = CellAt(x, y);
+        return cell < 0 || GetBit(Occupied, cell);
+    }
+
+    // Whether the point is within the buffer of a shape, points off the grid count as blocked
+    public boolean IsBlocked(double x, double y, double buffer)
+    {
+        int cell = CellAt(x, y);
+        return cell < 0 || GetBit(InflatedBits(buffer), cell);
+    }
+
+    // Distance from the point to the nearest shape, never more than it really is, anything past the max buffer comes back
+    // as just past it
+    public double Clearance(double x, double y)
+    {
+        int cell = CellAt(x, y);
+        return cell < 0 ? 0 : Math.max(0, Distance[cell] - Slack);
+    }
+
+    // Whether every cell the segment passes through is clear of the buffer
+    public boolean IsSegmentFree(double x0, double y0, double x1, double y1, double buffer)
+    {
+        long[] bits = InflatedBits(buffer);
+        int cell = CellAt(x0, y0);
+        int endCell = CellAt(x1, y1);
+        if (cell < 0 || endCell < 0)
+        {
+            return false;
+        }
+
+        // Step from cell to cell along the segment, crossing whichever grid line comes first
+        int col = cell % Columns;
+        int row = cell / Columns;
+        int endCol = endCell % Columns;
+        int endRow = endCell / Columns;
+        double dx = x1 - x0;
+        double dy = y1 - y0;
+        int stepCol = dx > 0 ? 1 : -1;
+        int stepRow = dy > 0 ? 1 : -1;
+        double deltaX = dx == 0 ? Double.POSITIVE_INFINITY : Math.abs(CellSize / dx);
+        double deltaY = dy == 0 ? Double.POSITIVE_INFINITY : Math.abs(CellSize / dy);
+        double nextX = dx == 0 ? Double.POSITIVE_INFINITY : ((MinX + (col + (dx > 0 ? 1 : 0)) * CellSize) - x0) / dx;
+        double nextY = dy == 0 ? Double.POSITIVE_INFINITY : ((MinY + (row + (dy > 0 ? 1 : 0)) * CellSize) - y0) / dy;
+        while (true)
+        {
+            if (GetBit(bits, row * Columns + col))
+            {
+                return false;
+            }
+            if (col == endCol && row == endRow)
+            {
+                return true;
+            }
+            if (nextX < nextY)
+            {
+                col += stepCol;
+                nextX += deltaX;
+            }else
+            {
+                row += stepRow;
+                nextY += deltaY;
+            }
+            if (col < 0 || col >= Columns || row < 0 || row >= Rows)
+            {
+                return false;
+            }
+        }
+    }
+
+    static boolean GetBit(long[] bits, int index)
+    {
+        return (bits[index >>> 6] & (1L << index)) != 0;
+    }
+
+    static void SetBit(long[] bits, int index)
+    {
+        bits[index >>> 6] |= 1L << index;
+    }
+
+    static void ClearBit(long[] bits, int index)
+    {
+        bits[index >>> 6] &= ~(1L << index);
+    }
+}
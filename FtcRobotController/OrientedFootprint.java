@@ -0,0 +1,279 @@
+// A footprint that can face any of a fixed set of headings, with what each heading needs worked out once up front
+// Headings go round half a turn in even steps, since a rectangle turned half a turn covers the same ground. Heading 0
+// has the breadth along x as Footprint does, and heading k is turned anticlockwise by k steps
+// Checking the box driving straight along a segment at one heading is a separating axis test against each shape with
+// a fixed number of axes, so it takes the same time however long the segment is. The rounded corners of the footprint
+// are taken as square against rects and polygons, which only ever errs on the side of keeping away
+public class OrientedFootprint
+{
+
+    // Headings in half a turn when none is given, about 5.6 degrees apart
+    public static final int DEFAULT_HEADINGS = 32;
+
+    public final Footprint Shape;
+    public final int Headings;
+    public final double Step; // Angle between neighbouring headings
+
+    // For every heading, the box's breadth direction as (Cos, Sin) and how far the box reaches from its middle along x
+    // and along y, so the box at a heading is never turned on the fly
+    final double[] Cos;
+    final double[] Sin;
+    final double[] ExtentX;
+    final double[] ExtentY;
+
+    public final double Inscribed; // Distance from the middle to the nearest edge, clear whatever the heading
+    public final double Circumscribed; // Distance from the middle to the furthest corner, covering every heading
+    public final double TurnMargin; // Furthest a corner moves turning half a step, added to the checks either side of a turn
+
+    public OrientedFootprint(Footprint footprint, int headings)
+    {
+        if (headings < 1)
+        {
+            throw new RuntimeException("Need at least one heading, not " + headings);
+        }
+        Shape = footprint;
+        Headings = headings;
+        Step = Math.PI / headings;
+        Cos = new double[headings];
+        Sin = new double[headings];
+        ExtentX = new double[headings];
+        ExtentY = new double[headings];
+        for (int k = 0; k < headings; k++)
+        {
+            Cos[k] = Math.cos(k * Step);
+            Sin[k] = Math.sin(k * Step);
+            ExtentX[k] = footprint.HalfBreadth * Math.abs(Cos[k]) + footprint.HalfLength * Math.abs(Sin[k]);
+            ExtentY[k] = footprint.HalfBreadth * Math.abs(Sin[k]) + footprint.HalfLength * Math.abs(Cos[k]);
+        }
+        Inscribed = Math.min(footprint.HalfBreadth, footprint.HalfLength) + footprint.Radius;
+        Circumscribed = Math.hypot(footprint.HalfBreadth, footprint.HalfLength) + footprint.Radius;
+        TurnMargin = 2 * Math.hypot(footprint.HalfBreadth, footprint.HalfLength) * Math.sin(Step / 4);
+    }
+
+    // The angle of the heading in radians, from 0 up to but not including pi
+    public double Angle(int heading)
+    {
+        return heading * Step;
+    }
+
+    // The heading closest to the angle in radians, any angle at all
+    public int Nearest(double angle)
+    {
+        return (int) Math.floorMod(Math.round(angle / Step), (long) Headings);
+    }
+
+    // The heading one step round from the given one, the direction being 1 or -1
+    public int Turn(int heading, int direction)
+    {
+        return Math.floorMod(heading + direction, Headings);
+    }
+
+    // The box around the footprint at the heading driving from one point to the other, grown by the buffer and the
+    // footprint's radius, as {minX, minY, maxX, maxY}
+    public double[] SweptBounds(double fromX, double fromY, double toX, double toY, int heading, double buffer)
+    {
+        double reachX = ExtentX[heading] + Shape.Radius + buffer;
+        double reachY = ExtentY[heading] + Shape.Radius + buffer;
+        return new double[] {Math.min(fromX, toX) - reachX, Math.min(fromY, toY) - reachY, Math.max(fromX, toX) + reachX, Math.max(fromY, toY) + reachY};
+    }
+
+    // Whether the footprint standing at the point facing the heading comes within the buffer of the shape
+    public boolean Collides(Map.MapObject shape, double x, double y, int heading, double buffer)
+    {
+        return Collides(shape, x, y, x, y, heading, buffer);
+    }
+
+    // Whether the footprint driving straight from one point to the other facing the heading comes within the buffer of
+    // the shape anywhere on the way. Shapes that can be driven over never collide
+    public boolean Collides(Map.MapObject shape, double fromX, double fromY, double toX, double toY, int heading, double buffer)
+    {
+        if (shape.IsDrivable)
+        {
+            return false;
+        }
+        double margin = Shape.Radius + buffer;
+        if (shape instanceof Map.HybridObject)
+        {
+            for (Map.MapObject compObject : ((Map.HybridObject) shape).CompObjects)
+            {
+                if (Collides(compObject, fromX, fromY, toX, toY, heading, buffer))
+                {
+                    return true;
+                }
+            }
+            return false;
+        }else if (shape instanceof Map.Circle)
+        {
+            return CollidesCircle((Map.Circle) shape, fromX, fromY, toX, toY, heading, margin);
+        }else if (shape instanceof Map.Rect)
+        {
+            return CollidesRect((Map.Rect) shape, fromX, fromY, toX, toY, heading, margin);
+        }else if (shape instanceof Map.Polygon)
+        {
+            return CollidesPolygon((Map.Polygon) shape, fromX, fromY, toX, toY, heading, margin);
+        }
+        throw new RuntimeException("Can't check " + shape.Name + ", a " + shape.getClass().getSimpleName() + ", against a footprint");
+    }
+
+    // Seen from the box, the middle of the circle slides past it the other way, so the box is hit if that segment
+    // comes within the radius of the box, which is the box grown out along each axis or a corner within the radius
+    boolean CollidesCircle(Map.Circle circle, double fromX, double fromY, double toX, double toY, int heading, double margin)
+    {
+        double cos = Cos[heading];
+        double sin = Sin[heading];
+        double relativeX = circle.XPos - fromX;
+        double relativeY = circle.YPos - fromY;
+        double startX = relativeX * cos + relativeY * sin;
+        double startY = relativeY * cos - relativeX * sin;
+        double moveX = (toX - fromX) * cos + (toY - fromY) * sin;
+        double moveY = (toY - fromY) * cos - (toX - fromX) * sin;
+        double endX = startX - moveX;
+        double endY = startY - moveY;
+        double reach = circle.Radius + margin;
+        double halfX = Shape.HalfBreadth;
+        double halfY = Shape.HalfLength;
+        if (SegmentMeetsBox(startX, startY, endX, endY, -halfX - reach, -halfY, halfX + reach, halfY)
+                || SegmentMeetsBox(startX, startY, endX, endY, -halfX, -halfY - reach, halfX, halfY + reach))
+        {
+            return true;
+        }
+        for (int corner = 0; corner < 4; corner++)
+        {
+            double cornerX = corner == 0 || corner == 3 ? -halfX : halfX;
+            double cornerY = corner < 2 ? -halfY : halfY;
+            if (SegmentDistanceSquared(startX, startY, endX, endY, cornerX, cornerY) <= reach * reach)
+            {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // Separating axes for a rect are the two sides of the field, the two sides of the box and the normal of the way the
+    // box drives, the ground it sweeps being the box stretched along that way
+    boolean CollidesRect(Map.Rect rect, double fromX, double fromY, double toX, double toY, int heading, double margin)
+    {
+        double halfX = rect.Breadth / 2;
+        double halfY = rect.Length / 2;
+        if (Apart(fromX, toX, ExtentX[heading], rect.XPos, halfX, margin) || Apart(fromY, toY, ExtentY[heading], rect.YPos, halfY, margin))
+        {
+            return false;
+        }
+        double cos = Cos[heading];
+        double sin = Sin[heading];
+        if (Apart(fromX * cos + fromY * sin, toX * cos + toY * sin, Shape.HalfBreadth, rect.XPos * cos + rect.YPos * sin, halfX * Math.abs(cos) + halfY * Math.abs(sin), margin)
+                || Apart(fromY * cos - fromX * sin, toY * cos - toX * sin, Shape.HalfLength, rect.YPos * cos - rect.XPos * sin, halfX * Math.abs(sin) + halfY * Math.abs(cos), margin))
+        {
+            return false;
+        }
+        double normalX = fromY - toY;
+        double normalY = toX - fromX;
+        double length = Math.hypot(normalX, normalY);
+        if (length == 0)
+        {
+            return true;
+        }
+        normalX /= length;
+        normalY /= length;
+        double along = fromX * normalX + fromY * normalY;
+        return !Apart(along, along, Reach(normalX, normalY, heading), rect.XPos * normalX + rect.YPos * normalY, halfX * Math.abs(normalX) + halfY * Math.abs(normalY), margin);
+    }
+
+    // The same axes as a rect with the polygon's sides in place of the field's
+    boolean CollidesPolygon(Map.Polygon polygon, double fromX, double fromY, double toX, double toY, int heading, double margin)
+    {
+        double[] range = new double[2];
+        for (int i = 0; i < polygon.NormalX.length; i++)
+        {
+            if (ApartAlong(polygon, polygon.NormalX[i], polygon.NormalY[i], fromX, fromY, toX, toY, heading, margin, range))
+            {
+                return false;
+            }
+        }
+        double cos = Cos[heading];
+        double sin = Sin[heading];
+        if (ApartAlong(polygon, cos, sin, fromX, fromY, toX, toY, heading, margin, range) || ApartAlong(polygon, -sin, cos, fromX, fromY, toX, toY, heading, margin, range))
+        {
+            return false;
+        }
+        double normalX = fromY - toY;
+        double normalY = toX - fromX;
+        double length = Math.hypot(normalX, normalY);
+        return length == 0 || !ApartAlong(polygon, normalX / length, normalY / length, fromX, fromY, toX, toY, heading, margin, range);
+    }
+
+    // Whether the swept box and the polygon are more than the margin apart along the unit axis
+    boolean ApartAlong(Map.Polygon polygon, double axisX, double axisY, double fromX, double fromY, double toX, double toY, int heading, double margin, double[] range)
+    {
+        range[0] = Double.POSITIVE_INFINITY;
+        range[1] = Double.NEGATIVE_INFINITY;
+        for (int i = 0; i < polygon.VertexX.length; i++)
+        {
+            double along = (polygon.XPos + polygon.VertexX[i]) * axisX + (polygon.YPos + polygon.VertexY[i]) * axisY;
+            range[0] = Math.min(range[0], along);
+            range[1] = Math.max(range[1], along);
+        }
+        return Apart(fromX * axisX + fromY * axisY, toX * axisX + toY * axisY, Reach(axisX, axisY, heading), (range[0] + range[1]) / 2, (range[1] - range[0]) / 2, margin);
+    }
+
+    // How far the box at the heading reaches from its middle along the unit axis
+    double Reach(double axisX, double axisY, int heading)
+    {
+        return Shape.HalfBreadth * Math.abs(axisX * Cos[heading] + axisY * Sin[heading]) + Shape.HalfLength * Math.abs(axisY * Cos[heading] - axisX * Sin[heading]);
+    }
+
+    // Whether a box reaching either side of a middle that moves from one place to another along an axis stays more than
+    // the margin away from a shape reaching its extent either side of its own middle
+    static boolean Apart(double from, double to, double reach, double middle, double extent, double margin)
+    {
+        return Math.min(from, to) - reach - (middle + extent) > margin || (middle - extent) - (Math.max(from, to) + reach) > margin;
+    }
+
+    // Whether the segment meets the axis aligned box, touching included
+    static boolean SegmentMeetsBox(double startX, double startY, double endX, double endY, double minX, double minY, double maxX, double maxY)
+    {
+        double enter = 0;
+        double exit = 1;
+        double diffX = endX - startX;
+        double diffY = endY - startY;
+        if (diffX == 0)
+        {
+            if (startX < minX || startX > maxX)
+            {
+                return false;
+            }
+        }else
+        {
+            double first = (minX - startX) / diffX;
+            double second = (maxX - startX) / diffX;
+            enter = Math.max(enter, Math.min(first, second));
+            exit = Math.min(exit, Math.max(first, second));
+        }
+        if (diffY == 0)
+        {
+            if (startY < minY || startY > maxY)
+            {
+                return false;
+            }
+        }else
+        {
+            double first = (minY - startY) / diffY;
+            double second = (maxY - startY) / diffY;
+            enter = Math.max(enter, Math.min(first, second));
+            exit = Math.min(exit, Math.max(first, second));
+        }
+        return enter <= exit;
+    }
+
+    // Squared distance from the point to the nearest point of the segment
+    static double SegmentDistanceSquared(double startX, double startY, double endX, double endY, double x, double y)
+    {
+        double diffX = endX - startX;
+        double diffY = endY - startY;
+        double lengthSquared = diffX * diffX + diffY * diffY;
+        double t = lengthSquared == 0 ? 0 : Math.max(0, Math.min(1, ((x - startX) * diffX + (y - startY) * diffY) / lengthSquared));
+        double offX = startX + t * diffX - x;
+        double offY = startY + t * diffY - y;
+        return offX * offX + offY * offY;
+    }
+}
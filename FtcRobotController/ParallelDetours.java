@@ -0,0 +1,214 @@
+import java.util.*;
+import java.util.concurrent.*;
+
+// Clears a path around one shape with the two detour directions, and the detours nested inside them, run as fork/join
+// tasks. Every crossing segment is worked out on its own and the pieces are joined back in order. Each level starts and
+// tests its segments with the same Map helpers as ClearShapePath, so the path is the same one the sequential version finds
+public class ParallelDetours
+{
+
+    // Nesting depth past which detours are worked out sequentially, deeper detours are too small to be worth a task
+    public static final int DEFAULT_CUTOFF_DEPTH = 3;
+
+    // Clear the path around the shape both ways at once, returning whether each way stayed in the map
+    public static boolean[] ClearBothWays(Map map, Map.MapObject shape, PathBuffer currentPath, double buffer, PathBuffer pathOne, PathBuffer pathTwo)
+    {
+        return ClearBothWays(map, shape, currentPath, buffer, pathOne, pathTwo, DetourLimits.None());
+    }
+
+    // Same as above within the limits of the ClearPath call it's part of, which every task checks
+    static boolean[] ClearBothWays(Map map, Map.MapObject shape, PathBuffer currentPath, double buffer, PathBuffer pathOne, PathBuffer pathTwo, DetourLimits limits)
+    {
+        // Make the world rect up front so the tasks only ever read it
+        map.CachedWorldRect();
+        DetourTask one = new DetourTask(map, shape, currentPath, buffer, false, pathOne, 0, limits);
+        DetourTask two = new DetourTask(map, shape, currentPath, buffer, true, pathTwo, 0, limits);
+        RecursiveAction both = new RecursiveAction() {
+            protected void compute()
+            {
+                invokeAll(one, two);
+            }
+        };
+        if (ForkJoinTask.inForkJoinPool())
+        {
+            both.invoke();
+        }else
+        {
+            map.PlanningPool.invoke(both);
+        }
+        // The first direction is looked at first, just as when they're done one after the other
+        one.Rethrow();
+        two.Rethrow();
+        return new boolean[] {one.Found, two.Found};
+    }
+
+    // Clear a path around the shape, forking a task for every segment that needs a detour
+    static class DetourTask extends RecursiveAction
+    {
+        private static final long serialVersionUID = 1L;
+
+        Map FieldMap;
+        Map.MapObject Shape;
+        PathBuffer CurrentPath;
+        double Buffer;
+        boolean LongerPath;
+        PathBuffer NewPath;
+        int Depth;
+        DetourLimits Limits;
+
+        // Whether the path stayed in the map, or what went wrong working it out
+        boolean Found = false;
+        Throwable Failure;
+
+        DetourTask(Map map, Map.MapObject shape, PathBuffer currentPath, double buffer, boolean longerPath, PathBuffer newPath, int depth, DetourLimits limits)
+        {
+            FieldMap = map;
+            Shape = shape;
+            CurrentPath = currentPath;
+            Buffer = buffer;
+            LongerPath = longerPath;
+            NewPath = newPath;
+            Depth = depth;
+            Limits = limits;
+        }
+
+        protected void compute()
+        {
+            try
+            {
+                Found = Clear();
+            } catch (Throwable e)
+            {
+                Failure = e;
+            }
+        }
+
+        void Rethrow()
+        {
+            if (Failure instanceof RuntimeException)
+            {
+                throw (RuntimeException) Failure;
+            }else if (Failure instanceof Error)
+            {
+                throw (Error) Failure;
+            }else if (Failure != null)
+            {
+                throw new RuntimeException(Failure);
+            }
+        }
+
+        boolean Clear()
+        {
+            if (Depth >= FieldMap.ParallelCutoffDepth)
+            {
+                return FieldMap.ClearShapePath(Shape, CurrentPath, Buffer, LongerPath, NewPath, Depth, Limits);
+            }
+            NewPath.Clear();
+            if (!FieldMap.StartDetourLevel(CurrentPath, Depth, Limits))
+            {
+                return false;
+            }
+
+            // Find the segments that cross the shape, each of those gets its own detour
+            int segments = CurrentPath.Count - 1;
+            SegmentTask[] detours = new SegmentTask[segments];
+            List<SegmentTask> forked = new ArrayList<>();
+            Throwable scanFailure = null;
+            PathBuffer intersects = new PathBuffer();
+            for (int i = 0; i < segments; i++)
+            {
+                boolean crosses;
+                try
+                {
+                    crosses = Map.CrossesShape(Shape, CurrentPath, i, intersects);
+                } catch (RuntimeException e)
+                {
+                    // Only matters if none of the earlier segments fail first
+                    scanFailure = e;
+                    segments = i;
+                    break;
+                }
+                if (crosses)
+                {
+                    PathBuffer crossing = new PathBuffer(2);
+                    crossing.CopyFrom(intersects);
+                    detours[i] = new SegmentTask(this, crossing, i);
+                    forked.add(detours[i]);
+                }
+            }
+            invokeAll(forked);
+
+            // Join the pieces back together in order, stopping at the first detour that fails
+            NewPath.Clear();
+            for (int i = 0; i < segments; i++)
+            {
+                if (detours[i] == null)
+                {
+                    NewPath.Add(CurrentPath.X(i), CurrentPath.Y(i));
+                    continue;
+                }
+                if (detours[i].Failure != null)
+                {
+                    Failure = detours[i].Failure;
+                    Rethrow();
+                }
+                if (!detours[i].Found)
+                {
+                    NewPath.Clear();
+                    return false;
+                }
+                NewPath.Append(detours[i].Segment, 0, detours[i].Segment.Count - 1);
+            }
+            if (scanFailure != null)
+            {
+                Failure = scanFailure;
+                Rethrow();
+            }
+            NewPath.Add(CurrentPath.X(CurrentPath.Count-1), CurrentPath.Y(CurrentPath.Count-1));
+            return true;
+        }
+    }
+
+    // Detour one segment around the shape, then clear the detour itself one level deeper
+    static class SegmentTask extends RecursiveAction
+    {
+        private static final long serialVersionUID = 1L;
+
+        DetourTask Parent;
+        PathBuffer Intersects;
+        int Index;
+
+        boolean Found = false;
+        Throwable Failure;
+        PathBuffer Segment = new PathBuffer();
+
+        SegmentTask(DetourTask parent, PathBuffer intersects, int index)
+        {
+            Parent = parent;
+            Intersects = intersects;
+            Index = index;
+        }
+
+        protected void compute()
+        {
+            PathBuffer path = Parent.CurrentPath;
+            PathBuffer bisected = new PathBuffer(3);
+            try
+            {
+                if (Parent.FieldMap.BisectAndExtendOut(Parent.Shape, Intersects, path.X(Index), path.Y(Index), path.X(Index+1), path.Y(Index+1), Parent.Buffer, Parent.LongerPath, bisected))
+                {
+                    DetourTask inner = new DetourTask(Parent.FieldMap, Parent.Shape, bisected, Parent.Buffer, false, Segment, Parent.Depth + 1, Parent.Limits);
+                    Found = inner.Clear();
+                    PlannerMetrics metrics = Parent.FieldMap.Metrics;
+                    if (Found && metrics != null)
+                    {
+                        metrics.Record(PlannerMetrics.DETOUR, Parent.Depth, bisected.X(1), bisected.Y(1));
+                    }
+                }
+            } catch (Throwable e)
+            {
+                Failure = e;
+            }
+        }
+    }
+}
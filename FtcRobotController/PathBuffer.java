@@ -0,0 +1,157 @@
+import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+// A path or list of points packed into one flat array as x0, y0, x1, y1, ...
+// Buffers are cleared and refilled rather than thrown away, so planning in a loop doesn't create garbage
+public class PathBuffer
+{
+
+    // The packed coordinates, only the first Count points are in use
+    public double[] Points;
+    // Number of points in the buffer
+    public int Count = 0;
+
+    public PathBuffer()
+    {
+        this(8);
+    }
+
+    public PathBuffer(int capacity)
+    {
+        Points = new double[Math.max(capacity, 1) * 2];
+    }
+
+    public double X(int index)
+    {
+        return Points[index * 2];
+    }
+
+    public double Y(int index)
+    {
+        return Points[index * 2 + 1];
+    }
+
+    public void Clear()
+    {
+        Count = 0;
+    }
+
+    // Add a point to the end
+    public void Add(double x, double y)
+    {
+        if (Count * 2 == Points.length)
+        {
+            Points = Arrays.copyOf(Points, Points.length * 2);
+        }
+        Points[Count * 2] = x;
+        Points[Count * 2 + 1] = y;
+        Count++;
+    }
+
+    // Add the points from start up to but not including end of another buffer
+    public void Append(PathBuffer other, int start, int end)
+    {
+        for (int i = start; i < end; i++)
+        {
+            Add(other.Points[i * 2], other.Points[i * 2 + 1]);
+        }
+    }
+
+    // Replace the contents with another buffer's points
+    public void CopyFrom(PathBuffer other)
+    {
+        Clear();
+        Append(other, 0, other.Count);
+    }
+
+    // Swap two points in place
+    public void Swap(int first, int second)
+    {
+        double x = Points[first * 2];
+        double y = Points[first * 2 + 1];
+        Points[first * 2] = Points[second * 2];
+        Points[first * 2 + 1] = Points[second * 2 + 1];
+        Points[second * 2] = x;
+        Points[second * 2 + 1] = y;
+    }
+
+    // Whether both buffers hold exactly the same points
+    public boolean SameAs(PathBuffer other)
+    {
+        if (Count != other.Count)
+        {
+            return false;
+        }
+        for (int i = 0; i < Count * 2; i++)
+        {
+            if (Points[i] != other.Points[i])
+            {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // Copy the points out as a list of {x, y} arrays
+    public List<double[]> ToList()
+    {
+        List<double[]> list = new ArrayList<>(Count);
+        for (int i = 0; i < Count; i++)
+        {
+            list.add(new double[] {Points[i * 2], Points[i * 2 + 1]});
+        }
+        return list;
+    }
+
+    // Replace the contents with the points from a list of {x, y} arrays
+    public void FromList(List<double[]> list)
+    {
+        Clear();
+        for (double[] point : list)
+        {
+            Add(point[0], point[1]);
+        }
+    }
+
+    // Scratch buffers to borrow during planning, a borrowed buffer must be returned once finished with
+    // Returned buffers keep their arrays so after the first plan no new ones are needed. Every thread has its own
+    // free list, so shapes shared between threads can borrow at the same time
+    public static class Pool
+    {
+        static class FreeList
+        {
+            PathBuffer[] Buffers = new PathBuffer[8];
+            int Count = 0;
+        }
+
+        ThreadLocal<FreeList> Free = ThreadLocal.withInitial(FreeList::new);
+
+        public final AtomicLong Made = new AtomicLong(); // Buffers made because the pool had run out
+
+        // Take an empty buffer from the pool, making a new one if the pool has run out
+        public PathBuffer Borrow()
+        {
+            FreeList free = Free.get();
+            if (free.Count == 0)
+            {
+                Made.incrementAndGet();
+                return new PathBuffer();
+            }
+            PathBuffer buffer = free.Buffers[--free.Count];
+            free.Buffers[free.Count] = null;
+            buffer.Clear();
+            return buffer;
+        }
+
+        // Give a buffer back to the pool
+        public void Return(PathBuffer buffer)
+        {
+            FreeList free = Free.get();
+            if (free.Count == free.Buffers.length)
+            {
+                free.Buffers = Arrays.copyOf(free.Buffers, free.Buffers.length * 2);
+            }
+            free.Buffers[free.Count++] = buffer;
+        }
+    }
+}
@@ -0,0 +1,275 @@
+import java.util.*;
+
+// Paths from ClearPath kept for the start, end and buffer they were planned for, so asking again is just a lookup
+// When the grouped shapes ClearPath plans around change, only the paths whose box meets a group that changed, where it
+// was before or where it is now, are thrown away. Groups that merged or split count as changed, so every shape that
+// went into them is looked at. A detour only ever puts points into the path, so every segment ClearPath tried on the
+// way lies in the box around the path it settled on, and a group away from that box was never crossed and can't change
+// the path. A shape edited in place without going through the map isn't seen, the same as by ClearPath itself
+public class PathCache
+{
+
+    // Start and end points are rounded to this many inches before lookup
+    public static final double DEFAULT_QUANTUM = 0.01;
+
+    // The map the paths were planned on
+    public Map FieldMap;
+    // Most paths kept at once, the least recently used one goes first
+    public int Capacity;
+    // Rounding applied to the start and end points
+    public double Quantum;
+
+    // Counters for sizing the cache
+    public long Hits = 0;
+    public long Misses = 0;
+    public long Evictions = 0; // Thrown away to make room
+    public long Invalidations = 0; // Thrown away because a group near them changed
+
+    // A cached path, and the box around it, which holds the straight line from start to end and every detour tried
+    static class Entry
+    {
+        double Buffer;
+        PathBuffer Path;
+        double[] Bounds;
+    }
+
+    // Rounded start, end and buffer
+    static class Key
+    {
+        long StartX;
+        long StartY;
+        long EndX;
+        long EndY;
+        long Buffer;
+
+        public boolean equals(Object other)
+        {
+            if (!(other instanceof Key))
+            {
+                return false;
+            }
+            Key key = (Key) other;
+            return StartX == key.StartX && StartY == key.StartY && EndX == key.EndX && EndY == key.EndY && Buffer == key.Buffer;
+        }
+
+        public int hashCode()
+        {
+            return Arrays.hashCode(new long[] {StartX, StartY, EndX, EndY, Buffer});
+        }
+    }
+
+    // The groups for one buffer as the cache last saw them, which update of them that was and the parts of every group
+    static class Grouped
+    {
+        int Updates;
+        IdentityHashMap<Map.MapObject, double[]> Placed = new IdentityHashMap<>();
+    }
+
+    LinkedHashMap<Key, Entry> Entries;
+
+    // The groups for every buffer paths are kept for, and the size of the field the paths had to stay on
+    HashMap<Double, Grouped> Seen = new HashMap<>();
+    double Length;
+    double Breadth;
+
+    public PathCache(Map map, int capacity)
+    {
+        this(map, capacity, DEFAULT_QUANTUM);
+    }
+
+    public PathCache(Map map, int capacity, double quantum)
+    {
+        FieldMap = map;
+        Capacity = capacity;
+        Quantum = quantum;
+        Length = map.Length;
+        Breadth = map.Breadth;
+        // Access order so iteration starts from the least recently used entry
+        Entries = new LinkedHashMap<Key, Entry>(16, 0.75f, true) {
+            protected boolean removeEldestEntry(java.util.Map.Entry<Key, Entry> eldest)
+            {
+                if (size() > Capacity)
+                {
+                    Evictions++;
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    // Copy the cached path for the request into path, with the exact start and end put back. False if it isn't cached
+    public boolean Get(double startX, double startY, double endX, double endY, double buffer, PathBuffer path)
+    {
+        CatchUp(buffer);
+        Entry entry = Entries.get(MakeKey(startX, startY, endX, endY, buffer));
+        if (entry == null)
+        {
+            Misses++;
+            return false;
+        }
+        Hits++;
+        path.CopyFrom(entry.Path);
+        path.Points[0] = startX;
+        path.Points[1] = startY;
+        path.Points[path.Count * 2 - 2] = endX;
+        path.Points[path.Count * 2 - 1] = endY;
+        return true;
+    }
+
+    // Keep a copy of a path planned on the map as it is now
+    public void Put(double startX, double startY, double endX, double endY, double buffer, PathBuffer path)
+    {
+        CatchUp(buffer);
+        Entry entry = new Entry();
+        entry.Buffer = buffer;
+        entry.Path = new PathBuffer(path.Count);
+        entry.Path.CopyFrom(path);
+        entry.Bounds = new double[] {Double.POSITIVE_INFINITY, Double.POSITIVE_INFINITY, Double.NEGATIVE_INFINITY, Double.NEGATIVE_INFINITY};
+        for (int i = 0; i < path.Count; i++)
+        {
+            entry.Bounds[0] = Math.min(entry.Bounds[0], path.X(i));
+            entry.Bounds[1] = Math.min(entry.Bounds[1], path.Y(i));
+            entry.Bounds[2] = Math.max(entry.Bounds[2], path.X(i));
+            entry.Bounds[3] = Math.max(entry.Bounds[3], path.Y(i));
+        }
+        Entries.put(MakeKey(startX, startY, endX, endY, buffer), entry);
+    }
+
+    // Throw away every cached path
+    public void Clear()
+    {
+        Entries.clear();
+        Seen.clear();
+    }
+
+    public int Size()
+    {
+        return Entries.size();
+    }
+
+    Key MakeKey(double startX, double startY, double endX, double endY, double buffer)
+    {
+        Key key = new Key();
+        key.StartX = Math.round(startX / Quantum);
+        key.StartY = Math.round(startY / Quantum);
+        key.EndX = Math.round(endX / Quantum);
+        key.EndY = Math.round(endY / Quantum);
+        key.Buffer = Double.doubleToLongBits(buffer);
+        return key;
+    }
+
+    // If the groups for the buffer have changed, find the ones that moved, appeared or went and drop the paths for the
+    // buffer near them. Paths for other buffers catch up the next time their buffer is asked for
+    void CatchUp(double buffer)
+    {
+        if (Length != FieldMap.Length || Breadth != FieldMap.Breadth)
+        {
+            // A path can only be as wide as the field, so a new size may change any of them
+            Clear();
+            Length = FieldMap.Length;
+            Breadth = FieldMap.Breadth;
+        }
+        List<Map.MapObject> groups = FieldMap.GroupShapes(buffer);
+        int updates = FieldMap.Groups.get(buffer).Updates;
+        Grouped seen = Seen.get(buffer);
+        if (seen == null)
+        {
+            // No paths are kept for the buffer yet, so there is nothing to drop
+            seen = new Grouped();
+            seen.Updates = updates;
+            for (Map.MapObject group : groups)
+            {
+                seen.Placed.put(group, Snapshot(group));
+            }
+            Seen.put(buffer, seen);
+            return;
+        }
+        if (seen.Updates == updates)
+        {
+            return;
+        }
+        seen.Updates = updates;
+
+        List<double[]> changed = new ArrayList<>();
+        IdentityHashMap<Map.MapObject, double[]> placed = new IdentityHashMap<>();
+        for (Map.MapObject group : groups)
+        {
+            double[] snapshot = Snapshot(group);
+            double[] before = seen.Placed.remove(group);
+            if (before == null)
+            {
+                changed.add(snapshot);
+            }else if (!Arrays.equals(before, snapshot))
+            {
+                changed.add(before);
+                changed.add(snapshot);
+            }
+            placed.put(group, snapshot);
+        }
+        // Any group not found any more was removed, merged into another or split up
+        changed.addAll(seen.Placed.values());
+        seen.Placed = placed;
+        if (changed.isEmpty())
+        {
+            return;
+        }
+
+        Iterator<Entry> entries = Entries.values().iterator();
+        while (entries.hasNext())
+        {
+            Entry entry = entries.next();
+            if (Double.doubleToLongBits(entry.Buffer) != Double.doubleToLongBits(buffer))
+            {
+                continue;
+            }
+            for (double[] snapshot : changed)
+            {
+                if (Touches(entry, snapshot))
+                {
+                    entries.remove();
+                    Invalidations++;
+                    break;
+                }
+            }
+        }
+    }
+
+    // The drivable flag and the boxes of every part of the shape, packed as drivable, then {minX, minY, maxX, maxY}
+    // per part. A shape with no box gets an empty part list, which counts as being everywhere
+    static double[] Snapshot(Map.MapObject object)
+    {
+        List<Map.MapObject> parts = object instanceof Map.HybridObject ? ((Map.HybridObject) object).CompObjects : List.of(object);
+        double[] snapshot = new double[1 + parts.size() * 4];
+        snapshot[0] = object.IsDrivable ? 1 : 0;
+        for (int i = 0; i < parts.size(); i++)
+        {
+            double[] bounds = parts.get(i).GetBounds(0);
+            if (bounds == null)
+            {
+                return new double[] {snapshot[0]};
+            }
+            System.arraycopy(bounds, 0, snapshot, 1 + i * 4, 4);
+        }
+        return snapshot;
+    }
+
+    // Whether any part of the shape's box, widened by the path's buffer, meets the box around the path
+    static boolean Touches(Entry entry, double[] snapshot)
+    {
+        if (snapshot.length == 1)
+        {
+            return true;
+        }
+        double margin = Math.max(entry.Buffer, 0) + Map.INDEX_MARGIN;
+        for (int part = 1; part < snapshot.length; part += 4)
+        {
+            if (snapshot[part + 2] + margin >= entry.Bounds[0] && snapshot[part] - margin <= entry.Bounds[2]
+                    && snapshot[part + 3] + margin >= entry.Bounds[1] && snapshot[part + 1] - margin <= entry.Bounds[3])
+            {
+                return true;
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,291 @@
+import java.io.*;
+import java.lang.management.*;
+import java.util.*;
+import java.util.concurrent.atomic.*;
+
+// Counters kept by the map while it plans, and an optional trace of the last few planning events
+// Nothing is counted while the map's Metrics is null, and nothing is traced unless a trace is turned on, so on the
+// robot it only costs a null check until it's wanted. Every counter can be bumped from the planning pool's threads
+public class PlannerMetrics
+{
+
+    // Kinds of shape intersection tests are counted by
+    public static final int CIRCLE = 0;
+    public static final int RECT = 1;
+    public static final int POLYGON = 2;
+    public static final int HYBRID = 3;
+    public static final int OTHER = 4;
+    static final String[] KIND_NAMES = new String[] {"Circle", "Rect", "Polygon", "Hybrid", "Other"};
+
+    // Events the trace keeps
+    public static final int CLEAR_PATH_START = 0; // Value is the number of shapes
+    public static final int CLEAR_PATH_END = 1; // Value is the number of points on the path
+    public static final int CACHE_HIT = 2;
+    public static final int SHAPE_CLEARED = 3; // Value says which ways around stayed in the map, 1 the first, 2 the second, 3 both
+    public static final int NO_VALID_PATH = 4;
+    public static final int DETOUR = 5; // Value is the recursion depth, the point is where the detour goes through
+    public static final int BISECT_FAILED = 6; // Point is the detour point, outside the map, or NaN if the bisector missed
+    static final String[] EVENT_NAMES = new String[] {"ClearPathStart", "ClearPathEnd", "CacheHit", "ShapeCleared", "NoValidPath", "Detour", "BisectFailed"};
+
+    // Intersection tests against each kind of shape, a hybrid's own test and those against its parts all count
+    public final AtomicLongArray IntersectTests = new AtomicLongArray(KIND_NAMES.length);
+
+    // ClearShapePath calls, recursive ones included, and the deepest any of them went
+    public final AtomicLong ClearShapePathCalls = new AtomicLong();
+    public final AtomicInteger MaxDepth = new AtomicInteger();
+
+    // BisectAndExtendOut calls that put the detour outside the map or whose bisector missed the world or the shape
+    public final AtomicLong BisectFailures = new AtomicLong();
+
+    // ClearPath calls and the time they took, cache hits are in the cache's own counters
+    public final AtomicLong ClearPathCalls = new AtomicLong();
+    public final AtomicLong ClearPathNanos = new AtomicLong();
+    public final AtomicLong MaxClearPathNanos = new AtomicLong();
+    public final AtomicLong LastClearPathNanos = new AtomicLong();
+
+    // Bytes ClearPath calls allocated on the thread that called them, counted only where the VM can measure it per
+    // thread, so not on the robot. Whatever the planning pool's threads allocate for a call isn't counted
+    public final AtomicLong AllocatedCalls = new AtomicLong();
+    public final AtomicLong AllocatedBytes = new AtomicLong();
+    public final AtomicLong LastAllocatedBytes = new AtomicLong();
+
+    Trace Events; // Null unless tracing is turned on
+
+    public PlannerMetrics()
+    {
+    }
+
+    // Start keeping the last capacity events, rounded up to a power of two
+    public PlannerMetrics(int traceCapacity)
+    {
+        Events = new Trace(traceCapacity);
+    }
+
+    public Trace GetTrace()
+    {
+        return Events;
+    }
+
+    public void Reset()
+    {
+        for (int i = 0; i < IntersectTests.length(); i++)
+        {
+            IntersectTests.set(i, 0);
+        }
+        ClearShapePathCalls.set(0);
+        MaxDepth.set(0);
+        BisectFailures.set(0);
+        ClearPathCalls.set(0);
+        ClearPathNanos.set(0);
+        MaxClearPathNanos.set(0);
+        LastClearPathNanos.set(0);
+        AllocatedCalls.set(0);
+        AllocatedBytes.set(0);
+        LastAllocatedBytes.set(0);
+        if (Events != null)
+        {
+            Events.Clear();
+        }
+    }
+
+    void CountDepth(int depth)
+    {
+        ClearShapePathCalls.incrementAndGet();
+        int deepest = MaxDepth.get();
+        while (depth > deepest && !MaxDepth.compareAndSet(deepest, depth))
+        {
+            deepest = MaxDepth.get();
+        }
+    }
+
+    // The bytes are -1 if they couldn't be measured
+    void CountClearPath(long nanos, long allocatedBytes)
+    {
+        ClearPathCalls.incrementAndGet();
+        ClearPathNanos.addAndGet(nanos);
+        LastClearPathNanos.set(nanos);
+        long longest = MaxClearPathNanos.get();
+        while (nanos > longest && !MaxClearPathNanos.compareAndSet(longest, nanos))
+        {
+            longest = MaxClearPathNanos.get();
+        }
+        if (allocatedBytes >= 0)
+        {
+            AllocatedCalls.incrementAndGet();
+            AllocatedBytes.addAndGet(allocatedBytes);
+            LastAllocatedBytes.set(allocatedBytes);
+        }
+    }
+
+    static volatile boolean CanMeasureAllocations = true;
+
+    // Bytes the calling thread has allocated so far, or -1 where the VM can't say. Android has no java.lang.management,
+    // so the first call there finds the holder class won't load and every call after returns -1 straight away
+    static long ThreadAllocatedBytes()
+    {
+        if (!CanMeasureAllocations)
+        {
+            return -1;
+        }
+        try
+        {
+            long bytes = ThreadAllocations.Allocated();
+            if (bytes < 0)
+            {
+                CanMeasureAllocations = false;
+            }
+            return bytes;
+        } catch (LinkageError e)
+        {
+            CanMeasureAllocations = false;
+            return -1;
+        }
+    }
+
+    // Kept apart so nothing from java.lang.management is loaded until allocations are first measured
+    static class ThreadAllocations
+    {
+        static final com.sun.management.ThreadMXBean Threads = Find();
+
+        static com.sun.management.ThreadMXBean Find()
+        {
+            ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+            if (!(threads instanceof com.sun.management.ThreadMXBean))
+            {
+                return null;
+            }
+            com.sun.management.ThreadMXBean counting = (com.sun.management.ThreadMXBean) threads;
+            if (!counting.isThreadAllocatedMemorySupported())
+            {
+                return null;
+            }
+            if (!counting.isThreadAllocatedMemoryEnabled())
+            {
+                counting.setThreadAllocatedMemoryEnabled(true);
+            }
+            return counting;
+        }
+
+        static long Allocated()
+        {
+            return Threads == null ? -1 : Threads.getThreadAllocatedBytes(Thread.currentThread().getId());
+        }
+    }
+
+    void Record(int event, int value, double x, double y)
+    {
+        Trace events = Events;
+        if (events != null)
+        {
+            events.Add(event, value, x, y);
+        }
+    }
+
+    // Somewhere to send the counters line by line, Telemetry.addData fits it
+    public interface Sink
+    {
+        void Add(String caption, Object value);
+    }
+
+    // Send every counter to the sink, telemetry::addData for the driver station
+    public void Report(Sink sink)
+    {
+        for (int i = 0; i < KIND_NAMES.length; i++)
+        {
+            sink.Add(KIND_NAMES[i] + " tests", IntersectTests.get(i));
+        }
+        sink.Add("ClearShapePath calls", ClearShapePathCalls.get());
+        sink.Add("Max depth", MaxDepth.get());
+        sink.Add("Bisect failures", BisectFailures.get());
+        long calls = ClearPathCalls.get();
+        sink.Add("ClearPath calls", calls);
+        sink.Add("ClearPath mean us", calls == 0 ? 0 : ClearPathNanos.get() / calls / 1000);
+        sink.Add("ClearPath max us", MaxClearPathNanos.get() / 1000);
+        sink.Add("ClearPath last us", LastClearPathNanos.get() / 1000);
+        long measured = AllocatedCalls.get();
+        sink.Add("ClearPath mean bytes", measured == 0 ? "n/a" : AllocatedBytes.get() / measured);
+        sink.Add("ClearPath last bytes", measured == 0 ? "n/a" : LastAllocatedBytes.get());
+    }
+
+    // Write the counters and then the trace, oldest event first, as lines of text
+    public void Write(PrintStream out)
+    {
+        Report((caption, value) -> out.println(caption + ": " + value));
+        if (Events != null)
+        {
+            Events.Write(out);
+        }
+    }
+
+    public void Write(File file) throws IOException
+    {
+        try (PrintStream out = new PrintStream(new FileOutputStream(file)))
+        {
+            Write(out);
+        }
+    }
+
+    // Ring of the last planning events in plain arrays, so adding one makes no garbage. The oldest events are written
+    // over once it's full. Threads adding at once each get their own slot, but an event being written while the trace is
+    // read can show up half written
+    public static class Trace
+    {
+        final long[] Time;
+        final int[] Event;
+        final int[] Value;
+        final double[] X;
+        final double[] Y;
+        final int Mask;
+        final AtomicLong Next = new AtomicLong();
+
+        Trace(int capacity)
+        {
+            int size = Integer.highestOneBit(Math.max(1, capacity - 1)) << 1;
+            Time = new long[size];
+            Event = new int[size];
+            Value = new int[size];
+            X = new double[size];
+            Y = new double[size];
+            Mask = size - 1;
+        }
+
+        void Add(int event, int value, double x, double y)
+        {
+            int slot = (int) (Next.getAndIncrement() & Mask);
+            Time[slot] = System.nanoTime();
+            Event[slot] = event;
+            Value[slot] = value;
+            X[slot] = x;
+            Y[slot] = y;
+        }
+
+        void Clear()
+        {
+            Next.set(0);
+        }
+
+        // Number of events kept, at most the capacity
+        public int Count()
+        {
+            return (int) Math.min(Next.get(), Time.length);
+        }
+
+        // Position of the i'th kept event in the arrays, 0 being the oldest
+        int Slot(int i)
+        {
+            long next = Next.get();
+            return (int) ((next - Math.min(next, Time.length) + i) & Mask);
+        }
+
+        public void Write(PrintStream out)
+        {
+            int count = Count();
+            long first = count == 0 ? 0 : Time[Slot(0)];
+            for (int i = 0; i < count; i++)
+            {
+                int slot = Slot(i);
+                out.println((Time[slot] - first) / 1000 + "us " + EVENT_NAMES[Event[slot]] + " " + Value[slot] + " " + X[slot] + ", " + Y[slot]);
+            }
+        }
+    }
+}
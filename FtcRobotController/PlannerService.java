@@ -0,0 +1,172 @@
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.function.Consumer;
+
+// Plans on worker threads so the thread running the OpMode never waits on a path
+// A request plans on a snapshot of the map taken when it is submitted, so the map can go on being edited while it runs.
+// It is worked in short AnytimePath steps, and after every step the best path so far goes to the request's progress
+// callback and the request checks whether it has been cancelled, so cancelling takes effect within a step. Requests are
+// submitted under a key, and a new request under a key cancels the one before it, waiting or running, since once the
+// robot has moved on the old request's start is stale. Each worker keeps its planning map between requests, so asking
+// again for the same end from a new start carries on the same grid search, and after an edit only the shapes that
+// changed are redone. Building the grid for a new buffer isn't split into steps, so the first request for each buffer
+// can run well past a step before it checks in
+public class PlannerService
+{
+
+    // How long each step plans for before checking in, in nanoseconds
+    public static final long DEFAULT_STEP_NANOS = 5000000;
+
+    // A path being planned, done once planning finishes with the path, an empty list if there is none
+    public static class Request extends CompletableFuture<List<double[]>>
+    {
+        public final String Key;
+        public final double[] StartPoint;
+        public final double[] EndPoint;
+        public final double Buffer;
+
+        // Called on the worker thread after every step with the best path so far, null for no callback
+        final Consumer<AnytimePlanner.Result> Progress;
+        final MapSnapshot Snapshot;
+
+        Request(String key, double[] startPoint, double[] endPoint, double buffer, Consumer<AnytimePlanner.Result> progress, MapSnapshot snapshot)
+        {
+            Key = key;
+            StartPoint = startPoint.clone();
+            EndPoint = endPoint.clone();
+            Buffer = buffer;
+            Progress = progress;
+            Snapshot = snapshot;
+        }
+    }
+
+    public final Map FieldMap;
+    public final long StepNanos;
+
+    ExecutorService Workers;
+    // The newest request under each key, which is cancelled once a newer one comes in
+    ConcurrentHashMap<String, Request> Latest = new ConcurrentHashMap<>();
+    // Each worker's own planning map, over a copy of the shapes of the last snapshot it planned on
+    ThreadLocal<Map> Planners = new ThreadLocal<>();
+    // The shape list of that snapshot, to tell when a request comes with a newer one
+    ThreadLocal<List<Map.MapObject>> PlannedOn = new ThreadLocal<>();
+
+    public PlannerService(Map map)
+    {
+        this(map, 1, DEFAULT_STEP_NANOS);
+    }
+
+    public PlannerService(Map map, int threads, long stepNanos)
+    {
+        if (threads < 1)
+        {
+            throw new RuntimeException("Need at least one worker thread, not " + threads);
+        }
+        FieldMap = map;
+        StepNanos = stepNanos;
+        Workers = Executors.newFixedThreadPool(threads, runnable -> {
+            Thread thread = new Thread(runnable, "Planner");
+            // Never keep the app alive after the OpMode stops, and let the control loop have the core first
+            thread.setDaemon(true);
+            thread.setPriority(Thread.MIN_PRIORITY);
+            return thread;
+        });
+    }
+
+    // Plan a path in the background, cancelling whatever is still planning under the same key
+    // The map is snapshotted here, so call it from the thread that edits the map
+    public Request Submit(String key, double[] startPoint, double[] endPoint, double buffer, Consumer<AnytimePlanner.Result> progress)
+    {
+        Request request = new Request(key, startPoint, endPoint, buffer, progress, FieldMap.Snapshot());
+        Request stale = Latest.put(key, request);
+        if (stale != null)
+        {
+            stale.cancel(false);
+        }
+        try
+        {
+            Workers.execute(() -> Run(request));
+        } catch (RejectedExecutionException e)
+        {
+            Latest.remove(key, request);
+            request.completeExceptionally(e);
+        }
+        return request;
+    }
+
+    // Same as above under the one key, for a robot only ever planning its next leg
+    public Request Submit(double[] startPoint, double[] endPoint, double buffer)
+    {
+        return Submit("", startPoint, endPoint, buffer, null);
+    }
+
+    // Cancel the request under the key, if it's still planning
+    public void Cancel(String key)
+    {
+        Request request = Latest.remove(key);
+        if (request != null)
+        {
+            request.cancel(false);
+        }
+    }
+
+    // Cancel everything and stop the workers, for when the OpMode stops. The service can't be used after
+    public void Shutdown()
+    {
+        Workers.shutdown();
+        for (String key : new ArrayList<>(Latest.keySet()))
+        {
+            Cancel(key);
+        }
+    }
+
+    // Plan the request step by step until it's done, cancelled or superseded
+    void Run(Request request)
+    {
+        try
+        {
+            Map planner = PlannerFor(request.Snapshot);
+            while (!request.isDone())
+            {
+                AnytimePlanner.Result result = planner.AnytimePath(request.StartPoint, request.EndPoint, request.Buffer, System.nanoTime() + StepNanos);
+                if (request.isDone())
+                {
+                    // Cancelled while the step ran, no one wants what it found
+                    break;
+                }
+                if (request.Progress != null)
+                {
+                    request.Progress.accept(result);
+                }
+                if (result.Done)
+                {
+                    request.complete(result.Path);
+                }
+            }
+        } catch (RuntimeException | Error e)
+        {
+            request.completeExceptionally(e);
+        } finally
+        {
+            Latest.remove(request.Key, request);
+        }
+    }
+
+    // This worker's planning map, moved on to the snapshot the way an edit would be. Snapshots share the shapes that
+    // haven't changed, so the grid and groups only redo what has, and its searches carry on while nothing has changed
+    Map PlannerFor(MapSnapshot snapshot)
+    {
+        Map planner = Planners.get();
+        if (planner == null || planner.Length != snapshot.Length || planner.Breadth != snapshot.Breadth)
+        {
+            planner = snapshot.Planner();
+            Planners.set(planner);
+        }else if (PlannedOn.get() != snapshot.MapObjects)
+        {
+            planner.MapObjects = new ArrayList<>(snapshot.MapObjects);
+            planner.Version++;
+        }
+        PlannedOn.set(snapshot.MapObjects);
+        return planner;
+    }
+}
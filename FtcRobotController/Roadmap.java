@@ -0,0 +1,614 @@
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.FileChannel;
+import java.util.*;
+
+// Probabilistic roadmap for a field whose shapes stay put all season, built once offline and loaded at init
+// Building samples points the robot can stand on and joins each one to the nearest points it can see, which is where
+// all the geometry goes. A query then only joins its start and end to the nearest roadmap points and runs A*
+//
+// The file is little endian: int magic, int format version, double buffer, double length, double breadth,
+// long fingerprint of the shapes it was built around, int node count, int edge count, then double x, double y for
+// every node, int edge start for every node and one past the last, and the int target of every edge
+public class Roadmap
+{
+
+    public static final int MAGIC = 0x504D4452; // "RDMP" read as little endian
+    public static final int FORMAT_VERSION = 1;
+
+    static final int HEADER_SIZE = 48;
+
+    // Points sampled and how many of their nearest points each one tries to join to, when not given
+    public static final int DEFAULT_SAMPLES = 2000;
+    public static final int DEFAULT_NEIGHBOURS = 10;
+    // How many of the nearest roadmap points the start and end of a query try to join to
+    static final int QUERY_NEIGHBOURS = 16;
+    // Samples tried for every point wanted before giving up on a field with hardly any free space
+    static final int ATTEMPTS_PER_SAMPLE = 50;
+
+    // The buffer and field size the roadmap was built for, and a fingerprint of the shapes it was built around
+    public double Buffer;
+    public double Length;
+    public double Breadth;
+    public long Fingerprint;
+
+    // The map the roadmap was last checked against, the map version it was checked at and whether it fit
+    Map FieldMap;
+    int Version;
+    boolean Matches = false;
+
+    // The shapes that block driving, with hybrid objects split into their parts
+    List<Map.MapObject> Obstacles = new ArrayList<>();
+    SpatialIndex Index;
+
+    double[] NodeX;
+    double[] NodeY;
+    int NodeCount = 0;
+
+    // Edges of node n are EdgeTarget[EdgeStart[n]] up to EdgeTarget[EdgeStart[n+1]]
+    int[] EdgeStart;
+    int[] EdgeTarget;
+    double[] EdgeLength;
+
+    // Search scratch space, reused between queries
+    double[] Cost;
+    int[] Parent;
+    int[] Visited;
+    int[] Closed;
+    int SearchStamp = 0;
+    int[] Heap;
+    double[] HeapKey;
+    int HeapSize;
+    // Length of the line from each roadmap point to the end of the query, for the points joined to it
+    double[] EndCost;
+    int[] EndJoined;
+
+    Roadmap(double buffer, double length, double breadth, long fingerprint)
+    {
+        Buffer = buffer;
+        Length = length;
+        Breadth = breadth;
+        Fingerprint = fingerprint;
+    }
+
+    // Sample points over the field and join each to the nearest points it can see, the same seed always gives the
+    // same roadmap
+    public static Roadmap Build(Map map, double buffer, int samples, int neighbours, long seed)
+    {
+        List<Map.MapObject> obstacles = ObstaclesOf(map);
+        Roadmap roadmap = new Roadmap(buffer, map.Length, map.Breadth, Fingerprint(obstacles));
+        roadmap.Fits(map);
+
+        // Points the robot can stand on, spread evenly over the field
+        double[] world = map.WorldRect().GetBounds(0);
+        Random random = new Random(seed);
+        double[] nodeX = new double[samples];
+        double[] nodeY = new double[samples];
+        int count = 0;
+        for (long attempt = 0; attempt < (long) samples * ATTEMPTS_PER_SAMPLE && count < samples; attempt++)
+        {
+            double x = world[0] + random.nextDouble() * (world[2] - world[0]);
+            double y = world[1] + random.nextDouble() * (world[3] - world[1]);
+            if (roadmap.IsFree(x, y))
+            {
+                nodeX[count] = x;
+                nodeY[count] = y;
+                count++;
+            }
+        }
+        nodeX = Arrays.copyOf(nodeX, count);
+        nodeY = Arrays.copyOf(nodeY, count);
+
+        // Join every point to the nearest ones it can see, each pair only checked once
+        int[] degree = new int[count];
+        List<int[]> pairs = new ArrayList<>();
+        HashSet<Long> checked = new HashSet<>();
+        for (int i = 0; i < count; i++)
+        {
+            for (int j : Nearest(nodeX, nodeY, count, nodeX[i], nodeY[i], neighbours + 1))
+            {
+                if (j == i || !checked.add((long) Math.min(i, j) * count + Math.max(i, j)))
+                {
+                    continue;
+                }
+                if (roadmap.IsVisible(nodeX[i], nodeY[i], nodeX[j], nodeY[j]))
+                {
+                    pairs.add(new int[] {i, j});
+                    degree[i]++;
+                    degree[j]++;
+                }
+            }
+        }
+        int[] edgeStart = new int[count + 1];
+        for (int i = 0; i < count; i++)
+        {
+            edgeStart[i + 1] = edgeStart[i] + degree[i];
+        }
+        int[] edgeTarget = new int[edgeStart[count]];
+        int[] fill = Arrays.copyOf(edgeStart, count);
+        for (int[] pair : pairs)
+        {
+            edgeTarget[fill[pair[0]]++] = pair[1];
+            edgeTarget[fill[pair[1]]++] = pair[0];
+        }
+        roadmap.SetGraph(nodeX, nodeY, edgeStart, edgeTarget);
+        return roadmap;
+    }
+
+    // Take on the points and edges, working out the edge lengths and making room for searches
+    void SetGraph(double[] nodeX, double[] nodeY, int[] edgeStart, int[] edgeTarget)
+    {
+        NodeX = nodeX;
+        NodeY = nodeY;
+        NodeCount = nodeX.length;
+        EdgeStart = edgeStart;
+        EdgeTarget = edgeTarget;
+        EdgeLength = new double[edgeTarget.length];
+        for (int node = 0; node < NodeCount; node++)
+        {
+            for (int k = EdgeStart[node]; k < EdgeStart[node + 1]; k++)
+            {
+                EdgeLength[k] = LINE_LENGTH(NodeX[node], NodeY[node], NodeX[EdgeTarget[k]], NodeY[EdgeTarget[k]]);
+            }
+        }
+
+        // Two extra slots for the start and end of each query
+        Cost = new double[NodeCount + 2];
+        Parent = new int[NodeCount + 2];
+        Visited = new int[NodeCount + 2];
+        Closed = new int[NodeCount + 2];
+        Heap = new int[NodeCount + 2];
+        HeapKey = new double[NodeCount + 2];
+        EndCost = new double[NodeCount];
+        EndJoined = new int[NodeCount];
+    }
+
+    // Whether the map still has the shapes the roadmap was built around, only looked at again once the map changes
+    public boolean Fits(Map map)
+    {
+        if (map == FieldMap && map.Version == Version)
+        {
+            return Matches;
+        }
+        FieldMap = map;
+        Version = map.Version;
+        List<Map.MapObject> obstacles = ObstaclesOf(map);
+        Matches = map.Length == Length && map.Breadth == Breadth && Fingerprint(obstacles) == Fingerprint;
+        if (Matches)
+        {
+            // The same shapes may be new objects, so always look up the ones the map has now
+            Obstacles = obstacles;
+            Index = new SpatialIndex(Obstacles);
+        }
+        return Matches;
+    }
+
+    // The shapes in the map that block driving, with hybrid objects split into their parts
+    static List<Map.MapObject> ObstaclesOf(Map map)
+    {
+        List<Map.MapObject> obstacles = new ArrayList<>();
+        for (Map.MapObject object : map.MapObjects)
+        {
+            AddObstacle(obstacles, object);
+        }
+        return obstacles;
+    }
+
+    static void AddObstacle(List<Map.MapObject> obstacles, Map.MapObject object)
+    {
+        if (object.IsDrivable)
+        {
+            return;
+        }
+        if (object instanceof Map.HybridObject)
+        {
+            for (Map.MapObject compObject : ((Map.HybridObject) object).CompObjects)
+            {
+                AddObstacle(obstacles, compObject);
+            }
+        }else
+        {
+            obstacles.add(object);
+        }
+    }
+
+    // Hash of the kind, place and size of every blocking shape, a roadmap only fits a map with the same one
+    static long Fingerprint(List<Map.MapObject> obstacles)
+    {
+        long hash = obstacles.size();
+        for (Map.MapObject obstacle : obstacles)
+        {
+            hash = Mix(hash, obstacle.XPos);
+            hash = Mix(hash, obstacle.YPos);
+            if (obstacle instanceof Map.Circle)
+            {
+                hash = Mix(hash * 31 + 1, ((Map.Circle) obstacle).Radius);
+            }else if (obstacle instanceof Map.Rect)
+            {
+                hash = Mix(hash * 31 + 2, ((Map.Rect) obstacle).Length);
+                hash = Mix(hash, ((Map.Rect) obstacle).Breadth);
+            }else if (obstacle instanceof Map.Polygon)
+            {
+                Map.Polygon polygon = (Map.Polygon) obstacle;
+                hash = hash * 31 + 3;
+                for (int i = 0; i < polygon.VertexX.length; i++)
+                {
+                    hash = Mix(hash, polygon.VertexX[i]);
+                    hash = Mix(hash, polygon.VertexY[i]);
+                }
+            }else
+            {
+                double[] bounds = obstacle.GetBounds(0);
+                hash = hash * 31 + 4;
+                for (int i = 0; bounds != null && i < 4; i++)
+                {
+                    hash = Mix(hash, bounds[i]);
+                }
+            }
+        }
+        return hash;
+    }
+
+    static long Mix(long hash, double value)
+    {
+        long bits = Double.doubleToLongBits(value);
+        return hash * 1000003 + (bits ^ (bits >>> 32));
+    }
+
+    // The up to count points nearest to (x, y), closest first
+    static int[] Nearest(double[] nodeX, double[] nodeY, int nodeCount, double x, double y, int count)
+    {
+        int[] nearest = new int[Math.min(count, nodeCount)];
+        double[] distance = new double[nearest.length];
+        int found = 0;
+        for (int i = 0; i < nodeCount; i++)
+        {
+            double offX = nodeX[i] - x;
+            double offY = nodeY[i] - y;
+            double d = offX * offX + offY * offY;
+            if (found == nearest.length && d >= distance[found - 1])
+            {
+                continue;
+            }
+            // Slide further points along to make room, dropping the furthest once the list is full
+            int k = found < nearest.length ? found++ : found - 1;
+            while (k > 0 && distance[k - 1] > d)
+            {
+                nearest[k] = nearest[k - 1];
+                distance[k] = distance[k - 1];
+                k--;
+            }
+            nearest[k] = i;
+            distance[k] = d;
+        }
+        return found == nearest.length ? nearest : Arrays.copyOf(nearest, found);
+    }
+
+    // Whether the point is on the field and outside every buffered shape
+    public boolean IsFree(double x, double y)
+    {
+        if (Math.abs(x) > Breadth / 2 || Math.abs(y) > Length / 2)
+        {
+            return false;
+        }
+        for (int i : Index.QueryBox(x, y, x, y, Buffer))
+        {
+            if (VisibilityGraph.Blocks(Obstacles.get(i), x, y, 0, 0, Buffer))
+            {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // Whether the straight line between the points stays clear of every buffered shape
+    public boolean IsVisible(final double x0, final double y0, double x1, double y1)
+    {
+        final double dx = x1 - x0;
+        final double dy = y1 - y0;
+        return Index.FindOnSegment(x0, y0, x1, y1, Buffer, i -> VisibilityGraph.Blocks(Obstacles.get(i), x0, y0, dx, dy, Buffer)) < 0;
+    }
+
+    // Path from start to end through the roadmap, or an empty list if the roadmap has none
+    // Fits must have been called with the map being planned on first, so the shapes are looked up there
+    public List<double[]> FindPath(double[] startPoint, double[] endPoint)
+    {
+        if (!IsFree(startPoint[0], startPoint[1]) || !IsFree(endPoint[0], endPoint[1]))
+        {
+            return new ArrayList<>();
+        }
+        List<double[]> path = new ArrayList<>();
+        path.add(startPoint);
+        if (IsVisible(startPoint[0], startPoint[1], endPoint[0], endPoint[1]))
+        {
+            path.add(endPoint);
+            return path;
+        }
+
+        int startNode = NodeCount;
+        int endNode = NodeCount + 1;
+        NewSearch();
+
+        // Join the end to the nearest points that can see it, the search finishes through one of them
+        boolean endJoined = false;
+        for (int node : Nearest(NodeX, NodeY, NodeCount, endPoint[0], endPoint[1], QUERY_NEIGHBOURS))
+        {
+            if (IsVisible(NodeX[node], NodeY[node], endPoint[0], endPoint[1]))
+            {
+                EndCost[node] = LINE_LENGTH(NodeX[node], NodeY[node], endPoint[0], endPoint[1]);
+                EndJoined[node] = SearchStamp;
+                endJoined = true;
+            }
+        }
+        if (!endJoined)
+        {
+            return new ArrayList<>();
+        }
+
+        // A* from the nearest points the start can see, with the straight line distance to the end as the estimate
+        for (int node : Nearest(NodeX, NodeY, NodeCount, startPoint[0], startPoint[1], QUERY_NEIGHBOURS))
+        {
+            if (IsVisible(startPoint[0], startPoint[1], NodeX[node], NodeY[node]))
+            {
+                double cost = LINE_LENGTH(startPoint[0], startPoint[1], NodeX[node], NodeY[node]);
+                Open(node, cost, startNode, cost + LINE_LENGTH(NodeX[node], NodeY[node], endPoint[0], endPoint[1]));
+            }
+        }
+        while (HeapSize > 0)
+        {
+            int node = PopHeap();
+            if (Closed[node] == SearchStamp)
+            {
+                continue;
+            }
+            Closed[node] = SearchStamp;
+            if (node == endNode)
+            {
+                break;
+            }
+            for (int k = EdgeStart[node]; k < EdgeStart[node + 1]; k++)
+            {
+                int next = EdgeTarget[k];
+                double cost = Cost[node] + EdgeLength[k];
+                Open(next, cost, node, cost + LINE_LENGTH(NodeX[next], NodeY[next], endPoint[0], endPoint[1]));
+            }
+            if (EndJoined[node] == SearchStamp)
+            {
+                double cost = Cost[node] + EndCost[node];
+                Open(endNode, cost, node, cost);
+            }
+        }
+        if (Visited[endNode] != SearchStamp)
+        {
+            return new ArrayList<>();
+        }
+
+        // Walk back from the end to build the path
+        List<double[]> reversed = new ArrayList<>();
+        reversed.add(endPoint);
+        for (int node = Parent[endNode]; node != startNode; node = Parent[node])
+        {
+            reversed.add(new double[] {NodeX[node], NodeY[node]});
+        }
+        for (int i = reversed.size() - 1; i >= 0; i--)
+        {
+            path.add(reversed.get(i));
+        }
+        return Shortcut(path);
+    }
+
+    // Drop the roadmap points the path doesn't need by going straight to the furthest point in sight each time,
+    // sampled points zigzag where a visibility graph path would bend only at shapes
+    List<double[]> Shortcut(List<double[]> path)
+    {
+        List<double[]> shortcut = new ArrayList<>();
+        shortcut.add(path.get(0));
+        int from = 0;
+        while (from < path.size() - 1)
+        {
+            int to = path.size() - 1;
+            while (to > from + 1 && !IsVisible(path.get(from)[0], path.get(from)[1], path.get(to)[0], path.get(to)[1]))
+            {
+                to--;
+            }
+            shortcut.add(path.get(to));
+            from = to;
+        }
+        return shortcut;
+    }
+
+    static double LINE_LENGTH(double x0, double y0, double x1, double y1)
+    {
+        return Math.sqrt((x1 - x0) * (x1 - x0) + (y1 - y0) * (y1 - y0));
+    }
+
+    void NewSearch()
+    {
+        SearchStamp++;
+        HeapSize = 0;
+    }
+
+    // Give a node a cheaper cost and queue it, nodes already reached more cheaply are left alone
+    void Open(int node, double cost, int parent, double estimate)
+    {
+        if (Closed[node] == SearchStamp || (Visited[node] == SearchStamp && Cost[node] <= cost))
+        {
+            return;
+        }
+        Visited[node] = SearchStamp;
+        Cost[node] = cost;
+        Parent[node] = parent;
+        PushHeap(node, estimate);
+    }
+
+    // Binary heap of nodes keyed on their estimate, stale entries are skipped when popped
+    void PushHeap(int node, double key)
+    {
+        if (HeapSize == Heap.length)
+        {
+            Heap = Arrays.copyOf(Heap, Heap.length * 2);
+            HeapKey = Arrays.copyOf(HeapKey, HeapKey.length * 2);
+        }
+        int i = HeapSize++;
+        while (i > 0 && HeapKey[(i - 1) / 2] > key)
+        {
+            Heap[i] = Heap[(i - 1) / 2];
+            HeapKey[i] = HeapKey[(i - 1) / 2];
+            i = (i - 1) / 2;
+        }
+        Heap[i] = node;
+        HeapKey[i] = key;
+    }
+
+    int PopHeap()
+    {
+        int top = Heap[0];
+        HeapSize--;
+        int node = Heap[HeapSize];
+        double key = HeapKey[HeapSize];
+        int i = 0;
+        while (2 * i + 1 < HeapSize)
+        {
+            int child = 2 * i + 1;
+            if (child + 1 < HeapSize && HeapKey[child + 1] < HeapKey[child])
+            {
+                child++;
+            }
+            if (HeapKey[child] >= key)
+            {
+                break;
+            }
+            Heap[i] = Heap[child];
+            HeapKey[i] = HeapKey[child];
+            i = child;
+        }
+        Heap[i] = node;
+        HeapKey[i] = key;
+        return top;
+    }
+
+    // Write the roadmap to a file for loading at init
+    public void Write(File file) throws IOException
+    {
+        ByteBuffer buffer = Encode();
+        try (FileOutputStream output = new FileOutputStream(file); FileChannel channel = output.getChannel())
+        {
+            while (buffer.hasRemaining())
+            {
+                channel.write(buffer);
+            }
+        }
+    }
+
+    // Read a roadmap from a file, it has to be checked against the map with Fits before it is searched
+    public static Roadmap Read(File file) throws IOException
+    {
+        ByteBuffer buffer;
+        try (RandomAccessFile input = new RandomAccessFile(file, "r"); FileChannel channel = input.getChannel())
+        {
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+        return Decode(buffer);
+    }
+
+    // The roadmap packed into a buffer ready for writing
+    public ByteBuffer Encode()
+    {
+        ByteBuffer buffer = ByteBuffer.allocate(HEADER_SIZE + NodeCount * 16 + (NodeCount + 1) * 4 + EdgeTarget.length * 4).order(ByteOrder.LITTLE_ENDIAN);
+        buffer.putInt(MAGIC);
+        buffer.putInt(FORMAT_VERSION);
+        buffer.putDouble(Buffer);
+        buffer.putDouble(Length);
+        buffer.putDouble(Breadth);
+        buffer.putLong(Fingerprint);
+        buffer.putInt(NodeCount);
+        buffer.putInt(EdgeTarget.length);
+        for (int i = 0; i < NodeCount; i++)
+        {
+            buffer.putDouble(NodeX[i]);
+            buffer.putDouble(NodeY[i]);
+        }
+        for (int edgeStart : EdgeStart)
+        {
+            buffer.putInt(edgeStart);
+        }
+        for (int edgeTarget : EdgeTarget)
+        {
+            buffer.putInt(edgeTarget);
+        }
+        buffer.flip();
+        return buffer;
+    }
+
+    // The roadmap packed in the buffer
+    public static Roadmap Decode(ByteBuffer buffer) throws IOException
+    {
+        buffer = buffer.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+        if (buffer.limit() < HEADER_SIZE || buffer.getInt(0) != MAGIC)
+        {
+            throw new IOException("Not a roadmap file");
+        }
+        if (buffer.getInt(4) != FORMAT_VERSION)
+        {
+            throw new IOException("Roadmap file is format " + buffer.getInt(4) + " but only format " + FORMAT_VERSION + " can be read");
+        }
+        Roadmap roadmap = new Roadmap(buffer.getDouble(8), buffer.getDouble(16), buffer.getDouble(24), buffer.getLong(32));
+        int nodeCount = buffer.getInt(40);
+        int edgeCount = buffer.getInt(44);
+        if (nodeCount < 0 || edgeCount < 0 || HEADER_SIZE + nodeCount * 16L + (nodeCount + 1) * 4L + edgeCount * 4L > buffer.limit())
+        {
+            throw new IOException("Roadmap file is cut short");
+        }
+        double[] nodeX = new double[nodeCount];
+        double[] nodeY = new double[nodeCount];
+        buffer.position(HEADER_SIZE);
+        for (int i = 0; i < nodeCount; i++)
+        {
+            nodeX[i] = buffer.getDouble();
+            nodeY[i] = buffer.getDouble();
+        }
+        int[] edgeStart = new int[nodeCount + 1];
+        int[] edgeTarget = new int[edgeCount];
+        IntBuffer ints = buffer.asIntBuffer();
+        ints.get(edgeStart);
+        ints.get(edgeTarget);
+        if (edgeStart[0] != 0 || edgeStart[nodeCount] != edgeCount)
+        {
+            throw new IOException("Roadmap file has broken edges");
+        }
+        for (int i = 0; i < nodeCount; i++)
+        {
+            if (edgeStart[i + 1] < edgeStart[i])
+            {
+                throw new IOException("Roadmap file has broken edges");
+            }
+        }
+        for (int target : edgeTarget)
+        {
+            if (target < 0 || target >= nodeCount)
+            {
+                throw new IOException("Roadmap file has broken edges");
+            }
+        }
+        roadmap.SetGraph(nodeX, nodeY, edgeStart, edgeTarget);
+        return roadmap;
+    }
+
+    // Build the roadmap for a field saved with MapFile, run with: java Roadmap field.map roadmap.prm buffer [samples]
+    public static void main(String[] args) throws IOException
+    {
+        if (args.length < 3)
+        {
+            System.out.println("Usage: java Roadmap field.map roadmap.prm buffer [samples] [neighbours]");
+            return;
+        }
+        Map map = MapFile.Read(new File(args[0]));
+        double buffer = Double.parseDouble(args[2]);
+        int samples = args.length > 3 ? Integer.parseInt(args[3]) : DEFAULT_SAMPLES;
+        int neighbours = args.length > 4 ? Integer.parseInt(args[4]) : DEFAULT_NEIGHBOURS;
+        long start = System.nanoTime();
+        Roadmap roadmap = Build(map, buffer, samples, neighbours, 0);
+        roadmap.Write(new File(args[1]));
+        System.out.println(roadmap.NodeCount + " points and " + roadmap.EdgeTarget.length / 2 + " edges built in " + (System.nanoTime() - start) / 1000000 + " ms");
+    }
+}
@@ -0,0 +1,510 @@
+import java.util.*;
+
+// The cheapest order to visit a set of goals in, and the whole route through them as one path
+// Every leg between the start, the goals and the end is planned with ClearPath side by side in one batch, and the legs
+// are kept while the map and buffer stay the same, so asking again from a new start only plans the legs from the start.
+// Only legs between the points of the last call are kept, and never ones with no path. A shape edited in place without
+// going through the map leaves the Version where it was, so call Forget after editing one like that.
+// A leg and its reverse are one path driven either way, so each pair of goals is only planned once. Up to EXACT_GOALS
+// goals the order is worked out exactly over every subset, past that it starts from the nearest goal each time and is
+// improved with 2-opt and Or-opt moves until neither finds anything shorter
+public class RouteOptimizer
+{
+
+    // Most goals ordered exactly, the exact search takes about 2^n * n^2 steps
+    public static final int EXACT_GOALS = 12;
+
+    // Longest run of goals an Or-opt move picks up and puts back elsewhere
+    static final int OR_OPT_LENGTH = 3;
+
+    // Cost of a leg with no path, big enough that any route using one is worse than every route that doesn't but still
+    // small enough to add and take away without losing the real lengths
+    static final double UNREACHABLE = 1e9;
+
+    // The chosen route, its legs in the order they are driven
+    public static class Route
+    {
+        public int[] Order; // Indexes of the goals in the order they are visited
+        public List<double[]> Path = new ArrayList<>(); // Every leg joined into one path
+        public List<BatchPlanner.Leg> Legs = new ArrayList<>(); // Each leg's own path and how long it took when it was planned
+        public int[] LegStarts; // Index in the whole path where each leg starts
+        public double[] LegLengths;
+        public double Length = 0;
+        public long PlanNanos = 0; // Time spent planning the legs this call, side by side so less than the legs' sum
+        public long OrderNanos = 0; // Time spent ordering the goals
+    }
+
+    public Map FieldMap;
+
+    // Start and end of a leg, to look legs up by
+    static class LegKey
+    {
+        double StartX;
+        double StartY;
+        double EndX;
+        double EndY;
+
+        LegKey Set(double[] startPoint, double[] endPoint)
+        {
+            StartX = startPoint[0];
+            StartY = startPoint[1];
+            EndX = endPoint[0];
+            EndY = endPoint[1];
+            return this;
+        }
+
+        public boolean equals(Object other)
+        {
+            if (!(other instanceof LegKey))
+            {
+                return false;
+            }
+            LegKey key = (LegKey) other;
+            return Same(StartX, key.StartX) && Same(StartY, key.StartY) && Same(EndX, key.EndX) && Same(EndY, key.EndY);
+        }
+
+        public int hashCode()
+        {
+            return ((Double.hashCode(StartX) * 31 + Double.hashCode(StartY)) * 31 + Double.hashCode(EndX)) * 31 + Double.hashCode(EndY);
+        }
+
+        // Equal the way Double.equals has it, so a lookup finds what a boxed key would have
+        static boolean Same(double first, double second)
+        {
+            return Double.doubleToLongBits(first) == Double.doubleToLongBits(second);
+        }
+    }
+
+    // Planned legs by start and end, kept for the map version and buffer they were planned at
+    HashMap<LegKey, BatchPlanner.Leg> Planned = new HashMap<>();
+    // Legs of the current call with no path, which are never kept for the next one
+    HashMap<LegKey, BatchPlanner.Leg> Unreachable = new HashMap<>();
+    // Key reused for every lookup, only keys that go into the maps are made new
+    LegKey Probe = new LegKey();
+    int Version = -1;
+    double Buffer = Double.NaN;
+
+    public RouteOptimizer(Map map)
+    {
+        FieldMap = map;
+    }
+
+    // Throw away every leg kept, for after a shape has been edited without going through the map
+    public void Forget()
+    {
+        Planned.clear();
+    }
+
+    // Route from the start through every goal, finishing at the end point or wherever the last goal is if it's null
+    // A leg with no path just makes the order go another way, and if every order needs one this throws "No valid path"
+    // caused by one of those legs. Anything else going wrong planning a leg is thrown as it is
+    public Route BestRoute(double[] startPoint, List<double[]> goals, double[] endPoint, double buffer)
+    {
+        if (Version != FieldMap.Version || Buffer != buffer)
+        {
+            Planned.clear();
+            Version = FieldMap.Version;
+            Buffer = buffer;
+        }
+        Unreachable.clear();
+        Route route = new Route();
+
+        // The points the route can go between, the start first, then the goals and then the end if there is one
+        List<double[]> points = new ArrayList<>();
+        points.add(startPoint);
+        points.addAll(goals);
+        if (endPoint != null)
+        {
+            points.add(endPoint);
+        }
+        int count = points.size();
+
+        // Legs to points this call doesn't go through would only pile up, so they go
+        Planned.keySet().removeIf(key -> !KeyBetween(key, points));
+
+        // Plan every leg not already kept, one way round for each pair
+        long planStart = System.nanoTime();
+        List<double[]> starts = new ArrayList<>();
+        List<double[]> ends = new ArrayList<>();
+        for (int i = 0; i < count; i++)
+        {
+            for (int j = i + 1; j < count; j++)
+            {
+                if ((i == 0 && j == count - 1 && endPoint != null && goals.size() > 0) || Get(points.get(i), points.get(j)) != null)
+                {
+                    continue;
+                }
+                starts.add(points.get(i));
+                ends.add(points.get(j));
+            }
+        }
+        for (BatchPlanner.Leg leg : BatchPlanner.ClearPaths(FieldMap, starts, ends, buffer))
+        {
+            if (leg.Failure == null)
+            {
+                Planned.put(new LegKey().Set(leg.StartPoint, leg.EndPoint), leg);
+            }else if (IsNoPath(leg.Failure))
+            {
+                Unreachable.put(new LegKey().Set(leg.StartPoint, leg.EndPoint), leg);
+            }else if (leg.Failure instanceof RuntimeException)
+            {
+                throw (RuntimeException) leg.Failure;
+            }else
+            {
+                throw (Error) leg.Failure;
+            }
+        }
+        route.PlanNanos = System.nanoTime() - planStart;
+
+        // With no end point the route can stop at any goal, which is the same as going on to an end that's free to get to
+        long orderStart = System.nanoTime();
+        int nodes = endPoint == null ? count + 1 : count;
+        double[][] cost = new double[nodes][nodes];
+        for (int i = 0; i < count; i++)
+        {
+            for (int j = 0; j < count; j++)
+            {
+                BatchPlanner.Leg leg = i == j ? null : Get(points.get(i), points.get(j));
+                cost[i][j] = leg == null || leg.Path.isEmpty() ? UNREACHABLE : Length(leg.Path);
+            }
+        }
+        if (endPoint == null)
+        {
+            cost[0][count] = goals.isEmpty() ? 0 : UNREACHABLE;
+            cost[count][0] = cost[0][count];
+        }
+        int[] tour = goals.size() <= EXACT_GOALS ? ExactOrder(cost) : LocalOrder(cost);
+        route.OrderNanos = System.nanoTime() - orderStart;
+        if (TourLength(cost, tour) >= UNREACHABLE)
+        {
+            throw new Error("No valid path", UnreachableCause(points, tour));
+        }
+
+        // Join the legs in order, dropping the free leg to the end when there's no end point
+        route.Order = new int[goals.size()];
+        for (int k = 0; k < goals.size(); k++)
+        {
+            route.Order[k] = tour[k + 1] - 1;
+        }
+        List<Integer> stops = new ArrayList<>();
+        for (int node : tour)
+        {
+            if (node < count)
+            {
+                stops.add(node);
+            }
+        }
+        route.LegStarts = new int[stops.size() - 1];
+        route.LegLengths = new double[stops.size() - 1];
+        route.Path.add(startPoint);
+        for (int k = 0; k + 1 < stops.size(); k++)
+        {
+            BatchPlanner.Leg leg = Get(points.get(stops.get(k)), points.get(stops.get(k + 1)));
+            route.Legs.add(leg);
+            route.LegStarts[k] = route.Path.size() - 1;
+            route.LegLengths[k] = Length(leg.Path);
+            route.Length += route.LegLengths[k];
+            // Each leg starts where the last one ended, so the point they share is only kept once
+            route.Path.addAll(leg.Path.subList(1, leg.Path.size()));
+        }
+        return route;
+    }
+
+    // Whether the leg failed only because ClearPath found no way through, rather than something going wrong
+    static boolean IsNoPath(Throwable failure)
+    {
+        return failure.getClass() == Error.class && "No valid path".equals(failure.getMessage());
+    }
+
+    // Why the first leg of the tour that has no path has none, null if it's a leg that was never planned
+    Throwable UnreachableCause(List<double[]> points, int[] tour)
+    {
+        for (int k = 0; k + 1 < tour.length; k++)
+        {
+            if (tour[k] < points.size() && tour[k + 1] < points.size())
+            {
+                BatchPlanner.Leg leg = Get(points.get(tour[k]), points.get(tour[k + 1]));
+                if (leg != null && leg.Failure != null)
+                {
+                    return leg.Failure;
+                }
+            }
+        }
+        return null;
+    }
+
+    // Whether both ends of the leg are among the points
+    static boolean KeyBetween(LegKey key, List<double[]> points)
+    {
+        boolean start = false;
+        boolean end = false;
+        for (double[] point : points)
+        {
+            start |= LegKey.Same(key.StartX, point[0]) && LegKey.Same(key.StartY, point[1]);
+            end |= LegKey.Same(key.EndX, point[0]) && LegKey.Same(key.EndY, point[1]);
+        }
+        return start && end;
+    }
+
+    // The leg from one point to the other, turned round if it was planned the other way, or null if it hasn't been
+    BatchPlanner.Leg Get(double[] startPoint, double[] endPoint)
+    {
+        BatchPlanner.Leg leg = Find(startPoint, endPoint);
+        if (leg != null)
+        {
+            return leg;
+        }
+        BatchPlanner.Leg reverse = Find(endPoint, startPoint);
+        if (reverse == null)
+        {
+            return null;
+        }
+        leg = new BatchPlanner.Leg(startPoint, endPoint);
+        leg.Path = new ArrayList<>(reverse.Path);
+        Collections.reverse(leg.Path);
+        leg.PlanNanos = reverse.PlanNanos;
+        leg.Shared = reverse.Shared;
+        leg.Failure = reverse.Failure;
+        if (leg.Failure == null)
+        {
+            Planned.put(new LegKey().Set(startPoint, endPoint), leg);
+        }else
+        {
+            Unreachable.put(new LegKey().Set(startPoint, endPoint), leg);
+        }
+        return leg;
+    }
+
+    // The leg planned from one point to the other this way round, whether it has a path or not
+    BatchPlanner.Leg Find(double[] startPoint, double[] endPoint)
+    {
+        LegKey key = Probe.Set(startPoint, endPoint);
+        BatchPlanner.Leg leg = Planned.get(key);
+        return leg != null ? leg : Unreachable.get(key);
+    }
+
+    // Held-Karp over every subset of the goals, node 0 is the start and the last node the end, both fixed
+    static int[] ExactOrder(double[][] cost)
+    {
+        int nodes = cost.length;
+        int goals = nodes - 2;
+        if (goals <= 0)
+        {
+            return Identity(nodes);
+        }
+        int subsets = 1 << goals;
+        // Cheapest way from the start through the goals in the subset finishing at the given goal, and the goal before it
+        double[][] best = new double[subsets][goals];
+        int[][] previous = new int[subsets][goals];
+        for (double[] row : best)
+        {
+            Arrays.fill(row, Double.POSITIVE_INFINITY);
+        }
+        for (int goal = 0; goal < goals; goal++)
+        {
+            best[1 << goal][goal] = cost[0][goal + 1];
+            previous[1 << goal][goal] = -1;
+        }
+        for (int subset = 1; subset < subsets; subset++)
+        {
+            for (int last = 0; last < goals; last++)
+            {
+                if ((subset & 1 << last) == 0 || best[subset][last] == Double.POSITIVE_INFINITY)
+                {
+                    continue;
+                }
+                for (int next = 0; next < goals; next++)
+                {
+                    if ((subset & 1 << next) != 0)
+                    {
+                        continue;
+                    }
+                    double reached = best[subset][last] + cost[last + 1][next + 1];
+                    int grown = subset | 1 << next;
+                    if (reached < best[grown][next])
+                    {
+                        best[grown][next] = reached;
+                        previous[grown][next] = last;
+                    }
+                }
+            }
+        }
+        int last = 0;
+        for (int goal = 1; goal < goals; goal++)
+        {
+            if (best[subsets - 1][goal] + cost[goal + 1][nodes - 1] < best[subsets - 1][last] + cost[last + 1][nodes - 1])
+            {
+                last = goal;
+            }
+        }
+        int[] tour = new int[nodes];
+        tour[nodes - 1] = nodes - 1;
+        int subset = subsets - 1;
+        for (int k = goals; k >= 1; k--)
+        {
+            tour[k] = last + 1;
+            int before = previous[subset][last];
+            subset &= ~(1 << last);
+            last = before;
+        }
+        return tour;
+    }
+
+    // Nearest goal first, then 2-opt and Or-opt moves for as long as either makes the route shorter
+    static int[] LocalOrder(double[][] cost)
+    {
+        int nodes = cost.length;
+        int[] tour = new int[nodes];
+        boolean[] visited = new boolean[nodes];
+        tour[nodes - 1] = nodes - 1;
+        visited[0] = true;
+        for (int k = 1; k < nodes - 1; k++)
+        {
+            int nearest = -1;
+            for (int goal = 1; goal < nodes - 1; goal++)
+            {
+                if (!visited[goal] && (nearest < 0 || cost[tour[k - 1]][goal] < cost[tour[k - 1]][nearest]))
+                {
+                    nearest = goal;
+                }
+            }
+            tour[k] = nearest;
+            visited[nearest] = true;
+        }
+        boolean improved = true;
+        while (improved)
+        {
+            improved = TwoOpt(cost, tour) | OrOpt(cost, tour);
+        }
+        return tour;
+    }
+
+    // Turn round any stretch of goals that makes the route shorter turned round, the start and end stay put
+    static boolean TwoOpt(double[][] cost, int[] tour)
+    {
+        boolean improved = false;
+        for (int i = 1; i < tour.length - 2; i++)
+        {
+            for (int j = i + 1; j < tour.length - 1; j++)
+            {
+                double change = cost[tour[i - 1]][tour[j]] + cost[tour[i]][tour[j + 1]] - cost[tour[i - 1]][tour[i]] - cost[tour[j]][tour[j + 1]];
+                if (change < -1e-9)
+                {
+                    for (int low = i, high = j; low < high; low++, high--)
+                    {
+                        int swap = tour[low];
+                        tour[low] = tour[high];
+                        tour[high] = swap;
+                    }
+                    improved = true;
+                }
+            }
+        }
+        return improved;
+    }
+
+    // Pick up runs of up to OR_OPT_LENGTH goals and put them back elsewhere either way round, wherever that's shorter
+    static boolean OrOpt(double[][] cost, int[] tour)
+    {
+        boolean improved = false;
+        for (int length = 1; length <= OR_OPT_LENGTH; length++)
+        {
+            for (int i = 1; i + length < tour.length; i++)
+            {
+                int first = tour[i];
+                int last = tour[i + length - 1];
+                double removed = cost[tour[i - 1]][first] + cost[last][tour[i + length]] - cost[tour[i - 1]][tour[i + length]];
+                // Try every gap between two nodes that aren't in the run
+                for (int j = 0; j < tour.length - 1; j++)
+                {
+                    if (j >= i - 1 && j < i + length)
+                    {
+                        continue;
+                    }
+                    int before = tour[j];
+                    int after = tour[j + 1];
+                    double forward = cost[before][first] + cost[last][after] - cost[before][after];
+                    double backward = cost[before][last] + cost[first][after] - cost[before][after];
+                    if (Math.min(forward, backward) < removed - 1e-9)
+                    {
+                        Move(tour, i, length, j, backward < forward);
+                        improved = true;
+                        break;
+                    }
+                }
+            }
+        }
+        return improved;
+    }
+
+    // Take the run of goals starting at i out and put it back after what was at j, turned round if asked
+    static void Move(int[] tour, int i, int length, int j, boolean turned)
+    {
+        int[] run = Arrays.copyOfRange(tour, i, i + length);
+        if (turned)
+        {
+            for (int low = 0, high = length - 1; low < high; low++, high--)
+            {
+                int swap = run[low];
+                run[low] = run[high];
+                run[high] = swap;
+            }
+        }
+        List<Integer> rest = new ArrayList<>();
+        int after = -1;
+        for (int k = 0; k < tour.length; k++)
+        {
+            if (k >= i && k < i + length)
+            {
+                continue;
+            }
+            rest.add(tour[k]);
+            if (k == j)
+            {
+                after = rest.size();
+            }
+        }
+        int k = 0;
+        for (int r = 0; r < rest.size(); r++)
+        {
+            if (r == after)
+            {
+                for (int node : run)
+                {
+                    tour[k++] = node;
+                }
+            }
+            tour[k++] = rest.get(r);
+        }
+    }
+
+    static double TourLength(double[][] cost, int[] tour)
+    {
+        double length = 0;
+        for (int k = 0; k + 1 < tour.length; k++)
+        {
+            length += cost[tour[k]][tour[k + 1]];
+        }
+        return length;
+    }
+
+    static double Length(List<double[]> path)
+    {
+        double length = 0;
+        for (int i = 0; i < path.size() - 1; i++)
+        {
+            length += Map.LINE_FUNCTIONS.GET_LENGTH(path.get(i), path.get(i + 1));
+        }
+        return length;
+    }
+
+    static int[] Identity(int nodes)
+    {
+        int[] tour = new int[nodes];
+        for (int k = 0; k < nodes; k++)
+        {
+            tour[k] = k;
+        }
+        return tour;
+    }
+}
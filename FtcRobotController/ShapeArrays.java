@@ -0,0 +1,286 @@
+import java.util.*;
+
+// Every circle and rect of a list of shapes packed into plain arrays, one array per field, so one segment can be
+// tested against all of them in a single pass. Each pass works out where the segment goes into and comes out of every
+// shape with the same few sums and no branching on the slope, then picks out the ones it crosses
+// Polygons are kept aside and clipped one at a time, and the parts of hybrid objects are packed with the rest, each
+// one reporting the hybrid as the shape it came from. Once packed nothing here changes, so threads can share it, and
+// whatever a pass needs to write goes in the caller's Hits
+public class ShapeArrays
+{
+
+    // How far past its buffer a shape still counts as in reach, well over the rounding in any crossing point
+    static final double REACH_SLACK = 1e-6;
+
+    // The shapes a segment crosses, the position of each in the list and how far along the segment it goes in and
+    // comes out, 0 being the start and 1 the end. Both can be past either end when the segment starts or ends inside
+    public static class Hits
+    {
+        public int Count = 0;
+        public int[] Shape = new int[16];
+        public double[] Enter = new double[16];
+        public double[] Exit = new double[16];
+
+        // Where the segment goes into and comes out of each circle and rect, filled by each pass and then read back
+        double[] CircleEnter = new double[0];
+        double[] CircleExit = new double[0];
+        double[] RectEnter = new double[0];
+        double[] RectExit = new double[0];
+        double[] Range = new double[2];
+
+        public void Clear()
+        {
+            Count = 0;
+        }
+
+        // Make room for where the segment goes into and comes out of this many circles and rects
+        void Fit(int circles, int rects)
+        {
+            if (CircleEnter.length < circles)
+            {
+                CircleEnter = new double[circles];
+                CircleExit = new double[circles];
+            }
+            if (RectEnter.length < rects)
+            {
+                RectEnter = new double[rects];
+                RectExit = new double[rects];
+            }
+        }
+
+        void Add(int shape, double enter, double exit)
+        {
+            if (Count == Shape.length)
+            {
+                Shape = Arrays.copyOf(Shape, Count * 2);
+                Enter = Arrays.copyOf(Enter, Count * 2);
+                Exit = Arrays.copyOf(Exit, Count * 2);
+            }
+            Shape[Count] = shape;
+            Enter[Count] = enter;
+            Exit[Count] = exit;
+            Count++;
+        }
+    }
+
+    // The shapes packed, how many there were and the map version they were packed at
+    final List<Map.MapObject> Shapes;
+    final int Count;
+    public final int Version;
+
+    // Circles as their middles and radii
+    int CircleCount = 0;
+    double[] CircleX = new double[8];
+    double[] CircleY = new double[8];
+    double[] CircleRadius = new double[8];
+    int[] CircleShape = new int[8];
+
+    // Rects as their boxes
+    int RectCount = 0;
+    double[] RectMinX = new double[8];
+    double[] RectMinY = new double[8];
+    double[] RectMaxX = new double[8];
+    double[] RectMaxY = new double[8];
+    int[] RectShape = new int[8];
+
+    // Polygons, which are clipped one at a time
+    List<Map.Polygon> Polygons = new ArrayList<>();
+    List<Integer> PolygonShape = new ArrayList<>();
+
+    // Bits of the shapes, among the first 64, that are polygons or no kind packed here, which are always in reach
+    long Unpacked = 0;
+
+    public ShapeArrays(List<Map.MapObject> shapes, int version)
+    {
+        Shapes = shapes;
+        Count = shapes.size();
+        Version = version;
+        for (int i = 0; i < Count; i++)
+        {
+            Pack(shapes.get(i), i);
+        }
+    }
+
+    // Whether these are still the shapes in the list at the map version
+    public boolean IsCurrent(List<Map.MapObject> shapes, int version)
+    {
+        return Shapes == shapes && Count == shapes.size() && Version == version;
+    }
+
+    void Pack(Map.MapObject object, int shape)
+    {
+        if (object instanceof Map.HybridObject)
+        {
+            for (Map.MapObject compObject : ((Map.HybridObject) object).CompObjects)
+            {
+                Pack(compObject, shape);
+            }
+        }else if (object instanceof Map.Circle)
+        {
+            if (CircleCount == CircleX.length)
+            {
+                CircleX = Arrays.copyOf(CircleX, CircleCount * 2);
+                CircleY = Arrays.copyOf(CircleY, CircleCount * 2);
+                CircleRadius = Arrays.copyOf(CircleRadius, CircleCount * 2);
+                CircleShape = Arrays.copyOf(CircleShape, CircleCount * 2);
+            }
+            CircleX[CircleCount] = object.XPos;
+            CircleY[CircleCount] = object.YPos;
+            CircleRadius[CircleCount] = ((Map.Circle) object).Radius;
+            CircleShape[CircleCount] = shape;
+            CircleCount++;
+        }else if (object instanceof Map.Rect)
+        {
+            if (RectCount == RectMinX.length)
+            {
+                RectMinX = Arrays.copyOf(RectMinX, RectCount * 2);
+                RectMinY = Arrays.copyOf(RectMinY, RectCount * 2);
+                RectMaxX = Arrays.copyOf(RectMaxX, RectCount * 2);
+                RectMaxY = Arrays.copyOf(RectMaxY, RectCount * 2);
+                RectShape = Arrays.copyOf(RectShape, RectCount * 2);
+            }
+            double[] bounds = object.GetBounds(0);
+            RectMinX[RectCount] = bounds[0];
+            RectMinY[RectCount] = bounds[1];
+            RectMaxX[RectCount] = bounds[2];
+            RectMaxY[RectCount] = bounds[3];
+            RectShape[RectCount] = shape;
+            RectCount++;
+        }else if (object instanceof Map.Polygon)
+        {
+            Polygons.add((Map.Polygon) object);
+            PolygonShape.add(shape);
+            Unpacked |= Bit(shape);
+        }else
+        {
+            Unpacked |= Bit(shape);
+        }
+    }
+
+    // The shape's bit in a reach mask, none past the first 64
+    static long Bit(int shape)
+    {
+        return shape < 64 ? 1L << shape : 0;
+    }
+
+    // Bits of the shapes, among the first 64, whose edges the segment might cross with the buffer, for only testing
+    // those exactly. Circles and rects are grown a little past the buffer so rounding never leaves out one the exact
+    // test would find crossed or touched, and polygons and other kinds are always included
+    public long Reach(double startX, double startY, double endX, double endY, double buffer)
+    {
+        double diffX = endX - startX;
+        double diffY = endY - startY;
+        double lengthSquared = diffX * diffX + diffY * diffY;
+        if (lengthSquared == 0)
+        {
+            return Unpacked;
+        }
+        double grown = buffer + REACH_SLACK;
+        long reach = Unpacked;
+
+        double inverseLength = 1 / lengthSquared;
+        for (int i = 0; i < CircleCount; i++)
+        {
+            double relativeX = startX - CircleX[i];
+            double relativeY = startY - CircleY[i];
+            double radius = CircleRadius[i] + grown;
+            double half = diffX * relativeX + diffY * relativeY;
+            double determinant = half * half - lengthSquared * (relativeX * relativeX + relativeY * relativeY - radius * radius);
+            double root = Math.sqrt(Math.max(determinant, 0));
+            double enter = (-half - root) * inverseLength;
+            double exit = (-half + root) * inverseLength;
+            reach |= determinant > 0 && enter < 1 && exit > 0 ? Bit(CircleShape[i]) : 0;
+        }
+
+        // Grown by the slack, a segment along a side of the buffered rect is well inside the grown one, so it never
+        // comes out NaN
+        double inverseX = 1 / diffX;
+        double inverseY = 1 / diffY;
+        for (int i = 0; i < RectCount; i++)
+        {
+            double firstX = (RectMinX[i] - grown - startX) * inverseX;
+            double secondX = (RectMaxX[i] + grown - startX) * inverseX;
+            double firstY = (RectMinY[i] - grown - startY) * inverseY;
+            double secondY = (RectMaxY[i] + grown - startY) * inverseY;
+            double enter = Math.max(Math.min(firstX, secondX), Math.min(firstY, secondY));
+            double exit = Math.min(Math.max(firstX, secondX), Math.max(firstY, secondY));
+            reach |= enter < exit && enter < 1 && exit > 0 ? Bit(RectShape[i]) : 0;
+        }
+        return reach;
+    }
+
+    // Add every shape the segment passes through the inside of, grown by the buffer, to hits and return how many
+    // were added. Touching the edge of a shape doesn't count
+    public int Cross(double startX, double startY, double endX, double endY, double buffer, Hits hits)
+    {
+        int before = hits.Count;
+        double diffX = endX - startX;
+        double diffY = endY - startY;
+        double lengthSquared = diffX * diffX + diffY * diffY;
+        if (lengthSquared == 0)
+        {
+            return 0;
+        }
+
+        // Circles, where |start + t * diff - middle| = radius + buffer
+        hits.Fit(CircleCount, RectCount);
+        double[] circleEnter = hits.CircleEnter;
+        double[] circleExit = hits.CircleExit;
+        double inverseLength = 1 / lengthSquared;
+        for (int i = 0; i < CircleCount; i++)
+        {
+            double relativeX = startX - CircleX[i];
+            double relativeY = startY - CircleY[i];
+            double radius = CircleRadius[i] + buffer;
+            double half = diffX * relativeX + diffY * relativeY;
+            double determinant = half * half - lengthSquared * (relativeX * relativeX + relativeY * relativeY - radius * radius);
+            double root = Math.sqrt(Math.max(determinant, 0));
+            circleEnter[i] = (-half - root) * inverseLength;
+            // A line that misses or only touches comes out where it goes in, so it's never counted
+            circleExit[i] = determinant > 0 ? (-half + root) * inverseLength : circleEnter[i];
+        }
+
+        // Rects, the overlap of where the line is between the sides on each axis. A line along an axis divides by
+        // zero, leaving it everywhere or nowhere on that axis, or NaN and never counted if it runs along a side
+        double[] rectEnter = hits.RectEnter;
+        double[] rectExit = hits.RectExit;
+        double inverseX = 1 / diffX;
+        double inverseY = 1 / diffY;
+        for (int i = 0; i < RectCount; i++)
+        {
+            double firstX = (RectMinX[i] - buffer - startX) * inverseX;
+            double secondX = (RectMaxX[i] + buffer - startX) * inverseX;
+            double firstY = (RectMinY[i] - buffer - startY) * inverseY;
+            double secondY = (RectMaxY[i] + buffer - startY) * inverseY;
+            rectEnter[i] = Math.max(Math.min(firstX, secondX), Math.min(firstY, secondY));
+            rectExit[i] = Math.min(Math.max(firstX, secondX), Math.max(firstY, secondY));
+        }
+
+        // Pick out the shapes crossed somewhere between the ends
+        for (int i = 0; i < CircleCount; i++)
+        {
+            if (circleEnter[i] < circleExit[i] && circleEnter[i] < 1 && circleExit[i] > 0)
+            {
+                hits.Add(CircleShape[i], circleEnter[i], circleExit[i]);
+            }
+        }
+        for (int i = 0; i < RectCount; i++)
+        {
+            if (rectEnter[i] < rectExit[i] && rectEnter[i] < 1 && rectExit[i] > 0)
+            {
+                hits.Add(RectShape[i], rectEnter[i], rectExit[i]);
+            }
+        }
+        double[] range = hits.Range;
+        for (int i = 0; i < Polygons.size(); i++)
+        {
+            range[0] = Double.NEGATIVE_INFINITY;
+            range[1] = Double.POSITIVE_INFINITY;
+            if (Polygons.get(i).Clip(startX, startY, diffX, diffY, buffer, range) && range[0] < 1 && range[1] > 0)
+            {
+                hits.Add(PolygonShape.get(i), range[0], range[1]);
+            }
+        }
+        return hits.Count - before;
+    }
+}
@@ -0,0 +1,541 @@
+import java.util.*;
+
+// The map's shapes grouped for one buffer, shapes whose buffers overlap end up in the same hybrid object
+// Grouping leaves the map's own list alone. It is kept between calls and when shapes are added or removed only the
+// groups they touch are worked out again, with the grouped shapes filed in a coarse grid so a new shape only looks at
+// the shapes near it
+public class ShapeGroups
+{
+
+    // Cells across the longer side of the field in the grid the grouped shapes are filed in
+    static final int FILING_CELLS = 64;
+
+    // The map the shapes come from
+    public Map FieldMap;
+    // Buffer the shapes were grouped with
+    public double Buffer;
+
+    // A set of shapes that overlap one another, and the single shape or hybrid object that stands for them
+    static class Group
+    {
+        List<Map.MapObject> Members;
+        Map.MapObject Shape;
+    }
+
+    // Which group every shape is in, and where each shape was when it was grouped
+    IdentityHashMap<Map.MapObject, Group> GroupOf = new IdentityHashMap<>();
+    IdentityHashMap<Map.MapObject, double[]> Placed = new IdentityHashMap<>();
+
+    // The grouped shapes in the order their first member appears on the map, made again only after a change
+    List<Map.MapObject> View = Collections.emptyList();
+    boolean ViewChanged = true;
+
+    // Position of every shape in the map's list, worked out once per update when a hybrid needs it
+    IdentityHashMap<Map.MapObject, Integer> MapOrder;
+
+    // The map version the groups were last brought up to date at and the shapes on the map's list then. Nothing is
+    // looked at again until the version moves or the list holds other shapes, which it does when it is edited directly
+    // rather than through the map. A shape whose fields are edited directly needs MoveObject to be seen
+    int Version = -1;
+    Map.MapObject[] Listed = new Map.MapObject[0];
+
+    // How many times the groups have been looked at again, so something kept from them can tell when to look too
+    public int Updates = 0;
+
+    // Every grouped shape under each cell its box covers, the cells each shape was filed under, and the shapes without a
+    // box, which could be anywhere so every new shape looks at them
+    HashMap<Long, List<Map.MapObject>> Filed = new HashMap<>();
+    IdentityHashMap<Map.MapObject, int[]> FiledUnder = new IdentityHashMap<>();
+    List<Map.MapObject> Unfiled = new ArrayList<>();
+    double FilingSize;
+
+    // Groups read from a map file as indices into the map's shapes, with what every shape looked like when they were
+    // worked out. They stand in for grouping on the first update, as long as the map hasn't changed since
+    int[][] Stored;
+    double[][] StoredPlaced;
+    int StoredVersion;
+
+    public ShapeGroups(Map map, double buffer)
+    {
+        FieldMap = map;
+        Buffer = buffer;
+        FilingSize = Math.max(1, Math.max(map.Length, map.Breadth) / FILING_CELLS);
+    }
+
+    // Bring the groups up to date with the map and return them
+    public List<Map.MapObject> Update()
+    {
+        if (Stored == null && Version == FieldMap.Version && SameList())
+        {
+            return View();
+        }
+        Version = FieldMap.Version;
+        Listed = FieldMap.MapObjects.toArray(new Map.MapObject[0]);
+        Updates++;
+        MapOrder = null;
+        if (Stored != null && FieldMap.Version == StoredVersion && GroupOf.isEmpty())
+        {
+            Restore();
+            return View();
+        }
+        Stored = null;
+        StoredPlaced = null;
+
+        // Find the shapes that were added, removed or changed since the last update
+        IdentityHashMap<Map.MapObject, Boolean> onMap = new IdentityHashMap<>();
+        List<Map.MapObject> added = new ArrayList<>();
+        List<Map.MapObject> removed = new ArrayList<>();
+        for (Map.MapObject object : FieldMap.MapObjects)
+        {
+            onMap.put(object, true);
+            double[] snapshot = Snapshot(object);
+            double[] placed = Placed.get(object);
+            if (placed == null)
+            {
+                added.add(object);
+            }else if (!Arrays.equals(placed, snapshot))
+            {
+                // A changed shape leaves its group and joins again from where it is now
+                removed.add(object);
+                added.add(object);
+            }
+            Placed.put(object, snapshot);
+        }
+        for (Map.MapObject object : GroupOf.keySet())
+        {
+            if (!onMap.containsKey(object))
+            {
+                removed.add(object);
+            }
+        }
+        for (Map.MapObject object : removed)
+        {
+            if (!onMap.containsKey(object))
+            {
+                Placed.remove(object);
+            }
+        }
+
+        if (added.size() + removed.size() > FieldMap.MapObjects.size() / 2)
+        {
+            // Most of the map changed, so group everything again in one sweep
+            GroupOf.clear();
+            ClearFiling();
+            for (List<Map.MapObject> members : FindGroups(FieldMap.MapObjects))
+            {
+                MakeGroup(members);
+                for (Map.MapObject member : members)
+                {
+                    File(member);
+                }
+            }
+            ViewChanged = true;
+        }else
+        {
+            for (Map.MapObject object : removed)
+            {
+                Remove(object);
+            }
+            Insert(added);
+        }
+
+        return View();
+    }
+
+    // Whether the map's list holds the same shapes in the same order as at the last update
+    boolean SameList()
+    {
+        List<Map.MapObject> objects = FieldMap.MapObjects;
+        if (objects.size() != Listed.length)
+        {
+            return false;
+        }
+        for (int i = 0; i < Listed.length; i++)
+        {
+            if (objects.get(i) != Listed[i])
+            {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // The grouped shapes, listed again if the groups changed
+    List<Map.MapObject> View()
+    {
+        if (ViewChanged)
+        {
+            List<Map.MapObject> view = new ArrayList<>();
+            IdentityHashMap<Group, Boolean> listed = new IdentityHashMap<>();
+            for (Map.MapObject object : FieldMap.MapObjects)
+            {
+                Group group = GroupOf.get(object);
+                if (listed.put(group, true) == null)
+                {
+                    view.add(group.Shape);
+                }
+            }
+            View = Collections.unmodifiableList(view);
+            ViewChanged = false;
+        }
+        return View;
+    }
+
+    // Make the stored groups without checking any shapes against each other
+    void Restore()
+    {
+        for (int[] indices : Stored)
+        {
+            List<Map.MapObject> members = new ArrayList<>(indices.length);
+            for (int i : indices)
+            {
+                Map.MapObject member = FieldMap.MapObjects.get(i);
+                members.add(member);
+                Placed.put(member, StoredPlaced[i]);
+                File(member);
+            }
+            MakeGroup(members);
+        }
+        Stored = null;
+        StoredPlaced = null;
+        ViewChanged = true;
+    }
+
+    // The members of every group, in the order the groups are listed
+    public List<List<Map.MapObject>> Members()
+    {
+        Update();
+        List<List<Map.MapObject>> members = new ArrayList<>();
+        IdentityHashMap<Group, Boolean> listed = new IdentityHashMap<>();
+        for (Map.MapObject object : FieldMap.MapObjects)
+        {
+            Group group = GroupOf.get(object);
+            if (listed.put(group, true) == null)
+            {
+                members.add(group.Members);
+            }
+        }
+        return members;
+    }
+
+    // Where a shape is, if this changes the shape needs grouping again
+    static double[] Snapshot(Map.MapObject object)
+    {
+        if (object instanceof Map.HybridObject)
+        {
+            List<Map.MapObject> compObjects = ((Map.HybridObject) object).CompObjects;
+            double[] snapshot = new double[compObjects.size() * 4];
+            for (int i = 0; i < compObjects.size(); i++)
+            {
+                double[] bounds = compObjects.get(i).GetBounds(0);
+                if (bounds != null)
+                {
+                    System.arraycopy(bounds, 0, snapshot, i * 4, 4);
+                }
+            }
+            return snapshot;
+        }
+        double[] bounds = object.GetBounds(0);
+        return bounds == null ? new double[0] : bounds;
+    }
+
+    // Take a shape out of its group, the rest of the group may fall apart into smaller groups
+    void Remove(Map.MapObject object)
+    {
+        Group group = GroupOf.remove(object);
+        if (group == null)
+        {
+            return;
+        }
+        Unfile(object);
+        List<Map.MapObject> rest = new ArrayList<>(group.Members);
+        rest.remove(object);
+        for (Map.MapObject member : rest)
+        {
+            GroupOf.remove(member);
+        }
+        for (List<Map.MapObject> members : FindGroups(rest))
+        {
+            MakeGroup(members);
+        }
+        ViewChanged = true;
+    }
+
+    // Put the added shapes into the map's groups, joining together every group each of them overlaps
+    // The added shapes are grouped among themselves first, then each of those groups looks up the grouped shapes filed
+    // near it rather than going through every group on the map
+    void Insert(List<Map.MapObject> added)
+    {
+        double margin = Math.max(Buffer, 0) + Map.INDEX_MARGIN;
+        for (List<Map.MapObject> cluster : FindGroups(added))
+        {
+            List<Map.MapObject> members = new ArrayList<>(cluster);
+            IdentityHashMap<Group, Boolean> joined = new IdentityHashMap<>();
+            for (Map.MapObject object : cluster)
+            {
+                for (Map.MapObject other : Near(object, margin))
+                {
+                    // An earlier cluster may have joined the other's group already, so it's looked up now
+                    Group group = GroupOf.get(other);
+                    if (joined.containsKey(group) || !Overlap(object, other))
+                    {
+                        continue;
+                    }
+                    joined.put(group, true);
+                    members.addAll(group.Members);
+                }
+            }
+            MakeGroup(members);
+            for (Map.MapObject object : cluster)
+            {
+                File(object);
+            }
+            ViewChanged = true;
+        }
+    }
+
+    // The grouped shapes filed under the cells the shape's box grown by the margin covers, and the ones without a box
+    // A shape without a box could be anywhere, so it gets every grouped shape
+    Collection<Map.MapObject> Near(Map.MapObject object, double margin)
+    {
+        int[] cells = FilingCells(object.GetBounds(0), margin);
+        if (cells == null)
+        {
+            return new ArrayList<>(GroupOf.keySet());
+        }
+        IdentityHashMap<Map.MapObject, Boolean> near = new IdentityHashMap<>();
+        for (int col = cells[0]; col <= cells[2]; col++)
+        {
+            for (int row = cells[1]; row <= cells[3]; row++)
+            {
+                List<Map.MapObject> filed = Filed.get(FilingKey(col, row));
+                if (filed != null)
+                {
+                    for (Map.MapObject other : filed)
+                    {
+                        near.put(other, true);
+                    }
+                }
+            }
+        }
+        for (Map.MapObject other : Unfiled)
+        {
+            near.put(other, true);
+        }
+        return near.keySet();
+    }
+
+    // File a grouped shape under the cells its box covers
+    void File(Map.MapObject object)
+    {
+        int[] cells = FilingCells(object.GetBounds(0), 0);
+        if (cells == null)
+        {
+            Unfiled.add(object);
+            return;
+        }
+        FiledUnder.put(object, cells);
+        for (int col = cells[0]; col <= cells[2]; col++)
+        {
+            for (int row = cells[1]; row <= cells[3]; row++)
+            {
+                Filed.computeIfAbsent(FilingKey(col, row), key -> new ArrayList<>()).add(object);
+            }
+        }
+    }
+
+    // Take a shape out of the cells it was filed under, which go by where it was rather than where it is now
+    void Unfile(Map.MapObject object)
+    {
+        int[] cells = FiledUnder.remove(object);
+        if (cells == null)
+        {
+            Unfiled.remove(object);
+            return;
+        }
+        for (int col = cells[0]; col <= cells[2]; col++)
+        {
+            for (int row = cells[1]; row <= cells[3]; row++)
+            {
+                long key = FilingKey(col, row);
+                List<Map.MapObject> filed = Filed.get(key);
+                filed.remove(object);
+                if (filed.isEmpty())
+                {
+                    Filed.remove(key);
+                }
+            }
+        }
+    }
+
+    void ClearFiling()
+    {
+        Filed.clear();
+        FiledUnder.clear();
+        Unfiled.clear();
+    }
+
+    // The filing cells {col0, row0, col1, row1} under the box grown by the margin, or null for no box. Cells are kept to
+    // the field and a cell around it, so a huge shape isn't filed under thousands of cells, and anything past the field
+    // lands in the cells at its edge, which every box reaching past that edge covers as well
+    int[] FilingCells(double[] bounds, double margin)
+    {
+        if (bounds == null)
+        {
+            return null;
+        }
+        int lastCol = (int) Math.ceil(FieldMap.Breadth / 2 / FilingSize);
+        int lastRow = (int) Math.ceil(FieldMap.Length / 2 / FilingSize);
+        return new int[] {
+                FilingIndex(bounds[0] - margin, lastCol),
+                FilingIndex(bounds[1] - margin, lastRow),
+                FilingIndex(bounds[2] + margin, lastCol),
+                FilingIndex(bounds[3] + margin, lastRow)};
+    }
+
+    int FilingIndex(double position, int last)
+    {
+        return (int) Math.max(-last, Math.min(last, Math.floor(position / FilingSize)));
+    }
+
+    static long FilingKey(int col, int row)
+    {
+        return ((long) col << 32) ^ (row & 0xffffffffL);
+    }
+
+    // Make a group from the members and point each of them at it
+    void MakeGroup(List<Map.MapObject> members)
+    {
+        Group group = new Group();
+        group.Members = members;
+        if (members.size() == 1)
+        {
+            group.Shape = members.get(0);
+        }else
+        {
+            // Keep the parts in map order so the hybrid is the same however the group came together
+            if (MapOrder == null)
+            {
+                MapOrder = new IdentityHashMap<>();
+                for (int i = 0; i < FieldMap.MapObjects.size(); i++)
+                {
+                    MapOrder.put(FieldMap.MapObjects.get(i), i);
+                }
+            }
+            List<Map.MapObject> compObjects = new ArrayList<>(members);
+            compObjects.sort(Comparator.comparingInt(member -> MapOrder.getOrDefault(member, Integer.MAX_VALUE)));
+            group.Shape = FieldMap.new HybridObject(compObjects);
+        }
+        for (Map.MapObject member : members)
+        {
+            GroupOf.put(member, group);
+        }
+    }
+
+    // Split the shapes into groups that overlap, sweeping across x so only shapes whose boxes meet get checked
+    List<List<Map.MapObject>> FindGroups(List<Map.MapObject> shapes)
+    {
+        int count = shapes.size();
+        double margin = Math.max(Buffer, 0) + Map.INDEX_MARGIN;
+        double[][] bounds = new double[count][];
+        int[] parent = new int[count];
+        List<Integer> bounded = new ArrayList<>();
+        List<Integer> unbounded = new ArrayList<>();
+        for (int i = 0; i < count; i++)
+        {
+            parent[i] = i;
+            bounds[i] = shapes.get(i).GetBounds(0);
+            if (bounds[i] == null)
+            {
+                unbounded.add(i);
+            }else
+            {
+                bounded.add(i);
+            }
+        }
+
+        // Shapes without a box could be anywhere, so check them against everything
+        for (int i : unbounded)
+        {
+            for (int j = 0; j < count; j++)
+            {
+                if (j != i && Find(parent, i) != Find(parent, j) && Overlap(shapes.get(i), shapes.get(j)))
+                {
+                    Union(parent, i, j);
+                }
+            }
+        }
+
+        // Sweep left to right, keeping the shapes whose boxes still reach the sweep line
+        bounded.sort((first, second) -> Double.compare(bounds[first][0], bounds[second][0]));
+        int[] active = new int[bounded.size()];
+        int activeCount = 0;
+        for (int i : bounded)
+        {
+            int kept = 0;
+            for (int k = 0; k < activeCount; k++)
+            {
+                int j = active[k];
+                if (bounds[j][2] + margin < bounds[i][0])
+                {
+                    continue;
+                }
+                active[kept++] = j;
+                if (bounds[j][1] - margin <= bounds[i][3] && bounds[j][3] + margin >= bounds[i][1] && Find(parent, i) != Find(parent, j) && Overlap(shapes.get(i), shapes.get(j)))
+                {
+                    Union(parent, i, j);
+                }
+            }
+            activeCount = kept;
+            active[activeCount++] = i;
+        }
+
+        // Collect each set, in the order their first shape was given
+        List<List<Map.MapObject>> groups = new ArrayList<>();
+        int[] groupOfRoot = new int[count];
+        Arrays.fill(groupOfRoot, -1);
+        for (int i = 0; i < count; i++)
+        {
+            int root = Find(parent, i);
+            if (groupOfRoot[root] < 0)
+            {
+                groupOfRoot[root] = groups.size();
+                groups.add(new ArrayList<>());
+            }
+            groups.get(groupOfRoot[root]).add(shapes.get(i));
+        }
+        return groups;
+    }
+
+    // Whether either shape's buffer overlaps the other
+    boolean Overlap(Map.MapObject first, Map.MapObject second)
+    {
+        return first.Overlaps(second, Buffer) || second.Overlaps(first, Buffer);
+    }
+
+    // Whether two boxes come within the margin of each other, shapes without a box meet everything
+    static boolean BoxesMeet(double[] first, double[] second, double margin)
+    {
+        if (first == null || second == null)
+        {
+            return true;
+        }
+        return first[0] - margin <= second[2] && first[2] + margin >= second[0] && first[1] - margin <= second[3] && first[3] + margin >= second[1];
+    }
+
+    // Root of the set holding i, halving the path on the way up
+    static int Find(int[] parent, int i)
+    {
+        while (parent[i] != i)
+        {
+            parent[i] = parent[parent[i]];
+            i = parent[i];
+        }
+        return i;
+    }
+
+    static void Union(int[] parent, int first, int second)
+    {
+        parent[Find(parent, first)] = Find(parent, second);
+    }
+}
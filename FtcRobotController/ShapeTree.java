@@ -0,0 +1,362 @@
+import java.util.*;
+
+// Tree of boxes over the parts of a hybrid object, so a query only looks at the parts whose boxes it reaches
+// Every node holds the box around the parts under it, the leaves hold a few parts each
+public class ShapeTree
+{
+
+    // Most parts kept in one leaf, a hybrid with no more parts than this is just one leaf and is checked part by part
+    public static final int LEAF_SIZE = 16;
+
+    // The parts, in the order they were given
+    final List<Map.MapObject> Shapes;
+    // Map version and part count the tree was built for, it is built again once either moves on
+    final int Version;
+    final int Count;
+
+    // Part indices, each node owns Order[NodeStart[n]] up to Order[NodeEnd[n]]
+    final int[] Order;
+    // Boxes packed as {minX, minY, maxX, maxY} per node, node 0 is the root
+    final double[] NodeBounds;
+    final int[] NodeStart;
+    final int[] NodeEnd;
+    // Children of each node, -1 for a leaf
+    final int[] NodeLeft;
+    final int[] NodeRight;
+    final int NodeCount;
+    // Deepest a node is below the root
+    final int Depth;
+    // Indices of parts without a box, these are checked by every query
+    final int[] Unbounded;
+
+    public ShapeTree(List<Map.MapObject> shapes, int version)
+    {
+        Shapes = shapes;
+        Version = version;
+        Count = shapes.size();
+
+        double[] bounds = new double[Count * 4];
+        List<Integer> bounded = new ArrayList<>();
+        List<Integer> unbounded = new ArrayList<>();
+        for (int i = 0; i < Count; i++)
+        {
+            double[] box = shapes.get(i).GetBounds(0);
+            if (box == null)
+            {
+                unbounded.add(i);
+            }else
+            {
+                System.arraycopy(box, 0, bounds, i * 4, 4);
+                bounded.add(i);
+            }
+        }
+        Unbounded = new int[unbounded.size()];
+        for (int i = 0; i < Unbounded.length; i++)
+        {
+            Unbounded[i] = unbounded.get(i);
+        }
+
+        // A binary tree over n leaves has fewer than 2n nodes
+        int maxNodes = Math.max(1, 2 * bounded.size());
+        Order = new int[bounded.size()];
+        NodeBounds = new double[maxNodes * 4];
+        NodeStart = new int[maxNodes];
+        NodeEnd = new int[maxNodes];
+        NodeLeft = new int[maxNodes];
+        NodeRight = new int[maxNodes];
+        for (int i = 0; i < Order.length; i++)
+        {
+            Order[i] = bounded.get(i);
+        }
+
+        // Split every node in half across the longer side of its box until the leaves are small enough
+        int nodeCount = 1;
+        int depth = 0;
+        int[] nodeDepth = new int[maxNodes];
+        NodeStart[0] = 0;
+        NodeEnd[0] = Order.length;
+        for (int node = 0; node < nodeCount; node++)
+        {
+            FitBounds(node, bounds);
+            NodeLeft[node] = -1;
+            NodeRight[node] = -1;
+            depth = Math.max(depth, nodeDepth[node]);
+            int size = NodeEnd[node] - NodeStart[node];
+            if (size <= LEAF_SIZE)
+            {
+                continue;
+            }
+            int axis = NodeBounds[node * 4 + 2] - NodeBounds[node * 4] >= NodeBounds[node * 4 + 3] - NodeBounds[node * 4 + 1] ? 0 : 1;
+            Integer[] run = new Integer[size];
+            for (int k = 0; k < size; k++)
+            {
+                run[k] = Order[NodeStart[node] + k];
+            }
+            Arrays.sort(run, (first, second) -> Double.compare(bounds[first * 4 + axis] + bounds[first * 4 + axis + 2], bounds[second * 4 + axis] + bounds[second * 4 + axis + 2]));
+            for (int k = 0; k < size; k++)
+            {
+                Order[NodeStart[node] + k] = run[k];
+            }
+            int middle = NodeStart[node] + size / 2;
+            NodeLeft[node] = nodeCount;
+            NodeStart[nodeCount] = NodeStart[node];
+            NodeEnd[nodeCount] = middle;
+            nodeDepth[nodeCount++] = nodeDepth[node] + 1;
+            NodeRight[node] = nodeCount;
+            NodeStart[nodeCount] = middle;
+            NodeEnd[nodeCount] = NodeEnd[node];
+            nodeDepth[nodeCount++] = nodeDepth[node] + 1;
+        }
+        NodeCount = nodeCount;
+        Depth = depth;
+    }
+
+    // Set a node's box to the box around its parts
+    void FitBounds(int node, double[] bounds)
+    {
+        NodeBounds[node * 4] = Double.POSITIVE_INFINITY;
+        NodeBounds[node * 4 + 1] = Double.POSITIVE_INFINITY;
+        NodeBounds[node * 4 + 2] = Double.NEGATIVE_INFINITY;
+        NodeBounds[node * 4 + 3] = Double.NEGATIVE_INFINITY;
+        for (int k = NodeStart[node]; k < NodeEnd[node]; k++)
+        {
+            int i = Order[k];
+            NodeBounds[node * 4] = Math.min(NodeBounds[node * 4], bounds[i * 4]);
+            NodeBounds[node * 4 + 1] = Math.min(NodeBounds[node * 4 + 1], bounds[i * 4 + 1]);
+            NodeBounds[node * 4 + 2] = Math.max(NodeBounds[node * 4 + 2], bounds[i * 4 + 2]);
+            NodeBounds[node * 4 + 3] = Math.max(NodeBounds[node * 4 + 3], bounds[i * 4 + 3]);
+        }
+    }
+
+    // Whether the tree was built for the parts as they are now
+    public boolean IsCurrent(List<Map.MapObject> shapes, int version)
+    {
+        return Shapes == shapes && Count == shapes.size() && Version == version;
+    }
+
+    // Adds the first and last places the line crosses any of the buffered parts to out, only once if they are the
+    // same intersect, and returns how many of the two it found
+    // Nodes whose stretch of the line lies between the extremes found so far can't change them, so they're skipped
+    public int Extremes(double startX, double startY, double endX, double endY, double buffer, PathBuffer scratch, PathBuffer out)
+    {
+        double diffX = endX - startX;
+        double diffY = endY - startY;
+        double lengthSquared = diffX * diffX + diffY * diffY;
+        // The extremes found so far as {first along the line, its x, its y, last along the line, its x, its y, count}
+        // with how far along the line they are scaled by its length squared
+        double[] extremes = new double[] {Double.POSITIVE_INFINITY, 0, 0, Double.NEGATIVE_INFINITY, 0, 0, 0};
+        double[] range = new double[2];
+        // Dividing once here saves dividing at every node, a line that doesn't move on an axis gets an infinite one
+        double inverseX = 1 / diffX;
+        double inverseY = 1 / diffY;
+
+        // Parts without a box could be anywhere, and a single leaf is just checked part by part
+        scratch.Clear();
+        for (int i : Unbounded)
+        {
+            Shapes.get(i).checkIntersect(startX, startY, endX, endY, buffer, scratch);
+        }
+        if (NodeCount == 1)
+        {
+            Cross(0, Order.length, startX, startY, endX, endY, buffer, scratch);
+        }
+        Keep(scratch, startX, startY, diffX, diffY, extremes);
+        if (NodeCount > 1)
+        {
+            int[] stack = new int[Depth + 2];
+            int stackSize = 0;
+            stack[stackSize++] = 0;
+            while (stackSize > 0)
+            {
+                int node = stack[--stackSize];
+                if (!ClipToBox(node, startX, startY, inverseX, inverseY, buffer, range) || (extremes[6] > 1 && range[0] * lengthSquared >= extremes[0] && range[1] * lengthSquared <= extremes[3]))
+                {
+                    continue;
+                }
+                if (NodeLeft[node] >= 0)
+                {
+                    // Take the half nearer the start first, it's the likelier one to hold the first extreme
+                    int left = NodeLeft[node];
+                    int right = NodeRight[node];
+                    boolean leftFirst = Along(left, startX, startY, diffX, diffY) <= Along(right, startX, startY, diffX, diffY);
+                    stack[stackSize++] = leftFirst ? right : left;
+                    stack[stackSize++] = leftFirst ? left : right;
+                    continue;
+                }
+                scratch.Clear();
+                Cross(NodeStart[node], NodeEnd[node], startX, startY, endX, endY, buffer, scratch);
+                Keep(scratch, startX, startY, diffX, diffY, extremes);
+            }
+        }
+
+        return AddExtremes(extremes, out);
+    }
+
+    // Adds the first and last of the crossings along the line to out, only once if there is just the one
+    public static int AddExtremes(PathBuffer crossings, double startX, double startY, double endX, double endY, PathBuffer out)
+    {
+        double[] extremes = new double[] {Double.POSITIVE_INFINITY, 0, 0, Double.NEGATIVE_INFINITY, 0, 0, 0};
+        Keep(crossings, startX, startY, endX - startX, endY - startY, extremes);
+        return AddExtremes(extremes, out);
+    }
+
+    static int AddExtremes(double[] extremes, PathBuffer out)
+    {
+        if (extremes[6] > 0)
+        {
+            out.Add(extremes[1], extremes[2]);
+        }
+        if (extremes[6] > 1)
+        {
+            out.Add(extremes[4], extremes[5]);
+        }
+        return (int) Math.min(extremes[6], 2);
+    }
+
+    // Add where the line crosses the parts from Order[from] up to Order[to] to crossings
+    void Cross(int from, int to, double startX, double startY, double endX, double endY, double buffer, PathBuffer crossings)
+    {
+        for (int k = from; k < to; k++)
+        {
+            Shapes.get(Order[k]).checkIntersect(startX, startY, endX, endY, buffer, crossings);
+        }
+    }
+
+    // Keep any of the crossings that are further out than the extremes so far
+    static void Keep(PathBuffer crossings, double startX, double startY, double diffX, double diffY, double[] extremes)
+    {
+        for (int p = 0; p < crossings.Count; p++)
+        {
+            // Crossings are on the line, so how far along it they are is enough to order them
+            double along = (crossings.X(p) - startX) * diffX + (crossings.Y(p) - startY) * diffY;
+            if (along < extremes[0])
+            {
+                extremes[0] = along;
+                extremes[1] = crossings.X(p);
+                extremes[2] = crossings.Y(p);
+            }
+            if (along > extremes[3])
+            {
+                extremes[3] = along;
+                extremes[4] = crossings.X(p);
+                extremes[5] = crossings.Y(p);
+            }
+        }
+        extremes[6] += crossings.Count;
+    }
+
+    // Whether the point is inside any of the parts
+    public boolean Contains(double x, double y)
+    {
+        for (int i : Unbounded)
+        {
+            if (Shapes.get(i).IsInside(x, y))
+            {
+                return true;
+            }
+        }
+        if (Order.length == 0)
+        {
+            return false;
+        }
+        int[] stack = new int[Depth + 2];
+        int stackSize = 0;
+        stack[stackSize++] = 0;
+        while (stackSize > 0)
+        {
+            int node = stack[--stackSize];
+            if (x < NodeBounds[node * 4] || x > NodeBounds[node * 4 + 2] || y < NodeBounds[node * 4 + 1] || y > NodeBounds[node * 4 + 3])
+            {
+                continue;
+            }
+            if (NodeLeft[node] >= 0)
+            {
+                stack[stackSize++] = NodeRight[node];
+                stack[stackSize++] = NodeLeft[node];
+                continue;
+            }
+            for (int k = NodeStart[node]; k < NodeEnd[node]; k++)
+            {
+                if (Shapes.get(Order[k]).IsInside(x, y))
+                {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    // Whether any of the parts overlaps the other shape with the buffer, only parts whose buffered box meets the
+    // other shape's box are asked
+    public boolean Overlaps(Map.MapObject object, double buffer)
+    {
+        for (int i : Unbounded)
+        {
+            if (Shapes.get(i).Overlaps(object, buffer))
+            {
+                return true;
+            }
+        }
+        if (Order.length == 0)
+        {
+            return false;
+        }
+        double[] box = object.GetBounds(0);
+        int[] stack = new int[Depth + 2];
+        int stackSize = 0;
+        stack[stackSize++] = 0;
+        while (stackSize > 0)
+        {
+            int node = stack[--stackSize];
+            if (box != null && (NodeBounds[node * 4] - buffer > box[2] || NodeBounds[node * 4 + 2] + buffer < box[0] || NodeBounds[node * 4 + 1] - buffer > box[3] || NodeBounds[node * 4 + 3] + buffer < box[1]))
+            {
+                continue;
+            }
+            if (NodeLeft[node] >= 0)
+            {
+                stack[stackSize++] = NodeRight[node];
+                stack[stackSize++] = NodeLeft[node];
+                continue;
+            }
+            for (int k = NodeStart[node]; k < NodeEnd[node]; k++)
+            {
+                if (Shapes.get(Order[k]).Overlaps(object, buffer))
+                {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    // Narrow range to the stretch of the line, from 0 at the start to 1 at the end, inside the node's buffered box
+    // False if the line misses it
+    boolean ClipToBox(int node, double startX, double startY, double inverseX, double inverseY, double buffer, double[] range)
+    {
+        range[0] = 0;
+        range[1] = 1;
+        return ClipAxis(startX, inverseX, NodeBounds[node * 4] - buffer, NodeBounds[node * 4 + 2] + buffer, range)
+                && ClipAxis(startY, inverseY, NodeBounds[node * 4 + 1] - buffer, NodeBounds[node * 4 + 3] + buffer, range);
+    }
+
+    // How far along the line the middle of the node's box is, scaled by the length of the line
+    double Along(int node, double startX, double startY, double diffX, double diffY)
+    {
+        double middleX = (NodeBounds[node * 4] + NodeBounds[node * 4 + 2]) / 2;
+        double middleY = (NodeBounds[node * 4 + 1] + NodeBounds[node * 4 + 3]) / 2;
+        return (middleX - startX) * diffX + (middleY - startY) * diffY;
+    }
+
+    static boolean ClipAxis(double start, double inverse, double min, double max, double[] range)
+    {
+        if (Double.isInfinite(inverse))
+        {
+            return start >= min && start <= max;
+        }
+        double tA = (min - start) * inverse;
+        double tB = (max - start) * inverse;
+        range[0] = Math.max(range[0], Math.min(tA, tB));
+        range[1] = Math.min(range[1], Math.max(tA, tB));
+        return range[0] <= range[1];
+    }
+}
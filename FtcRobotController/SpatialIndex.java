@@ -0,0 +1,375 @@
+import java.util.*;
+import java.util.function.IntPredicate;
+
+// Uniform grid over the bounding boxes of map objects so planning only visits the objects near a segment
+public class SpatialIndex
+{
+
+    // The objects in the index, in the order they were given
+    public List<Map.MapObject> Objects;
+
+    // Bounds of every object packed as {minX, minY, maxX, maxY} per object
+    double[] Bounds;
+    // Indices of objects without bounds, these are returned by every query
+    int[] Unbounded;
+
+    // Grid placement and size
+    double MinX;
+    double MinY;
+    double CellSize;
+    int Columns;
+    int Rows;
+
+    // Object indices for each cell, cell c owns CellItems[CellStart[c]] up to CellItems[CellStart[c+1]]
+    int[] CellStart;
+    int[] CellItems;
+
+    // Query scratch space, the stamp makes sure an object is only reported once per query
+    int[] Stamp;
+    int QueryStamp = 0;
+    int[] Results = new int[16];
+    int ResultCount = 0;
+
+    // Build an index with a cell size picked from the objects themselves
+    public SpatialIndex(List<Map.MapObject> objects)
+    {
+        this(objects, 0);
+    }
+
+    // Build an index with the given cell size, zero or less picks one automatically
+    public SpatialIndex(List<Map.MapObject> objects, double cellSize)
+    {
+        Objects = objects;
+        int count = objects.size();
+        Bounds = new double[count * 4];
+        Stamp = new int[count];
+
+        // Find the bounds of every object and of the whole set
+        double minX = Double.POSITIVE_INFINITY;
+        double minY = Double.POSITIVE_INFINITY;
+        double maxX = Double.NEGATIVE_INFINITY;
+        double maxY = Double.NEGATIVE_INFINITY;
+        double totalSize = 0;
+        int boundedCount = 0;
+        int unboundedCount = 0;
+        boolean[] hasBounds = new boolean[count];
+        for (int i = 0; i < count; i++)
+        {
+            double[] bounds = objects.get(i).GetBounds(0);
+            if (bounds == null)
+            {
+                unboundedCount++;
+                continue;
+            }
+            hasBounds[i] = true;
+            System.arraycopy(bounds, 0, Bounds, i * 4, 4);
+            minX = Math.min(minX, bounds[0]);
+            minY = Math.min(minY, bounds[1]);
+            maxX = Math.max(maxX, bounds[2]);
+            maxY = Math.max(maxY, bounds[3]);
+            totalSize += Math.max(bounds[2] - bounds[0], bounds[3] - bounds[1]);
+            boundedCount++;
+        }
+        Unbounded = new int[unboundedCount];
+        for (int i = 0, u = 0; i < count; i++)
+        {
+            if (!hasBounds[i])
+            {
+                Unbounded[u++] = i;
+            }
+        }
+        if (boundedCount == 0)
+        {
+            minX = 0;
+            minY = 0;
+            maxX = 1;
+            maxY = 1;
+        }
+
+        // Pick a cell size around the average object size, but never so small that the grid outgrows the object count
+        double width = Math.max(maxX - minX, 1e-9);
+        double height = Math.max(maxY - minY, 1e-9);
+        if (cellSize <= 0)
+        {
+            double averageSize = boundedCount > 0 ? totalSize / boundedCount : 1;
+            cellSize = Math.max(averageSize, Math.sqrt(width * height / Math.max(boundedCount, 1)));
+        }
+        MinX = minX;
+        MinY = minY;
+        CellSize = cellSize;
+        Columns = Math.max(1, (int) Math.ceil(width / cellSize));
+        Rows = Math.max(1, (int) Math.ceil(height / cellSize));
+
+        // Count the entries per cell then fill them in, this keeps every cell in one flat array
+        CellStart = new int[Columns * Rows + 1];
+        for (int i = 0; i < count; i++)
+        {
+            if (!hasBounds[i])
+            {
+                continue;
+            }
+            int col0 = Column(Bounds[i * 4]);
+            int col1 = Column(Bounds[i * 4 + 2]);
+            int row0 = Row(Bounds[i * 4 + 1]);
+            int row1 = Row(Bounds[i * 4 + 3]);
+            for (int row = row0; row <= row1; row++)
+            {
+                for (int col = col0; col <= col1; col++)
+                {
+                    CellStart[row * Columns + col + 1]++;
+                }
+            }
+        }
+        for (int c = 0; c < Columns * Rows; c++)
+        {
+            CellStart[c + 1] += CellStart[c];
+        }
+        CellItems = new int[CellStart[Columns * Rows]];
+        int[] fill = Arrays.copyOf(CellStart, Columns * Rows);
+        for (int i = 0; i < count; i++)
+        {
+            if (!hasBounds[i])
+            {
+                continue;
+            }
+            int col0 = Column(Bounds[i * 4]);
+            int col1 = Column(Bounds[i * 4 + 2]);
+            int row0 = Row(Bounds[i * 4 + 1]);
+            int row1 = Row(Bounds[i * 4 + 3]);
+            for (int row = row0; row <= row1; row++)
+            {
+                for (int col = col0; col <= col1; col++)
+                {
+                    CellItems[fill[row * Columns + col]++] = i;
+                }
+            }
+        }
+    }
+
+    // The same index with its own query scratch space, so another thread can query it while this one is in use
+    public SpatialIndex Share()
+    {
+        return new SpatialIndex(this);
+    }
+
+    SpatialIndex(SpatialIndex index)
+    {
+        Objects = index.Objects;
+        Bounds = index.Bounds;
+        Unbounded = index.Unbounded;
+        MinX = index.MinX;
+        MinY = index.MinY;
+        CellSize = index.CellSize;
+        Columns = index.Columns;
+        Rows = index.Rows;
+        CellStart = index.CellStart;
+        CellItems = index.CellItems;
+        Stamp = new int[index.Stamp.length];
+    }
+
+    // The column holding an x position, clamped to the grid
+    int Column(double x)
+    {
+        int col = (int) Math.floor((x - MinX) / CellSize);
+        return Math.max(0, Math.min(Columns - 1, col));
+    }
+
+    // The row holding a y position, clamped to the grid
+    int Row(double y)
+    {
+        int row = (int) Math.floor((y - MinY) / CellSize);
+        return Math.max(0, Math.min(Rows - 1, row));
+    }
+
+    // Indices of the objects whose box comes within margin of the given box, in ascending order
+    public int[] QueryBox(double minX, double minY, double maxX, double maxY, double margin)
+    {
+        StartQuery();
+        minX -= margin;
+        minY -= margin;
+        maxX += margin;
+        maxY += margin;
+        int col0 = Column(minX);
+        int col1 = Column(maxX);
+        int row0 = Row(minY);
+        int row1 = Row(maxY);
+        for (int row = row0; row <= row1; row++)
+        {
+            for (int col = col0; col <= col1; col++)
+            {
+                int cell = row * Columns + col;
+                for (int k = CellStart[cell]; k < CellStart[cell + 1]; k++)
+                {
+                    int i = CellItems[k];
+                    if (Stamp[i] == QueryStamp)
+                    {
+                        continue;
+                    }
+                    Stamp[i] = QueryStamp;
+                    if (Bounds[i * 4] <= maxX && Bounds[i * 4 + 2] >= minX && Bounds[i * 4 + 1] <= maxY && Bounds[i * 4 + 3] >= minY)
+                    {
+                        AddResult(i);
+                    }
+                }
+            }
+        }
+        return FinishQuery();
+    }
+
+    // Indices of the objects whose box comes within margin of the segment, in ascending order
+    public int[] QuerySegment(double[] startPoint, double[] endPoint, double margin)
+    {
+        StartQuery();
+        VisitSegment(startPoint[0], startPoint[1], endPoint[0], endPoint[1], margin, null);
+        return FinishQuery();
+    }
+
+    // The first object found near the segment that passes the test, or -1 if none do
+    // Objects aren't visited in any particular order, this is for checks that can stop at the first hit
+    public int FindOnSegment(double x0, double y0, double x1, double y1, double margin, IntPredicate test)
+    {
+        StartQuery();
+        for (int k = 0; k < ResultCount; k++)
+        {
+            if (test.test(Results[k]))
+            {
+                return Results[k];
+            }
+        }
+        return VisitSegment(x0, y0, x1, y1, margin, test);
+    }
+
+    // Walk the cells along the segment row by row, either collecting the objects near it or stopping at the first
+    // one that passes the test
+    int VisitSegment(double x0, double y0, double x1, double y1, double margin, IntPredicate test)
+    {
+        double dx = x1 - x0;
+        double dy = y1 - y0;
+        int row0 = Row(Math.min(y0, y1) - margin);
+        int row1 = Row(Math.max(y0, y1) + margin);
+        for (int row = row0; row <= row1; row++)
+        {
+            // The part of the segment that passes through this row, widened by the margin
+            double rowMinY = (row == 0 ? Double.NEGATIVE_INFINITY : MinY + row * CellSize) - margin;
+            double rowMaxY = (row == Rows - 1 ? Double.POSITIVE_INFINITY : MinY + (row + 1) * CellSize) + margin;
+            double tMin = 0;
+            double tMax = 1;
+            if (dy != 0)
+            {
+                double tA = (rowMinY - y0) / dy;
+                double tB = (rowMaxY - y0) / dy;
+                tMin = Math.max(0, Math.min(tA, tB));
+                tMax = Math.min(1, Math.max(tA, tB));
+                if (tMin > tMax)
+                {
+                    continue;
+                }
+            }
+            int col0 = Column(Math.min(x0 + dx * tMin, x0 + dx * tMax) - margin);
+            int col1 = Column(Math.max(x0 + dx * tMin, x0 + dx * tMax) + margin);
+            for (int col = col0; col <= col1; col++)
+            {
+                int cell = row * Columns + col;
+                for (int k = CellStart[cell]; k < CellStart[cell + 1]; k++)
+                {
+                    int i = CellItems[k];
+                    if (Stamp[i] == QueryStamp)
+                    {
+                        continue;
+                    }
+                    Stamp[i] = QueryStamp;
+                    if (SegmentTouchesBox(x0, y0, dx, dy, Bounds[i * 4] - margin, Bounds[i * 4 + 1] - margin, Bounds[i * 4 + 2] + margin, Bounds[i * 4 + 3] + margin))
+                    {
+                        if (test == null)
+                        {
+                            AddResult(i);
+                        }else if (test.test(i))
+                        {
+                            return i;
+                        }
+                    }
+                }
+            }
+        }
+        return -1;
+    }
+
+    // The objects whose box comes within margin of the segment, in index order
+    public List<Map.MapObject> Near(double[] startPoint, double[] endPoint, double margin)
+    {
+        int[] indices = QuerySegment(startPoint, endPoint, margin);
+        List<Map.MapObject> near = new ArrayList<>(indices.length);
+        for (int i : indices)
+        {
+            near.add(Objects.get(i));
+        }
+        return near;
+    }
+
+    // Clip the segment against the box, if anything is left they touch
+    static boolean SegmentTouchesBox(double x0, double y0, double dx, double dy, double minX, double minY, double maxX, double maxY)
+    {
+        double tMin = 0;
+        double tMax = 1;
+        if (dx == 0)
+        {
+            if (x0 < minX || x0 > maxX)
+            {
+                return false;
+            }
+        }else
+        {
+            double tA = (minX - x0) / dx;
+            double tB = (maxX - x0) / dx;
+            tMin = Math.max(tMin, Math.min(tA, tB));
+            tMax = Math.min(tMax, Math.max(tA, tB));
+        }
+        if (dy == 0)
+        {
+            if (y0 < minY || y0 > maxY)
+            {
+                return false;
+            }
+        }else
+        {
+            double tA = (minY - y0) / dy;
+            double tB = (maxY - y0) / dy;
+            tMin = Math.max(tMin, Math.min(tA, tB));
+            tMax = Math.min(tMax, Math.max(tA, tB));
+        }
+        return tMin <= tMax;
+    }
+
+    void StartQuery()
+    {
+        QueryStamp++;
+        if (QueryStamp == 0)
+        {
+            // The stamp wrapped around so clear the old marks
+            Arrays.fill(Stamp, 0);
+            QueryStamp = 1;
+        }
+        ResultCount = 0;
+        for (int i : Unbounded)
+        {
+            Stamp[i] = QueryStamp;
+            AddResult(i);
+        }
+    }
+
+    void AddResult(int index)
+    {
+        if (ResultCount == Results.length)
+        {
+            Results = Arrays.copyOf(Results, Results.length * 2);
+        }
+        Results[ResultCount++] = index;
+    }
+
+    int[] FinishQuery()
+    {
+        int[] found = Arrays.copyOf(Results, ResultCount);
+        Arrays.sort(found);
+        return found;
+    }
+}
@@ -0,0 +1,351 @@
+import java.util.*;
+
+// Any-angle paths over the map's bitset grid using Lazy Theta*
+// The search runs over cells like grid A*, but a cell takes its neighbour's parent as its own whenever the two can see
+// each other, so paths only bend where they have to instead of following the grid. Sight is only checked once a cell is
+// expanded, and every cell is expanded at most once, so a search is bounded by the size of the grid however awkward the
+// shapes are
+public class ThetaStar
+{
+
+    static final double INF = Double.POSITIVE_INFINITY;
+    static final int[] STEP_COL = new int[] {1, 1, 0, -1, -1, -1, 0, 1};
+    static final int[] STEP_ROW = new int[] {0, 1, 1, 1, 0, -1, -1, -1};
+
+    // The grid searched over
+    public OccupancyGrid Grid;
+
+    // Cells expanded and sight lines walked by the last search
+    public int Expanded = 0;
+    public int SightChecks = 0;
+
+    // Search state per cell, the stamps mark which cells the current search has reached and closed
+    double[] G;
+    int[] Parent;
+    int[] Visited;
+    int[] Closed;
+    int SearchStamp = 0;
+    int[] Heap = new int[64];
+    double[] HeapKey = new double[64];
+    int HeapSize = 0;
+
+    // The inflated bits, root and target of the current search, parents lead back towards the root
+    long[] Bits;
+    int Root;
+    int Target;
+    int EndCol;
+    int EndRow;
+    // The closed cell nearest the target and its squared distance in cells, -1 before any cell is closed. Cells closed
+    // before the last retarget only count if one of them was the nearest then
+    int Nearest = -1;
+    long NearestDistance = Long.MAX_VALUE;
+
+    public ThetaStar(OccupancyGrid grid)
+    {
+        Grid = grid;
+        int cells = grid.Columns * grid.Rows;
+        G = new double[cells];
+        Parent = new int[cells];
+        Visited = new int[cells];
+        Closed = new int[cells];
+    }
+
+    // Any-angle path from start to end keeping the buffer from every shape, or an empty list if there is none
+    public List<double[]> FindPath(double[] startPoint, double[] endPoint, double buffer)
+    {
+        long[] bits = Grid.InflatedBits(buffer);
+        int startCell = Grid.CellAt(startPoint[0], startPoint[1]);
+        int endCell = Grid.CellAt(endPoint[0], endPoint[1]);
+        if (startCell < 0 || endCell < 0 || OccupancyGrid.GetBit(bits, startCell) || OccupancyGrid.GetBit(bits, endCell))
+        {
+            return new ArrayList<>();
+        }
+        if (Grid.IsSegmentFree(startPoint[0], startPoint[1], endPoint[0], endPoint[1], buffer))
+        {
+            return new ArrayList<>(Arrays.asList(startPoint, endPoint));
+        }
+        Begin(bits, startCell, endCell);
+        if (!Search(Long.MAX_VALUE))
+        {
+            return new ArrayList<>();
+        }
+        List<Integer> cells = Chain(endCell);
+        Collections.reverse(cells);
+        return PathThrough(cells, startPoint, endPoint, buffer);
+    }
+
+    // Start a new search out from the root cell towards the target cell over the bits
+    void Begin(long[] bits, int root, int target)
+    {
+        Bits = bits;
+        Expanded = 0;
+        SightChecks = 0;
+        SearchStamp++;
+        HeapSize = 0;
+        Root = root;
+        Nearest = -1;
+        Retarget(target);
+        Visited[root] = SearchStamp;
+        G[root] = 0;
+        Parent[root] = root;
+        Push(root, Estimate(root));
+    }
+
+    // Aim the search at another cell, cells already queued keep the estimate they were queued with
+    void Retarget(int target)
+    {
+        Target = target;
+        EndCol = target % Grid.Columns;
+        EndRow = target / Grid.Columns;
+        NearestDistance = Nearest < 0 ? Long.MAX_VALUE : TargetDistance(Nearest);
+    }
+
+    // Squared distance in cells from the cell to the target
+    long TargetDistance(int cell)
+    {
+        long dCol = cell % Grid.Columns - EndCol;
+        long dRow = cell / Grid.Columns - EndRow;
+        return dCol * dCol + dRow * dRow;
+    }
+
+    // Carry on the search until the target is closed, every cell that can be reached is closed or the deadline from
+    // System.nanoTime passes. Returns whether the target is closed, a later call picks up where this one stopped
+    boolean Search(long deadline)
+    {
+        int columns = Grid.Columns;
+        while (Closed[Target] != SearchStamp && HeapSize > 0)
+        {
+            if (deadline != Long.MAX_VALUE && System.nanoTime() - deadline > 0)
+            {
+                return false;
+            }
+            int cell = Pop();
+            if (Closed[cell] == SearchStamp)
+            {
+                continue;
+            }
+            SetVertex(cell);
+            Closed[cell] = SearchStamp;
+            Expanded++;
+            long distance = TargetDistance(cell);
+            if (distance < NearestDistance)
+            {
+                NearestDistance = distance;
+                Nearest = cell;
+            }
+            int col = cell % columns;
+            int row = cell / columns;
+            for (int d = 0; d < 8; d++)
+            {
+                int next = Step(col, row, d);
+                if (next < 0 || Closed[next] == SearchStamp)
+                {
+                    continue;
+                }
+                if (Visited[next] != SearchStamp)
+                {
+                    Visited[next] = SearchStamp;
+                    G[next] = INF;
+                }
+                // Assume the cell's parent can see the neighbour, SetVertex checks once the neighbour is expanded
+                int parent = Parent[cell];
+                double cost = G[parent] + Length(parent, next);
+                if (cost < G[next])
+                {
+                    G[next] = cost;
+                    Parent[next] = parent;
+                    Push(next, cost + Estimate(next));
+                }
+            }
+        }
+        return Closed[Target] == SearchStamp;
+    }
+
+    // The cells from a closed cell back to the root, only the cells where the path bends
+    List<Integer> Chain(int cell)
+    {
+        List<Integer> cells = new ArrayList<>();
+        for (; cell != Root; cell = Parent[cell])
+        {
+            cells.add(cell);
+        }
+        cells.add(Root);
+        return cells;
+    }
+
+    // The path from start to end bending at the middles of the cells in between
+    List<double[]> PathThrough(List<Integer> cells, double[] startPoint, double[] endPoint, double buffer)
+    {
+        List<double[]> path = new ArrayList<>();
+        path.add(startPoint);
+        List<double[]> bends = new ArrayList<>();
+        for (int i = 1; i < cells.size() - 1; i++)
+        {
+            bends.add(Middle(cells.get(i)));
+        }
+
+        // The start and end are anywhere in their cells rather than in the middle, so keep the middle of their cell
+        // as a bend whenever the line from the point itself isn't clear
+        double[] first = bends.isEmpty() ? endPoint : bends.get(0);
+        if (!Grid.IsSegmentFree(startPoint[0], startPoint[1], first[0], first[1], buffer))
+        {
+            path.add(Middle(cells.get(0)));
+        }
+        path.addAll(bends);
+        double[] last = path.get(path.size() - 1);
+        if (!Grid.IsSegmentFree(last[0], last[1], endPoint[0], endPoint[1], buffer))
+        {
+            path.add(Middle(cells.get(cells.size() - 1)));
+        }
+        path.add(endPoint);
+        return path;
+    }
+
+    // The cell's parent was taken on trust, if it can't see the cell after all take the best closed neighbour instead
+    void SetVertex(int cell)
+    {
+        int parent = Parent[cell];
+        if (parent == cell || LineOfSight(parent, cell))
+        {
+            return;
+        }
+        int columns = Grid.Columns;
+        int col = cell % columns;
+        int row = cell / columns;
+        G[cell] = INF;
+        for (int d = 0; d < 8; d++)
+        {
+            int next = Step(col, row, d);
+            if (next >= 0 && Closed[next] == SearchStamp)
+            {
+                double cost = G[next] + Length(next, cell);
+                if (cost < G[cell])
+                {
+                    G[cell] = cost;
+                    Parent[cell] = next;
+                }
+            }
+        }
+    }
+
+    // The clear neighbour of a cell in one of the eight directions, or -1 if it's blocked or off the grid
+    // A diagonal step needs both cells beside it clear so it never cuts the corner of a blocked cell
+    int Step(int col, int row, int direction)
+    {
+        int columns = Grid.Columns;
+        int nextCol = col + STEP_COL[direction];
+        int nextRow = row + STEP_ROW[direction];
+        if (nextCol < 0 || nextCol >= columns || nextRow < 0 || nextRow >= Grid.Rows)
+        {
+            return -1;
+        }
+        int next = nextRow * columns + nextCol;
+        if (OccupancyGrid.GetBit(Bits, next))
+        {
+            return -1;
+        }
+        if (direction % 2 == 1 && (OccupancyGrid.GetBit(Bits, row * columns + nextCol) || OccupancyGrid.GetBit(Bits, nextRow * columns + col)))
+        {
+            return -1;
+        }
+        return next;
+    }
+
+    // Whether every cell on the line between the middles of the two cells is clear, walked with integer steps only
+    // A line through the corner of four cells checks one of the two beside it, so it can't slip between two blocked
+    // cells that touch at the corner
+    boolean LineOfSight(int from, int to)
+    {
+        SightChecks++;
+        int columns = Grid.Columns;
+        int col = from % columns;
+        int row = from / columns;
+        int dCol = Math.abs(to % columns - col);
+        int dRow = Math.abs(to / columns - row);
+        int stepCol = to % columns > col ? 1 : -1;
+        int stepRow = to / columns > row ? 1 : -1;
+        int error = dCol - dRow;
+        for (int n = 1 + dCol + dRow; n > 0; n--)
+        {
+            if (OccupancyGrid.GetBit(Bits, row * columns + col))
+            {
+                return false;
+            }
+            if (error > 0)
+            {
+                col += stepCol;
+                error -= 2 * dRow;
+            }else
+            {
+                row += stepRow;
+                error += 2 * dCol;
+            }
+        }
+        return true;
+    }
+
+    // Straight line length between the middles of two cells, in cells
+    double Length(int from, int to)
+    {
+        int columns = Grid.Columns;
+        return Math.hypot(to % columns - from % columns, to / columns - from / columns);
+    }
+
+    // Straight line length from the middle of the cell to the middle of the target cell, in cells
+    double Estimate(int cell)
+    {
+        int columns = Grid.Columns;
+        return Math.hypot(EndCol - cell % columns, EndRow - cell / columns);
+    }
+
+    double[] Middle(int cell)
+    {
+        return new double[] {Grid.MinX + (cell % Grid.Columns + 0.5) * Grid.CellSize, Grid.MinY + (cell / Grid.Columns + 0.5) * Grid.CellSize};
+    }
+
+    // Binary heap of cells keyed on their estimate, stale entries are skipped when popped
+    void Push(int cell, double key)
+    {
+        if (HeapSize == Heap.length)
+        {
+            Heap = Arrays.copyOf(Heap, Heap.length * 2);
+            HeapKey = Arrays.copyOf(HeapKey, HeapKey.length * 2);
+        }
+        int i = HeapSize++;
+        while (i > 0 && HeapKey[(i - 1) / 2] > key)
+        {
+            Heap[i] = Heap[(i - 1) / 2];
+            HeapKey[i] = HeapKey[(i - 1) / 2];
+            i = (i - 1) / 2;
+        }
+        Heap[i] = cell;
+        HeapKey[i] = key;
+    }
+
+    int Pop()
+    {
+        int top = Heap[0];
+        HeapSize--;
+        int cell = Heap[HeapSize];
+        double key = HeapKey[HeapSize];
+        int i = 0;
+        while (2 * i + 1 < HeapSize)
+        {
+            int child = 2 * i + 1;
+            if (child + 1 < HeapSize && HeapKey[child + 1] < HeapKey[child])
+            {
+                child++;
+            }
+            if (HeapKey[child] >= key)
+            {
+                break;
+            }
+            Heap[i] = Heap[child];
+            HeapKey[i] = HeapKey[child];
+            i = child;
+        }
+        Heap[i] = cell;
+        HeapKey[i] = key;
+        return top;
+    }
+}
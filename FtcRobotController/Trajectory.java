@@ -0,0 +1,389 @@
+import java.util.*;
+
+// A path turned into a table of where the robot should be, and how fast it should be going, at every control cycle
+// Speeds keep to velocity, acceleration and jerk limits. The table is worked out up front so the control loop only
+// has to look a row up
+public class Trajectory
+{
+
+    // Time between samples in seconds
+    public double Period;
+    // Time from the first sample to the last
+    public double Duration;
+    // Number of samples
+    public int Count;
+
+    // One row per sample packed as {x, y, vx, vy, ax, ay}. Velocity is along the path, acceleration is the change in
+    // velocity to the next sample over the period, so at a corner it includes the turn
+    static final int STRIDE = 6;
+    public double[] Samples;
+
+    // Size of the steps the path is split into when working out how fast each part of it can be driven
+    static final double ARC_STEP = 0.01;
+
+    // The sample to use at a time since the start, times past the end give the last sample
+    public int Index(double time)
+    {
+        int index = (int) (time / Period);
+        return index < 0 ? 0 : (index >= Count ? Count - 1 : index);
+    }
+
+    public double X(int index) { return Samples[index * STRIDE]; }
+    public double Y(int index) { return Samples[index * STRIDE + 1]; }
+    public double VX(int index) { return Samples[index * STRIDE + 2]; }
+    public double VY(int index) { return Samples[index * STRIDE + 3]; }
+    public double AX(int index) { return Samples[index * STRIDE + 4]; }
+    public double AY(int index) { return Samples[index * STRIDE + 5]; }
+
+    // Time the path under the limits, sampled every period seconds
+    // Acceleration is limited first, then the speeds are averaged over a window of 2 * maxAcceleration / maxJerk
+    // seconds. Averaging keeps speed and acceleration inside their limits and brings the jerk inside its limit
+    public static Trajectory Plan(List<double[]> path, double maxVelocity, double maxAcceleration, double maxJerk, double period)
+    {
+        if (path.isEmpty())
+        {
+            throw new RuntimeException("Can't time a path with no points");
+        }
+        // Lengths along the path of each waypoint, with repeated points dropped
+        List<double[]> points = new ArrayList<>();
+        for (double[] point : path)
+        {
+            if (points.isEmpty() || Map.LINE_FUNCTIONS.GET_LENGTH(points.get(points.size() - 1), point) > 0)
+            {
+                points.add(point);
+            }
+        }
+        double[] arc = new double[points.size()];
+        for (int i = 1; i < points.size(); i++)
+        {
+            arc[i] = arc[i - 1] + Map.LINE_FUNCTIONS.GET_LENGTH(points.get(i - 1), points.get(i));
+        }
+        double length = arc[arc.length - 1];
+        if (length == 0)
+        {
+            // Nowhere to go, so just stay put
+            Trajectory still = new Trajectory();
+            still.Period = period;
+            still.Count = 1;
+            still.Samples = new double[] {points.get(0)[0], points.get(0)[1], 0, 0, 0, 0};
+            return still;
+        }
+        int window = Math.max(1, (int) Math.ceil(2 * maxAcceleration / (maxJerk * period)));
+
+        // Speed and acceleration limits along the path. At a corner the velocity turns and can change speed between
+        // the same two samples, and the change of the whole velocity has to keep to the acceleration limit. So near a
+        // corner the speed changes by at most maxAcceleration / sqrt(2) a period, and the speed is kept to what the
+        // same share can turn in one period, which together come to no more than maxAcceleration. A sample can pass
+        // over several corners close together in one period, so the turn used is the largest to any segment within a
+        // period's travel. The limits hold for the distance a window of averaging can reach and a period either side
+        // for where the samples land, so the averaged speeds still keep to them
+        int steps = Math.max(1, (int) Math.ceil(length / ARC_STEP));
+        double step = length / steps;
+        double[] limit = new double[steps + 1];
+        double[] acceleration = new double[steps + 1];
+        Arrays.fill(limit, maxVelocity);
+        Arrays.fill(acceleration, maxAcceleration);
+        double cornerAcceleration = maxAcceleration / Math.sqrt(2);
+        // The forward pass keeps the acceleration from where a period starts for the whole period, so the backward
+        // pass brakes at the corner's share for a period's travel past it. And the forward pass never has to go
+        // slower than a corner it could reach within the period, which is kept for each step as well
+        int periodSteps = (int) Math.ceil((maxVelocity + maxAcceleration * period) * period / step) + 1;
+        double[] braking = acceleration.clone();
+        double[] cornerAhead = limit.clone();
+        for (int i = 1; i < points.size() - 1; i++)
+        {
+            double inX = points.get(i)[0] - points.get(i - 1)[0];
+            double inY = points.get(i)[1] - points.get(i - 1)[1];
+            double turn = 0;
+            for (int j = i; j < points.size() - 1 && (j == i || arc[j] - arc[i] <= maxVelocity * period); j++)
+            {
+                turn = Math.max(turn, TurnAngle(inX, inY, points.get(j + 1)[0] - points.get(j)[0], points.get(j + 1)[1] - points.get(j)[1]));
+            }
+            double cornerSpeed = turn == 0 ? maxVelocity : Math.min(maxVelocity, cornerAcceleration * period / (2 * Math.sin(turn / 2)));
+            double reach = cornerSpeed * (window + 2) * period;
+            int from = Math.max(0, (int) Math.floor((arc[i] - reach) / step));
+            int to = Math.min(steps, (int) Math.ceil((arc[i] + reach) / step));
+            for (int k = from; k <= to; k++)
+            {
+                limit[k] = Math.min(limit[k], cornerSpeed);
+            }
+            for (int k = Math.max(0, from - periodSteps); k <= to; k++)
+            {
+                cornerAhead[k] = Math.min(cornerAhead[k], cornerSpeed);
+            }
+            if (turn > 0)
+            {
+                for (int k = from; k <= to; k++)
+                {
+                    acceleration[k] = cornerAcceleration;
+                }
+                for (int k = from; k <= Math.min(steps, to + periodSteps); k++)
+                {
+                    braking[k] = cornerAcceleration;
+                }
+            }
+        }
+        limit[0] = 0;
+        limit[steps] = 0;
+
+        // Backwards from the end, the fastest speed at each step that can still slow down for everything after it
+        for (int k = steps - 1; k >= 0; k--)
+        {
+            limit[k] = Math.min(limit[k], Math.sqrt(limit[k + 1] * limit[k + 1] + 2 * Math.min(braking[k], braking[k + 1]) * step));
+        }
+
+        // Forwards in time, speeding up as hard as allowed until the limit says otherwise
+        List<Double> speeds = new ArrayList<>();
+        speeds.add(0.0);
+        double travelled = 0;
+        double speed = 0;
+        double speedStep = acceleration[0] * period;
+        while (speed > speedStep || length - travelled > speed / 2 * period)
+        {
+            // Never slower than one period's worth of acceleration or the speed of a corner the step could reach, or the
+            // last bit of the path would take forever, and never slowing down harder than the limit even where its
+            // steps are coarse
+            double next = Math.min(speed + speedStep, LimitAt(limit, step, Math.min(length, travelled + speed * period)));
+            // Speeding up goes further than a period at the old speed, so the limit is checked again where it ends
+            next = Math.min(next, LimitAt(limit, step, Math.min(length, travelled + (speed + next) / 2 * period)));
+            double least = Math.min(speedStep, cornerAhead[Math.min(steps, (int) (travelled / step))]);
+            // Once a speed that stops in the next step lands exactly on the end, go to it. Going past the end would
+            // mean stretching the whole table to fit, which moves every sample off the corners the limits were set for
+            double finish = (length - travelled) / period - speed / 2;
+            if (finish >= Math.max(0, speed - speedStep) && finish <= Math.min(speed + speedStep, least))
+            {
+                travelled += (speed + finish) / 2 * period;
+                speed = finish;
+                speeds.add(speed);
+                break;
+            }
+            next = Math.max(next, Math.max(speed - speedStep, Math.min(speed + speedStep, least)));
+            travelled += (speed + next) / 2 * period;
+            speed = next;
+            speeds.add(speed);
+            speedStep = LimitAt(acceleration, step, Math.min(length, travelled)) * period;
+        }
+        // Slow enough to stop within one step, and close enough to the end to do it
+        travelled += speed / 2 * period;
+        speeds.add(0.0);
+
+        // Average over the window, padding with stopped samples so it still ends at rest and covers the same distance
+        int count = speeds.size() + window;
+        double[] smoothed = new double[count];
+        double sum = 0;
+        for (int k = 0; k < count; k++)
+        {
+            sum += k < speeds.size() ? speeds.get(k) : 0;
+            if (k >= window)
+            {
+                sum -= speeds.get(k - window);
+            }
+            smoothed[k] = sum / window;
+        }
+
+        // Place each sample along the path and fill in the table
+        Trajectory trajectory = new Trajectory();
+        trajectory.Period = period;
+        trajectory.Count = count;
+        trajectory.Duration = (count - 1) * period;
+        trajectory.Samples = new double[count * STRIDE];
+        double position = 0;
+        int segment = 0;
+        // The steps never land exactly on the end, so stretch the speeds to cover the path exactly
+        double scale = length / travelled;
+        for (int k = 0; k < count; k++)
+        {
+            smoothed[k] *= scale;
+        }
+        for (int k = 0; k < count; k++)
+        {
+            if (k > 0)
+            {
+                position = Math.min(length, position + (smoothed[k - 1] + smoothed[k]) / 2 * period);
+            }
+            while (segment < points.size() - 2 && position > arc[segment + 1])
+            {
+                segment++;
+            }
+            double[] from = points.get(segment);
+            double[] to = points.get(Math.min(segment + 1, points.size() - 1));
+            double segmentLength = Map.LINE_FUNCTIONS.GET_LENGTH(from, to);
+            double dirX = segmentLength > 0 ? (to[0] - from[0]) / segmentLength : 0;
+            double dirY = segmentLength > 0 ? (to[1] - from[1]) / segmentLength : 0;
+            double along = position - arc[segment];
+            int row = k * STRIDE;
+            trajectory.Samples[row] = from[0] + dirX * along;
+            trajectory.Samples[row + 1] = from[1] + dirY * along;
+            trajectory.Samples[row + 2] = dirX * smoothed[k];
+            trajectory.Samples[row + 3] = dirY * smoothed[k];
+            if (k > 0)
+            {
+                trajectory.Samples[row - STRIDE + 4] = (trajectory.Samples[row + 2] - trajectory.Samples[row - STRIDE + 2]) / period;
+                trajectory.Samples[row - STRIDE + 5] = (trajectory.Samples[row + 3] - trajectory.Samples[row - STRIDE + 3]) / period;
+            }
+        }
+        return trajectory;
+    }
+
+    // The speed limit at a distance along the path. The squares of the speeds are interpolated, since slowing down at
+    // a steady rate is a straight line in those, so a limit the backward pass can slow down for still can be between
+    // its steps
+    static double LimitAt(double[] limit, double step, double distance)
+    {
+        int k = Math.min(limit.length - 2, (int) (distance / step));
+        double t = distance / step - k;
+        return Math.sqrt(Math.max(0, limit[k] * limit[k] + (limit[k + 1] * limit[k + 1] - limit[k] * limit[k]) * t));
+    }
+
+    // Angle the path turns through at the middle point, 0 for straight on and pi for doubling back
+    static double TurnAngle(double[] previous, double[] point, double[] next)
+    {
+        return TurnAngle(point[0] - previous[0], point[1] - previous[1], next[0] - point[0], next[1] - point[1]);
+    }
+
+    // Angle between going in one direction and then the other
+    static double TurnAngle(double inX, double inY, double outX, double outY)
+    {
+        return Math.abs(Math.atan2(inX * outY - inY * outX, inX * outX + inY * outY));
+    }
+
+    // Drop waypoints the robot can skip, jumping straight to the furthest later waypoint as long as the shortcut stays
+    // at least as clear of the shapes as the stretch of path it replaces, up to the buffer
+    public static List<double[]> Shortcut(Map map, List<double[]> path, double buffer)
+    {
+        if (path.size() < 3)
+        {
+            return new ArrayList<>(path);
+        }
+        Clearance clearance = new Clearance(map, buffer);
+        double[] segmentClearance = new double[path.size() - 1];
+        for (int i = 0; i < path.size() - 1; i++)
+        {
+            segmentClearance[i] = clearance.Of(path.get(i), path.get(i + 1));
+        }
+
+        List<double[]> shortcut = new ArrayList<>();
+        shortcut.add(path.get(0));
+        int from = 0;
+        while (from < path.size() - 1)
+        {
+            int to = from + 1;
+            double needed = segmentClearance[from];
+            for (int j = from + 2; j < path.size(); j++)
+            {
+                needed = Math.min(needed, segmentClearance[j - 1]);
+                if (clearance.Of(path.get(from), path.get(j)) >= needed - VisibilityGraph.CLEARANCE)
+                {
+                    to = j;
+                }
+            }
+            shortcut.add(path.get(to));
+            from = to;
+        }
+        return shortcut;
+    }
+
+    // How far segments stay from the shapes that can't be driven over, capped at the buffer
+    static class Clearance
+    {
+        double Buffer;
+        List<Map.MapObject> Obstacles = new ArrayList<>();
+        SpatialIndex Index;
+
+        Clearance(Map map, double buffer)
+        {
+            Buffer = buffer;
+            for (Map.MapObject object : map.MapObjects)
+            {
+                AddObstacle(object);
+            }
+            Index = new SpatialIndex(Obstacles);
+        }
+
+        void AddObstacle(Map.MapObject object)
+        {
+            if (object instanceof Map.HybridObject)
+            {
+                for (Map.MapObject compObject : ((Map.HybridObject) object).CompObjects)
+                {
+                    AddObstacle(compObject);
+                }
+            }else if (!object.IsDrivable)
+            {
+                Obstacles.add(object);
+            }
+        }
+
+        // Distance from the segment to the closest shape, or the buffer if none are closer
+        double Of(double[] start, double[] end)
+        {
+            double[] closest = new double[] {Buffer};
+            Index.FindOnSegment(start[0], start[1], end[0], end[1], Math.max(Buffer, 0), i -> {
+                closest[0] = Math.min(closest[0], Distance(Obstacles.get(i), start, end));
+                return false;
+            });
+            return closest[0];
+        }
+
+        // Distance from the segment to the shape, 0 if it crosses it
+        double Distance(Map.MapObject obstacle, double[] start, double[] end)
+        {
+            if (obstacle instanceof Map.Circle)
+            {
+                Map.Circle circle = (Map.Circle) obstacle;
+                return Math.max(0, PointToSegment(circle.XPos, circle.YPos, start, end) - circle.Radius);
+            }else if (obstacle instanceof Map.Rect)
+            {
+                double[] box = obstacle.GetBounds(0);
+                if (SpatialIndex.SegmentTouchesBox(start[0], start[1], end[0] - start[0], end[1] - start[1], box[0], box[1], box[2], box[3]))
+                {
+                    return 0;
+                }
+                // Otherwise the closest pair is an end of the segment and the box, or a corner of the box and the segment
+                double distance = Math.min(PointToBox(start, box), PointToBox(end, box));
+                distance = Math.min(distance, PointToSegment(box[0], box[1], start, end));
+                distance = Math.min(distance, PointToSegment(box[0], box[3], start, end));
+                distance = Math.min(distance, PointToSegment(box[2], box[1], start, end));
+                distance = Math.min(distance, PointToSegment(box[2], box[3], start, end));
+                return distance;
+            }else if (obstacle instanceof Map.Polygon)
+            {
+                Map.Polygon polygon = (Map.Polygon) obstacle;
+                if (polygon.Clip(start[0], start[1], end[0] - start[0], end[1] - start[1], 0, new double[] {0, 1}))
+                {
+                    return 0;
+                }
+                // Otherwise the closest pair is an end of the segment and a side, or a corner and the segment
+                double distance = Double.POSITIVE_INFINITY;
+                List<double[]> vertices = polygon.GetVertices();
+                for (int i = 0; i < vertices.size(); i++)
+                {
+                    double[] vertex = vertices.get(i);
+                    double[] next = vertices.get((i + 1) % vertices.size());
+                    distance = Math.min(distance, PointToSegment(vertex[0], vertex[1], start, end));
+                    distance = Math.min(distance, PointToSegment(start[0], start[1], vertex, next));
+                    distance = Math.min(distance, PointToSegment(end[0], end[1], vertex, next));
+                }
+                return distance;
+            }
+            // Any other shape only reports crossing points, so it is either touched by the buffer or not
+            return obstacle.checkIntersect(start, end, Buffer).size() > 0 ? 0 : Buffer;
+        }
+
+        static double PointToSegment(double x, double y, double[] start, double[] end)
+        {
+            double dx = end[0] - start[0];
+            double dy = end[1] - start[1];
+            double lengthSquared = dx * dx + dy * dy;
+            double t = lengthSquared == 0 ? 0 : Math.max(0, Math.min(1, ((x - start[0]) * dx + (y - start[1]) * dy) / lengthSquared));
+            return Map.LINE_FUNCTIONS.GET_LENGTH(x, y, start[0] + dx * t, start[1] + dy * t);
+        }
+
+        static double PointToBox(double[] point, double[] box)
+        {
+            double offX = Math.max(box[0] - point[0], Math.max(0, point[0] - box[2]));
+            double offY = Math.max(box[1] - point[1], Math.max(0, point[1] - box[3]));
+            return Math.sqrt(offX * offX + offY * offY);
+        }
+    }
+}
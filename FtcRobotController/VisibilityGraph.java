@@ -0,0 +1,413 @@
+import java.util.*;
+
+// Shortest paths around the map's shapes using a visibility graph searched with A*
+// The graph over the static shapes is built once, queries only connect their start and end points to it
+public class VisibilityGraph
+{
+
+    // Points on each circle, the more points the closer paths hug the circle
+    public static final int CIRCLE_SAMPLES = 12;
+    // How far graph points sit outside the buffered shapes so edges along a shape don't count as crossing it
+    static final double CLEARANCE = 1e-6;
+
+    // The map the graph was built from and the buffer it was built for
+    public Map FieldMap;
+    public double Buffer;
+    // The map version the graph was built at
+    public int Version;
+
+    // The shapes that block driving, with hybrid objects split into their parts
+    List<Map.MapObject> Obstacles = new ArrayList<>();
+    SpatialIndex Index;
+
+    // Graph points, with the points either side of them around their shape packed as {prevX, prevY, nextX, nextY}
+    double[] NodeX;
+    double[] NodeY;
+    double[] NodeNeighbours;
+    int NodeCount = 0;
+
+    // Edges of node n are EdgeTarget[EdgeStart[n]] up to EdgeTarget[EdgeStart[n+1]]
+    int[] EdgeStart;
+    int[] EdgeTarget;
+    double[] EdgeLength;
+
+    // Search scratch space, reused between queries
+    double[] Cost;
+    int[] Parent;
+    int[] Visited;
+    int[] Closed;
+    int SearchStamp = 0;
+    int[] Heap;
+    double[] HeapKey;
+    int HeapSize;
+
+    // Build the graph over every shape in the map that can't be driven over
+    public VisibilityGraph(Map map, double buffer)
+    {
+        FieldMap = map;
+        Buffer = buffer;
+        Version = map.Version;
+        for (Map.MapObject object : map.MapObjects)
+        {
+            AddObstacle(object);
+        }
+        Index = new SpatialIndex(Obstacles);
+
+        // Collect the corners of the buffered rects and polygons and points around the buffered circles, in order around each shape
+        List<double[]> candidates = new ArrayList<>();
+        List<Integer> ringSizes = new ArrayList<>();
+        for (Map.MapObject obstacle : Obstacles)
+        {
+            if (obstacle instanceof Map.Rect)
+            {
+                Map.Rect rect = (Map.Rect) obstacle;
+                double offset = buffer + CLEARANCE;
+                List<double[]> vertices = rect.GetVertices();
+                // GetVertices goes top right, top left, bottom right, bottom left so swap the last two to go around
+                for (int i : new int[] {0, 1, 3, 2})
+                {
+                    double[] vertex = vertices.get(i);
+                    double xSign = vertex[0] > rect.XPos ? 1 : -1;
+                    double ySign = vertex[1] > rect.YPos ? 1 : -1;
+                    candidates.add(new double[] {vertex[0] + xSign * offset, vertex[1] + ySign * offset});
+                }
+                ringSizes.add(4);
+            }else if (obstacle instanceof Map.Circle)
+            {
+                // Points on a polygon that wraps around the buffered circle, so its sides never cut into it
+                Map.Circle circle = (Map.Circle) obstacle;
+                double radius = (circle.Radius + buffer) / Math.cos(Math.PI / CIRCLE_SAMPLES) + CLEARANCE;
+                for (int i = 0; i < CIRCLE_SAMPLES; i++)
+                {
+                    double angle = 2 * Math.PI * i / CIRCLE_SAMPLES;
+                    candidates.add(new double[] {circle.XPos + radius * Math.cos(angle), circle.YPos + radius * Math.sin(angle)});
+                }
+                ringSizes.add(CIRCLE_SAMPLES);
+            }else if (obstacle instanceof Map.Polygon)
+            {
+                // The corners of the polygon with its sides pushed out, already going around
+                Map.Polygon polygon = (Map.Polygon) obstacle;
+                for (int i = 0; i < polygon.VertexX.length; i++)
+                {
+                    candidates.add(polygon.GetOffsetVertex(i, buffer + CLEARANCE));
+                }
+                ringSizes.add(polygon.VertexX.length);
+            }
+        }
+
+        // Keep only the points the robot can actually stand on, remembering their neighbours around the shape
+        NodeX = new double[candidates.size()];
+        NodeY = new double[candidates.size()];
+        NodeNeighbours = new double[candidates.size() * 4];
+        int ringStart = 0;
+        for (int ringSize : ringSizes)
+        {
+            for (int i = 0; i < ringSize; i++)
+            {
+                double[] candidate = candidates.get(ringStart + i);
+                if (IsFree(candidate))
+                {
+                    double[] previous = candidates.get(ringStart + (i + ringSize - 1) % ringSize);
+                    double[] next = candidates.get(ringStart + (i + 1) % ringSize);
+                    NodeX[NodeCount] = candidate[0];
+                    NodeY[NodeCount] = candidate[1];
+                    NodeNeighbours[NodeCount * 4] = previous[0];
+                    NodeNeighbours[NodeCount * 4 + 1] = previous[1];
+                    NodeNeighbours[NodeCount * 4 + 2] = next[0];
+                    NodeNeighbours[NodeCount * 4 + 3] = next[1];
+                    NodeCount++;
+                }
+            }
+            ringStart += ringSize;
+        }
+
+        // Connect every pair of points that can see one another, a shortest path only ever bends around a shape
+        // so lines that would cut into the shape at either end are left out
+        int[] degree = new int[NodeCount];
+        List<int[]> pairs = new ArrayList<>();
+        for (int i = 0; i < NodeCount; i++)
+        {
+            for (int j = i + 1; j < NodeCount; j++)
+            {
+                if (IsTangent(i, NodeX[j], NodeY[j]) && IsTangent(j, NodeX[i], NodeY[i]) && IsVisible(NodeX[i], NodeY[i], NodeX[j], NodeY[j]))
+                {
+                    pairs.add(new int[] {i, j});
+                    degree[i]++;
+                    degree[j]++;
+                }
+            }
+        }
+        EdgeStart = new int[NodeCount + 1];
+        for (int i = 0; i < NodeCount; i++)
+        {
+            EdgeStart[i + 1] = EdgeStart[i] + degree[i];
+        }
+        EdgeTarget = new int[EdgeStart[NodeCount]];
+        EdgeLength = new double[EdgeStart[NodeCount]];
+        int[] fill = Arrays.copyOf(EdgeStart, NodeCount);
+        for (int[] pair : pairs)
+        {
+            double length = Math.hypot(NodeX[pair[1]] - NodeX[pair[0]], NodeY[pair[1]] - NodeY[pair[0]]);
+            EdgeTarget[fill[pair[0]]] = pair[1];
+            EdgeLength[fill[pair[0]]++] = length;
+            EdgeTarget[fill[pair[1]]] = pair[0];
+            EdgeLength[fill[pair[1]]++] = length;
+        }
+
+        // Two extra slots for the start and end of each query
+        Cost = new double[NodeCount + 2];
+        Parent = new int[NodeCount + 2];
+        Visited = new int[NodeCount + 2];
+        Closed = new int[NodeCount + 2];
+        Heap = new int[NodeCount + 2];
+        HeapKey = new double[NodeCount + 2];
+    }
+
+    // Add an object to the obstacles, splitting hybrid objects into their parts
+    void AddObstacle(Map.MapObject object)
+    {
+        if (object.IsDrivable)
+        {
+            return;
+        }
+        if (object instanceof Map.HybridObject)
+        {
+            for (Map.MapObject compObject : ((Map.HybridObject) object).CompObjects)
+            {
+                AddObstacle(compObject);
+            }
+        }else
+        {
+            Obstacles.add(object);
+        }
+    }
+
+    // Whether a line from the node to the point only grazes the node's shape, with both neighbours on one side of it
+    boolean IsTangent(int node, double x, double y)
+    {
+        double dx = x - NodeX[node];
+        double dy = y - NodeY[node];
+        double previousSide = dx * (NodeNeighbours[node * 4 + 1] - NodeY[node]) - dy * (NodeNeighbours[node * 4] - NodeX[node]);
+        double nextSide = dx * (NodeNeighbours[node * 4 + 3] - NodeY[node]) - dy * (NodeNeighbours[node * 4 + 2] - NodeX[node]);
+        return previousSide * nextSide >= 0;
+    }
+
+    // Whether the point is on the field and outside every buffered shape
+    public boolean IsFree(double[] point)
+    {
+        if (Math.abs(point[0]) > FieldMap.Breadth / 2 || Math.abs(point[1]) > FieldMap.Length / 2)
+        {
+            return false;
+        }
+        for (int i : Index.QueryBox(point[0], point[1], point[0], point[1], Buffer))
+        {
+            if (Blocks(Obstacles.get(i), point[0], point[1], 0, 0, Buffer))
+            {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // Whether the straight line between the points stays clear of every buffered shape
+    public boolean IsVisible(final double x0, final double y0, double x1, double y1)
+    {
+        final double dx = x1 - x0;
+        final double dy = y1 - y0;
+        return Index.FindOnSegment(x0, y0, x1, y1, Buffer, i -> Blocks(Obstacles.get(i), x0, y0, dx, dy, Buffer)) < 0;
+    }
+
+    // Whether the segment from (x0, y0) along (dx, dy) passes through the inside of the buffered shape
+    static boolean Blocks(Map.MapObject obstacle, double x0, double y0, double dx, double dy, double buffer)
+    {
+        if (obstacle instanceof Map.Circle)
+        {
+            // Distance from the centre to the closest point on the segment
+            Map.Circle circle = (Map.Circle) obstacle;
+            double lengthSquared = dx * dx + dy * dy;
+            double t = lengthSquared == 0 ? 0 : ((circle.XPos - x0) * dx + (circle.YPos - y0) * dy) / lengthSquared;
+            t = Math.max(0, Math.min(1, t));
+            double offX = x0 + dx * t - circle.XPos;
+            double offY = y0 + dy * t - circle.YPos;
+            double bufferRad = circle.Radius + buffer;
+            return offX * offX + offY * offY < bufferRad * bufferRad;
+        }else if (obstacle instanceof Map.Rect)
+        {
+            // Clip the segment against the open buffered box
+            Map.Rect rect = (Map.Rect) obstacle;
+            double halfX = rect.Breadth / 2 + buffer;
+            double halfY = rect.Length / 2 + buffer;
+            double[] range = new double[] {0, 1};
+            return ClipOpen(x0 - rect.XPos, dx, halfX, range) && ClipOpen(y0 - rect.YPos, dy, halfY, range) && range[0] < range[1];
+        }else if (obstacle instanceof Map.Polygon)
+        {
+            return ((Map.Polygon) obstacle).Clip(x0, y0, dx, dy, buffer, new double[] {0, 1});
+        }
+        // Any other shape only reports crossing points, so check those
+        return obstacle.checkIntersect(new double[] {x0, y0}, new double[] {x0 + dx, y0 + dy}, buffer).size() > 0;
+    }
+
+    // Narrow the segment range to where it lies strictly between -half and half on one axis
+    static boolean ClipOpen(double start, double delta, double half, double[] range)
+    {
+        if (delta == 0)
+        {
+            return start > -half && start < half;
+        }
+        double tA = (-half - start) / delta;
+        double tB = (half - start) / delta;
+        range[0] = Math.max(range[0], Math.min(tA, tB));
+        range[1] = Math.min(range[1], Math.max(tA, tB));
+        return range[0] < range[1];
+    }
+
+    // Shortest path from start to end through the graph, or an empty list if there is none
+    public List<double[]> FindPath(double[] startPoint, double[] endPoint)
+    {
+        if (!IsFree(startPoint) || !IsFree(endPoint))
+        {
+            return new ArrayList<>();
+        }
+        List<double[]> path = new ArrayList<>();
+        path.add(startPoint);
+        if (IsVisible(startPoint[0], startPoint[1], endPoint[0], endPoint[1]))
+        {
+            path.add(endPoint);
+            return path;
+        }
+
+        int startNode = NodeCount;
+        int endNode = NodeCount + 1;
+
+        // A* with the straight line distance to the end as the estimate
+        NewSearch();
+        Open(startNode, 0, -1, LINE_LENGTH(startPoint[0], startPoint[1], endPoint[0], endPoint[1]));
+        while (HeapSize > 0)
+        {
+            int node = PopHeap();
+            if (Closed[node] == SearchStamp)
+            {
+                continue;
+            }
+            Closed[node] = SearchStamp;
+            if (node == endNode)
+            {
+                break;
+            }
+            double nodeX = node == startNode ? startPoint[0] : NodeX[node];
+            double nodeY = node == startNode ? startPoint[1] : NodeY[node];
+            if (node == startNode)
+            {
+                // The start's edges are worked out on the spot since it isn't part of the graph
+                for (int i = 0; i < NodeCount; i++)
+                {
+                    if (IsTangent(i, nodeX, nodeY) && IsVisible(nodeX, nodeY, NodeX[i], NodeY[i]))
+                    {
+                        double cost = LINE_LENGTH(nodeX, nodeY, NodeX[i], NodeY[i]);
+                        Open(i, cost, node, cost + LINE_LENGTH(NodeX[i], NodeY[i], endPoint[0], endPoint[1]));
+                    }
+                }
+                continue;
+            }
+            for (int k = EdgeStart[node]; k < EdgeStart[node + 1]; k++)
+            {
+                int next = EdgeTarget[k];
+                double cost = Cost[node] + EdgeLength[k];
+                Open(next, cost, node, cost + LINE_LENGTH(NodeX[next], NodeY[next], endPoint[0], endPoint[1]));
+            }
+            // Only check whether the end is in sight for the points the search actually reaches
+            if (IsTangent(node, endPoint[0], endPoint[1]) && IsVisible(nodeX, nodeY, endPoint[0], endPoint[1]))
+            {
+                double cost = Cost[node] + LINE_LENGTH(nodeX, nodeY, endPoint[0], endPoint[1]);
+                Open(endNode, cost, node, cost);
+            }
+        }
+        if (Visited[endNode] != SearchStamp)
+        {
+            return new ArrayList<>();
+        }
+
+        // Walk back from the end to build the path
+        List<double[]> reversed = new ArrayList<>();
+        reversed.add(endPoint);
+        for (int node = Parent[endNode]; node != startNode; node = Parent[node])
+        {
+            reversed.add(new double[] {NodeX[node], NodeY[node]});
+        }
+        for (int i = reversed.size() - 1; i >= 0; i--)
+        {
+            path.add(reversed.get(i));
+        }
+        return path;
+    }
+
+    static double LINE_LENGTH(double x0, double y0, double x1, double y1)
+    {
+        return Math.sqrt((x1 - x0) * (x1 - x0) + (y1 - y0) * (y1 - y0));
+    }
+
+    void NewSearch()
+    {
+        SearchStamp++;
+        HeapSize = 0;
+    }
+
+    // Give a node a cheaper cost and queue it, nodes already reached more cheaply are left alone
+    void Open(int node, double cost, int parent, double estimate)
+    {
+        if (Closed[node] == SearchStamp || (Visited[node] == SearchStamp && Cost[node] <= cost))
+        {
+            return;
+        }
+        Visited[node] = SearchStamp;
+        Cost[node] = cost;
+        Parent[node] = parent;
+        PushHeap(node, estimate);
+    }
+
+    // Binary heap of nodes keyed on their estimate, stale entries are skipped when popped
+    void PushHeap(int node, double key)
+    {
+        if (HeapSize == Heap.length)
+        {
+            Heap = Arrays.copyOf(Heap, Heap.length * 2);
+            HeapKey = Arrays.copyOf(HeapKey, HeapKey.length * 2);
+        }
+        int i = HeapSize++;
+        while (i > 0 && HeapKey[(i - 1) / 2] > key)
+        {
+            Heap[i] = Heap[(i - 1) / 2];
+            HeapKey[i] = HeapKey[(i - 1) / 2];
+            i = (i - 1) / 2;
+        }
+        Heap[i] = node;
+        HeapKey[i] = key;
+    }
+
+    int PopHeap()
+    {
+        int top = Heap[0];
+        HeapSize--;
+        int node = Heap[HeapSize];
+        double key = HeapKey[HeapSize];
+        int i = 0;
+        while (2 * i + 1 < HeapSize)
+        {
+            int child = 2 * i + 1;
+            if (child + 1 < HeapSize && HeapKey[child + 1] < HeapKey[child])
+            {
+                child++;
+            }
+            if (HeapKey[child] >= key)
+            {
+                break;
+            }
+            Heap[i] = Heap[child];
+            HeapKey[i] = HeapKey[child];
+            i = child;
+        }
+        Heap[i] = node;
+        HeapKey[i] = key;
+        return top;
+    }
+}
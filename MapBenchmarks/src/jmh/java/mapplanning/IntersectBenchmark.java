@@ -0,0 +1,130 @@
+package mapplanning;
+
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+// Throughput of checking one segment against one shape, for each kind of shape, and against every shape on a field
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Thread)
+public class IntersectBenchmark
+{
+
+    // Number of random segments cycled through, enough that branch prediction can't learn them
+    static final int SEGMENT_COUNT = 1024;
+
+    Map FieldMap;
+    Map.Circle Circle;
+    Map.Rect Rect;
+    Map.HybridObject Hybrid;
+
+    // Segments packed as {startX, startY, endX, endY} each, spread across a 24 inch square around the shapes
+    double[] Segments = new double[SEGMENT_COUNT * 4];
+    int Next = 0;
+    PathBuffer Out = new PathBuffer();
+
+    // A field of circles and rects, with segments spread right across it
+    static final int FIELD_OBSTACLES = 500;
+    Map Field;
+    double[] FieldSegments = new double[SEGMENT_COUNT * 4];
+    ShapeArrays.Hits Hits = new ShapeArrays.Hits();
+
+    @Setup(Level.Trial)
+    public void Setup()
+    {
+        FieldMap = new Map(48, 48);
+        Circle = FieldMap.new Circle(0, 0, 5, false, "Circle");
+        Rect = FieldMap.new Rect(0, 0, 8, 6, false, "Rect");
+        List<Map.MapObject> compObjects = new ArrayList<>();
+        compObjects.add(FieldMap.new Circle(-3, 0, 4, false, "Left"));
+        compObjects.add(FieldMap.new Rect(3, 0, 6, 8, false, "Right"));
+        Hybrid = FieldMap.new HybridObject(compObjects);
+
+        Random random = new Random(42);
+        for (int i = 0; i < Segments.length; i++)
+        {
+            Segments[i] = (random.nextDouble() - 0.5) * 24;
+        }
+
+        Field = MapBenchmark.RandomField(42, FIELD_OBSTACLES, 400);
+        for (int i = 0; i < FieldSegments.length; i++)
+        {
+            FieldSegments[i] = (random.nextDouble() - 0.5) * Field.Breadth;
+        }
+    }
+
+    // Move on to the next segment, returning where its coordinates start
+    int NextSegment()
+    {
+        Next = (Next + 1) & (SEGMENT_COUNT - 1);
+        Out.Clear();
+        return Next * 4;
+    }
+
+    @Benchmark
+    public int CircleCheckIntersect()
+    {
+        int i = NextSegment();
+        return Circle.checkIntersect(Segments[i], Segments[i + 1], Segments[i + 2], Segments[i + 3], 0.5, Out);
+    }
+
+    @Benchmark
+    public int RectCheckIntersect()
+    {
+        int i = NextSegment();
+        return Rect.checkIntersect(Segments[i], Segments[i + 1], Segments[i + 2], Segments[i + 3], 0.5, Out);
+    }
+
+    @Benchmark
+    public int HybridCheckIntersect()
+    {
+        int i = NextSegment();
+        return Hybrid.checkIntersect(Segments[i], Segments[i + 1], Segments[i + 2], Segments[i + 3], 0.5, Out);
+    }
+
+    // The list versions, these make garbage on every call so the allocation rate shows what the packed ones save
+    @Benchmark
+    public void CircleCheckIntersectList(Blackhole blackhole)
+    {
+        int i = NextSegment();
+        blackhole.consume(Circle.checkIntersect(new double[] {Segments[i], Segments[i + 1]}, new double[] {Segments[i + 2], Segments[i + 3]}, 0.5));
+    }
+
+    @Benchmark
+    public void RectCheckIntersectList(Blackhole blackhole)
+    {
+        int i = NextSegment();
+        blackhole.consume(Rect.checkIntersect(new double[] {Segments[i], Segments[i + 1]}, new double[] {Segments[i + 2], Segments[i + 3]}, 0.5));
+    }
+
+    @Benchmark
+    public void HybridCheckIntersectList(Blackhole blackhole)
+    {
+        int i = NextSegment();
+        blackhole.consume(Hybrid.checkIntersect(new double[] {Segments[i], Segments[i + 1]}, new double[] {Segments[i + 2], Segments[i + 3]}, 0.5));
+    }
+
+    // One segment against every shape on the field, one shape at a time
+    @Benchmark
+    public int FieldCheckIntersect()
+    {
+        int i = NextSegment();
+        int found = 0;
+        for (Map.MapObject object : Field.MapObjects)
+        {
+            found += object.checkIntersect(FieldSegments[i], FieldSegments[i + 1], FieldSegments[i + 2], FieldSegments[i + 3], 0.5, Out);
+        }
+        return found;
+    }
+
+    // The same against the packed arrays of the field's shapes
+    @Benchmark
+    public int FieldCrossedShapes()
+    {
+        int i = NextSegment();
+        Hits.Clear();
+        return Field.CrossedShapes(FieldSegments[i], FieldSegments[i + 1], FieldSegments[i + 2], FieldSegments[i + 3], 0.5, Hits);
+    }
+}
@@ -0,0 +1,171 @@
+package mapplanning;
+
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+// Throughput of the planning steps on seeded random fields, scaled by obstacle count and by clutter
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@State(Scope.Thread)
+public class PlanningBenchmark
+{
+
+    @Param({"10", "100", "1000"})
+    public int ObstacleCount;
+
+    // Field area given to each obstacle in square inches, the smaller it is the more cluttered the field
+    @Param({"100", "400", "1600"})
+    public double AreaPerObstacle;
+
+    static final double BUFFER = 0.5;
+    static final int LEG_COUNT = 16;
+    static final Footprint FOOTPRINT = new Footprint(18, 18, 0.5);
+    // Long and narrow so turning to fit matters, and small enough to get around the cluttered fields
+    static final Footprint TURNING_FOOTPRINT = new Footprint(3, 5, 0.25);
+
+    Map FieldMap;
+    double[] StartPoint;
+    double[] EndPoint;
+    // Far enough in from the walls for the turning footprint to stand at
+    double[] TurningStart;
+    double[] TurningEnd;
+    // Legs across the field for the batch benchmarks
+    List<double[]> LegStarts = new ArrayList<>();
+    List<double[]> LegEnds = new ArrayList<>();
+    PathBuffer Path = new PathBuffer();
+    PlannerMetrics Metrics = new PlannerMetrics(1024);
+
+    @Setup(Level.Trial)
+    public void Setup()
+    {
+        FieldMap = MapBenchmark.RandomField(42, ObstacleCount, AreaPerObstacle);
+        FieldMap.Cache = null;
+        double half = FieldMap.Breadth / 2;
+        StartPoint = new double[] {-half + 1, 0.5};
+        EndPoint = new double[] {half - 1, -0.5};
+        TurningStart = new double[] {-half + 4, 0.5};
+        TurningEnd = new double[] {half - 4, -0.5};
+        Random random = new Random(42);
+        for (int i = 0; i < LEG_COUNT; i++)
+        {
+            LegStarts.add(new double[] {-half + 1, (random.nextDouble() - 0.5) * FieldMap.Length * 0.8});
+            LegEnds.add(new double[] {half - 1, (random.nextDouble() - 0.5) * FieldMap.Length * 0.8});
+        }
+        FieldMap.Roads = Roadmap.Build(FieldMap, BUFFER, Roadmap.DEFAULT_SAMPLES, Roadmap.DEFAULT_NEIGHBOURS, 42);
+    }
+
+    // Grouping from nothing, without the groups kept on the map
+    @Benchmark
+    public List<Map.MapObject> GroupShapes()
+    {
+        return new ShapeGroups(FieldMap, BUFFER).Update();
+    }
+
+    // Growing every shape by a rectangular robot from nothing, without the grown shapes kept on the map
+    @Benchmark
+    public Map GrowShapes()
+    {
+        return new ConfigSpace(FieldMap, FOOTPRINT).Update();
+    }
+
+    @Benchmark
+    public List<Map.MapObject> OrderShapes()
+    {
+        List<Map.MapObject> shapes = new ArrayList<>(FieldMap.MapObjects);
+        FieldMap.OrderShapes(shapes, StartPoint, EndPoint);
+        return shapes;
+    }
+
+    // ClearPath as it runs on the robot, with the groups kept between calls but no path cache
+    @Benchmark
+    public void ClearPath(Blackhole blackhole)
+    {
+        try
+        {
+            FieldMap.ClearPath(StartPoint[0], StartPoint[1], EndPoint[0], EndPoint[1], BUFFER, Path);
+            blackhole.consume(Path);
+        } catch (Error e)
+        {
+            // No valid path on this field, the work done finding that out still counts
+            blackhole.consume(e);
+        }
+    }
+
+    // ClearPath counting and tracing everything it does, to set against ClearPath without
+    @Benchmark
+    public void ClearPathTraced(Blackhole blackhole)
+    {
+        FieldMap.Metrics = Metrics;
+        try
+        {
+            ClearPath(blackhole);
+        } finally
+        {
+            FieldMap.Metrics = null;
+        }
+    }
+
+    // The legs of an autonomous routine planned one ClearPath call at a time
+    @Benchmark
+    public void ClearPathLegs(Blackhole blackhole)
+    {
+        for (int i = 0; i < LEG_COUNT; i++)
+        {
+            try
+            {
+                FieldMap.ClearPath(LegStarts.get(i)[0], LegStarts.get(i)[1], LegEnds.get(i)[0], LegEnds.get(i)[1], BUFFER, Path);
+                blackhole.consume(Path);
+            } catch (Error e)
+            {
+                blackhole.consume(e);
+            }
+        }
+    }
+
+    // The same legs planned as one batch
+    @Benchmark
+    public List<BatchPlanner.Leg> ClearPaths()
+    {
+        return FieldMap.ClearPaths(LegStarts, LegEnds, BUFFER);
+    }
+
+    // Any-angle search over the bitset grid, the grid is kept between calls so only the search is timed
+    @Benchmark
+    public List<double[]> AnyAnglePath()
+    {
+        return FieldMap.AnyAnglePath(StartPoint, EndPoint, BUFFER, 0.5);
+    }
+
+    // The first 2ms step of anytime planning from scratch, which should take the budget and no longer
+    @Benchmark
+    public AnytimePlanner.Result AnytimePathStep()
+    {
+        FieldMap.Anytime = null;
+        return FieldMap.AnytimePath(StartPoint, EndPoint, BUFFER, System.nanoTime() + 2000000);
+    }
+
+    // Search over cells and headings for the turning footprint, starting side on to the way across the field. Inch cells
+    // keep the states for the biggest field to a few million
+    @Benchmark
+    public List<double[]> HeadingPath()
+    {
+        return FieldMap.HeadingPath(TurningStart, Math.PI / 2, TurningEnd, TURNING_FOOTPRINT, BUFFER, 1);
+    }
+
+    // A query on a roadmap built ahead of time, as on the robot once it is loaded at init
+    @Benchmark
+    public List<double[]> RoadmapPath()
+    {
+        return FieldMap.RoadmapPath(StartPoint, EndPoint, BUFFER);
+    }
+
+    // ClearPath with the shapes grouped again every call
+    @Benchmark
+    public void ClearPathCold(Blackhole blackhole)
+    {
+        FieldMap.Groups.clear();
+        ClearPath(blackhole);
+    }
+}
@@ -0,0 +1,45 @@
+package mapplanning;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.*;
+import org.junit.jupiter.api.Test;
+
+public class OccupancyGridTest
+{
+
+    // A field with no shapes still has its distances worked out, so nothing is blocked
+    @Test
+    public void EmptyFieldIsFree()
+    {
+        Map map = new Map(20, 20);
+        OccupancyGrid grid = map.Rasterize(1, 1);
+        for (double x = -9.5; x < 10; x += 1)
+        {
+            for (double y = -9.5; y < 10; y += 1)
+            {
+                assertFalse(grid.IsBlocked(x, y, 0.5), "blocked at " + x + ", " + y);
+            }
+        }
+    }
+
+    // Straight across an empty field in one leg
+    @Test
+    public void PlansAcrossEmptyField()
+    {
+        Map map = new Map(20, 20);
+        List<double[]> path = map.AnyAnglePath(new double[] {-8, -8}, new double[] {8, 8}, 0.5, 1);
+        assertEquals(2, path.size());
+    }
+
+    // Once the last shape is removed the grid is free again
+    @Test
+    public void FreeAfterLastShapeRemoved()
+    {
+        Map map = new Map(20, 20);
+        map.CreateCircleObject(0, 0, 2, false, "Circle");
+        assertTrue(map.Rasterize(1, 1).IsBlocked(0, 0, 0.5));
+        map.RemoveObject(map.MapObjects.get(0));
+        assertFalse(map.Rasterize(1, 1).IsBlocked(0, 0, 0.5));
+    }
+}
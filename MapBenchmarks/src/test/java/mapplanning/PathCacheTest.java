@@ -0,0 +1,136 @@
+package mapplanning;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.*;
+import org.junit.jupiter.api.Test;
+
+public class PathCacheTest
+{
+
+    // The path for the leg with or without the cache, null if there is no way through
+    static List<double[]> Plan(Map map, double[] startPoint, double[] endPoint, double buffer, boolean cached)
+    {
+        PathCache cache = map.Cache;
+        if (!cached)
+        {
+            map.Cache = null;
+        }
+        try
+        {
+            return map.ClearPath(startPoint, endPoint, buffer);
+        } catch (Error e)
+        {
+            if (!"No valid path".equals(e.getMessage()))
+            {
+                throw e;
+            }
+            return null;
+        } finally
+        {
+            map.Cache = cache;
+        }
+    }
+
+    // After every random edit each leg from the cache is the same as planning it again
+    @Test
+    public void HitsMatchPlanningAfterEdits()
+    {
+        for (long seed = 0; seed < 8; seed++)
+        {
+            Random random = new Random(seed);
+            Map map = MapBenchmark.RandomField(seed, 40);
+            double half = map.Breadth / 2 * 0.9;
+            List<double[][]> legs = new ArrayList<>();
+            for (int i = 0; i < 12; i++)
+            {
+                legs.add(new double[][] {
+                        {(random.nextDouble() * 2 - 1) * half, (random.nextDouble() * 2 - 1) * half},
+                        {(random.nextDouble() * 2 - 1) * half, (random.nextDouble() * 2 - 1) * half}});
+            }
+            for (int step = 0; step < 30; step++)
+            {
+                for (double[][] leg : legs)
+                {
+                    for (double buffer : new double[] {0.5, 1.5})
+                    {
+                        List<double[]> cached = Plan(map, leg[0], leg[1], buffer, true);
+                        List<double[]> planned = Plan(map, leg[0], leg[1], buffer, false);
+                        String where = "seed " + seed + " step " + step;
+                        if (planned == null)
+                        {
+                            assertNull(cached, where);
+                            continue;
+                        }
+                        assertNotNull(cached, where);
+                        assertEquals(planned.size(), cached.size(), where);
+                        for (int i = 0; i < planned.size(); i++)
+                        {
+                            assertArrayEquals(planned.get(i), cached.get(i), where);
+                        }
+                    }
+                }
+                Edit(map, random);
+            }
+            assertTrue(map.Cache.Hits > 0 && map.Cache.Invalidations > 0);
+        }
+    }
+
+    // Add, remove or move a shape through the map, or add one straight to its list
+    static void Edit(Map map, Random random)
+    {
+        double half = map.Breadth / 2;
+        List<Map.MapObject> objects = map.MapObjects;
+        double x = (random.nextDouble() * 2 - 1) * half;
+        double y = (random.nextDouble() * 2 - 1) * half;
+        switch (objects.isEmpty() ? 0 : random.nextInt(5))
+        {
+            case 0:
+                map.CreateCircleObject(x, y, 1 + random.nextDouble() * 4, false, "Circle");
+                break;
+            case 1:
+                map.CreateRectObject(x, y, 1 + random.nextDouble() * 6, 1 + random.nextDouble() * 6, false, "Rect");
+                break;
+            case 2:
+                map.RemoveObject(objects.get(random.nextInt(objects.size())));
+                break;
+            case 3:
+                Map.MapObject object = objects.get(random.nextInt(objects.size()));
+                map.MoveObject(object, object.XPos + random.nextGaussian() * 5, object.YPos + random.nextGaussian() * 5);
+                break;
+            default:
+                objects.add(map.new Circle(x, y, 2, false, "Circle"));
+        }
+    }
+
+    // A leg asked for again with nothing changed comes from the cache
+    @Test
+    public void RepeatedLegIsAHit()
+    {
+        Map map = new Map(40, 40);
+        map.CreateCircleObject(0, 0, 5, false, "Circle");
+        List<double[]> first = map.ClearPath(new double[] {-15, 0}, new double[] {15, 0}, 1);
+        List<double[]> second = map.ClearPath(new double[] {-15, 0}, new double[] {15, 0}, 1);
+        assertEquals(1, map.Cache.Hits);
+        assertEquals(first.size(), second.size());
+    }
+
+    // Moving a shape far from the leg keeps it, moving one onto it throws it away
+    @Test
+    public void OnlyNearChangesInvalidate()
+    {
+        Map map = new Map(40, 40);
+        map.CreateCircleObject(0, 0, 5, false, "Circle");
+        map.CreateCircleObject(0, 15, 2, false, "Far");
+        double[] start = {-15, 0};
+        double[] end = {15, 0};
+        map.ClearPath(start, end, 1);
+        map.MoveObject(map.MapObjects.get(1), 2, 16);
+        map.ClearPath(start, end, 1);
+        assertEquals(1, map.Cache.Hits);
+        map.MoveObject(map.MapObjects.get(1), 8, 0);
+        map.ClearPath(start, end, 1);
+        assertEquals(1, map.Cache.Hits);
+        assertEquals(1, map.Cache.Invalidations);
+    }
+}
@@ -0,0 +1,40 @@
+package mapplanning;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import org.junit.jupiter.api.Test;
+
+public class ShapeGroupsTest
+{
+
+    static final double[] Start = {-15, 0};
+    static final double[] End = {15, 0};
+
+    // A shape put straight on the map's list is planned around the same as one made through the map
+    @Test
+    public void SeesShapeAddedToList()
+    {
+        Map map = new Map(40, 40);
+        map.CreateRectObject(10, 10, 2, 2, false, "Rect");
+        assertEquals(2, map.ClearPath(Start, End, 1).size());
+        map.MapObjects.add(map.new Circle(0, 0, 5, false, "Circle"));
+        Map fresh = new Map(40, 40);
+        fresh.CreateRectObject(10, 10, 2, 2, false, "Rect");
+        fresh.CreateCircleObject(0, 0, 5, false, "Circle");
+        assertEquals(fresh.ClearPath(Start, End, 1).size(), map.ClearPath(Start, End, 1).size());
+    }
+
+    // Taking a shape off the list or swapping it for another is seen too
+    @Test
+    public void SeesShapeRemovedOrReplaced()
+    {
+        Map map = new Map(40, 40);
+        map.CreateCircleObject(0, 0, 5, false, "Circle");
+        assertTrue(map.ClearPath(Start, End, 1).size() > 2);
+        map.MapObjects.remove(0);
+        assertEquals(2, map.ClearPath(Start, End, 1).size());
+        map.CreateRectObject(10, 10, 2, 2, false, "Rect");
+        map.MapObjects.set(0, map.new Circle(0, 0, 5, false, "Circle"));
+        assertTrue(map.ClearPath(Start, End, 1).size() > 2);
+    }
+}
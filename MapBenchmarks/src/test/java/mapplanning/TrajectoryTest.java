@@ -0,0 +1,101 @@
+package mapplanning;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.*;
+import org.junit.jupiter.api.Test;
+
+public class TrajectoryTest
+{
+
+    static final double MAX_VELOCITY = 40;
+    static final double MAX_ACCELERATION = 60;
+    static final double MAX_JERK = 300;
+    static final double PERIOD = 0.01;
+
+    // The largest change of the whole velocity between samples over the period, checking the table's acceleration
+    // columns hold the same change
+    static double LargestAcceleration(Trajectory trajectory)
+    {
+        double largest = 0;
+        for (int k = 0; k + 1 < trajectory.Count; k++)
+        {
+            double ax = (trajectory.VX(k + 1) - trajectory.VX(k)) / trajectory.Period;
+            double ay = (trajectory.VY(k + 1) - trajectory.VY(k)) / trajectory.Period;
+            assertEquals(ax, trajectory.AX(k), 1e-9);
+            assertEquals(ay, trajectory.AY(k), 1e-9);
+            largest = Math.max(largest, Math.hypot(ax, ay));
+        }
+        return largest;
+    }
+
+    static Trajectory Plan(double[]... points)
+    {
+        return Trajectory.Plan(Arrays.asList(points), MAX_VELOCITY, MAX_ACCELERATION, MAX_JERK, PERIOD);
+    }
+
+    // Turning a square corner changes direction and speed together within the limit
+    @Test
+    public void SquareCornerKeepsToAcceleration()
+    {
+        Trajectory trajectory = Plan(new double[] {0, 0}, new double[] {20, 0}, new double[] {20, 20});
+        assertTrue(LargestAcceleration(trajectory) <= MAX_ACCELERATION * (1 + 1e-9));
+    }
+
+    // Doubling back is the sharpest turn there is
+    @Test
+    public void ReversalKeepsToAcceleration()
+    {
+        Trajectory trajectory = Plan(new double[] {0, 0}, new double[] {20, 0}, new double[] {0, 0});
+        assertTrue(LargestAcceleration(trajectory) <= MAX_ACCELERATION * (1 + 1e-9));
+    }
+
+    // Random paths with corners close together, and periods from fast to slow control loops, stay inside every limit
+    // and end at rest on the last point
+    @Test
+    public void RandomPathsKeepToLimits()
+    {
+        Random random = new Random(7);
+        for (double period : new double[] {0.005, 0.02, 0.05})
+        {
+            for (int n = 0; n < 200; n++)
+            {
+                List<double[]> path = new ArrayList<>();
+                double size = random.nextBoolean() ? 1 : 100;
+                for (int i = 0; i < 2 + random.nextInt(6); i++)
+                {
+                    path.add(new double[] {random.nextDouble() * size, random.nextDouble() * size});
+                }
+                double maxVelocity = 1 + random.nextDouble() * 60;
+                double maxAcceleration = 5 + random.nextDouble() * 100;
+                Trajectory trajectory = Trajectory.Plan(path, maxVelocity, maxAcceleration, 50 + random.nextDouble() * 1000, period);
+                assertTrue(LargestAcceleration(trajectory) <= maxAcceleration * (1 + 1e-9), "path " + n + " period " + period);
+                for (int k = 0; k < trajectory.Count; k++)
+                {
+                    assertTrue(Math.hypot(trajectory.VX(k), trajectory.VY(k)) <= maxVelocity * (1 + 1e-9));
+                }
+                int last = trajectory.Count - 1;
+                assertEquals(path.get(path.size() - 1)[0], trajectory.X(last), 1e-9);
+                assertEquals(path.get(path.size() - 1)[1], trajectory.Y(last), 1e-9);
+                assertEquals(0, Math.hypot(trajectory.VX(last), trajectory.VY(last)), 1e-9);
+            }
+        }
+    }
+
+    // A path with no points can't be timed
+    @Test
+    public void EmptyPathIsRejected()
+    {
+        assertThrows(RuntimeException.class, () -> Trajectory.Plan(new ArrayList<>(), MAX_VELOCITY, MAX_ACCELERATION, MAX_JERK, PERIOD));
+    }
+
+    // A single point stays put
+    @Test
+    public void SinglePointStaysPut()
+    {
+        Trajectory trajectory = Plan(new double[] {3, 4});
+        assertEquals(1, trajectory.Count);
+        assertEquals(3, trajectory.X(0));
+        assertEquals(4, trajectory.Y(0));
+    }
+}